@@ -142,6 +142,8 @@ public class FunctionalGradientAscent {
    * @param <E>
    */
   private static class BoostingGradientMapper<M, E> extends Mapper<E, BoostingGradientEvaluation> {
+    private static final long serialVersionUID = 1L;
+
     private final M instantiatedModel;
     private final BoostingOracle<M, ? super E> oracle;
     private final LogFunction log;
@@ -178,6 +180,8 @@ public class FunctionalGradientAscent {
    * @param <E>
    */
   private static class BoostingGradientReducer<M, E> extends SimpleReducer<BoostingGradientEvaluation> {
+    private static final long serialVersionUID = 1L;
+
     private final BoostingOracle<M, ? super E> oracle;
     private final LogFunction log;
 
@@ -215,6 +215,8 @@ public class RegressionTreeBoostingFamily extends AbstractBoostingFactorFamily {
   }
 
   private static class RegressionTreeMapper extends Mapper<RegressionTreeData, TrainedRegressionTree> {    
+    private static final long serialVersionUID = 1L;
+
     private final RegressionTreeTrainer trainer;
 
     public RegressionTreeMapper(RegressionTreeTrainer trainer) {
@@ -111,6 +111,19 @@ public class RegressionTreeSufficientStatistics implements SufficientStatistics
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void incrementLazy(SufficientStatistics gradient, double multiplier,
+      SufficientStatistics lastDecay, SufficientStatistics lastCumulativeDecay,
+      SufficientStatistics averageSum, double decay, double cumulativeDecay) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void flushLazy(SufficientStatistics lastDecay, SufficientStatistics lastCumulativeDecay,
+      SufficientStatistics averageSum, double decay, double cumulativeDecay) {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public String getDescription() {
     StringBuilder sb = new StringBuilder();
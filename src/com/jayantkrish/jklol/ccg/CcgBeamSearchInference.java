@@ -19,6 +19,7 @@ import com.jayantkrish.jklol.training.LogFunction;
  * @author jayantk
  */
 public class CcgBeamSearchInference implements CcgInference {
+  private static final long serialVersionUID = 1L;
 
   // Optional constraint to use during inference. Null if
   // no constraints are imposed on the search.
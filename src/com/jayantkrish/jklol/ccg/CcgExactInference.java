@@ -12,6 +12,7 @@ import com.jayantkrish.jklol.ccg.supertag.SupertaggedSentence;
 import com.jayantkrish.jklol.training.LogFunction;
 
 public class CcgExactInference implements CcgInference {
+  private static final long serialVersionUID = 1L;
 
   // Optional constraint to use during inference. Null if
   // no constraints are imposed on the search.
@@ -11,7 +11,7 @@ import com.jayantkrish.jklol.ccg.chart.SyntacticChartCost;
 import com.jayantkrish.jklol.ccg.lambda.Expression;
 import com.jayantkrish.jklol.inference.MarginalCalculator.ZeroProbabilityError;
 import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
-import com.jayantkrish.jklol.training.GradientOracle;
+import com.jayantkrish.jklol.training.CostEstimatingOracle;
 import com.jayantkrish.jklol.training.LogFunction;
 
 /**
@@ -19,7 +19,8 @@ import com.jayantkrish.jklol.training.LogFunction;
  * 
  * @author jayant
  */
-public class CcgLoglikelihoodOracle implements GradientOracle<CcgParser, CcgExample> {
+public class CcgLoglikelihoodOracle implements CostEstimatingOracle<CcgParser, CcgExample> {
+  private static final long serialVersionUID = 1L;
 
   private final ParametricCcgParser family;
 
@@ -41,6 +42,12 @@ public class CcgLoglikelihoodOracle implements GradientOracle<CcgParser, CcgExam
     return family.getModelFromParameters(parameters);
   }
 
+  @Override
+  public double estimateCost(CcgExample example) {
+    // Chart parsing takes time cubic in the sentence length.
+    return Math.pow(example.getSentence().size(), 3);
+  }
+
   @Override
   public double accumulateGradient(SufficientStatistics gradient,
       SufficientStatistics currentParameters, CcgParser instantiatedParser,
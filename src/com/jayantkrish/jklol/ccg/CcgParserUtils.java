@@ -144,6 +144,7 @@ public class CcgParserUtils {
    * @param <T>
    */
   private static class FeatureCountReducer implements Reducer<CcgExample, SufficientStatistics> {
+    private static final long serialVersionUID = 1L;
 
     private final ParametricCcgParser ccgFamily;
     private final CcgParser parser;
@@ -5,10 +5,11 @@ import com.jayantkrish.jklol.ccg.chart.ChartCost;
 import com.jayantkrish.jklol.ccg.chart.SyntacticChartCost;
 import com.jayantkrish.jklol.inference.MarginalCalculator.ZeroProbabilityError;
 import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
-import com.jayantkrish.jklol.training.GradientOracle;
+import com.jayantkrish.jklol.training.CostEstimatingOracle;
 import com.jayantkrish.jklol.training.LogFunction;
 
-public class CcgPerceptronOracle implements GradientOracle<CcgParser, CcgExample> {
+public class CcgPerceptronOracle implements CostEstimatingOracle<CcgParser, CcgExample> {
+  private static final long serialVersionUID = 1L;
 
   private final ParametricCcgParser family;
   private final CcgInference inferenceAlgorithm;
@@ -33,6 +34,12 @@ public class CcgPerceptronOracle implements GradientOracle<CcgParser, CcgExample
     return family.getModelFromParameters(parameters);
   }
 
+  @Override
+  public double estimateCost(CcgExample example) {
+    // Chart parsing takes time cubic in the sentence length.
+    return Math.pow(example.getSentence().size(), 3);
+  }
+
   @Override
   public double accumulateGradient(SufficientStatistics gradient,
       SufficientStatistics currentParameters, CcgParser instantiatedParser,
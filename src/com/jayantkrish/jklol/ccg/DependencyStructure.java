@@ -1,5 +1,7 @@
 package com.jayantkrish.jklol.ccg;
 
+import java.io.Serializable;
+
 import com.google.common.base.Preconditions;
 
 /**
@@ -10,7 +12,9 @@ import com.google.common.base.Preconditions;
  * 
  * @author jayantk
  */
-public class DependencyStructure {
+public class DependencyStructure implements Serializable {
+  private static final long serialVersionUID = 1L;
+
   private final String head;
   private final int headWordIndex;
   private final HeadedSyntacticCategory headSyntax;
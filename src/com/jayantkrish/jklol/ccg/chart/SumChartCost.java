@@ -12,6 +12,7 @@ import com.jayantkrish.jklol.models.DiscreteVariable;
  * @author jayantk
  */
 public class SumChartCost implements ChartCost {
+  private static final long serialVersionUID = 1L;
   
   private final List<ChartCost> filters;
 
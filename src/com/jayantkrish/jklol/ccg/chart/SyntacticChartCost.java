@@ -20,6 +20,7 @@ import com.jayantkrish.jklol.models.DiscreteVariable;
  * @author jayantk
  */
 public class SyntacticChartCost implements ChartCost {
+  private static final long serialVersionUID = 1L;
 
   private final Map<Integer, SyntacticCategory> binaryRuleResult;
   private final Map<Integer, SyntacticCategory> leftUnaryRuleResult;
@@ -10,6 +10,7 @@ import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -35,6 +36,7 @@ import com.jayantkrish.jklol.ccg.supertag.SupertaggedSentence;
 import com.jayantkrish.jklol.ccg.supertag.Supertagger;
 import com.jayantkrish.jklol.cli.AbstractCli;
 import com.jayantkrish.jklol.data.DataFormat;
+import com.jayantkrish.jklol.data.ExampleCache;
 import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
 import com.jayantkrish.jklol.parallel.MapReduceConfiguration;
 import com.jayantkrish.jklol.parallel.MapReduceExecutor;
@@ -54,6 +56,7 @@ public class TrainCcg extends AbstractCli {
 
   private OptionSpec<String> trainingData;
   private OptionSpec<String> modelOutput;
+  private OptionSpec<String> exampleCache;
 
   private OptionSpec<String> syntaxMap;
   private OptionSpec<Integer> beamSize;
@@ -78,6 +81,8 @@ public class TrainCcg extends AbstractCli {
     // Required arguments.
     trainingData = parser.accepts("trainingData").withRequiredArg().ofType(String.class).required();
     modelOutput = parser.accepts("output").withRequiredArg().ofType(String.class).required();
+    exampleCache = parser.accepts("exampleCache", "Directory for caching parsed and supertagged training examples.")
+        .withRequiredArg().ofType(String.class);
 
     // Optional options
     syntaxMap = parser.accepts("syntaxMap").withRequiredArg().ofType(String.class);
@@ -96,18 +101,47 @@ public class TrainCcg extends AbstractCli {
 
   @Override
   public void run(OptionSet options) {
-    List<CcgExample> unfilteredTrainingExamples = readTrainingData(options.valueOf(trainingData),
-        options.has(ignoreSemantics), options.has(useCcgBankFormat), options.valueOf(syntaxMap));
+    final String trainingFile = options.valueOf(trainingData);
+    final boolean ignoreSemanticsValue = options.has(ignoreSemantics);
+    final boolean useCcgBankFormatValue = options.has(useCcgBankFormat);
+    final String syntaxMapFile = options.valueOf(syntaxMap);
+    final String supertaggerFile = options.valueOf(supertagger);
+    final Double multitagThresholdValue = options.valueOf(multitagThreshold);
+    Preconditions.checkState(supertaggerFile == null || multitagThresholdValue != null);
+
+    // Parsing and supertagging the training data can be expensive, so
+    // the result may be cached.
+    Supplier<List<CcgExample>> preprocessor = new Supplier<List<CcgExample>>() {
+      @Override
+      public List<CcgExample> get() {
+        List<CcgExample> examples = readTrainingData(trainingFile, ignoreSemanticsValue,
+            useCcgBankFormatValue, syntaxMapFile);
+        if (supertaggerFile != null) {
+          Supertagger supertaggerModel = IoUtils.readSerializedObject(supertaggerFile, Supertagger.class);
+          examples = supertagExamples(examples, supertaggerModel, multitagThresholdValue, true);
+        }
+        return examples;
+      }
+    };
+    List<CcgExample> unfilteredTrainingExamples = null;
+    if (options.has(exampleCache)) {
+      List<String> inputFiles = Lists.newArrayList(trainingFile);
+      if (syntaxMapFile != null) {
+        inputFiles.add(syntaxMapFile);
+      }
+      if (supertaggerFile != null) {
+        inputFiles.add(supertaggerFile);
+      }
+      unfilteredTrainingExamples = Lists.newArrayList(ExampleCache.<CcgExample>getOrCreate(
+          options.valueOf(exampleCache), inputFiles, preprocessor, ignoreSemanticsValue,
+          useCcgBankFormatValue, syntaxMapFile != null, supertaggerFile != null,
+          multitagThresholdValue));
+    } else {
+      unfilteredTrainingExamples = preprocessor.get();
+    }
     Set<String> posTags = CcgExample.getPosTagVocabulary(unfilteredTrainingExamples);
     System.out.println(posTags.size() + " POS tags");
 
-    if (options.has(supertagger)) {
-      Preconditions.checkState(options.has(multitagThreshold));
-      Supertagger supertaggerModel = IoUtils.readSerializedObject(options.valueOf(supertagger), Supertagger.class);
-      unfilteredTrainingExamples = supertagExamples(unfilteredTrainingExamples, supertaggerModel,
-          options.valueOf(multitagThreshold), true);
-    }
-
     Set<CcgRuleSchema> observedRules = null;
     if (options.has(onlyObservedBinaryRules)) {
       observedRules = Sets.newHashSet();
@@ -172,6 +206,29 @@ public class TrainCcg extends AbstractCli {
   public static List<CcgExample> readTrainingData(String filename,
       boolean ignoreSemantics, boolean useCcgBankFormat, String syntacticCategoryMapFilename) {
     // Read in all of the provided training examples.
+    return getExampleFormat(ignoreSemantics, useCcgBankFormat, syntacticCategoryMapFilename)
+        .parseFromFile(filename);
+  }
+
+  /**
+   * Same as {@link #readTrainingData}, except that the examples are
+   * read lazily from {@code filename} each time the returned iterable
+   * is iterated over, instead of being read into memory at once.
+   *
+   * @param filename
+   * @param ignoreSemantics
+   * @param useCcgBankFormat
+   * @param syntacticCategoryMapFilename
+   * @return
+   */
+  public static Iterable<CcgExample> streamTrainingData(String filename,
+      boolean ignoreSemantics, boolean useCcgBankFormat, String syntacticCategoryMapFilename) {
+    return getExampleFormat(ignoreSemantics, useCcgBankFormat, syntacticCategoryMapFilename)
+        .streamFromFile(filename);
+  }
+
+  private static CcgExampleFormat getExampleFormat(boolean ignoreSemantics,
+      boolean useCcgBankFormat, String syntacticCategoryMapFilename) {
     DataFormat<CcgSyntaxTree> syntaxTreeReader = null;
     if (useCcgBankFormat) {
       Map<SyntacticCategory, HeadedSyntacticCategory> syntacticCategoryMap;
@@ -186,8 +243,7 @@ public class TrainCcg extends AbstractCli {
     } else {
       syntaxTreeReader = new CcgSyntaxTreeFormat();
     }
-    CcgExampleFormat exampleReader = new CcgExampleFormat(syntaxTreeReader, ignoreSemantics);
-    return exampleReader.parseFromFile(filename);
+    return new CcgExampleFormat(syntaxTreeReader, ignoreSemantics);
   }
 
   private static List<CcgExample> supertagExamples(List<CcgExample> examples,
@@ -217,6 +273,8 @@ public class TrainCcg extends AbstractCli {
   }
 
   private static class SupertaggerMapper extends Mapper<CcgExample, CcgExample> {
+    private static final long serialVersionUID = 1L;
+
     private final Supertagger supertagger;
     private final double multitagThreshold;
     private final boolean includeGoldSupertags;
@@ -9,6 +9,7 @@ import com.jayantkrish.jklol.ccg.HeadedSyntacticCategory;
 import com.jayantkrish.jklol.sequence.ListMultitaggedSequence;
 
 public class ListSupertaggedSentence extends ListMultitaggedSequence<WordAndPos, HeadedSyntacticCategory> implements SupertaggedSentence {
+  private static final long serialVersionUID = 1L;
 
   public ListSupertaggedSentence(List<WordAndPos> items, List<List<HeadedSyntacticCategory>> labels,
       List<List<Double>> labelProbabilities) {
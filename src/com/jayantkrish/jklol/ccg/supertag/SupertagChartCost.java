@@ -16,6 +16,7 @@ import com.jayantkrish.jklol.models.DiscreteVariable;
  * @author jayantk
  */
 public class SupertagChartCost implements ChartCost {
+  private static final long serialVersionUID = 1L;
   
   private final List<List<HeadedSyntacticCategory>> supertags;
 
@@ -1,10 +1,11 @@
 package com.jayantkrish.jklol.ccg.supertag;
 
+import java.io.Serializable;
 import java.util.List;
 
 import com.jayantkrish.jklol.ccg.HeadedSyntacticCategory;
 
-public interface SupertaggedSentence {
+public interface SupertaggedSentence extends Serializable {
 
   /**
    * Returns a copy of {@code this} with the supertags and their probabilities
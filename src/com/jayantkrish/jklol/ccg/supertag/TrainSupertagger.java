@@ -12,6 +12,7 @@ import joptsimple.OptionSpec;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -21,6 +22,8 @@ import com.jayantkrish.jklol.ccg.HeadedSyntacticCategory;
 import com.jayantkrish.jklol.ccg.SyntacticCategory;
 import com.jayantkrish.jklol.ccg.cli.TrainCcg;
 import com.jayantkrish.jklol.cli.AbstractCli;
+import com.jayantkrish.jklol.data.ExampleCache;
+import com.jayantkrish.jklol.data.ExampleCache.CachedExamples;
 import com.jayantkrish.jklol.evaluation.Example;
 import com.jayantkrish.jklol.models.DiscreteVariable;
 import com.jayantkrish.jklol.models.TableFactor;
@@ -60,6 +63,7 @@ public class TrainSupertagger extends AbstractCli {
   private OptionSpec<String> trainingFilename;
   private OptionSpec<String> modelOutput;
   private OptionSpec<String> syntaxMap;
+  private OptionSpec<String> exampleCache;
 
   // Model construction options.
   private OptionSpec<Void> noTransitions;
@@ -86,6 +90,8 @@ public class TrainSupertagger extends AbstractCli {
         .ofType(String.class).required();
     modelOutput = parser.accepts("output").withRequiredArg().ofType(String.class).required();
     syntaxMap = parser.accepts("syntaxMap").withRequiredArg().ofType(String.class).required();
+    exampleCache = parser.accepts("exampleCache", "Directory for caching preprocessed training examples.")
+        .withRequiredArg().ofType(String.class);
     
     noTransitions = parser.accepts("noTransitions");
     locallyNormalized = parser.accepts("locallyNormalized");
@@ -106,57 +112,99 @@ public class TrainSupertagger extends AbstractCli {
 
   @Override
   public void run(OptionSet options) {
-    // Read in the training data as sentences, to use for
-    // feature generation.
-    System.out.println("Reading training data...");
-    List<CcgExample> ccgExamples = TrainCcg.readTrainingData(
-        options.valueOf(trainingFilename), true, true, options.valueOf(syntaxMap));
-    System.out.println("Reformatting training data...");
-    List<TaggedSequence<WordAndPos, HeadedSyntacticCategory>> trainingData =
-        reformatTrainingExamples(ccgExamples, true);
-    
-    Map<String, Tensor> wordEmbeddings = null;
-    if (options.has(wordEmbeddingFeatures)) {
-      wordEmbeddings = readWordVectors(options.valueOf(wordEmbeddingFeatures));
-    }
+    final String trainingFile = options.valueOf(trainingFilename);
+    final String syntaxMapFile = options.valueOf(syntaxMap);
+    final String embeddingFile = options.valueOf(wordEmbeddingFeatures);
+    final int wordCountThreshold = options.valueOf(commonWordCountThreshold);
+    final int labelCountThreshold = options.valueOf(labelRestrictionCountThreshold);
+    final int posContextCountThreshold = options.valueOf(posContextFeatureCountThreshold);
+    final int prefixSuffixCountThreshold = options.valueOf(prefixSuffixFeatureCountThreshold);
+    final boolean posWithEmbedding = options.has(usePosWithEmbedding);
+    final boolean useTransitions = !options.has(noTransitions);
+    final boolean perItem = options.has(locallyNormalized);
+
+    final WordAndPos startInput = perItem ? new WordAndPos("<START>", "<START>") : null;
+    final HeadedSyntacticCategory startLabel = perItem ?
+        HeadedSyntacticCategory.parseFrom("START{0}") : null;
+
+    // Read the training data, generate features and label restrictions,
+    // and reformat the training examples to be suitable for training a
+    // factor graph. If the examples are cached, all of these are read
+    // from the cache instead.
+    Supplier<CachedExamples<SupertaggerTrainingData, Example<DynamicAssignment, DynamicAssignment>>> preprocessor =
+        new Supplier<CachedExamples<SupertaggerTrainingData, Example<DynamicAssignment, DynamicAssignment>>>() {
+      @Override
+      public CachedExamples<SupertaggerTrainingData, Example<DynamicAssignment, DynamicAssignment>> get() {
+        // Read in the training data as sentences, to use for
+        // feature generation.
+        System.out.println("Reading training data...");
+        List<CcgExample> ccgExamples = TrainCcg.readTrainingData(trainingFile, true, true,
+            syntaxMapFile);
+        System.out.println("Reformatting training data...");
+        List<TaggedSequence<WordAndPos, HeadedSyntacticCategory>> trainingData =
+            reformatTrainingExamples(ccgExamples, true);
+
+        Map<String, Tensor> wordEmbeddings = null;
+        if (embeddingFile != null) {
+          wordEmbeddings = readWordVectors(embeddingFile);
+        }
 
-    System.out.println("Generating features...");
-    FeatureVectorGenerator<LocalContext<WordAndPos>> featureGen =
-        buildFeatureVectorGenerator(TaggerUtils.extractContextsFromData(trainingData), wordEmbeddings,
-            options.valueOf(commonWordCountThreshold), options.valueOf(posContextFeatureCountThreshold),
-                                    options.valueOf(prefixSuffixFeatureCountThreshold), options.has(usePosWithEmbedding));
-    System.out.println(featureGen.getNumberOfFeatures() + " features per CCG category.");
+        System.out.println("Generating features...");
+        FeatureVectorGenerator<LocalContext<WordAndPos>> featureGen =
+            buildFeatureVectorGenerator(TaggerUtils.extractContextsFromData(trainingData),
+                wordEmbeddings, wordCountThreshold, posContextCountThreshold,
+                prefixSuffixCountThreshold, posWithEmbedding);
+
+        System.out.println("Generating label restrictions...");
+        TableFactor labelRestrictions = getLabelRestrictions(trainingData, labelCountThreshold,
+            startInput, startLabel);
+
+        DiscreteVariable inputVariable = (DiscreteVariable) labelRestrictions.getVars().getVariable(0);
+        DiscreteVariable labelVariable = (DiscreteVariable) labelRestrictions.getVars().getVariable(1);
+        ParametricFactorGraph sequenceModelFamily = TaggerUtils.buildFeaturizedSequenceModel(
+            inputVariable, labelVariable, featureGen.getFeatureDictionary(),
+            labelRestrictions.getWeights(), !useTransitions, perItem);
+        WordAndPosToInput inputGen = new WordAndPosToInput(inputVariable);
+
+        System.out.println("Reformatting training data...");
+        List<Example<DynamicAssignment, DynamicAssignment>> examples = null;
+        if (perItem) {
+          examples = TaggerUtils.reformatTrainingDataPerItem(trainingData, featureGen, inputGen,
+              sequenceModelFamily.getVariables(), startInput, startLabel);
+        } else {
+          examples = TaggerUtils.reformatTrainingData(trainingData, featureGen, inputGen,
+              sequenceModelFamily.getVariables(), startInput, startLabel);
+        }
+        return new CachedExamples<SupertaggerTrainingData, Example<DynamicAssignment, DynamicAssignment>>(
+            new SupertaggerTrainingData(featureGen, labelRestrictions, sequenceModelFamily,
+                trainingData.size()), examples);
+      }
+    };
 
-    System.out.println("Generating label restrictions...");
-    WordAndPos startInput = null;
-    HeadedSyntacticCategory startLabel = null;
-    if (options.has(locallyNormalized)) {
-      startInput = new WordAndPos("<START>", "<START>");
-      startLabel = HeadedSyntacticCategory.parseFrom("START{0}");
-    }
-    TableFactor labelRestrictions = getLabelRestrictions(trainingData, options.valueOf(labelRestrictionCountThreshold),
-                                                         startInput, startLabel);
-    
-    DiscreteVariable inputVariable = (DiscreteVariable) labelRestrictions.getVars().getVariable(0);
-    DiscreteVariable labelVariable = (DiscreteVariable) labelRestrictions.getVars().getVariable(1);
-    ParametricFactorGraph sequenceModelFamily = TaggerUtils.buildFeaturizedSequenceModel(
-      inputVariable, labelVariable, featureGen.getFeatureDictionary(), labelRestrictions.getWeights(),
-      options.has(noTransitions), options.has(locallyNormalized));
-    GradientOptimizer trainer = createGradientOptimizer(trainingData.size());
-    Function<LocalContext<WordAndPos>, String> inputGen = new WordAndPosToInput(inputVariable);
-
-    // Reformat the training examples to be suitable for training
-    // a factor graph.
-    System.out.println("Reformatting training data...");
-
-    List<Example<DynamicAssignment, DynamicAssignment>> examples = null;
-    if (options.has(locallyNormalized)) {
-      examples = TaggerUtils.reformatTrainingDataPerItem(trainingData, featureGen, inputGen,
-          sequenceModelFamily.getVariables(), startInput, startLabel);
+    CachedExamples<SupertaggerTrainingData, Example<DynamicAssignment, DynamicAssignment>> preprocessed = null;
+    if (options.has(exampleCache)) {
+      List<String> inputFiles = Lists.newArrayList(trainingFile, syntaxMapFile);
+      if (embeddingFile != null) {
+        inputFiles.add(embeddingFile);
+      }
+      preprocessed = ExampleCache.getOrCreateWithMetadata(options.valueOf(exampleCache), inputFiles,
+          preprocessor, embeddingFile != null, wordCountThreshold, labelCountThreshold,
+          posContextCountThreshold, prefixSuffixCountThreshold, posWithEmbedding, useTransitions,
+          perItem);
     } else {
-      examples = TaggerUtils.reformatTrainingData(trainingData, featureGen, inputGen,
-          sequenceModelFamily.getVariables(), startInput, startLabel);
+      preprocessed = preprocessor.get();
     }
+    SupertaggerTrainingData data = preprocessed.getMetadata();
+    FeatureVectorGenerator<LocalContext<WordAndPos>> featureGen = data.getFeatureGenerator();
+    ParametricFactorGraph sequenceModelFamily = data.getModelFamily();
+    DiscreteVariable inputVariable = (DiscreteVariable) data.getLabelRestrictions().getVars()
+        .getVariable(0);
+    WordAndPosToInput inputGen = new WordAndPosToInput(inputVariable);
+    List<Example<DynamicAssignment, DynamicAssignment>> examples = Lists.newArrayList(
+        preprocessed.getExamples());
+    System.out.println(featureGen.getNumberOfFeatures() + " features per CCG category.");
+
+    GradientOptimizer trainer = createGradientOptimizer(data.getNumTrainingSequences());
     FactorGraphSequenceTagger<WordAndPos, HeadedSyntacticCategory> tagger = TaggerUtils.trainSequenceModel(
         sequenceModelFamily, examples, HeadedSyntacticCategory.class, featureGen, inputGen, startInput,
         startLabel, trainer, options.has(maxMargin));
@@ -356,6 +404,44 @@ public class TrainSupertagger extends AbstractCli {
     new TrainSupertagger().run(args);
   }
 
+  /**
+   * The feature generator, label restrictions and model built from the
+   * training data, which are cached along with the training examples.
+   */
+  private static class SupertaggerTrainingData implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final FeatureVectorGenerator<LocalContext<WordAndPos>> featureGen;
+    private final TableFactor labelRestrictions;
+    private final ParametricFactorGraph modelFamily;
+    private final int numTrainingSequences;
+
+    public SupertaggerTrainingData(FeatureVectorGenerator<LocalContext<WordAndPos>> featureGen,
+        TableFactor labelRestrictions, ParametricFactorGraph modelFamily,
+        int numTrainingSequences) {
+      this.featureGen = featureGen;
+      this.labelRestrictions = labelRestrictions;
+      this.modelFamily = modelFamily;
+      this.numTrainingSequences = numTrainingSequences;
+    }
+
+    public FeatureVectorGenerator<LocalContext<WordAndPos>> getFeatureGenerator() {
+      return featureGen;
+    }
+
+    public TableFactor getLabelRestrictions() {
+      return labelRestrictions;
+    }
+
+    public ParametricFactorGraph getModelFamily() {
+      return modelFamily;
+    }
+
+    public int getNumTrainingSequences() {
+      return numTrainingSequences;
+    }
+  }
+
   private static class WordAndPosToWord implements Function<WordAndPos, String>, Serializable {
     private static final long serialVersionUID = 1L;
     
@@ -22,14 +22,20 @@ import com.jayantkrish.jklol.ccg.ParametricCcgParser;
 import com.jayantkrish.jklol.dtree.RegressionTreeTrainer;
 import com.jayantkrish.jklol.parallel.LocalMapReduceExecutor;
 import com.jayantkrish.jklol.parallel.MapReduceConfiguration;
+import com.jayantkrish.jklol.parallel.SocketMapReduceExecutor;
 import com.jayantkrish.jklol.training.DefaultLogFunction;
 import com.jayantkrish.jklol.training.GradientOptimizer;
+import com.jayantkrish.jklol.training.HogwildSgdOptimizer;
 import com.jayantkrish.jklol.training.Lbfgs;
 import com.jayantkrish.jklol.training.LogFunction;
 import com.jayantkrish.jklol.training.LogFunctions;
 import com.jayantkrish.jklol.training.MinibatchLbfgs;
 import com.jayantkrish.jklol.training.NullLogFunction;
+import com.jayantkrish.jklol.training.ParameterMixingPerceptron;
 import com.jayantkrish.jklol.training.StochasticGradientTrainer;
+import com.jayantkrish.jklol.training.StochasticGradientTrainer.AdagradL2Regularizer;
+import com.jayantkrish.jklol.training.StochasticGradientTrainer.Regularizer;
+import com.jayantkrish.jklol.training.StochasticGradientTrainer.StochasticL2Regularizer;
 import com.jayantkrish.jklol.util.IoUtils;
 import com.jayantkrish.jklol.util.Pseudorandom;
 import com.jayantkrish.jklol.util.TimeUtils;
@@ -111,12 +117,18 @@ public abstract class AbstractCli {
   protected OptionSpec<Double> sgdL2Regularization;
   protected OptionSpec<Double> sgdRegularizationFrequency;
   protected OptionSpec<Void> sgdAdagrad;
+  protected OptionSpec<Void> sgdLazyUpdates;
+  protected OptionSpec<Integer> sgdHogwildThreads;
+  protected OptionSpec<Void> sgdPipelined;
+  protected OptionSpec<Integer> sgdParameterMixingShards;
+  protected OptionSpec<Void> sgdWeightedParameterMixing;
 
   // LBFGS options.
   protected OptionSpec<Void> lbfgs;
   protected OptionSpec<Integer> lbfgsIterations;
   protected OptionSpec<Integer> lbfgsHessianRank;
   protected OptionSpec<Double> lbfgsL2Regularization;
+  protected OptionSpec<Integer> lbfgsLineSearchParallelism;
   protected OptionSpec<Integer> lbfgsMinibatchSize;
   protected OptionSpec<Integer> lbfgsMinibatchIterations;
   protected OptionSpec<Void> lbfgsAdaptiveMinibatches;
@@ -125,11 +137,13 @@ public abstract class AbstractCli {
   protected OptionSpec<Integer> logInterval;
   protected OptionSpec<Integer> logParametersInterval;
   protected OptionSpec<String> logParametersDir;
+  protected OptionSpec<Integer> logParametersKeep;
   protected OptionSpec<Void> logBrief;
 
   // Map reduce options.
   protected OptionSpec<Integer> mrMaxThreads;
   protected OptionSpec<Integer> mrMaxBatchesPerThread;
+  protected OptionSpec<String> mrWorkers;
 
   // CCG parser options
   protected OptionSpec<String> ccgLexicon;
@@ -275,7 +289,8 @@ public abstract class AbstractCli {
       sgdNoDecayStepSize = parser.accepts("noDecayStepSize",
           "Don't use a 1/sqrt(t) step size decay during stochastic gradient descent.");
       sgdReturnAveragedParameters = parser.accepts("returnAveragedParameters", 
-          "Get the average of the parameter iterates of stochastic gradient descent.");
+          "Get the average of the parameter iterates of stochastic gradient descent. "
+          + "Cannot be used with --hogwildThreads.");
       sgdL2Regularization = parser.accepts("l2Regularization",
           "Regularization parameter for the L2 norm of the parameter vector.")
           .withRequiredArg().ofType(Double.class).defaultsTo(0.0);
@@ -283,6 +298,25 @@ public abstract class AbstractCli {
           "Fraction of iterations on which to apply regularization. Must be between 0 and 1")
           .withRequiredArg().ofType(Double.class).defaultsTo(1.0);
       sgdAdagrad = parser.accepts("adagrad", "Use the adagrad algorithm for stochastic gradient descent.");
+      sgdLazyUpdates = parser.accepts("lazyUpdates",
+          "Apply regularization and parameter averaging lazily, only updating parameters with "
+          + "nonzero gradients on each iteration. Cannot be used with adagrad.");
+      sgdHogwildThreads = parser.accepts("hogwildThreads",
+          "Run asynchronous, lock-free stochastic gradient descent using this many threads.")
+          .withRequiredArg().ofType(Integer.class);
+      sgdPipelined = parser.accepts("pipelined",
+          "Instantiate the model for the next iteration of stochastic gradient descent while "
+          + "computing the current gradient. Gradients are computed using a model that is one "
+          + "iteration out of date.");
+      sgdParameterMixingShards = parser.accepts("parameterMixingShards",
+          "Train independently on this many shards of the data in parallel, averaging the "
+          + "parameters of all shards after each iteration (iterative parameter mixing). "
+          + "Each shard uses a constant step size and no regularization.")
+          .withRequiredArg().ofType(Integer.class);
+      sgdWeightedParameterMixing = parser.accepts("weightedParameterMixing",
+          "When using --parameterMixingShards, weight each shard's parameters by the number "
+          + "of mistakes made on that shard. Only valid for perceptron and max-margin training, "
+          + "where an example is a mistake if its objective value is negative.");
     }
 
     if (opts.contains(CommonOptions.LBFGS)) {
@@ -296,6 +330,9 @@ public abstract class AbstractCli {
       lbfgsL2Regularization = parser.accepts("lbfgsL2Regularization",
           "L2 regularization imposed by LBFGS")
           .withRequiredArg().ofType(Double.class).defaultsTo(0.0);
+      lbfgsLineSearchParallelism = parser.accepts("lbfgsLineSearchParallelism",
+          "Number of step sizes to evaluate concurrently during LBFGS's line search.")
+          .withRequiredArg().ofType(Integer.class).defaultsTo(1);
 
       // Providing either of these options triggers the use of minibatch LBFGS
       lbfgsMinibatchIterations = parser.accepts("lbfgsMinibatchIterations",
@@ -321,6 +358,9 @@ public abstract class AbstractCli {
       logParametersDir = parser.accepts("logParametersDir", "Directory where serialized model "
           + "parameters are stored. Must be specified if logParametersInterval is specified.")
           .withRequiredArg().ofType(String.class);
+      logParametersKeep = parser.accepts("logParametersKeep", "Number of most recent serialized "
+          + "parameter checkpoints to keep in logParametersDir. If unspecified, all checkpoints "
+          + "are kept.").withRequiredArg().ofType(Integer.class).defaultsTo(-1);
 
       logBrief = parser.accepts("logBrief", "Hides training output.");
     }
@@ -332,6 +372,10 @@ public abstract class AbstractCli {
       mrMaxBatchesPerThread = parser.accepts("maxBatchesPerThread",
           "Number of batches of items to create per thread.")
           .withRequiredArg().ofType(Integer.class).defaultsTo(20);
+      mrWorkers = parser.accepts("mapReduceWorkers",
+          "Comma-separated list of host:port addresses of MapReduceWorker processes. If given, "
+          + "parallel tasks are executed by these workers instead of local threads.")
+          .withRequiredArg().ofType(String.class);
     }
 
     if (opts.contains(CommonOptions.PARAMETRIC_CCG_PARSER)) {
@@ -378,8 +422,14 @@ public abstract class AbstractCli {
     Pseudorandom.get().setSeed(options.valueOf(randomSeed));
 
     if (opts.contains(CommonOptions.MAP_REDUCE)) {
-      MapReduceConfiguration.setMapReduceExecutor(new LocalMapReduceExecutor(
-          options.valueOf(mrMaxThreads), options.valueOf(mrMaxBatchesPerThread)));
+      if (options.has(mrWorkers)) {
+        MapReduceConfiguration.setMapReduceExecutor(new SocketMapReduceExecutor(
+            SocketMapReduceExecutor.parseWorkerAddresses(options.valueOf(mrWorkers)),
+            options.valueOf(mrMaxBatchesPerThread)));
+      } else {
+        MapReduceConfiguration.setMapReduceExecutor(new LocalMapReduceExecutor(
+            options.valueOf(mrMaxThreads), options.valueOf(mrMaxBatchesPerThread)));
+      }
     }
 
     if (opts.contains(CommonOptions.STOCHASTIC_GRADIENT) || opts.contains(CommonOptions.LBFGS)) {
@@ -388,7 +438,8 @@ public abstract class AbstractCli {
         log = new NullLogFunction();
       } else {
          log = new DefaultLogFunction(parsedOptions.valueOf(logInterval), false,
-             options.valueOf(logParametersInterval), options.valueOf(logParametersDir));
+             options.valueOf(logParametersInterval), options.valueOf(logParametersDir),
+             options.valueOf(logParametersKeep));
       }
       LogFunctions.setLogFunction(log);
     }
@@ -414,21 +465,22 @@ public abstract class AbstractCli {
     double initialStepSize = parsedOptions.valueOf(sgdInitialStep);
     double l2Regularization = parsedOptions.valueOf(sgdL2Regularization);
 
-    LogFunction log = LogFunctions.getLogFunction();
-    StochasticGradientTrainer trainer = null;
-    if (!parsedOptions.has(sgdAdagrad)) {
-      trainer = StochasticGradientTrainer.createWithStochasticL2Regularization(
-          numIterations, batchSize, initialStepSize, !parsedOptions.has(sgdNoDecayStepSize),
-          parsedOptions.has(sgdReturnAveragedParameters), l2Regularization,
-          parsedOptions.valueOf(sgdRegularizationFrequency), log);
+    boolean adagrad = parsedOptions.has(sgdAdagrad);
+    boolean lazyUpdates = parsedOptions.has(sgdLazyUpdates);
+    Preconditions.checkState(!(lazyUpdates && adagrad),
+        "--lazyUpdates cannot be used with --adagrad");
+    double regularizationFrequency = parsedOptions.valueOf(sgdRegularizationFrequency);
+    Regularizer regularizer = null;
+    if (adagrad) {
+      regularizer = new AdagradL2Regularizer(l2Regularization, regularizationFrequency);
     } else {
-      trainer = StochasticGradientTrainer.createAdagrad(
-          numIterations, batchSize, initialStepSize, !parsedOptions.has(sgdNoDecayStepSize),
-          parsedOptions.has(sgdReturnAveragedParameters), l2Regularization,
-          parsedOptions.valueOf(sgdRegularizationFrequency), log);
+      regularizer = new StochasticL2Regularizer(l2Regularization, regularizationFrequency);
     }
 
-    return trainer;
+    return new StochasticGradientTrainer(numIterations, batchSize, initialStepSize,
+        !parsedOptions.has(sgdNoDecayStepSize), parsedOptions.has(sgdReturnAveragedParameters),
+        adagrad, regularizer, lazyUpdates, parsedOptions.has(sgdPipelined),
+        LogFunctions.getLogFunction());
   }
 
   private GradientOptimizer createLbfgs(int numExamples) {
@@ -454,13 +506,77 @@ public abstract class AbstractCli {
           lbfgsMinibatchSizeInt, lbfgsMinibatchIterationsInt, LogFunctions.getLogFunction());
     } else if (lbfgsMinibatchIterationsInt == -1 && lbfgsMinibatchSizeInt == -1) {
       return new Lbfgs(parsedOptions.valueOf(lbfgsIterations), parsedOptions.valueOf(lbfgsHessianRank),
-          parsedOptions.valueOf(lbfgsL2Regularization), LogFunctions.getLogFunction());
+          parsedOptions.valueOf(lbfgsL2Regularization), parsedOptions.valueOf(lbfgsLineSearchParallelism),
+          LogFunctions.getLogFunction());
     }
 
     throw new UnsupportedOperationException(
         "Must specify both or neither of --lbfgsMinibatchIterations and --lbfgsMinibatchSize");
   }
 
+  /**
+   * Creates a stochastic gradient optimizer, which is either a
+   * {@code StochasticGradientTrainer} or, if {@code --hogwildThreads}
+   * is given, a {@code HogwildSgdOptimizer}, or if
+   * {@code --parameterMixingShards} is given, a
+   * {@code ParameterMixingPerceptron}.
+   */
+  private GradientOptimizer createStochasticGradientOptimizer(int numExamples) {
+    if (parsedOptions.has(sgdParameterMixingShards)) {
+      Preconditions.checkState(!parsedOptions.has(sgdHogwildThreads),
+          "--hogwildThreads cannot be used with --parameterMixingShards");
+      Preconditions.checkState(!parsedOptions.has(sgdL2Regularization),
+          "--l2Regularization cannot be used with --parameterMixingShards");
+      Preconditions.checkState(!parsedOptions.has(sgdRegularizationFrequency),
+          "--regularizationFrequency cannot be used with --parameterMixingShards");
+      Preconditions.checkState(!parsedOptions.has(sgdAdagrad),
+          "--adagrad cannot be used with --parameterMixingShards");
+      Preconditions.checkState(!parsedOptions.has(sgdLazyUpdates),
+          "--lazyUpdates cannot be used with --parameterMixingShards");
+      Preconditions.checkState(!parsedOptions.has(sgdPipelined),
+          "--pipelined cannot be used with --parameterMixingShards");
+      Preconditions.checkState(!parsedOptions.has(sgdNoDecayStepSize),
+          "--noDecayStepSize cannot be used with --parameterMixingShards");
+      int batchSize = 1;
+      if (parsedOptions.has(sgdBatchSize)) {
+        batchSize = parsedOptions.valueOf(sgdBatchSize);
+      }
+      return new ParameterMixingPerceptron(parsedOptions.valueOf(sgdIterations).intValue(),
+          parsedOptions.valueOf(sgdParameterMixingShards), batchSize,
+          parsedOptions.valueOf(sgdInitialStep),
+          parsedOptions.has(sgdWeightedParameterMixing)
+              ? ParameterMixingPerceptron.PERCEPTRON_MISTAKE : null,
+          parsedOptions.has(sgdReturnAveragedParameters), LogFunctions.getLogFunction());
+    } else if (!parsedOptions.has(sgdHogwildThreads)) {
+      return createStochasticGradientTrainer(numExamples);
+    }
+    Preconditions.checkState(!parsedOptions.has(sgdLazyUpdates),
+        "--lazyUpdates cannot be used with --hogwildThreads");
+    Preconditions.checkState(!parsedOptions.has(sgdReturnAveragedParameters),
+        "--returnAveragedParameters cannot be used with --hogwildThreads");
+
+    long iterationsOption = parsedOptions.valueOf(sgdIterations);
+    int batchSize = 1;
+    if (parsedOptions.has(sgdBatchSize)) {
+      batchSize = parsedOptions.valueOf(sgdBatchSize);
+    }
+    long numIterations = (int) Math.ceil(iterationsOption * numExamples / ((double) batchSize));
+    int numThreads = parsedOptions.valueOf(sgdHogwildThreads);
+    double initialStepSize = parsedOptions.valueOf(sgdInitialStep);
+    boolean decayStepSize = !parsedOptions.has(sgdNoDecayStepSize);
+    double l2Regularization = parsedOptions.valueOf(sgdL2Regularization);
+    double regularizationFrequency = parsedOptions.valueOf(sgdRegularizationFrequency);
+
+    LogFunction log = LogFunctions.getLogFunction();
+    if (!parsedOptions.has(sgdAdagrad)) {
+      return HogwildSgdOptimizer.createWithStochasticL2Regularization(numIterations, batchSize,
+          numThreads, initialStepSize, decayStepSize, l2Regularization, regularizationFrequency, log);
+    } else {
+      return HogwildSgdOptimizer.createAdagrad(numIterations, batchSize, numThreads,
+          initialStepSize, decayStepSize, l2Regularization, regularizationFrequency, log);
+    }
+  }
+
   /**
    * Creates a gradient-based optimization algorithm based on the
    * given command-line parameters. To use this method, pass at least
@@ -478,10 +594,10 @@ public abstract class AbstractCli {
       if (parsedOptions.has(lbfgs)) {
         return createLbfgs(numExamples);
       } else {
-        return createStochasticGradientTrainer(numExamples);
+        return createStochasticGradientOptimizer(numExamples);
       }
     } else if (opts.contains(CommonOptions.STOCHASTIC_GRADIENT)) {
-      return createStochasticGradientTrainer(numExamples);
+      return createStochasticGradientOptimizer(numExamples);
     } else if (opts.contains(CommonOptions.LBFGS)) {
       return createLbfgs(numExamples);
     }
@@ -3,6 +3,7 @@ package com.jayantkrish.jklol.cli;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -68,6 +69,7 @@ public class ParseCcg extends AbstractCli {
   private OptionSpec<Void> useCcgBankFormat;
   private OptionSpec<Void> useGoldSyntacticTrees;
   private OptionSpec<Void> filterDependenciesCcgbank;
+  private OptionSpec<Integer> maxTestExamplesInFlight;
 
   private OptionSpec<String> supertagger;
   private OptionSpec<Double> multitagThresholds;
@@ -100,6 +102,9 @@ public class ParseCcg extends AbstractCli {
     useCcgBankFormat = parser.accepts("useCcgBankFormat", "Reads the parses in testFile in CCGbank format.");
     useGoldSyntacticTrees = parser.accepts("useGoldSyntacticTrees");
     filterDependenciesCcgbank = parser.accepts("filterDependenciesCcgbank");
+    maxTestExamplesInFlight = parser.accepts("maxTestExamplesInFlight", "Maximum number of " +
+        "test examples held in memory at once. Test examples are read lazily from testFile.")
+        .withRequiredArg().ofType(Integer.class).defaultsTo(1000);
 
     supertagger = parser.accepts("supertagger").withRequiredArg().ofType(String.class);
     multitagThresholds = parser.accepts("multitagThreshold").withRequiredArg().ofType(Double.class).withValuesSeparatedBy(',');
@@ -121,10 +126,10 @@ public class ParseCcg extends AbstractCli {
     }
     
     if (options.has(testFile)) {
-      // Parse all test examples.
-      List<CcgExample> testExamples = TrainCcg.readTrainingData(
+      // Parse all test examples. The examples are read lazily, so
+      // the test set does not have to fit in memory.
+      Iterable<CcgExample> testExamples = TrainCcg.streamTrainingData(
           options.valueOf(testFile), false, options.has(useCcgBankFormat), options.valueOf(syntaxMap));
-      System.out.println(testExamples.size() + " test examples after filtering.");
 
       Supertagger tagger = null;
       double[] tagThresholds = new double[0];
@@ -137,8 +142,9 @@ public class ParseCcg extends AbstractCli {
       LogFunctions.getLogFunction().notifyIterationStart(0);
       SupertaggingCcgParser supertaggingParser = new SupertaggingCcgParser(ccgParser,
           inferenceAlgorithm, tagger, tagThresholds);
-      CcgLoss loss = runTestSetEvaluation(testExamples, supertaggingParser,
-          options.has(useGoldSyntacticTrees), options.has(filterDependenciesCcgbank));
+      CcgLoss loss = runTestSetEvaluation(testExamples.iterator(), supertaggingParser,
+          options.has(useGoldSyntacticTrees), options.has(filterDependenciesCcgbank),
+          options.valueOf(maxTestExamplesInFlight));
       LogFunctions.getLogFunction().notifyIterationEnd(0);
       System.out.println(loss);
     } else {
@@ -206,6 +212,34 @@ public class ParseCcg extends AbstractCli {
     return MapReduceConfiguration.getMapReduceExecutor().mapReduce(testExamples, mapper, reducer);
   }
 
+  /**
+   * Computes the loss of {@code ccgParser} on a stream of test
+   * examples. Unlike {@link #runTestSetEvaluation(Collection,
+   * SupertaggingCcgParser, boolean, boolean)}, only a bounded number of
+   * examples are held in memory at any time.
+   * 
+   * @param testExamples
+   * @param ccgParser
+   * @param useCcgbankDerivations
+   * @param filterDependenciesCcgbank
+   * @param maxInFlight maximum number of examples to parse concurrently.
+   * @return
+   */
+  public static CcgLoss runTestSetEvaluation(Iterator<CcgExample> testExamples,
+      SupertaggingCcgParser ccgParser, boolean useCcgbankDerivations,
+      boolean filterDependenciesCcgbank, int maxInFlight) {
+    CcgLossMapper mapper = new CcgLossMapper(ccgParser, useCcgbankDerivations, filterDependenciesCcgbank);
+    CcgLossReducer reducer = new CcgLossReducer();
+    Iterator<CcgLoss> losses = MapReduceConfiguration.getMapReduceExecutor()
+        .mapStream(testExamples, mapper, maxInFlight, false);
+
+    CcgLoss loss = reducer.getInitialValue();
+    while (losses.hasNext()) {
+      loss = reducer.reduce(losses.next(), loss);
+    }
+    return loss;
+  }
+
   public static CcgLoss computeLoss(List<DependencyStructure> parseDeps, CcgExample example) {
     List<LabeledDep> predictedDeps = dependenciesToLabeledDeps(parseDeps); 
     List<LabeledDep> trueDeps = dependenciesToLabeledDeps(example.getDependencies());
@@ -546,6 +580,8 @@ public class ParseCcg extends AbstractCli {
   }
 
   public static class CcgLossMapper extends Mapper<CcgExample, CcgLoss> {
+    private static final long serialVersionUID = 1L;
+
     private final SupertaggingCcgParser parser;
     private final boolean useCcgbankDerivation;
     private final boolean filterDependenciesCcgbank;
@@ -597,9 +633,17 @@ public class ParseCcg extends AbstractCli {
         return new CcgLoss(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1);
       }
     }
+
+    @Override
+    public double estimateCost(CcgExample example) {
+      // Chart parsing takes time cubic in the sentence length.
+      return Math.pow(example.getSentence().size(), 3);
+    }
   }
 
   public static class CcgLossReducer extends SimpleReducer<CcgLoss> {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public CcgLoss getInitialValue() {
       return new CcgLoss(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
@@ -1,5 +1,6 @@
 package com.jayantkrish.jklol.cvsm;
 
+import java.io.Serializable;
 import java.util.List;
 
 import com.google.common.base.Preconditions;
@@ -26,6 +27,7 @@ import com.jayantkrish.jklol.training.LogFunction;
  * @author jayantk
  */
 public class CvsmLoglikelihoodOracle implements GradientOracle<Cvsm, CvsmExample> {
+  private static final long serialVersionUID = 1L;
 
   private final CvsmFamily family;
   private final CvsmLoss lossFunction;
@@ -64,7 +66,7 @@ public class CvsmLoglikelihoodOracle implements GradientOracle<Cvsm, CvsmExample
     return gradientTree.getLoss();
   }
   
-  public static interface CvsmLoss {
+  public static interface CvsmLoss extends Serializable {
 
     /**
      * Adds loss nodes to {@code tree} to compute gradients, etc.
@@ -76,6 +78,8 @@ public class CvsmLoglikelihoodOracle implements GradientOracle<Cvsm, CvsmExample
   }
   
   public static class CvsmSquareLoss implements CvsmLoss {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public CvsmTree augmentTreeWithLoss(CvsmTree tree, Cvsm cvsm, Tensor targets) {
       return new CvsmSquareLossTree(targets, tree);
@@ -89,6 +93,8 @@ public class CvsmLoglikelihoodOracle implements GradientOracle<Cvsm, CvsmExample
    * @author jayantk
    */
   public static class CvsmKlLoss implements CvsmLoss {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public CvsmTree augmentTreeWithLoss(CvsmTree tree, Cvsm cvsm, Tensor targets) {
       return new CvsmKlLossTree(targets, tree);
@@ -96,6 +102,8 @@ public class CvsmLoglikelihoodOracle implements GradientOracle<Cvsm, CvsmExample
   }
   
   public static class CvsmValueLoss implements CvsmLoss {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public CvsmTree augmentTreeWithLoss(CvsmTree tree, Cvsm cvsm, Tensor targets) {
       return new CvsmValueLossTree(tree);
@@ -103,6 +111,8 @@ public class CvsmLoglikelihoodOracle implements GradientOracle<Cvsm, CvsmExample
   }
 
   public static class CvsmKlElementwiseLoss implements CvsmLoss {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public CvsmTree augmentTreeWithLoss(CvsmTree tree, Cvsm cvsm, Tensor targets) {
       return new CvsmKlElementwiseLossTree(targets, new CvsmLogisticTree(tree));
@@ -110,6 +120,8 @@ public class CvsmLoglikelihoodOracle implements GradientOracle<Cvsm, CvsmExample
   }
 
   public static class CvsmHingeElementwiseLoss implements CvsmLoss {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public CvsmTree augmentTreeWithLoss(CvsmTree tree, Cvsm cvsm, Tensor targets) {
       return new CvsmHingeElementwiseLossTree(targets, tree);
@@ -117,6 +129,8 @@ public class CvsmLoglikelihoodOracle implements GradientOracle<Cvsm, CvsmExample
   }
 
   public static class CvsmTreeLoss implements CvsmLoss {
+    private static final long serialVersionUID = 1L;
+
     private CvsmLoss nodeLoss;
     
     private Expression augmentingExpression;
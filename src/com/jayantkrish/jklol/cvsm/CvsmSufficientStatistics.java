@@ -354,6 +354,50 @@ public class CvsmSufficientStatistics implements SufficientStatistics {
     }
   }
 
+  @Override
+  public void incrementLazy(SufficientStatistics gradient, double multiplier,
+      SufficientStatistics lastDecay, SufficientStatistics lastCumulativeDecay,
+      SufficientStatistics averageSum, double decay, double cumulativeDecay) {
+    Preconditions.checkNotNull(gradient);
+    Preconditions.checkArgument(gradient instanceof CvsmSufficientStatistics);
+
+    CvsmSufficientStatistics gradientStats = ((CvsmSufficientStatistics) gradient);
+    List<SufficientStatistics> gradientList = gradientStats.statistics;
+    int[] gradientNonZeroInds = gradientStats.nonzeroIndexes;
+    int gradientNumNonZero = gradientStats.numNonzeroIndexes;
+    Preconditions.checkArgument(gradientList.size() == statistics.size());
+
+    for (int i = 0; i < gradientNumNonZero; i++) {
+      int ind = gradientNonZeroInds[i];
+      Preconditions.checkState(gradientList.get(ind) != null);
+      ensureStatisticInstantiated(ind);
+      statistics.get(ind).incrementLazy(gradientList.get(ind), multiplier,
+          getLazyState(lastDecay, ind), getLazyState(lastCumulativeDecay, ind),
+          getLazyState(averageSum, ind), decay, cumulativeDecay);
+    }
+  }
+
+  @Override
+  public void flushLazy(SufficientStatistics lastDecay, SufficientStatistics lastCumulativeDecay,
+      SufficientStatistics averageSum, double decay, double cumulativeDecay) {
+    for (int i = 0; i < statistics.size(); i++) {
+      // Uninstantiated statistics are zero and have never been
+      // updated, so they have no pending updates.
+      if (statistics.get(i) != null) {
+        statistics.get(i).flushLazy(getLazyState(lastDecay, i), getLazyState(lastCumulativeDecay, i),
+            getLazyState(averageSum, i), decay, cumulativeDecay);
+      }
+    }
+  }
+
+  private static SufficientStatistics getLazyState(SufficientStatistics state, int index) {
+    if (state == null) {
+      return null;
+    }
+    Preconditions.checkArgument(state instanceof CvsmSufficientStatistics);
+    return ((CvsmSufficientStatistics) state).getSufficientStatistics(index);
+  }
+
   @Override
   public String getDescription() {
     return statistics.toString();
@@ -16,4 +16,14 @@ public interface DataFormat<T> {
   public T parseFrom(String item);
 
   public List<T> parseFromFile(String filename);
+
+  /**
+   * Gets the objects in {@code filename} without reading the entire
+   * file into memory. Objects are parsed on demand each time the
+   * returned iterable is iterated over.
+   * 
+   * @param filename
+   * @return
+   */
+  public Iterable<T> streamFromFile(String filename);
 }
@@ -0,0 +1,295 @@
+package com.jayantkrish.jklol.data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.jayantkrish.jklol.util.IoUtils;
+import com.jayantkrish.jklol.util.MappedFileInputStream;
+
+/**
+ * A binary on-disk cache of preprocessed training examples.
+ * Preprocessing training data (parsing text and generating feature
+ * vectors) can take longer than training itself; this class stores
+ * the result so that it can be reused by subsequent runs.
+ * <p>
+ * Cache files are keyed by a hash of the input data files and of the
+ * configuration used to preprocess them (e.g., feature count
+ * thresholds), so changing either one invalidates the cache. Metadata
+ * produced by preprocessing, such as the
+ * {@link com.jayantkrish.jklol.preprocessing.FeatureVectorGenerator}
+ * built from the data, can be cached under the same key, so that a
+ * cached run does not need to read the input data at all. Examples
+ * are stored using Java serialization, and are read lazily from a
+ * memory-mapped file.
+ *
+ * @author jayantk
+ */
+public class ExampleCache {
+
+  private static final String CACHE_FILE_SUFFIX = ".examples";
+  private static final String METADATA_FILE_SUFFIX = ".metadata";
+  private static final String VERSION = "jklol-example-cache-1";
+
+  // The object stream is reset after writing this many examples. This
+  // bounds the memory used by the reader, which otherwise retains a
+  // reference to every deserialized object, while still sharing
+  // class descriptors between nearby examples.
+  private static final int RESET_INTERVAL = 1000;
+
+  /**
+   * Gets a key identifying the result of preprocessing
+   * {@code inputFilename} with {@code config}. The key is a hash of
+   * the contents of the file and the serialized form of each
+   * configuration object.
+   *
+   * @param inputFilename
+   * @param config
+   * @return
+   */
+  public static String getCacheKey(String inputFilename, Serializable... config) {
+    return getCacheKey(Arrays.asList(inputFilename), config);
+  }
+
+  /**
+   * Same as {@link #getCacheKey(String, Serializable...)}, for
+   * preprocessing which reads several input files.
+   *
+   * @param inputFilenames
+   * @param config
+   * @return
+   */
+  public static String getCacheKey(List<String> inputFilenames, Serializable... config) {
+    Hasher hasher = Hashing.md5().newHasher();
+    try {
+      for (String inputFilename : inputFilenames) {
+        hasher.putBytes(Files.hash(new File(inputFilename), Hashing.md5()).asBytes());
+      }
+      for (Serializable configItem : config) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(configItem);
+        out.close();
+        hasher.putBytes(bytes.toByteArray());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Gets the preprocessed examples for {@code inputFilename}, reading
+   * them from {@code cacheDir} if they have been cached. Otherwise,
+   * the examples are generated using {@code preprocessor} and written
+   * to the cache. {@code config} should contain every object (besides
+   * the input file) that affects the output of {@code preprocessor}.
+   * <p>
+   * The returned examples are read lazily from the cache file.
+   *
+   * @param cacheDir
+   * @param inputFilename
+   * @param preprocessor
+   * @param config
+   * @return
+   */
+  public static <T extends Serializable> Iterable<T> getOrCreate(String cacheDir,
+      String inputFilename, Supplier<? extends Iterable<? extends T>> preprocessor,
+      Serializable... config) {
+    return getOrCreate(cacheDir, Arrays.asList(inputFilename), preprocessor, config);
+  }
+
+  /**
+   * Same as {@link #getOrCreate(String, String, Supplier, Serializable...)},
+   * for preprocessing which reads several input files.
+   *
+   * @param cacheDir
+   * @param inputFilenames
+   * @param preprocessor
+   * @param config
+   * @return
+   */
+  public static <T extends Serializable> Iterable<T> getOrCreate(String cacheDir,
+      List<String> inputFilenames, Supplier<? extends Iterable<? extends T>> preprocessor,
+      Serializable... config) {
+    String key = getCacheKey(inputFilenames, config);
+    File cacheFile = new File(cacheDir, key + CACHE_FILE_SUFFIX);
+    if (!cacheFile.exists()) {
+      writeCacheFile(preprocessor.get(), cacheFile);
+    }
+    return read(cacheFile.getPath());
+  }
+
+  /**
+   * Same as {@link #getOrCreate(String, List, Supplier, Serializable...)},
+   * except that {@code preprocessor} also produces metadata (e.g., the
+   * feature generator built from the input data), which is cached along
+   * with the examples under the same key. {@code config} should contain
+   * every object (besides the input files) that affects the output of
+   * {@code preprocessor}.
+   * <p>
+   * The metadata of the returned value is read into memory, while its
+   * examples are read lazily from the cache file.
+   *
+   * @param cacheDir
+   * @param inputFilenames
+   * @param preprocessor
+   * @param config
+   * @return
+   */
+  public static <M extends Serializable, T extends Serializable> CachedExamples<M, T> getOrCreateWithMetadata(
+      String cacheDir, List<String> inputFilenames,
+      Supplier<? extends CachedExamples<? extends M, ? extends T>> preprocessor,
+      Serializable... config) {
+    String key = getCacheKey(inputFilenames, config);
+    File cacheFile = new File(cacheDir, key + CACHE_FILE_SUFFIX);
+    File metadataFile = new File(cacheDir, key + METADATA_FILE_SUFFIX);
+    if (!cacheFile.exists() || !metadataFile.exists()) {
+      CachedExamples<? extends M, ? extends T> preprocessed = preprocessor.get();
+      new File(cacheDir).mkdirs();
+      // The examples are renamed into place last, so the metadata
+      // exists whenever the examples do.
+      File tempFile = new File(cacheDir, key + METADATA_FILE_SUFFIX + ".tmp");
+      IoUtils.serializeObjectToFile(preprocessed.getMetadata(), tempFile.getPath());
+      rename(tempFile, metadataFile);
+      writeCacheFile(preprocessed.getExamples(), cacheFile);
+    }
+
+    @SuppressWarnings("unchecked")
+    M metadata = (M) IoUtils.readSerializedObject(metadataFile.getPath(), Serializable.class);
+    return new CachedExamples<M, T>(metadata, ExampleCache.<T>read(cacheFile.getPath()));
+  }
+
+  private static void writeCacheFile(Iterable<? extends Serializable> examples, File cacheFile) {
+    cacheFile.getParentFile().mkdirs();
+    // Write to a temporary file and rename it, so that an
+    // interrupted run never leaves a partial cache file.
+    File tempFile = new File(cacheFile.getPath() + ".tmp");
+    write(examples, tempFile.getPath());
+    rename(tempFile, cacheFile);
+  }
+
+  private static void rename(File from, File to) {
+    Preconditions.checkState(from.renameTo(to), "Could not rename %s to %s", from, to);
+  }
+
+  /**
+   * Writes {@code examples} to {@code filename}.
+   *
+   * @param examples
+   * @param filename
+   */
+  public static void write(Iterable<? extends Serializable> examples, String filename) {
+    try {
+      ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+          new FileOutputStream(filename)));
+      out.writeUTF(VERSION);
+      int numWritten = 0;
+      for (Serializable example : examples) {
+        Preconditions.checkArgument(example != null, "Cannot cache null examples.");
+        out.writeObject(example);
+        numWritten++;
+        if (numWritten % RESET_INTERVAL == 0) {
+          out.reset();
+        }
+      }
+      // null marks the end of the examples, which distinguishes
+      // complete files from truncated ones.
+      out.writeObject(null);
+      out.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads the examples in {@code filename}, which must have been
+   * created by {@link #write}. The examples are deserialized lazily
+   * from a memory-mapped file each time the returned iterable is
+   * iterated over.
+   *
+   * @param filename
+   * @return
+   */
+  public static <T> Iterable<T> read(final String filename) {
+    return new Iterable<T>() {
+      @Override
+      public Iterator<T> iterator() {
+        return new CachedExampleIterator<T>(filename);
+      }
+    };
+  }
+
+  /**
+   * Preprocessed examples, along with metadata produced by
+   * preprocessing them.
+   */
+  public static class CachedExamples<M, T> {
+    private final M metadata;
+    private final Iterable<T> examples;
+
+    public CachedExamples(M metadata, Iterable<T> examples) {
+      this.metadata = Preconditions.checkNotNull(metadata);
+      this.examples = Preconditions.checkNotNull(examples);
+    }
+
+    public M getMetadata() {
+      return metadata;
+    }
+
+    public Iterable<T> getExamples() {
+      return examples;
+    }
+  }
+
+  private static class CachedExampleIterator<T> extends AbstractIterator<T> {
+    private final String filename;
+    private final ObjectInputStream in;
+
+    public CachedExampleIterator(String filename) {
+      this.filename = filename;
+      try {
+        this.in = new ObjectInputStream(new MappedFileInputStream(filename));
+        String version = in.readUTF();
+        Preconditions.checkState(version.equals(VERSION),
+            "Unsupported example cache version in %s: %s", filename, version);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected T computeNext() {
+      try {
+        Object next = in.readObject();
+        if (next == null) {
+          in.close();
+          return endOfData();
+        }
+        return (T) next;
+      } catch (EOFException e) {
+        throw new IllegalStateException("Truncated example cache: " + filename, e);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      } catch (ClassNotFoundException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
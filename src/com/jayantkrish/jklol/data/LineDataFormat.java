@@ -25,4 +25,9 @@ public abstract class LineDataFormat<T> implements DataFormat<T> {
     }
     return examples;
   }
+
+  @Override
+  public Iterable<T> streamFromFile(String filename) {
+    return LineDataSource.fromFile(filename, this, false);
+  }
 }
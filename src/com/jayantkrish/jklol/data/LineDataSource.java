@@ -0,0 +1,242 @@
+package com.jayantkrish.jklol.data;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.jayantkrish.jklol.util.IoUtils;
+
+/**
+ * A collection of examples which are lazily read and parsed from
+ * a sequence of lines (typically, the lines of a file). Examples are
+ * parsed as they are iterated over and are not retained, so a data
+ * source can be much larger than available memory. A data source can
+ * be passed directly to a
+ * {@link com.jayantkrish.jklol.training.GradientOptimizer} as its
+ * training data.
+ * <p>
+ * Data sources can additionally be restricted to a shard of the
+ * examples, approximately shuffled using a fixed-size buffer, and
+ * repeated for multiple epochs. Each call to {@link #iterator()}
+ * rereads the underlying lines and produces the same sequence of
+ * examples.
+ *
+ * @author jayantk
+ *
+ * @param <T> type of the examples.
+ */
+public class LineDataSource<T> implements Iterable<T> {
+
+  private final Iterable<String> lines;
+  private final DataFormat<T> format;
+
+  // This source contains every numShards'th line of lines,
+  // starting at shardIndex.
+  private final int numShards;
+  private final int shardIndex;
+
+  // Lines are shuffled using a buffer of this size. A size of 1
+  // means that lines are not shuffled.
+  private final int shuffleBufferSize;
+  private final long shuffleSeed;
+
+  private final int numEpochs;
+
+  public LineDataSource(Iterable<String> lines, DataFormat<T> format, int numShards,
+      int shardIndex, int shuffleBufferSize, long shuffleSeed, int numEpochs) {
+    Preconditions.checkArgument(numShards > 0);
+    Preconditions.checkArgument(shardIndex >= 0 && shardIndex < numShards);
+    Preconditions.checkArgument(shuffleBufferSize > 0);
+    Preconditions.checkArgument(numEpochs >= 0);
+    this.lines = Preconditions.checkNotNull(lines);
+    this.format = Preconditions.checkNotNull(format);
+    this.numShards = numShards;
+    this.shardIndex = shardIndex;
+    this.shuffleBufferSize = shuffleBufferSize;
+    this.shuffleSeed = shuffleSeed;
+    this.numEpochs = numEpochs;
+  }
+
+  /**
+   * Gets a data source containing the examples in {@code filename},
+   * in order, which are parsed using {@code format}. Blank lines of
+   * the file are ignored.
+   *
+   * @param filename
+   * @param format
+   * @param memoryMapped if {@code true}, the file is read using
+   * memory-mapped buffers.
+   * @return
+   */
+  public static <T> LineDataSource<T> fromFile(String filename, DataFormat<T> format,
+      boolean memoryMapped) {
+    return new LineDataSource<T>(IoUtils.readLinesLazily(filename, memoryMapped), format,
+        1, 0, 1, 0L, 1);
+  }
+
+  /**
+   * Gets a data source containing every {@code numShards}'th example
+   * of this source, starting with example {@code shardIndex}. The
+   * shards for {@code shardIndex = 0, ..., numShards - 1} partition
+   * the examples of this source.
+   *
+   * @param numShards
+   * @param shardIndex
+   * @return
+   */
+  public LineDataSource<T> shard(int numShards, int shardIndex) {
+    Preconditions.checkState(this.numShards == 1, "This source is already sharded.");
+    return new LineDataSource<T>(lines, format, numShards, shardIndex, shuffleBufferSize,
+        shuffleSeed, numEpochs);
+  }
+
+  /**
+   * Gets a data source whose examples are shuffled using a buffer
+   * of {@code bufferSize} examples. Each example is returned from a
+   * random position in the buffer, then replaced by the next example.
+   * Larger buffers give orders that are closer to a uniformly random
+   * permutation, and {@code bufferSize} at least the number of
+   * examples shuffles them uniformly. Each epoch is shuffled
+   * differently, but the order is deterministic given {@code seed}.
+   *
+   * @param bufferSize
+   * @param seed
+   * @return
+   */
+  public LineDataSource<T> shuffle(int bufferSize, long seed) {
+    return new LineDataSource<T>(lines, format, numShards, shardIndex, bufferSize,
+        seed, numEpochs);
+  }
+
+  /**
+   * Gets a data source which iterates over the examples of this
+   * source {@code numEpochs} times.
+   *
+   * @param numEpochs
+   * @return
+   */
+  public LineDataSource<T> repeat(int numEpochs) {
+    return new LineDataSource<T>(lines, format, numShards, shardIndex, shuffleBufferSize,
+        shuffleSeed, numEpochs);
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return Iterators.concat(new AbstractIterator<Iterator<T>>() {
+      private int epoch = 0;
+
+      @Override
+      protected Iterator<T> computeNext() {
+        if (epoch >= numEpochs) {
+          return endOfData();
+        }
+        Iterator<T> epochIterator = getEpochIterator(epoch);
+        epoch++;
+        return epochIterator;
+      }
+    });
+  }
+
+  private Iterator<T> getEpochIterator(int epoch) {
+    Iterator<String> epochLines = lines.iterator();
+    if (numShards > 1) {
+      epochLines = new ShardIterator<String>(epochLines, numShards, shardIndex);
+    }
+    if (shuffleBufferSize > 1) {
+      // Shuffle the lines rather than the parsed examples, as lines
+      // typically require much less memory.
+      epochLines = new ShuffleIterator<String>(epochLines, shuffleBufferSize,
+          new Random(shuffleSeed + epoch));
+    }
+
+    return Iterators.transform(epochLines, new Function<String, T>() {
+      @Override
+      public T apply(String line) {
+        return format.parseFrom(line);
+      }
+    });
+  }
+
+  /**
+   * Returns every {@code numShards}'th item of an iterator.
+   */
+  private static class ShardIterator<S> extends AbstractIterator<S> {
+    private final Iterator<S> items;
+    private final int numShards;
+    private final int shardIndex;
+
+    private int nextIndex;
+
+    public ShardIterator(Iterator<S> items, int numShards, int shardIndex) {
+      this.items = items;
+      this.numShards = numShards;
+      this.shardIndex = shardIndex;
+      this.nextIndex = 0;
+    }
+
+    @Override
+    protected S computeNext() {
+      while (items.hasNext()) {
+        S item = items.next();
+        int index = nextIndex;
+        nextIndex = (nextIndex + 1) % numShards;
+        if (index == shardIndex) {
+          return item;
+        }
+      }
+      return endOfData();
+    }
+  }
+
+  /**
+   * Approximately shuffles an iterator using a fixed-size buffer.
+   */
+  private static class ShuffleIterator<S> extends AbstractIterator<S> {
+    private final Iterator<S> items;
+    private final int bufferSize;
+    private final Random random;
+
+    private final List<S> buffer;
+    private boolean drained;
+
+    public ShuffleIterator(Iterator<S> items, int bufferSize, Random random) {
+      this.items = items;
+      this.bufferSize = bufferSize;
+      this.random = random;
+
+      this.buffer = Lists.newArrayList();
+      this.drained = false;
+    }
+
+    @Override
+    protected S computeNext() {
+      while (buffer.size() < bufferSize && items.hasNext()) {
+        buffer.add(items.next());
+      }
+
+      if (items.hasNext()) {
+        int index = random.nextInt(buffer.size());
+        S item = buffer.get(index);
+        buffer.set(index, items.next());
+        return item;
+      }
+
+      // The input is exhausted; return the remaining items in
+      // a random order.
+      if (!drained) {
+        Collections.shuffle(buffer, random);
+        drained = true;
+      }
+      if (buffer.isEmpty()) {
+        return endOfData();
+      }
+      return buffer.remove(buffer.size() - 1);
+    }
+  }
+}
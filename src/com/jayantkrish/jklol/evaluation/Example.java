@@ -1,5 +1,6 @@
 package com.jayantkrish.jklol.evaluation;
 
+import java.io.Serializable;
 import java.util.List;
 
 import com.google.common.base.Function;
@@ -20,7 +21,9 @@ import com.jayantkrish.jklol.util.Converters;
  * @param <O> type of outputVar data from predictor
  * @author jayantk
  */
-public class Example<I, O> {
+public class Example<I, O> implements Serializable {
+
+  private static final long serialVersionUID = 1L;
 
   private final I input;
   private final O output;
@@ -87,11 +87,9 @@ public class FactorGraphPredictor extends AbstractPredictor<DynamicAssignment, D
     FactorGraph conditionalFactorGraph = factorGraph.getFactorGraph(dynamicInput).conditional(input);
     MaxMarginalSet maxMarginals = marginalCalculator.computeMaxMarginals(conditionalFactorGraph);
 
-    List<Assignment> bestAssignments = Lists.newArrayList();
+    List<Assignment> bestAssignments = Collections.emptyList();
     try {
-      for (int i = 0; i < numPredictions; i++) {
-        bestAssignments.add(maxMarginals.getNthBestAssignment(i));
-      }
+      bestAssignments = maxMarginals.getBestAssignments(numPredictions);
     } catch (ZeroProbabilityError e) {
       // Occurs if all outputs have zero probability under the given assignment.
       // Safely ignored (setting bestAssignments to the empty list).
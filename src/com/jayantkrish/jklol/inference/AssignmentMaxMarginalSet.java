@@ -1,5 +1,8 @@
 package com.jayantkrish.jklol.inference;
 
+import java.util.Collections;
+import java.util.List;
+
 import com.google.common.base.Preconditions;
 import com.jayantkrish.jklol.models.Factor;
 import com.jayantkrish.jklol.models.VariableNumMap;
@@ -36,6 +39,15 @@ public class AssignmentMaxMarginalSet implements MaxMarginalSet {
     return assignment;
   }
 
+  @Override
+  public List<Assignment> getBestAssignments(int k) {
+    Preconditions.checkArgument(k >= 0);
+    if (k == 0) {
+      return Collections.emptyList();
+    }
+    return Collections.singletonList(assignment);
+  }
+
   @Override
   public Assignment getNthBestAssignment(int n, Assignment portion) {
     throw new UnsupportedOperationException();
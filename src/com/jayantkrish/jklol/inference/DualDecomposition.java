@@ -2,13 +2,19 @@ package com.jayantkrish.jklol.inference;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.jayantkrish.jklol.models.DiscreteVariable;
 import com.jayantkrish.jklol.models.Factor;
 import com.jayantkrish.jklol.models.FactorGraph;
 import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.parallel.LazyThreadPool;
 import com.jayantkrish.jklol.tensor.DenseTensorBuilder;
 import com.jayantkrish.jklol.tensor.SparseTensor;
 import com.jayantkrish.jklol.tensor.TensorBuilder;
@@ -18,17 +24,68 @@ import com.jayantkrish.jklol.util.IndexedList;
  * Approximate inference technique for computing the MAP (highest weight)
  * assignment to a graphical model. This marginal calculator only supports
  * computing max-marginals.
- * 
+ * <p>
+ * Each iteration decodes every factor subproblem independently, then takes a
+ * subgradient step on the Lagrange multipliers of any variables where the
+ * factors disagree. By default, the step size of the {@code t}th step is
+ * proportional to {@code 1 / sqrt(t + 2)}. Optionally, the step size can
+ * instead decrease each time the dual objective increases, which adapts the
+ * schedule to the scale of the factor weights. Factor subproblems are only re-decoded when their Lagrange
+ * multipliers change, and may be decoded in parallel.
+ *
  * @author jayantk
  */
 public class DualDecomposition implements MarginalCalculator {
-  private static final long serialVersionUID = 1L;
+  private static final long serialVersionUID = 3L;
+
+  private static final double DEFAULT_INITIAL_STEP_SIZE = 0.1;
 
   private final int maxIterations;
+  private final double initialStepSize;
+  private final boolean adaptiveStepSize;
+  private final int numThreads;
+
+  // Threads used to decode subproblems in parallel, created on first use
+  // and shared by every inference call on this object.
+  private final LazyThreadPool pool;
 
   public DualDecomposition(int maxIterations) {
+    this(maxIterations, DEFAULT_INITIAL_STEP_SIZE, 1);
+  }
+
+  /**
+   * Creates dual decomposition inference whose {@code t}th subgradient
+   * step has size {@code initialStepSize / sqrt(t + 2)}.
+   *
+   * @param maxIterations maximum number of subgradient steps.
+   * @param initialStepSize scale of the step size.
+   * @param numThreads number of threads used to decode factor subproblems.
+   */
+  public DualDecomposition(int maxIterations, double initialStepSize, int numThreads) {
+    this(maxIterations, initialStepSize, false, numThreads);
+  }
+
+  /**
+   * Creates dual decomposition inference.
+   *
+   * @param maxIterations maximum number of subgradient steps.
+   * @param initialStepSize scale of the step size.
+   * @param adaptiveStepSize if {@code true}, the step size is
+   * {@code initialStepSize / (1 + k)}, where {@code k} is the number of
+   * iterations in which the dual objective increased. Otherwise, the
+   * {@code t}th step has size {@code initialStepSize / sqrt(t + 2)}.
+   * @param numThreads number of threads used to decode factor subproblems.
+   */
+  public DualDecomposition(int maxIterations, double initialStepSize,
+      boolean adaptiveStepSize, int numThreads) {
     Preconditions.checkArgument(maxIterations >= 1);
+    Preconditions.checkArgument(initialStepSize > 0.0);
+    Preconditions.checkArgument(numThreads >= 1);
     this.maxIterations = maxIterations;
+    this.initialStepSize = initialStepSize;
+    this.adaptiveStepSize = adaptiveStepSize;
+    this.numThreads = numThreads;
+    this.pool = new LazyThreadPool(numThreads);
   }
 
   @Override
@@ -75,112 +132,254 @@ public class DualDecomposition implements MarginalCalculator {
           factor.coerceToDiscrete().getWeights().elementwiseLog()));
     }
 
+    ExecutorService executor = null;
+    if (numThreads > 1 && factorWeights.size() > 1) {
+      executor = pool.get();
+    }
+
+    DecodedFactors decodedFactors = new DecodedFactors(factorWeights, variableNums);
+    int[] variableNumArray = new int[numVars];
+    int[] variableSizes = new int[numVars];
+    int[] variableValues = new int[numVars];
+    for (int i = 0; i < numVars; i++) {
+      variableNumArray[i] = variableNums.get(i);
+      variableSizes[i] = variableTypes.get(i).numValues();
+    }
     int numDisagreements = 1;
+    int numDualIncreases = 0;
+    double previousDual = Double.POSITIVE_INFINITY;
     for (int i = 0; i < maxIterations && numDisagreements > 0; i++) {
-      /*
-      for (int j = 0; j < numVars; j++) {
-        System.out.println(variableWeights.get(j));
-      }
-      for (int j = 0; j < factorWeights.size(); j++) {
-        System.out.println(factorWeights.get(j));
+      decodedFactors.decode(executor, numThreads);
+      double dual = locallyDecodeFactors(variableWeights, variableValues)
+          + decodedFactors.getTotalWeight();
+
+      // The dual objective should decrease with each step; if it does not,
+      // the step size is too large.
+      if (dual > previousDual) {
+        numDualIncreases++;
       }
-      */
+      previousDual = dual;
 
-      numDisagreements = gradientUpdate(factorWeights, variableWeights, 0.1 / Math.sqrt(i + 2));
-      // System.out.println("ITERATION " + i + ": " + numDisagreements + " disagreements");
+      double stepSize = adaptiveStepSize ? initialStepSize / (1 + numDualIncreases)
+          : initialStepSize / Math.sqrt(i + 2);
+      numDisagreements = gradientUpdate(decodedFactors, variableWeights,
+          variableNumArray, variableSizes, variableValues, stepSize);
     }
 
     // Locally decode factors to an assignment.
-    int[] variableDims = new int[variableWeights.size()];
-    int[] variableSizes = new int[variableWeights.size()];
-    int[] variableValues = new int[variableWeights.size()];
-    locallyDecodeFactors(variableWeights, variableDims, variableSizes, variableValues);
+    locallyDecodeFactors(variableWeights, variableValues);
 
     return new AssignmentMaxMarginalSet(variables.intArrayToAssignment(variableValues)
         .union(factorGraph.getConditionedValues()));
   }
 
-  private void locallyDecodeFactors(List<TensorBuilder> unaryFactors,
-      int[] variableNums, int[] variableSizes, int[] variableValues) {
+  /**
+   * Terminates the threads used to decode subproblems in parallel.
+   * This object remains usable after this call.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Finds the maximum weight value of each variable, storing the result in
+   * {@code variableValues}. Returns the sum of the maximum weights.
+   *
+   * @param unaryFactors
+   * @param variableValues
+   * @return
+   */
+  private double locallyDecodeFactors(List<TensorBuilder> unaryFactors, int[] variableValues) {
+    double totalWeight = 0.0;
     for (int i = 0; i < unaryFactors.size(); i++) {
       TensorBuilder unaryFactor = unaryFactors.get(i);
-      variableNums[i] = unaryFactor.getDimensionNumbers()[0];
-      variableSizes[i] = unaryFactor.getDimensionSizes()[0];
-      variableValues[i] = unaryFactor.keyNumToDimKey(unaryFactor.getLargestValues(1)[0])[0];
+      long bestKeyNum = unaryFactor.getLargestValues(1)[0];
+      variableValues[i] = unaryFactor.keyNumToDimKey(bestKeyNum)[0];
+      totalWeight += unaryFactor.get(bestKeyNum);
     }
+    return totalWeight;
   }
 
   /**
-   * Perform a single subgradient step, updating {@code factors} and
-   * {@code unaryFactors} with the computed subgradient.
-   * 
-   * @param factors
+   * Perform a single subgradient step, updating the factors of
+   * {@code decodedFactors} and {@code unaryFactors} with the computed
+   * subgradient.
+   *
+   * @param decodedFactors
    * @param unaryFactors
+   * @param variableNums
+   * @param variableSizes
+   * @param variableValues the best assignment, as computed from only the unary
+   * factors.
    * @param stepSize
    * @return
    */
-  private int gradientUpdate(List<TensorBuilder> factors,
-      List<TensorBuilder> unaryFactors, double stepSize) {
-    // The best assignment, as computed from only the unary factors.
-    int[] variableNums = new int[unaryFactors.size()];
-    int[] variableSizes = new int[unaryFactors.size()];
-    int[] variableValues = new int[unaryFactors.size()];
-    locallyDecodeFactors(unaryFactors, variableNums, variableSizes, variableValues);
-
+  private int gradientUpdate(DecodedFactors decodedFactors, List<TensorBuilder> unaryFactors,
+      int[] variableNums, int[] variableSizes, int[] variableValues, double stepSize) {
     // Identify where unary factors disagree with larger factors to compute the
-    // subgradient.
-    List<Integer> variableDisagreementList = Lists.newArrayList();
-    List<Integer> factorDisagreementList = Lists.newArrayList();
-    List<Integer> factorValueList = Lists.newArrayList();
-    for (int i = 0; i < factors.size(); i++) {
-      TensorBuilder factor = factors.get(i);
-      int[] bestFactorValues = factor.keyNumToDimKey(factor.getLargestValues(1)[0]);
-      int[] factorVariableNums = factor.getDimensionNumbers();
-
-      for (int j = 0; j < factorVariableNums.length; j++) {
-        int index = Arrays.binarySearch(variableNums, factorVariableNums[j]);
-        if (bestFactorValues[j] != variableValues[index]) {
-          // Factor and unary assignments disagree on variableNums[index].
-          // Store the disagreement, used later to compute the subgradient.
-          variableDisagreementList.add(index);
-          factorDisagreementList.add(i);
-          factorValueList.add(bestFactorValues[j]);
-
-          /*
-          System.out.println("Disagreement " + Arrays.toString(factorVariableNums) + "=" + Arrays.toString(bestFactorValues) + ", "
-              + variableNums[index] + "=" + variableValues[index]);
-              */
+    // subgradient. For each disagreement, the subgradient update decreases the
+    // weight of each factor's maximum weight assignment, and increases the
+    // weight of the disagreeing factor's maximum weight assignment.
+    int numDisagreements = 0;
+    for (int i = 0; i < decodedFactors.numFactors(); i++) {
+      TensorBuilder factor = decodedFactors.getFactor(i);
+      int[] bestFactorValues = decodedFactors.getBestValues(i);
+      int[] factorVariableIndexes = decodedFactors.getVariableIndexes(i);
+
+      for (int j = 0; j < factorVariableIndexes.length; j++) {
+        int variableIndex = factorVariableIndexes[j];
+        int bestFactorValue = bestFactorValues[j];
+        int bestUnaryValue = variableValues[variableIndex];
+        if (bestFactorValue == bestUnaryValue) {
+          continue;
         }
+
+        // Factor and unary assignments disagree on this variable. Both
+        // the unary and factor multipliers are updated, and the factor must
+        // be decoded again.
+        numDisagreements++;
+        TensorBuilder unaryFactor = unaryFactors.get(variableIndex);
+        unaryFactor.incrementEntryByKeyNum(-1.0 * stepSize, bestUnaryValue);
+        unaryFactor.incrementEntryByKeyNum(stepSize, bestFactorValue);
+        int variableNum = variableNums[variableIndex];
+        int variableSize = variableSizes[variableIndex];
+        SparseTensor unaryGradient = SparseTensor.singleElement(new int[] { variableNum },
+            new int[] { variableSize }, new int[] { bestUnaryValue }, 1);
+        SparseTensor factorGradient = SparseTensor.singleElement(new int[] { variableNum },
+            new int[] { variableSize }, new int[] { bestFactorValue }, 1);
+
+        factor.incrementWithMultiplier(unaryGradient, stepSize);
+        factor.incrementWithMultiplier(factorGradient, -1.0 * stepSize);
+        decodedFactors.markStale(i);
       }
     }
+    return numDisagreements;
+  }
 
-    // Update the factor lagrange multipliers based on the disagreements.
-    // For each disagreement, the subgradient update decreases the weight of
-    // each factor's maximum weight assignment, and increases the weight of
-    // the disagreeing factor's maximum weight assignment.
-    for (int i = 0; i < variableDisagreementList.size(); i++) {
-      int variableIndex = variableDisagreementList.get(i);
-      int factorNum = factorDisagreementList.get(i);
+  /**
+   * The factor subproblems of dual decomposition, along with their most
+   * recently decoded maximum weight assignments. A factor is only decoded
+   * again after its weights have been updated.
+   */
+  private static class DecodedFactors {
+    private final List<TensorBuilder> factors;
+    // Index of each factor dimension into the list of variables.
+    private final int[][] variableIndexes;
 
-      TensorBuilder factor = factors.get(factorNum);
-      TensorBuilder unaryFactor = unaryFactors.get(variableIndex);
+    private final int[][] bestValues;
+    private final double[] bestWeights;
+    private final boolean[] stale;
 
-      int variableNum = variableNums[variableIndex];
-      int variableSize = variableSizes[variableIndex];
-      int bestFactorValue = factorValueList.get(i);
-      int bestUnaryValue = variableValues[variableIndex];
+    public DecodedFactors(List<TensorBuilder> factors, IndexedList<Integer> variableNums) {
+      this.factors = factors;
+      int numFactors = factors.size();
+      variableIndexes = new int[numFactors][];
+      for (int i = 0; i < numFactors; i++) {
+        int[] dimensions = factors.get(i).getDimensionNumbers();
+        variableIndexes[i] = new int[dimensions.length];
+        for (int j = 0; j < dimensions.length; j++) {
+          variableIndexes[i][j] = variableNums.getIndex(dimensions[j]);
+        }
+      }
+
+      bestValues = new int[numFactors][];
+      bestWeights = new double[numFactors];
+      stale = new boolean[numFactors];
+      Arrays.fill(stale, true);
+    }
+
+    public int numFactors() {
+      return factors.size();
+    }
+
+    public TensorBuilder getFactor(int index) {
+      return factors.get(index);
+    }
+
+    public int[] getVariableIndexes(int index) {
+      return variableIndexes[index];
+    }
+
+    public int[] getBestValues(int index) {
+      return bestValues[index];
+    }
 
-      SparseTensor unaryGradient = SparseTensor.singleElement(new int[] { variableNum },
-          new int[] { variableSize }, new int[] { bestUnaryValue }, 1);
-      SparseTensor factorGradient = SparseTensor.singleElement(new int[] { variableNum },
-          new int[] { variableSize }, new int[] { bestFactorValue }, 1);
+    public void markStale(int index) {
+      stale[index] = true;
+    }
 
-      unaryFactor.incrementWithMultiplier(unaryGradient, -1.0 * stepSize);
-      unaryFactor.incrementWithMultiplier(factorGradient, stepSize);
-      factor.incrementWithMultiplier(unaryGradient, stepSize);
-      factor.incrementWithMultiplier(factorGradient, -1.0 * stepSize);
+    /**
+     * Gets the total weight of the maximum weight assignment to each factor.
+     */
+    public double getTotalWeight() {
+      double total = 0.0;
+      for (int i = 0; i < bestWeights.length; i++) {
+        total += bestWeights[i];
+      }
+      return total;
     }
 
-    return variableDisagreementList.size();
+    /**
+     * Decodes every stale factor, using {@code executor} to decode them in
+     * parallel if it is non-null.
+     */
+    public void decode(ExecutorService executor, int numThreads) {
+      List<Integer> toDecode = Lists.newArrayList();
+      for (int i = 0; i < stale.length; i++) {
+        if (stale[i]) {
+          toDecode.add(i);
+        }
+      }
+
+      if (executor == null || toDecode.size() <= 1) {
+        for (int index : toDecode) {
+          decodeFactor(index);
+        }
+      } else {
+        int batchSize = (int) Math.ceil(((double) toDecode.size()) / numThreads);
+        List<Future<Void>> results = Lists.newArrayList();
+        for (int start = 0; start < toDecode.size(); start += batchSize) {
+          results.add(executor.submit(new DecodeFactorsCallable(this,
+              toDecode.subList(start, Math.min(start + batchSize, toDecode.size())))));
+        }
+
+        try {
+          for (Future<Void> result : results) {
+            result.get();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          throw Throwables.propagate(e.getCause());
+        }
+      }
+    }
+
+    private void decodeFactor(int index) {
+      TensorBuilder factor = factors.get(index);
+      long bestKeyNum = factor.getLargestValues(1)[0];
+      bestValues[index] = factor.keyNumToDimKey(bestKeyNum);
+      bestWeights[index] = factor.get(bestKeyNum);
+      stale[index] = false;
+    }
+  }
+
+  private static class DecodeFactorsCallable implements Callable<Void> {
+    private final DecodedFactors decodedFactors;
+    private final List<Integer> indexes;
+
+    public DecodeFactorsCallable(DecodedFactors decodedFactors, List<Integer> indexes) {
+      this.decodedFactors = decodedFactors;
+      this.indexes = indexes;
+    }
+
+    @Override
+    public Void call() {
+      for (int index : indexes) {
+        decodedFactors.decodeFactor(index);
+      }
+      return null;
+    }
   }
 }
@@ -3,9 +3,12 @@ package com.jayantkrish.jklol.inference;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
+import com.jayantkrish.jklol.inference.MappedFactorStore.MappedFactor;
 import com.jayantkrish.jklol.models.Factor;
 import com.jayantkrish.jklol.models.TableFactor;
 import com.jayantkrish.jklol.models.VariableNumMap;
@@ -20,7 +23,10 @@ import com.jayantkrish.jklol.util.IntMultimap;
  */
 public class FactorMarginalSet extends AbstractMarginalSet {
 
-  private final ImmutableList<Factor> allFactors;
+  private final List<Factor> allFactors;
+  // Factors stored on disk, which are marginalized without reading them
+  // into memory. null if no factors are stored.
+  private final List<MappedFactor> storedFactors;
   private final IntMultimap variableFactorMap;
   private final double logPartitionFunction;
 
@@ -35,19 +41,42 @@ public class FactorMarginalSet extends AbstractMarginalSet {
    */
   public FactorMarginalSet(Collection<Factor> factors, double logPartitionFunction,
       VariableNumMap conditionedVariables, Assignment conditionedValues) {
-    super(getVariablesFromFactors(factors), conditionedVariables, conditionedValues);
-    this.allFactors = ImmutableList.copyOf(factors);
+    this(ImmutableList.copyOf(factors), null, getFactorVariables(factors), logPartitionFunction,
+        conditionedVariables, conditionedValues);
+  }
+
+  /**
+   * Constructs a {@code FactorMarginalSet} whose {@code i}th factor is defined
+   * over {@code factorVariables.get(i)}. {@code factors} is not copied, and
+   * each of its factors is retrieved only when it is needed to compute a
+   * marginal. If {@code storedFactors} is non-null, each of its non-null
+   * elements replaces the corresponding element of {@code factors} when
+   * computing marginals, and is marginalized one block at a time.
+   *
+   * @param factors
+   * @param storedFactors
+   * @param factorVariables
+   * @param logPartitionFunction
+   * @param conditionedVariables
+   * @param conditionedValues
+   */
+  FactorMarginalSet(List<Factor> factors, List<MappedFactor> storedFactors,
+      List<VariableNumMap> factorVariables, double logPartitionFunction,
+      VariableNumMap conditionedVariables, Assignment conditionedValues) {
+    super(VariableNumMap.unionAll(factorVariables), conditionedVariables, conditionedValues);
+    this.allFactors = factors;
+    this.storedFactors = storedFactors;
 
     int numEntries = 0;
-    for (int i = 0; i < allFactors.size(); i++) {
-      numEntries += allFactors.get(i).getVars().size();
+    for (int i = 0; i < factorVariables.size(); i++) {
+      numEntries += factorVariables.get(i).size();
     }
 
     int[] keys = new int[numEntries];
     int[] values = new int[numEntries];
     int numFilled = 0;
-    for (int i = 0; i < allFactors.size(); i++) {
-      for (int variableNum : allFactors.get(i).getVars().getVariableNumsArray()) {
+    for (int i = 0; i < factorVariables.size(); i++) {
+      for (int variableNum : factorVariables.get(i).getVariableNumsArray()) {
         keys[numFilled] = variableNum;
         values[numFilled] = i;
         numFilled++;
@@ -73,12 +102,12 @@ public class FactorMarginalSet extends AbstractMarginalSet {
     return new FactorMarginalSet(Collections.<Factor>emptyList(), logPartitionFunction, conditionedVariables, conditionedValues);
   }
   
-  private static final VariableNumMap getVariablesFromFactors(Collection<Factor> factors) { 
-    VariableNumMap output = VariableNumMap.EMPTY;
+  private static List<VariableNumMap> getFactorVariables(Collection<Factor> factors) {
+    List<VariableNumMap> factorVariables = Lists.newArrayList();
     for (Factor factor : factors) {
-      output = output.union(factor.getVars());
+      factorVariables.add(factor.getVars());
     }
-    return output;
+    return factorVariables;
   }
 
   @Override
@@ -117,6 +146,11 @@ public class FactorMarginalSet extends AbstractMarginalSet {
       return computeMarginalFromMultipleFactors(varNums);
     }
 
+    if (storedFactors != null && storedFactors.get(factorNum) != null) {
+      MappedFactor storedFactor = storedFactors.get(factorNum);
+      return storedFactor.marginalize(storedFactor.getVars().removeAll(varNums));
+    }
+
     // Pick an arbitrary factor to use for the marginal
     Factor marginal = allFactors.get(factorNum);
 
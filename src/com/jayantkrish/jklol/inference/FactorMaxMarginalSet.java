@@ -1,10 +1,14 @@
 package com.jayantkrish.jklol.inference;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.SortedSet;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.jayantkrish.jklol.inference.JunctionTree.CliqueTree;
 import com.jayantkrish.jklol.inference.MarginalCalculator.ZeroProbabilityError;
@@ -15,6 +19,12 @@ import com.jayantkrish.jklol.util.Assignment;
 
 /**
  * Max-marginals computed from a list of max-marginal {@code Factor}s.
+ * <p>
+ * Assignments beyond the most probable one are found by partitioning the
+ * space of assignments in the style of Lawler and Nilsson. The calibrated
+ * clique marginals determine the best assignment in each partition, so each
+ * additional assignment requires time roughly linear in the size of the
+ * clique tree.
  * 
  * @author jayant
  */
@@ -29,6 +39,13 @@ public class FactorMaxMarginalSet implements MaxMarginalSet {
     this.conditionedValues = Preconditions.checkNotNull(conditionedValues);
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * Only the best assignment is computed eagerly. However, any number of
+   * assignments can be retrieved using {@link #getBestAssignments(int)} or
+   * {@link #getNthBestAssignment(int)}.
+   */
   @Override
   public int beamSize() {
     return 1;
@@ -36,9 +53,33 @@ public class FactorMaxMarginalSet implements MaxMarginalSet {
 
   @Override
   public Assignment getNthBestAssignment(int n) {
-    // At the moment, only the best assignment is supported.
-    Preconditions.checkArgument(n == 0);
-    return getBestAssignment(Assignment.EMPTY, cliqueTree, 0);
+    Preconditions.checkArgument(n >= 0);
+    if (n == 0) {
+      return getBestAssignment(Assignment.EMPTY, cliqueTree, 0);
+    }
+
+    List<Assignment> bestAssignments = getBestAssignments(n + 1);
+    if (bestAssignments.size() <= n) {
+      throw new ZeroProbabilityError();
+    }
+    return bestAssignments.get(n);
+  }
+
+  @Override
+  public List<Assignment> getBestAssignments(int k) {
+    Preconditions.checkArgument(k >= 0);
+    if (k == 0) {
+      return Collections.emptyList();
+    } else if (cliqueTree.numFactors() == 0) {
+      return Collections.singletonList(conditionedValues);
+    }
+
+    KBestDecoder decoder = new KBestDecoder(cliqueTree);
+    List<Assignment> bestAssignments = Lists.newArrayList();
+    for (Assignment assignment : decoder.decode(k)) {
+      bestAssignments.add(assignment.union(conditionedValues));
+    }
+    return bestAssignments;
   }
 
   @Override
@@ -53,10 +94,8 @@ public class FactorMaxMarginalSet implements MaxMarginalSet {
 
     // Check that computing such an assignment is possible given the factors.
     Assignment factorPortion = portion.removeAll(conditionedValues.getVariableNumsArray());
-    List<Factor> factorGraphFactors = cliqueTree.getMarginals();
-    for (int i = 0; i < factorGraphFactors.size(); i++) {
-      Factor factor = factorGraphFactors.get(i);
-      if (factor.getVars().containsAll(factorPortion.getVariableNumsArray())) {
+    for (int i = 0; i < cliqueTree.numFactors(); i++) {
+      if (cliqueTree.getFactorVars(i).containsAll(factorPortion.getVariableNumsArray())) {
         return getBestAssignment(portion, cliqueTree, i);
       }
     }
@@ -77,7 +116,7 @@ public class FactorMaxMarginalSet implements MaxMarginalSet {
    * @return
    */
   private Assignment getBestAssignment(Assignment portion, CliqueTree cliqueTree, int initialFactor) {
-    if (cliqueTree.getMarginals().size() == 0) {
+    if (cliqueTree.numFactors() == 0) {
       // Special case where the factor graph has no factors in it.
       return conditionedValues;
     } else {
@@ -118,18 +157,13 @@ public class FactorMaxMarginalSet implements MaxMarginalSet {
    */
   private static Assignment getBestAssignmentGiven(CliqueTree cliqueTree, int factorNum,
       Set<Integer> visitedFactors, Assignment a) {
-    Factor curFactor = cliqueTree.getMarginal(factorNum);
-    List<Assignment> bestAssignments = curFactor.conditional(a).getMostLikelyAssignments(1);
-    if (bestAssignments.size() == 0) {
+    Assignment bestAssignment = cliqueTree.getMostLikelyAssignment(factorNum, a);
+    if (bestAssignment == null) {
       // This condition implies that the factor graph does not have a positive
       // probability assignment.
       throw new ZeroProbabilityError();
     }
-
-    Assignment best = bestAssignments.get(0).union(a);
-    if (curFactor.getUnnormalizedLogProbability(best) == Double.NEGATIVE_INFINITY) {
-      throw new ZeroProbabilityError();
-    }
+    Assignment best = bestAssignment.union(a);
 
     visitedFactors.add(factorNum);
 
@@ -145,14 +179,15 @@ public class FactorMaxMarginalSet implements MaxMarginalSet {
 
   @Override
   public Factor getMaxMarginal(VariableNumMap variables) {
-    for (Factor factor : cliqueTree.getMarginals()) {
+    for (int i = 0; i < cliqueTree.numFactors(); i++) {
       // Find a factor which contains all of the variables.
-      if (factor.getVars().containsAll(variables)) {
-        return factor.maxMarginalize(factor.getVars().removeAll(variables));
+      VariableNumMap factorVars = cliqueTree.getFactorVars(i);
+      if (factorVars.containsAll(variables)) {
+        return cliqueTree.maxMarginalize(i, Assignment.EMPTY, factorVars.removeAll(variables));
       }
     }
 
-    if (variables.size() == 0 && cliqueTree.getMarginals().size() == 0) {
+    if (variables.size() == 0 && cliqueTree.numFactors() == 0) {
       return TableFactor.unity(VariableNumMap.EMPTY);
     }
 
@@ -160,4 +195,245 @@ public class FactorMaxMarginalSet implements MaxMarginalSet {
     throw new IllegalArgumentException(
         "Graph does not contain a factor with all variables: " + variables);
   }
+
+  /**
+   * Finds the {@code k} best assignments to the variables of a calibrated
+   * clique tree.
+   * <p>
+   * Variables are ordered by a depth-first traversal of the clique tree. In
+   * this order, the max-marginal of any prefix assignment can be computed from
+   * the clique marginals: it is the product of {@code mu(C) / mu(S)} for each
+   * clique {@code C} whose variables are all assigned, maximized over the
+   * unassigned variables of the current clique, where {@code S} is the
+   * clique's separator with the earlier cliques. Each partition of the
+   * assignment space fixes a prefix of the variables and excludes some values
+   * of the next variable, so its best assignment is found greedily.
+   */
+  private static class KBestDecoder {
+    // Clique marginals are read through the clique tree, which computes
+    // max-marginals of stored cliques one block at a time.
+    private final CliqueTree cliqueTree;
+
+    // Clique numbers and their max-marginals over each clique's separator,
+    // in depth-first order.
+    private final List<Integer> cliques;
+    private final List<Factor> separators;
+
+    // Variables in the order they are first assigned, along with the
+    // (depth-first) index of the clique which first contains each variable.
+    private final int[] variableOrder;
+    private final int[] variableCliques;
+
+    public KBestDecoder(CliqueTree cliqueTree) {
+      this.cliqueTree = cliqueTree;
+      cliques = Lists.newArrayList();
+      separators = Lists.newArrayList();
+      List<Integer> variables = Lists.newArrayList();
+      List<Integer> varCliques = Lists.newArrayList();
+
+      Set<Integer> visited = Sets.newHashSet();
+      VariableNumMap assigned = VariableNumMap.EMPTY;
+      for (int i = 0; i < cliqueTree.numFactors(); i++) {
+        if (visited.contains(i)) {
+          continue;
+        }
+
+        // Depth-first traversal of the tree containing clique i.
+        List<Integer> stack = Lists.newArrayList(i);
+        visited.add(i);
+        while (stack.size() > 0) {
+          int cliqueNum = stack.remove(stack.size() - 1);
+          VariableNumMap cliqueVars = cliqueTree.getFactorVars(cliqueNum);
+          VariableNumMap residualVars = cliqueVars.removeAll(assigned);
+
+          for (int varNum : residualVars.getVariableNumsArray()) {
+            variables.add(varNum);
+            varCliques.add(cliques.size());
+          }
+          cliques.add(cliqueNum);
+          separators.add(cliqueTree.maxMarginalize(cliqueNum, Assignment.EMPTY, residualVars));
+          assigned = assigned.union(residualVars);
+
+          for (int neighbor : cliqueTree.getNeighboringFactors(cliqueNum)) {
+            if (!visited.contains(neighbor)) {
+              visited.add(neighbor);
+              stack.add(neighbor);
+            }
+          }
+        }
+      }
+
+      variableOrder = new int[variables.size()];
+      variableCliques = new int[variables.size()];
+      for (int i = 0; i < variables.size(); i++) {
+        variableOrder[i] = variables.get(i);
+        variableCliques[i] = varCliques.get(i);
+      }
+    }
+
+    public List<Assignment> decode(int k) {
+      List<Assignment> bestAssignments = Lists.newArrayList();
+      if (variableOrder.length == 0) {
+        bestAssignments.add(Assignment.EMPTY);
+        return bestAssignments;
+      }
+
+      PriorityQueue<Partition> queue = new PriorityQueue<Partition>();
+      Partition initial = createPartition(Assignment.EMPTY, 0, Collections.<Assignment>emptySet(),
+          new double[cliques.size() + 1]);
+      if (initial == null) {
+        throw new ZeroProbabilityError();
+      }
+      queue.offer(initial);
+
+      while (bestAssignments.size() < k && queue.size() > 0) {
+        Partition partition = queue.poll();
+        Assignment best = complete(partition);
+        bestAssignments.add(best);
+
+        if (bestAssignments.size() == k) {
+          break;
+        }
+
+        // Split the remainder of the partition into disjoint partitions. The
+        // ith new partition agrees with best on the variables before i, and
+        // disagrees with it on variable i.
+        double[] cumulativeScores = getCumulativeScores(best);
+        for (int i = partition.getIndex(); i < variableOrder.length; i++) {
+          Set<Assignment> excluded = null;
+          Assignment bestValue = best.intersection(variableOrder[i]);
+          if (i == partition.getIndex()) {
+            excluded = Sets.newHashSet(partition.getExcludedValues());
+            excluded.add(bestValue);
+          } else {
+            excluded = Collections.singleton(bestValue);
+          }
+
+          Assignment prefix = best.intersection(Arrays.copyOf(variableOrder, i));
+          Partition next = createPartition(prefix, i, excluded, cumulativeScores);
+          if (next != null) {
+            queue.offer(next);
+          }
+        }
+      }
+      return bestAssignments;
+    }
+
+    /**
+     * Creates the partition of assignments that agree with {@code prefix} and
+     * assign variable {@code index} a value not in {@code excluded}. Returns
+     * {@code null} if every such assignment has zero probability.
+     * {@code cumulativeScores} must be the cumulative scores of an assignment
+     * containing {@code prefix}.
+     */
+    private Partition createPartition(Assignment prefix, int index, Set<Assignment> excluded,
+        double[] cumulativeScores) {
+      int cliqueIndex = variableCliques[index];
+      double separatorLogProb = separators.get(cliqueIndex).getUnnormalizedLogProbability(
+          prefix.intersection(separators.get(cliqueIndex).getVars()));
+      if (separatorLogProb == Double.NEGATIVE_INFINITY) {
+        return null;
+      }
+
+      Factor valueMaxMarginal = getValueMaxMarginal(index, prefix);
+      for (Assignment value : valueMaxMarginal.getMostLikelyAssignments(excluded.size() + 1)) {
+        if (!excluded.contains(value)) {
+          double logProb = valueMaxMarginal.getUnnormalizedLogProbability(value);
+          if (logProb == Double.NEGATIVE_INFINITY) {
+            return null;
+          }
+          double score = cumulativeScores[cliqueIndex] + logProb - separatorLogProb;
+          return new Partition(prefix, index, excluded, value, score);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Gets the best assignment in {@code partition}, by greedily assigning the
+     * variables after the partition's prefix.
+     */
+    private Assignment complete(Partition partition) {
+      Assignment current = partition.getPrefix().union(partition.getBestValue());
+      for (int i = partition.getIndex() + 1; i < variableOrder.length; i++) {
+        List<Assignment> values = getValueMaxMarginal(i, current).getMostLikelyAssignments(1);
+        Preconditions.checkState(values.size() == 1);
+        current = current.union(values.get(0));
+      }
+      return current;
+    }
+
+    /**
+     * Gets the max-marginal distribution over the {@code index}th variable
+     * given {@code prefix}, up to a constant factor.
+     */
+    private Factor getValueMaxMarginal(int index, Assignment prefix) {
+      int cliqueNum = cliques.get(variableCliques[index]);
+      return cliqueTree.maxMarginalize(cliqueNum, prefix,
+          cliqueTree.getFactorVars(cliqueNum).removeAll(variableOrder[index]));
+    }
+
+    /**
+     * Computes the sum of {@code log mu(C) - log mu(S)} for each prefix of the
+     * cliques, given the full assignment {@code assignment}.
+     */
+    private double[] getCumulativeScores(Assignment assignment) {
+      double[] cumulativeScores = new double[cliques.size() + 1];
+      for (int i = 0; i < cliques.size(); i++) {
+        int cliqueNum = cliques.get(i);
+        Factor separator = separators.get(i);
+        cumulativeScores[i + 1] = cumulativeScores[i]
+            + cliqueTree.getUnnormalizedLogProbability(cliqueNum,
+                assignment.intersection(cliqueTree.getFactorVars(cliqueNum)))
+            - separator.getUnnormalizedLogProbability(assignment.intersection(separator.getVars()));
+      }
+      return cumulativeScores;
+    }
+  }
+
+  /**
+   * A set of assignments which agree with {@code prefix} and assign
+   * the {@code index}th variable a value not in {@code excludedValues}.
+   * {@code bestValue} is the best value for that variable, and {@code score}
+   * is the log max-marginal of the best assignment in the set.
+   */
+  private static class Partition implements Comparable<Partition> {
+    private final Assignment prefix;
+    private final int index;
+    private final Set<Assignment> excludedValues;
+
+    private final Assignment bestValue;
+    private final double score;
+
+    public Partition(Assignment prefix, int index, Set<Assignment> excludedValues,
+        Assignment bestValue, double score) {
+      this.prefix = prefix;
+      this.index = index;
+      this.excludedValues = excludedValues;
+      this.bestValue = bestValue;
+      this.score = score;
+    }
+
+    public Assignment getPrefix() {
+      return prefix;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public Set<Assignment> getExcludedValues() {
+      return excludedValues;
+    }
+
+    public Assignment getBestValue() {
+      return bestValue;
+    }
+
+    @Override
+    public int compareTo(Partition other) {
+      // Higher scoring partitions come first.
+      return Double.compare(other.score, score);
+    }
+  }
 }
@@ -1,113 +1,366 @@
 package com.jayantkrish.jklol.inference;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import com.jayantkrish.jklol.models.DiscreteVariable;
 import com.jayantkrish.jklol.models.Factor;
 import com.jayantkrish.jklol.models.FactorGraph;
-import com.jayantkrish.jklol.models.Variable;
-import com.jayantkrish.jklol.util.Assignment;
+import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.parallel.LazyThreadPool;
+import com.jayantkrish.jklol.tensor.Tensor;
+import com.jayantkrish.jklol.util.Pseudorandom;
 
 /**
  * An implementation of Gibbs sampling for computing approximate marginals.
  * <p>
- * Does not work on FactorGraphs with 0 probability outcomes! 
+ * The sampler can run multiple independent Markov chains on separate threads.
+ * The samples from all chains are merged to compute the returned marginals.
+ * Each chain's state is a value index for every variable, and each variable's
+ * conditional distribution is computed by directly indexing into the weights
+ * of the factors in its Markov blanket.
+ * <p>
+ * Factor graphs with 0 probability outcomes are only partially supported: if
+ * every value of a variable has 0 probability given the current values of the
+ * other variables, the variable's new value is sampled uniformly. This allows
+ * the sampler to escape from a 0 probability initial state, but the returned
+ * marginals may be incorrect if the chain cannot find a positive probability
+ * state during burn-in.
  */
 public class GibbsSampler implements MarginalCalculator {
   private static final long serialVersionUID = 1L;
 
-	private int burnInSamples;
-	private int numDrawsInMarginal;
-	private int samplesBetweenDraws;
-
-	public GibbsSampler(int burnInSamples, int numDrawsInMarginal, int samplesBetweenDraws) {
-		this.burnInSamples = burnInSamples;
-		this.numDrawsInMarginal = numDrawsInMarginal;
-		this.samplesBetweenDraws = samplesBetweenDraws;
-	}
-
-	@Override
-	public MarginalSet computeMarginals(FactorGraph factorGraph) {
-	  Assignment curAssignment = initializeAssignment(factorGraph);
-
-		// Burn in the sampler
-		for (int i = 0; i < burnInSamples; i++) {
-			curAssignment = doSamplingRound(factorGraph, curAssignment);
-		}
-
-		// Draw the samples which will make up the approximate marginal.
-    List<Assignment> samples = new ArrayList<Assignment>();
-		for (int numDraws = 0; numDraws < numDrawsInMarginal; numDraws++) {
-			for (int i = 0; i < samplesBetweenDraws; i++) {
-				curAssignment = doSamplingRound(factorGraph, curAssignment);
-			}
-			curAssignment = doSamplingRound(factorGraph, curAssignment);
-			samples.add(curAssignment);
-		}
-		return new SampleMarginalSet(factorGraph.getVariables(), samples, 
-		    factorGraph.getConditionedVariables(), factorGraph.getConditionedValues());
-	}
-
-	/**
-	 * GibbsSampler cannot compute max marginals. Throws a runtime exception if called.
-	 */
-	@Override
-	public MaxMarginalSet computeMaxMarginals(FactorGraph factorGraph) {
-		throw new UnsupportedOperationException("Max marginals are not supported by Gibbs sampling");
-	}
-
-	/*
-	 * Set the assignment variable to an arbitrary initial value.
-	 */
-	private Assignment initializeAssignment(FactorGraph factorGraph) {
-		// Select the initial assignment. 
-	  // TODO: Perform a search to find an outcome with nonzero probability.
-	  
-		Variable[] variables = factorGraph.getVariables().getVariablesArray();
-		int[] varNums = factorGraph.getVariables().getVariableNumsArray();
-		Object[] values = new Object[variables.length];
-		for (int i = 0; i < variables.length; i++) {
-			values[i] = variables[i].getArbitraryValue();
-		}
-		return Assignment.fromSortedArrays(varNums, values);
-	}
-
-	/*
-	 * Sample each variable in the factor graph once.
-	 */
-	private Assignment doSamplingRound(FactorGraph factorGraph, Assignment curAssignment) {
-	  Assignment assignment = curAssignment;
-	  int[] variableNums = factorGraph.getVariables().getVariableNumsArray();
-		for (int i = 0; i < variableNums.length; i++) {
-			assignment = doSample(factorGraph, assignment, variableNums[i]);
-		}
-		return assignment;
-	}
-
-	/*
-	 * Resample the specified variable conditioned on all of the other variables.
-	 */
-	private Assignment doSample(FactorGraph factorGraph, Assignment curAssignment, int varNum) {
-		// Retain the assignments to all other variables.
-		Assignment otherVarAssignment = curAssignment.removeAll(varNum);
-
-		// Multiply together all of the factors which define a probability distribution over 
-		// variable varNum, conditioned on all other variables.
-		Set<Integer> factorNums = factorGraph.getFactorsWithVariable(varNum);
-
-		Preconditions.checkState(factorNums.size() > 0, "Variable not in factor: " + varNum + " " + factorNums);
-		List<Factor> factorsToCombine = new ArrayList<Factor>();
-		for (Integer factorNum : factorNums) {
-			Factor conditional = factorGraph.getFactor(factorNum)
-				.conditional(otherVarAssignment);
-			factorsToCombine.add(conditional.marginalize(otherVarAssignment.getVariableNums()));
-		}
-		Factor toSampleFrom = factorsToCombine.get(0).product(factorsToCombine.subList(1, factorsToCombine.size()));
-		// Draw the sample and update the sampler's current assignment. 
-		Assignment subsetValues = toSampleFrom.sample();
-		
-		return otherVarAssignment.union(subsetValues);
-	}
-}
\ No newline at end of file
+  private final int burnInSamples;
+  private final int numDrawsInMarginal;
+  private final int samplesBetweenDraws;
+
+  private final int numChains;
+  private final int numThreads;
+
+  // Threads used to run chains in parallel, created on first use and
+  // shared by every inference call on this object.
+  private final LazyThreadPool pool;
+
+  /**
+   * Creates a Gibbs sampler that runs a single Markov chain.
+   *
+   * @param burnInSamples number of sampling rounds to discard before drawing
+   * samples.
+   * @param numDrawsInMarginal number of samples used to compute the marginals.
+   * @param samplesBetweenDraws number of sampling rounds discarded between
+   * consecutive samples.
+   */
+  public GibbsSampler(int burnInSamples, int numDrawsInMarginal, int samplesBetweenDraws) {
+    this(burnInSamples, numDrawsInMarginal, samplesBetweenDraws, 1, 1);
+  }
+
+  /**
+   * Creates a Gibbs sampler that runs {@code numChains} independent Markov
+   * chains using {@code numThreads} threads. Each chain is separately burned
+   * in, and the {@code numDrawsInMarginal} samples are divided evenly amongst
+   * the chains.
+   *
+   * @param burnInSamples
+   * @param numDrawsInMarginal
+   * @param samplesBetweenDraws
+   * @param numChains
+   * @param numThreads
+   */
+  public GibbsSampler(int burnInSamples, int numDrawsInMarginal, int samplesBetweenDraws,
+      int numChains, int numThreads) {
+    Preconditions.checkArgument(numChains >= 1);
+    Preconditions.checkArgument(numThreads >= 1);
+    this.burnInSamples = burnInSamples;
+    this.numDrawsInMarginal = numDrawsInMarginal;
+    this.samplesBetweenDraws = samplesBetweenDraws;
+    this.numChains = numChains;
+    this.numThreads = numThreads;
+    this.pool = new LazyThreadPool(Math.min(numThreads, numChains));
+  }
+
+  @Override
+  public MarginalSet computeMarginals(FactorGraph factorGraph) {
+    CompiledFactorGraph compiled = new CompiledFactorGraph(factorGraph);
+
+    // The first (numDrawsInMarginal % numChains) chains draw one extra
+    // sample, so that exactly numDrawsInMarginal samples are drawn.
+    int drawsPerChain = numDrawsInMarginal / numChains;
+    int numExtraDraws = numDrawsInMarginal % numChains;
+    List<GibbsChain> chains = Lists.newArrayList();
+    for (int i = 0; i < numChains; i++) {
+      // Seeds are drawn from the global random number generator so that
+      // sampling is deterministic given its seed.
+      chains.add(new GibbsChain(compiled, new Random(Pseudorandom.get().nextLong()),
+          drawsPerChain + (i < numExtraDraws ? 1 : 0)));
+    }
+
+    List<int[][]> chainSamples = Lists.newArrayList();
+    if (numThreads == 1 || numChains == 1) {
+      for (GibbsChain chain : chains) {
+        chainSamples.add(chain.call());
+      }
+    } else {
+      ExecutorService executor = pool.get();
+      try {
+        List<Future<int[][]>> results = Lists.newArrayList();
+        for (GibbsChain chain : chains) {
+          results.add(executor.submit(chain));
+        }
+        for (Future<int[][]> result : results) {
+          chainSamples.add(result.get());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+
+    // Merge the samples from each chain.
+    int[][] samples = new int[numDrawsInMarginal][];
+    int numFilled = 0;
+    for (int[][] chainSample : chainSamples) {
+      System.arraycopy(chainSample, 0, samples, numFilled, chainSample.length);
+      numFilled += chainSample.length;
+    }
+
+    return new SampleMarginalSet(factorGraph.getVariables(), samples,
+        factorGraph.getConditionedVariables(), factorGraph.getConditionedValues());
+  }
+
+  /**
+   * Terminates the threads used to run chains in parallel.
+   * This object remains usable after this call.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * GibbsSampler cannot compute max marginals. Throws a runtime exception if
+   * called.
+   */
+  @Override
+  public MaxMarginalSet computeMaxMarginals(FactorGraph factorGraph) {
+    throw new UnsupportedOperationException("Max marginals are not supported by Gibbs sampling");
+  }
+
+  /**
+   * A single Markov chain, whose state is a value index for each variable.
+   */
+  private class GibbsChain implements Callable<int[][]> {
+    private final CompiledFactorGraph graph;
+    private final Random random;
+    private final int numDraws;
+
+    // The current state of the chain.
+    private final int[] values;
+    // Scratch space for computing conditional distributions.
+    private final double[] logWeights;
+
+    public GibbsChain(CompiledFactorGraph graph, Random random, int numDraws) {
+      this.graph = graph;
+      this.random = random;
+      this.numDraws = numDraws;
+
+      // Initialize every variable to an arbitrary value.
+      // TODO: Perform a search to find an outcome with nonzero probability.
+      this.values = new int[graph.numVariables()];
+      this.logWeights = new double[graph.getMaxVariableSize()];
+    }
+
+    @Override
+    public int[][] call() {
+      // Burn in the sampler
+      for (int i = 0; i < burnInSamples; i++) {
+        doSamplingRound();
+      }
+
+      // Draw the samples which will make up the approximate marginal.
+      int[][] samples = new int[numDraws][];
+      for (int numDrawn = 0; numDrawn < numDraws; numDrawn++) {
+        for (int i = 0; i < samplesBetweenDraws; i++) {
+          doSamplingRound();
+        }
+        doSamplingRound();
+        samples[numDrawn] = Arrays.copyOf(values, values.length);
+      }
+      return samples;
+    }
+
+    /**
+     * Sample each variable in the factor graph once.
+     */
+    private void doSamplingRound() {
+      for (int i = 0; i < values.length; i++) {
+        values[i] = doSample(i);
+      }
+    }
+
+    /**
+     * Resample the {@code variableIndex}th variable conditioned on all of the
+     * other variables.
+     */
+    private int doSample(int variableIndex) {
+      int size = graph.getVariableSize(variableIndex);
+      graph.computeConditionalLogWeights(variableIndex, values, logWeights);
+
+      double max = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < size; i++) {
+        max = Math.max(max, logWeights[i]);
+      }
+
+      if (max == Double.NEGATIVE_INFINITY) {
+        // Every value has zero probability given the other variables.
+        return random.nextInt(size);
+      }
+
+      double total = 0.0;
+      for (int i = 0; i < size; i++) {
+        logWeights[i] = Math.exp(logWeights[i] - max);
+        total += logWeights[i];
+      }
+
+      double draw = random.nextDouble() * total;
+      double sum = 0.0;
+      for (int i = 0; i < size; i++) {
+        sum += logWeights[i];
+        if (draw < sum) {
+          return i;
+        }
+      }
+      // Only reachable due to floating point rounding.
+      return size - 1;
+    }
+  }
+
+  /**
+   * Read-only representation of a discrete factor graph that supports
+   * efficiently computing the conditional distribution of a single variable.
+   * Each variable stores the factors it participates in, along with the
+   * offsets required to index into each factor's weights given the current
+   * values of the variable's Markov blanket.
+   */
+  private static class CompiledFactorGraph {
+    private final int[] variableSizes;
+    private final int maxVariableSize;
+
+    private final Tensor[] factorWeights;
+    // Indexes (into the variable arrays) of the variables of each factor, and
+    // the offset of each such variable's dimension in the factor's weights.
+    private final int[][] factorVariables;
+    private final long[][] factorOffsets;
+
+    // The factors containing each variable and the position of the variable
+    // within each factor's variables.
+    private final int[][] variableFactors;
+    private final int[][] variableFactorPositions;
+
+    public CompiledFactorGraph(FactorGraph factorGraph) {
+      VariableNumMap variables = factorGraph.getVariables();
+      Preconditions.checkArgument(variables.getDiscreteVariables().size() == variables.size(),
+          "Gibbs sampling only supports discrete variables.");
+      int[] variableNums = variables.getVariableNumsArray();
+      List<DiscreteVariable> variableTypes = variables.getDiscreteVariables();
+      variableSizes = new int[variableNums.length];
+      int maxSize = 0;
+      for (int i = 0; i < variableNums.length; i++) {
+        variableSizes[i] = variableTypes.get(i).numValues();
+        maxSize = Math.max(maxSize, variableSizes[i]);
+      }
+      maxVariableSize = maxSize;
+
+      List<Tensor> weights = Lists.newArrayList();
+      for (Factor factor : factorGraph.getFactors()) {
+        if (factor.getVars().size() > 0) {
+          weights.add(factor.coerceToDiscrete().getWeights());
+        }
+      }
+
+      factorWeights = weights.toArray(new Tensor[weights.size()]);
+      factorVariables = new int[factorWeights.length][];
+      factorOffsets = new long[factorWeights.length][];
+      List<List<Integer>> variableFactorLists = Lists.newArrayList();
+      List<List<Integer>> variablePositionLists = Lists.newArrayList();
+      for (int i = 0; i < variableNums.length; i++) {
+        variableFactorLists.add(Lists.<Integer> newArrayList());
+        variablePositionLists.add(Lists.<Integer> newArrayList());
+      }
+      for (int i = 0; i < factorWeights.length; i++) {
+        int[] dimensions = factorWeights[i].getDimensionNumbers();
+        factorOffsets[i] = factorWeights[i].getDimensionOffsets();
+        factorVariables[i] = new int[dimensions.length];
+        for (int j = 0; j < dimensions.length; j++) {
+          int variableIndex = Arrays.binarySearch(variableNums, dimensions[j]);
+          Preconditions.checkArgument(variableIndex >= 0);
+          factorVariables[i][j] = variableIndex;
+          variableFactorLists.get(variableIndex).add(i);
+          variablePositionLists.get(variableIndex).add(j);
+        }
+      }
+
+      variableFactors = new int[variableNums.length][];
+      variableFactorPositions = new int[variableNums.length][];
+      for (int i = 0; i < variableNums.length; i++) {
+        variableFactors[i] = Ints.toArray(variableFactorLists.get(i));
+        variableFactorPositions[i] = Ints.toArray(variablePositionLists.get(i));
+      }
+    }
+
+    public int numVariables() {
+      return variableSizes.length;
+    }
+
+    public int getVariableSize(int variableIndex) {
+      return variableSizes[variableIndex];
+    }
+
+    public int getMaxVariableSize() {
+      return maxVariableSize;
+    }
+
+    /**
+     * Computes the unnormalized log conditional distribution of
+     * {@code variableIndex} given the values of all other variables in
+     * {@code values}. The result is stored in the first
+     * {@code getVariableSize(variableIndex)} entries of {@code logWeights}.
+     */
+    public void computeConditionalLogWeights(int variableIndex, int[] values,
+        double[] logWeights) {
+      int size = variableSizes[variableIndex];
+      Arrays.fill(logWeights, 0, size, 0.0);
+
+      int[] factors = variableFactors[variableIndex];
+      int[] positions = variableFactorPositions[variableIndex];
+      for (int i = 0; i < factors.length; i++) {
+        int factor = factors[i];
+        int[] vars = factorVariables[factor];
+        long[] offsets = factorOffsets[factor];
+
+        // The key of the factor's weights where this variable takes value 0.
+        long baseKeyNum = 0;
+        for (int j = 0; j < vars.length; j++) {
+          if (j != positions[i]) {
+            baseKeyNum += values[vars[j]] * offsets[j];
+          }
+        }
+
+        Tensor weights = factorWeights[factor];
+        long variableOffset = offsets[positions[i]];
+        for (int j = 0; j < size; j++) {
+          logWeights[j] += weights.getLog(baseKeyNum + (j * variableOffset));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,287 @@
+package com.jayantkrish.jklol.inference;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.jayantkrish.jklol.models.DiscreteFactor;
+import com.jayantkrish.jklol.models.Factor;
+import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.tensor.DenseTensorBase;
+
+/**
+ * Fine-grained timings and table statistics for the individual factor
+ * operations performed by an inference algorithm. Each {@link Entry}
+ * records a single operation, e.g., multiplying messages into a clique
+ * or computing an outbound message, along with the size and sparsity
+ * of the table it produced.
+ * <p>
+ * Profiles are filled in by a {@link JunctionTree} constructed with
+ * profiling enabled, which reports one profile per inference call to
+ * the current {@link com.jayantkrish.jklol.training.LogFunction}. This
+ * class is not thread-safe.
+ *
+ * @author jayantk
+ */
+public class InferenceProfile {
+
+  // Approximate memory used per entry by dense and sparse tables.
+  private static final long DENSE_ENTRY_BYTES = 8;
+  private static final long SPARSE_ENTRY_BYTES = 16;
+
+  private final List<Entry> entries;
+
+  public InferenceProfile() {
+    this.entries = Lists.newArrayList();
+  }
+
+  /**
+   * Records an operation on the {@code cliqueNum}th clique which took
+   * {@code elapsedNanos} and produced {@code result}.
+   * {@code destCliqueNum} is the clique receiving the computed message,
+   * or {@code -1} if the operation does not compute a message.
+   *
+   * @param operation
+   * @param cliqueNum
+   * @param destCliqueNum
+   * @param elapsedNanos
+   * @param result
+   */
+  public void record(Operation operation, int cliqueNum, int destCliqueNum,
+      long elapsedNanos, Factor result) {
+    long numEntries = (long) result.size();
+    long entryBytes = SPARSE_ENTRY_BYTES;
+    if (result instanceof DiscreteFactor) {
+      numEntries = ((DiscreteFactor) result).getWeights().size();
+      if (((DiscreteFactor) result).getWeights() instanceof DenseTensorBase) {
+        entryBytes = DENSE_ENTRY_BYTES;
+      }
+    }
+    record(operation, cliqueNum, destCliqueNum, result.getVars(), elapsedNanos,
+        numEntries, numEntries * entryBytes);
+  }
+
+  /**
+   * Records an operation whose result is a table over {@code vars}
+   * with {@code numEntries} stored entries occupying
+   * {@code allocatedBytes}.
+   *
+   * @param operation
+   * @param cliqueNum
+   * @param destCliqueNum
+   * @param vars
+   * @param elapsedNanos
+   * @param numEntries
+   * @param allocatedBytes
+   */
+  public void record(Operation operation, int cliqueNum, int destCliqueNum,
+      VariableNumMap vars, long elapsedNanos, long numEntries, long allocatedBytes) {
+    entries.add(new Entry(operation, cliqueNum, destCliqueNum, vars, elapsedNanos,
+        numEntries, allocatedBytes));
+  }
+
+  /**
+   * Gets all recorded operations, in the order they were performed.
+   *
+   * @return
+   */
+  public List<Entry> getEntries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * Gets the {@code n} recorded operations which took the most time,
+   * slowest first.
+   *
+   * @param n
+   * @return
+   */
+  public List<Entry> getSlowestEntries(int n) {
+    List<Entry> sorted = Lists.newArrayList(entries);
+    Collections.sort(sorted, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry e1, Entry e2) {
+        return Long.signum(e2.getElapsedNanos() - e1.getElapsedNanos());
+      }
+    });
+    return sorted.subList(0, Math.min(n, sorted.size()));
+  }
+
+  /**
+   * Gets the total time spent in operations on the {@code cliqueNum}th
+   * clique, including messages sent by the clique.
+   *
+   * @param cliqueNum
+   * @return
+   */
+  public long getCliqueElapsedNanos(int cliqueNum) {
+    long total = 0;
+    for (Entry entry : entries) {
+      if (entry.getCliqueNum() == cliqueNum) {
+        total += entry.getElapsedNanos();
+      }
+    }
+    return total;
+  }
+
+  public long getTotalElapsedNanos() {
+    long total = 0;
+    for (Entry entry : entries) {
+      total += entry.getElapsedNanos();
+    }
+    return total;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Entry entry : entries) {
+      sb.append(entry);
+      sb.append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The kinds of factor operations recorded in a profile.
+   */
+  public static enum Operation {
+    /**
+     * Multiplying messages into a clique marginal.
+     */
+    PRODUCT,
+    /**
+     * Summing or maxing variables out of a clique marginal to compute a
+     * message.
+     */
+    MARGINALIZE,
+    /**
+     * Dividing a previously received message out of a computed message.
+     */
+    DIVIDE;
+
+    /**
+     * Gets a name for this kind of operation, suitable for aggregating
+     * timings across inference calls.
+     *
+     * @return
+     */
+    public String getName() {
+      return toString().toLowerCase();
+    }
+  }
+
+  /**
+   * A single profiled factor operation.
+   */
+  public static class Entry {
+    private final Operation operation;
+    private final int cliqueNum;
+    private final int destCliqueNum;
+    private final VariableNumMap vars;
+    private final long elapsedNanos;
+    private final long numEntries;
+    private final long allocatedBytes;
+
+    public Entry(Operation operation, int cliqueNum, int destCliqueNum, VariableNumMap vars,
+        long elapsedNanos, long numEntries, long allocatedBytes) {
+      this.operation = Preconditions.checkNotNull(operation);
+      this.cliqueNum = cliqueNum;
+      this.destCliqueNum = destCliqueNum;
+      this.vars = Preconditions.checkNotNull(vars);
+      this.elapsedNanos = elapsedNanos;
+      this.numEntries = numEntries;
+      this.allocatedBytes = allocatedBytes;
+    }
+
+    public Operation getOperation() {
+      return operation;
+    }
+
+    public int getCliqueNum() {
+      return cliqueNum;
+    }
+
+    /**
+     * Gets the clique receiving the message computed by this
+     * operation, or {@code -1} if this operation does not compute a
+     * message.
+     *
+     * @return
+     */
+    public int getDestCliqueNum() {
+      return destCliqueNum;
+    }
+
+    /**
+     * Gets the variables of the table produced by this operation.
+     *
+     * @return
+     */
+    public VariableNumMap getVars() {
+      return vars;
+    }
+
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /**
+     * Gets the number of entries stored by the table produced by this
+     * operation.
+     *
+     * @return
+     */
+    public long getNumEntries() {
+      return numEntries;
+    }
+
+    /**
+     * Gets the number of entries in a dense table over
+     * {@code getVars()}.
+     *
+     * @return
+     */
+    public double getTableSize() {
+      double tableSize = 1.0;
+      if (vars.getDiscreteVariables().size() == vars.size()) {
+        for (int size : vars.getVariableSizes()) {
+          tableSize *= size;
+        }
+      }
+      return tableSize;
+    }
+
+    /**
+     * Gets the fraction of the table produced by this operation which
+     * is stored explicitly.
+     *
+     * @return
+     */
+    public double getDensity() {
+      return numEntries / getTableSize();
+    }
+
+    /**
+     * Gets the approximate number of bytes allocated for the table
+     * produced by this operation.
+     *
+     * @return
+     */
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+      String cliques = destCliqueNum >= 0 ? cliqueNum + " -> " + destCliqueNum
+          : Integer.toString(cliqueNum);
+      return String.format("%s [%s] %s: %.3f ms, %d entries (density %.3f), %d bytes",
+          operation.getName(), Joiner.on(",").join(vars.getVariableNames()), cliques,
+          elapsedNanos / 1000000.0, numEntries, getDensity(), allocatedBytes);
+    }
+  }
+}
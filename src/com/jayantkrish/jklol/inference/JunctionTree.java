@@ -1,6 +1,8 @@
 package com.jayantkrish.jklol.inference;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -18,10 +20,16 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.google.common.collect.TreeMultimap;
+import com.jayantkrish.jklol.inference.InferenceProfile.Operation;
+import com.jayantkrish.jklol.inference.MappedFactorStore.MappedFactor;
+import com.jayantkrish.jklol.inference.MappedFactorStore.MappedFactorWriter;
+import com.jayantkrish.jklol.models.DiscreteFactor;
+import com.jayantkrish.jklol.models.DiscreteVariable;
 import com.jayantkrish.jklol.models.Factor;
 import com.jayantkrish.jklol.models.FactorGraph;
 import com.jayantkrish.jklol.models.SeparatorSet;
 import com.jayantkrish.jklol.models.TableFactor;
+import com.jayantkrish.jklol.models.Variable;
 import com.jayantkrish.jklol.models.VariableNumMap;
 import com.jayantkrish.jklol.training.LogFunction;
 import com.jayantkrish.jklol.training.LogFunctions;
@@ -39,6 +47,22 @@ import com.jayantkrish.jklol.util.Assignment;
  * to the original model. Essentially all graphical models where inference is
  * tractable should fall into this class. If an input factor graph cannot be
  * simplified, the marginal computation will throw an exception.
+ * <p>
+ * If a {@link MappedFactorStore} is provided, clique marginals which are too
+ * large to keep in memory are stored in memory-mapped scratch files. Products
+ * and messages for these cliques are computed one block at a time, where each
+ * block contains the entries for a single assignment to the clique's first
+ * few variables (see {@link MappedFactorStore#getNumBlockVariables}).
+ * Pruning is not applied to stored cliques. Large cliques created during
+ * variable elimination are never allocated in memory. The returned marginals
+ * and max-marginals are also computed from stored cliques one block at a
+ * time, and their scratch files are deleted once the marginals are garbage
+ * collected.
+ * <p>
+ * If profiling is enabled, the timings and table sizes of the individual factor
+ * operations performed by each inference call are recorded in an
+ * {@link InferenceProfile}, which is reported to the current
+ * {@code LogFunction}.
  */
 public class JunctionTree implements MarginalCalculator {
   private static final long serialVersionUID = 1L;
@@ -46,12 +70,18 @@ public class JunctionTree implements MarginalCalculator {
   private final boolean renormalize;
   private final PruningStrategy pruningStrategy;
 
+  private final EliminationHeuristic eliminationHeuristic;
+  private final double maxCliqueSize;
+  private final MarginalCalculator fallbackCalculator;
+
+  private final MappedFactorStore factorStore;
+  private final boolean profileOperations;
+
   /**
    * Creates a new junction tree without renormalization.
    */
   public JunctionTree() {
-    this.renormalize = false;
-    this.pruningStrategy = null;
+    this(false, null);
   }
 
   /**
@@ -63,13 +93,92 @@ public class JunctionTree implements MarginalCalculator {
    * distribution, but will not preserve the unnormalized weights of assignments.
    */
   public JunctionTree(boolean renormalize) {
-    this.renormalize = renormalize;
-    this.pruningStrategy = null;
+    this(renormalize, null);
   }
 
   public JunctionTree(boolean renormalize, PruningStrategy pruningStrategy) {
+    this(renormalize, pruningStrategy, EliminationHeuristic.MIN_FACTORS,
+        Double.POSITIVE_INFINITY, null);
+  }
+
+  /**
+   * Creates a new junction tree.
+   * 
+   * @param renormalize see {@link #JunctionTree(boolean)}.
+   * @param pruningStrategy if non-null, applied to clique marginals during
+   * message passing.
+   * @param eliminationHeuristic heuristic for choosing variables to eliminate
+   * when building the clique tree.
+   * @param maxCliqueSize the maximum number of entries in any clique created
+   * during variable elimination. Factor graphs whose clique trees require
+   * larger cliques are passed to {@code fallbackCalculator}.
+   * @param fallbackCalculator inference algorithm used when the clique tree
+   * exceeds {@code maxCliqueSize}. If {@code null}, a
+   * {@link CliqueTreeTooLargeException} is thrown instead. Only the
+   * single-variable marginals of this calculator are used; the marginal over
+   * each factor is the product of the marginals of its variables.
+   */
+  public JunctionTree(boolean renormalize, PruningStrategy pruningStrategy,
+      EliminationHeuristic eliminationHeuristic, double maxCliqueSize,
+      MarginalCalculator fallbackCalculator) {
+    this(renormalize, pruningStrategy, eliminationHeuristic, maxCliqueSize,
+        fallbackCalculator, null);
+  }
+
+  /**
+   * Creates a new junction tree which stores large clique marginals in
+   * {@code factorStore}.
+   * 
+   * @param renormalize see {@link #JunctionTree(boolean)}.
+   * @param pruningStrategy if non-null, applied to clique marginals during
+   * message passing.
+   * @param eliminationHeuristic heuristic for choosing variables to eliminate
+   * when building the clique tree.
+   * @param maxCliqueSize the maximum number of entries in any clique created
+   * during variable elimination.
+   * @param fallbackCalculator inference algorithm used when the clique tree
+   * exceeds {@code maxCliqueSize}.
+   * @param factorStore if non-null, clique marginals over tables larger than
+   * the store's threshold are kept in memory-mapped scratch files.
+   */
+  public JunctionTree(boolean renormalize, PruningStrategy pruningStrategy,
+      EliminationHeuristic eliminationHeuristic, double maxCliqueSize,
+      MarginalCalculator fallbackCalculator, MappedFactorStore factorStore) {
+    this(renormalize, pruningStrategy, eliminationHeuristic, maxCliqueSize,
+        fallbackCalculator, factorStore, false);
+  }
+
+  /**
+   * Creates a new junction tree which optionally profiles its factor
+   * operations.
+   * 
+   * @param renormalize see {@link #JunctionTree(boolean)}.
+   * @param pruningStrategy if non-null, applied to clique marginals during
+   * message passing.
+   * @param eliminationHeuristic heuristic for choosing variables to eliminate
+   * when building the clique tree.
+   * @param maxCliqueSize the maximum number of entries in any clique created
+   * during variable elimination.
+   * @param fallbackCalculator inference algorithm used when the clique tree
+   * exceeds {@code maxCliqueSize}.
+   * @param factorStore if non-null, clique marginals over tables larger than
+   * the store's threshold are kept in memory-mapped scratch files.
+   * @param profileOperations if {@code true}, the factor operations of each
+   * inference call are recorded in an {@link InferenceProfile} and reported to
+   * the current {@code LogFunction}.
+   */
+  public JunctionTree(boolean renormalize, PruningStrategy pruningStrategy,
+      EliminationHeuristic eliminationHeuristic, double maxCliqueSize,
+      MarginalCalculator fallbackCalculator, MappedFactorStore factorStore,
+      boolean profileOperations) {
+    Preconditions.checkArgument(maxCliqueSize >= 1.0);
     this.renormalize = renormalize;
     this.pruningStrategy = pruningStrategy;
+    this.eliminationHeuristic = Preconditions.checkNotNull(eliminationHeuristic);
+    this.maxCliqueSize = maxCliqueSize;
+    this.fallbackCalculator = fallbackCalculator;
+    this.factorStore = factorStore;
+    this.profileOperations = profileOperations;
   }
 
   @Override
@@ -90,20 +199,41 @@ public class JunctionTree implements MarginalCalculator {
     }
 
     // long time = System.nanoTime();
-    CliqueTree cliqueTree = CliqueTree.fromHeuristicVariableElimination(factorGraph);
+    CliqueTree cliqueTree = null;
+    try {
+      cliqueTree = CliqueTree.fromHeuristicVariableElimination(factorGraph,
+          eliminationHeuristic, maxCliqueSize, factorStore);
+    } catch (CliqueTreeTooLargeException e) {
+      if (fallbackCalculator == null) {
+        throw e;
+      }
+      return computeFallbackMarginals(factorGraph);
+    }
     // long delta = (System.nanoTime() - time) / 1000;
     // System.out.println("building clique tree: " + delta);
-    
-    // time = System.nanoTime();
-    Set<Integer> rootFactorNums = runMessagePassing(cliqueTree, true);
-    // delta = (System.nanoTime() - time) / 1000;
-    // System.out.println("Running message passing: " + delta);
 
-    // time = System.nanoTime();
-    FactorMarginalSet marginals = cliqueTreeToMarginalSet(cliqueTree, rootFactorNums, factorGraph);
+    InferenceProfile profile = profileOperations ? new InferenceProfile() : null;
+    FactorMarginalSet marginals = null;
+    try {
+      // time = System.nanoTime();
+      Set<Integer> rootFactorNums = runMessagePassing(cliqueTree, true, profile);
+      // delta = (System.nanoTime() - time) / 1000;
+      // System.out.println("Running message passing: " + delta);
+
+      // time = System.nanoTime();
+      // The returned marginals take ownership of any stored marginals.
+      marginals = cliqueTreeToMarginalSet(cliqueTree, rootFactorNums, factorGraph, profile);
+    } catch (RuntimeException e) {
+      cliqueTree.deleteStoredMarginals();
+      throw e;
+    }
     // delta = (System.nanoTime() - time) / 1000;
     // System.out.println("marginals: " + delta);
 
+    if (profile != null) {
+      LogFunctions.getLogFunction().logInferenceProfile(profile);
+    }
+
     return marginals;
   }
 
@@ -119,25 +249,95 @@ public class JunctionTree implements MarginalCalculator {
     LogFunction log = LogFunctions.getLogFunction();
 
     log.startTimer("inference/build_clique_tree");
-    CliqueTree cliqueTree = CliqueTree.fromHeuristicVariableElimination(factorGraph);
+    CliqueTree cliqueTree = null;
+    try {
+      cliqueTree = CliqueTree.fromHeuristicVariableElimination(factorGraph,
+          eliminationHeuristic, maxCliqueSize, factorStore);
+    } catch (CliqueTreeTooLargeException e) {
+      log.stopTimer("inference/build_clique_tree");
+      if (fallbackCalculator == null) {
+        throw e;
+      }
+      return fallbackCalculator.computeMaxMarginals(factorGraph);
+    }
     log.stopTimer("inference/build_clique_tree");
 
-    log.startTimer("inference/message_passing");
-    runMessagePassing(cliqueTree, false);
-    log.stopTimer("inference/message_passing");
+    InferenceProfile profile = profileOperations ? new InferenceProfile() : null;
+    MaxMarginalSet maxMarginals = null;
+    try {
+      log.startTimer("inference/message_passing");
+      runMessagePassing(cliqueTree, false, profile);
+      log.stopTimer("inference/message_passing");
+
+      // The returned max-marginals read stored marginals from the clique
+      // tree on demand, so their files are deleted once it is garbage
+      // collected.
+      log.startTimer("inference/build_max_marginals");
+      maxMarginals = cliqueTreeToMaxMarginalSet(cliqueTree, factorGraph, profile);
+      log.stopTimer("inference/build_max_marginals");
+    } catch (RuntimeException e) {
+      cliqueTree.deleteStoredMarginals();
+      throw e;
+    }
 
-    log.startTimer("inference/build_max_marginals");
-    MaxMarginalSet maxMarginals = cliqueTreeToMaxMarginalSet(cliqueTree, factorGraph);
-    log.stopTimer("inference/build_max_marginals");
+    if (profile != null) {
+      log.logInferenceProfile(profile);
+    }
     return maxMarginals;
   }
 
+  /**
+   * Computes marginals for {@code factorGraph} using the fallback marginal
+   * calculator, retaining the marginals over each factor of {@code factorGraph}.
+   * The marginal over each factor is the fallback's joint marginal over the
+   * factor's variables. Approximate calculators (e.g.,
+   * {@link MeanFieldVariational}) may only provide marginals over individual
+   * variables; in this case, the marginal over each factor is the product of
+   * the marginals of its variables, which discards correlations between them.
+   */
+  private FactorMarginalSet computeFallbackMarginals(FactorGraph factorGraph) {
+    MarginalSet marginals = fallbackCalculator.computeMarginals(factorGraph);
+    Map<Integer, DiscreteFactor> variableMarginals = Maps.newHashMap();
+    List<Factor> marginalFactors = Lists.newArrayList();
+    boolean hasJointMarginals = true;
+    for (Factor factor : factorGraph.getFactors()) {
+      if (hasJointMarginals) {
+        try {
+          marginalFactors.add(marginals.getMarginal(factor.getVars().getVariableNums()));
+          continue;
+        } catch (ZeroProbabilityError e) {
+          throw e;
+        } catch (RuntimeException e) {
+          // The fallback calculator does not provide marginals over
+          // multiple variables.
+          hasJointMarginals = false;
+        }
+      }
+
+      DiscreteFactor factorMarginal = TableFactor.pointDistribution(VariableNumMap.EMPTY,
+          Assignment.EMPTY);
+      // Variables are multiplied in increasing order, which lets
+      // outerProduct use the fast tensor implementation.
+      for (int varNum : factor.getVars().getVariableNumsArray()) {
+        if (!variableMarginals.containsKey(varNum)) {
+          variableMarginals.put(varNum, marginals.getMarginal(varNum).coerceToDiscrete());
+        }
+        factorMarginal = factorMarginal.outerProduct(variableMarginals.get(varNum));
+      }
+      marginalFactors.add(factorMarginal);
+    }
+    return new FactorMarginalSet(marginalFactors, marginals.getLogPartitionFunction(),
+        factorGraph.getConditionedVariables(), factorGraph.getConditionedValues());
+  }
+
   /**
    * Runs the junction tree message-passing algorithm on {@code cliqueTree}. If
    * {@code useSumProduct == true}, then uses sum-product. Otherwise uses
-   * max-product.
+   * max-product. If {@code profile} is non-null, the performed factor
+   * operations are recorded in it.
    */
-  private Set<Integer> runMessagePassing(CliqueTree cliqueTree, boolean useSumProduct) {
+  private Set<Integer> runMessagePassing(CliqueTree cliqueTree, boolean useSumProduct,
+      InferenceProfile profile) {
     Set<Integer> rootFactors = Sets.newHashSet();
     int numFactors = cliqueTree.numFactors();
 
@@ -151,13 +351,15 @@ public class JunctionTree implements MarginalCalculator {
         factorNum = cliqueTree.getFactorEliminationOrder().get((2 * numFactors - 1) - i);
       }
       Map<SeparatorSet, Factor> inboundMessages = cliqueTree.getInboundMessages(factorNum);
-      Set<SeparatorSet> possibleOutboundMessages = cliqueTree.getFactor(factorNum).getComputableOutboundMessages(inboundMessages);
+      Set<SeparatorSet> possibleOutboundMessages = cliqueTree.getComputableOutboundMessages(
+          factorNum, inboundMessages);
 
       // Pass any messages which we haven't already computed.
       Set<Integer> alreadyPassedMessages = cliqueTree.getOutboundFactors(factorNum);
       for (SeparatorSet possibleOutboundMessage : possibleOutboundMessages) {
         if (!alreadyPassedMessages.contains(possibleOutboundMessage.getEndFactor())) {
-          passMessage(cliqueTree, possibleOutboundMessage.getStartFactor(), possibleOutboundMessage.getEndFactor(), useSumProduct);
+          passMessage(cliqueTree, possibleOutboundMessage.getStartFactor(),
+              possibleOutboundMessage.getEndFactor(), useSumProduct, profile);
         }
       }
 
@@ -183,8 +385,10 @@ public class JunctionTree implements MarginalCalculator {
   /*
    * Compute the message that gets passed from startFactor to destFactor.
    */
-  private void passMessage(CliqueTree cliqueTree, int startFactor, int destFactor, boolean useSumProduct) {
-    VariableNumMap sharedVars = cliqueTree.getFactor(startFactor).getVars().intersection(cliqueTree.getFactor(destFactor).getVars());
+  private void passMessage(CliqueTree cliqueTree, int startFactor, int destFactor,
+      boolean useSumProduct, InferenceProfile profile) {
+    VariableNumMap sharedVars = cliqueTree.getFactorVars(startFactor).intersection(
+        cliqueTree.getFactorVars(destFactor));
 
     // Find the factors which have yet to be merged into the marginal
     // distribution of factor, but are necessary for computing the 
@@ -210,39 +414,26 @@ public class JunctionTree implements MarginalCalculator {
     }
 
     // Update the marginal distribution of startFactor in the clique tree.
-    Factor updatedMarginal = cliqueTree.getMarginal(startFactor).product(factorsToCombine);
-    if (cliqueTree.getOutboundFactors(startFactor).size() == 0) {
-      // If this factor has yet to send any outbound messages, we can 
-      // use it to renormalize the probability distribution to avoid
-      // possible numerical overflow issues. Updating the marginal
-      // at this point is equivalent to multiplying the original factor
-      // by some constant value, which doesn't affect the probability
-      // distribution.
-      if (renormalize) {
-        updatedMarginal = updatedMarginal.product(1.0 / updatedMarginal.getTotalUnnormalizedProbability());
-      }
-      
-      // Can also prune this marginal if a pruning strategy was provided.
-      if (pruningStrategy != null) {
-        updatedMarginal = pruningStrategy.apply(updatedMarginal);
-      }
-    }
-    cliqueTree.setMarginal(startFactor, updatedMarginal);
+    // If this factor has yet to send any outbound messages, we can 
+    // use it to renormalize the probability distribution to avoid
+    // possible numerical overflow issues. Updating the marginal
+    // at this point is equivalent to multiplying the original factor
+    // by some constant value, which doesn't affect the probability
+    // distribution.
+    boolean isFirstMessage = cliqueTree.getOutboundFactors(startFactor).size() == 0;
+    VariableNumMap varsToEliminate = cliqueTree.getFactorVars(startFactor).removeAll(sharedVars);
+    Factor messageFactor = updateMarginal(cliqueTree, startFactor, destFactor, factorsToCombine,
+        isFirstMessage, varsToEliminate, useSumProduct, profile);
     cliqueTree.addFactorsToMarginal(startFactor, factorIndicesToCombine);
 
-    // The message from startFactor to destFactor is the marginal of
-    // productFactor, divided by the message from destFactor to
-    // startFactor, if it exists.
-    Factor messageFactor = null;
-    if (useSumProduct) {
-      messageFactor = updatedMarginal.marginalize(updatedMarginal.getVars().removeAll(sharedVars).getVariableNums());
-    } else {
-      messageFactor = updatedMarginal.maxMarginalize(updatedMarginal.getVars().removeAll(sharedVars).getVariableNums());
-    }
-
     // Divide out the destFactor -> startFactor message if necessary.
     if (cliqueTree.getFactorsInMarginal(startFactor).contains(destFactor)) {
+      long start = System.nanoTime();
       messageFactor = messageFactor.product(cliqueTree.getMessage(destFactor, startFactor).inverse());
+      if (profile != null) {
+        profile.record(Operation.DIVIDE, startFactor, destFactor, System.nanoTime() - start,
+            messageFactor);
+      }
     }
 
     cliqueTree.addMessage(startFactor, destFactor, messageFactor);
@@ -258,9 +449,10 @@ public class JunctionTree implements MarginalCalculator {
    * @param cliqueTree
    * @param factorNum
    * @param useSumProduct
-   * @return
+   * @param profile
    */
-  private static Factor computeMarginal(CliqueTree cliqueTree, int factorNum, boolean useSumProduct) {
+  private void computeMarginal(CliqueTree cliqueTree, int factorNum, boolean useSumProduct,
+      InferenceProfile profile) {
     Set<Integer> factorNumsToCombine = Sets.newHashSet(cliqueTree.getNeighboringFactors(factorNum));
     factorNumsToCombine.removeAll(cliqueTree.getFactorsInMarginal(factorNum));
 
@@ -272,26 +464,194 @@ public class JunctionTree implements MarginalCalculator {
       factorsToCombine.add(message);
     }
 
-    Factor newMarginal = cliqueTree.getMarginal(factorNum).product(factorsToCombine);
-    cliqueTree.setMarginal(factorNum, newMarginal);
+    updateMarginal(cliqueTree, factorNum, -1, factorsToCombine, false, null, useSumProduct,
+        profile);
     cliqueTree.addFactorsToMarginal(factorNum, factorNumsToCombine);
+  }
+
+  /**
+   * Multiplies the marginal of the {@code factorNum}'th factor of
+   * {@code cliqueTree} by {@code factorsToCombine}, and replaces the marginal
+   * with the product. If {@code isFirstMessage}, the product is renormalized
+   * and pruned according to this junction tree's settings. If
+   * {@code varsToEliminate} is non-null, returns the product with these
+   * variables summed out (if {@code useSumProduct}) or maxed out (otherwise);
+   * this message is sent to {@code destFactor}. Otherwise returns
+   * {@code null}.
+   */
+  private Factor updateMarginal(CliqueTree cliqueTree, int factorNum, int destFactor,
+      List<Factor> factorsToCombine, boolean isFirstMessage, VariableNumMap varsToEliminate,
+      boolean useSumProduct, InferenceProfile profile) {
+    if (shouldStoreMarginal(cliqueTree, factorNum, factorsToCombine)) {
+      return updateStoredMarginal(cliqueTree, factorNum, destFactor, factorsToCombine,
+          isFirstMessage, varsToEliminate, useSumProduct, profile);
+    }
 
-    return newMarginal;
+    long start = System.nanoTime();
+    Factor updatedMarginal = cliqueTree.getMarginal(factorNum).product(factorsToCombine);
+    if (isFirstMessage) {
+      if (renormalize) {
+        updatedMarginal = updatedMarginal.product(1.0 / updatedMarginal.getTotalUnnormalizedProbability());
+      }
+
+      // Can also prune this marginal if a pruning strategy was provided.
+      if (pruningStrategy != null) {
+        updatedMarginal = pruningStrategy.apply(updatedMarginal);
+      }
+    }
+    cliqueTree.setMarginal(factorNum, updatedMarginal);
+    if (profile != null) {
+      profile.record(Operation.PRODUCT, factorNum, -1, System.nanoTime() - start, updatedMarginal);
+    }
+
+    if (varsToEliminate == null) {
+      return null;
+    }
+
+    start = System.nanoTime();
+    Factor messageFactor = null;
+    if (useSumProduct) {
+      messageFactor = updatedMarginal.marginalize(varsToEliminate);
+    } else {
+      messageFactor = updatedMarginal.maxMarginalize(varsToEliminate);
+    }
+    if (profile != null) {
+      profile.record(Operation.MARGINALIZE, factorNum, destFactor, System.nanoTime() - start,
+          messageFactor);
+    }
+    return messageFactor;
   }
 
-  private static FactorMarginalSet cliqueTreeToMarginalSet(CliqueTree cliqueTree,
-      Set<Integer> rootFactorNums, FactorGraph originalFactorGraph) {
-    List<Factor> marginalFactors = Lists.newArrayList();
-    for (int i = 0; i < cliqueTree.numFactors(); i++) {
-      marginalFactors.add(computeMarginal(cliqueTree, i, true));
+  private boolean shouldStoreMarginal(CliqueTree cliqueTree, int factorNum,
+      List<Factor> factorsToCombine) {
+    if (factorStore == null) {
+      return false;
+    } else if (cliqueTree.isMarginalStored(factorNum)) {
+      return true;
+    }
+
+    if (!(cliqueTree.getMarginal(factorNum) instanceof DiscreteFactor)) {
+      return false;
+    }
+    for (Factor factor : factorsToCombine) {
+      if (!(factor instanceof DiscreteFactor)) {
+        return false;
+      }
+    }
+    return factorStore.shouldStore(cliqueTree.getFactorVars(factorNum));
+  }
+
+  /**
+   * Same as {@link #updateMarginal}, except that the updated marginal is
+   * computed one block at a time and written to {@code factorStore}.
+   */
+  private Factor updateStoredMarginal(CliqueTree cliqueTree, int factorNum, int destFactor,
+      List<Factor> factorsToCombine, boolean isFirstMessage, VariableNumMap varsToEliminate,
+      boolean useSumProduct, InferenceProfile profile) {
+    long start = System.nanoTime();
+    long marginalizeNanos = 0;
+    VariableNumMap cliqueVars = cliqueTree.getFactorVars(factorNum);
+    boolean isUnity = cliqueTree.isMarginalUnity(factorNum);
+    MappedFactor oldStoredMarginal = cliqueTree.getStoredMarginal(factorNum);
+    DiscreteFactor oldMarginal = (oldStoredMarginal == null && !isUnity) ?
+        (DiscreteFactor) cliqueTree.getMarginal(factorNum) : null;
+
+    MappedFactorWriter writer = factorStore.getWriter(cliqueVars);
+    long numBlocks = writer.getNumBlocks();
+    Preconditions.checkState(oldStoredMarginal == null
+        || oldStoredMarginal.getNumBlocks() == numBlocks);
+    double totalProbability = 0.0;
+    Factor messageFactor = null;
+    try {
+      for (long i = 0; i < numBlocks; i++) {
+        DiscreteFactor block = null;
+        if (isUnity) {
+          block = writer.getUnityBlock(i);
+        } else if (oldStoredMarginal != null) {
+          block = oldStoredMarginal.getBlock(i);
+        } else {
+          block = writer.getBlock(oldMarginal, i);
+        }
+        DiscreteFactor updatedBlock = block.product(factorsToCombine);
+        writer.append(updatedBlock);
+        totalProbability += updatedBlock.getTotalUnnormalizedProbability();
+
+        if (varsToEliminate != null) {
+          long marginalizeStart = System.nanoTime();
+          Factor blockMessage = null;
+          if (useSumProduct) {
+            blockMessage = updatedBlock.marginalize(varsToEliminate);
+            messageFactor = messageFactor == null ? blockMessage : messageFactor.add(blockMessage);
+          } else {
+            blockMessage = updatedBlock.maxMarginalize(varsToEliminate);
+            messageFactor = messageFactor == null ? blockMessage : messageFactor.maximum(blockMessage);
+          }
+          marginalizeNanos += System.nanoTime() - marginalizeStart;
+        }
+      }
+    } catch (RuntimeException e) {
+      writer.abort();
+      throw e;
+    }
+    MappedFactor updatedMarginal = writer.close();
+
+    if (isFirstMessage && renormalize) {
+      updatedMarginal = updatedMarginal.product(1.0 / totalProbability);
+      if (messageFactor != null) {
+        messageFactor = messageFactor.product(1.0 / totalProbability);
+      }
+    }
+
+    if (oldStoredMarginal != null) {
+      oldStoredMarginal.delete();
+    }
+    cliqueTree.setStoredMarginal(factorNum, updatedMarginal);
+
+    if (profile != null) {
+      // Stored entries consist of a long key and a double value.
+      profile.record(Operation.PRODUCT, factorNum, -1, cliqueVars,
+          System.nanoTime() - start - marginalizeNanos, updatedMarginal.size(),
+          updatedMarginal.size() * 16);
+      if (messageFactor != null) {
+        profile.record(Operation.MARGINALIZE, factorNum, destFactor, marginalizeNanos,
+            messageFactor);
+      }
+    }
+    return messageFactor;
+  }
+
+  /**
+   * Computes the marginal of every clique in {@code cliqueTree}. Stored
+   * marginals are not read into memory; instead, the returned marginal set
+   * marginalizes them one block at a time when they are needed.
+   */
+  private FactorMarginalSet cliqueTreeToMarginalSet(CliqueTree cliqueTree,
+      Set<Integer> rootFactorNums, FactorGraph originalFactorGraph, InferenceProfile profile) {
+    int numFactors = cliqueTree.numFactors();
+    Factor[] marginalFactors = new Factor[numFactors];
+    MappedFactor[] storedMarginalFactors = new MappedFactor[numFactors];
+    List<VariableNumMap> marginalVars = Lists.newArrayList();
+    for (int i = 0; i < numFactors; i++) {
+      computeMarginal(cliqueTree, i, true, profile);
+      if (cliqueTree.getStoredMarginal(i) != null) {
+        storedMarginalFactors[i] = cliqueTree.getStoredMarginal(i);
+      } else {
+        marginalFactors[i] = cliqueTree.getMarginal(i);
+      }
+      marginalVars.add(cliqueTree.getFactorVars(i));
     }
 
     // Get the partition function from the root nodes of the junction forest.
     double logPartitionFunction = 0.0;
     for (int rootFactorNum : rootFactorNums) {
-      Factor rootFactor = marginalFactors.get(rootFactorNum);
-      double totalProb = rootFactor.marginalize(rootFactor.getVars().getVariableNums())
-          .getUnnormalizedLogProbability(Assignment.EMPTY);
+      double totalProb = 0.0;
+      if (storedMarginalFactors[rootFactorNum] != null) {
+        totalProb = Math.log(storedMarginalFactors[rootFactorNum].getTotalUnnormalizedProbability());
+      } else {
+        Factor rootFactor = marginalFactors[rootFactorNum];
+        totalProb = rootFactor.marginalize(rootFactor.getVars().getVariableNums())
+            .getUnnormalizedLogProbability(Assignment.EMPTY);
+      }
       logPartitionFunction += totalProb;
     }
 
@@ -299,8 +659,36 @@ public class JunctionTree implements MarginalCalculator {
       throw new ZeroProbabilityError();
     }
 
-    return new FactorMarginalSet(marginalFactors, logPartitionFunction,
-        originalFactorGraph.getConditionedVariables(), originalFactorGraph.getConditionedValues());
+    return new FactorMarginalSet(new MarginalList(marginalFactors, storedMarginalFactors),
+        Arrays.asList(storedMarginalFactors), marginalVars, logPartitionFunction, originalFactorGraph.getConditionedVariables(),
+        originalFactorGraph.getConditionedValues());
+  }
+
+  /**
+   * The clique marginals computed by the junction tree, which reads stored
+   * marginals from disk each time they are retrieved.
+   */
+  private static class MarginalList extends AbstractList<Factor> {
+    private final Factor[] marginals;
+    private final MappedFactor[] storedMarginals;
+
+    public MarginalList(Factor[] marginals, MappedFactor[] storedMarginals) {
+      this.marginals = marginals;
+      this.storedMarginals = storedMarginals;
+    }
+
+    @Override
+    public Factor get(int index) {
+      if (storedMarginals[index] != null) {
+        return storedMarginals[index].load();
+      }
+      return marginals[index];
+    }
+
+    @Override
+    public int size() {
+      return marginals.length;
+    }
   }
 
   /**
@@ -310,14 +698,61 @@ public class JunctionTree implements MarginalCalculator {
    * @param rootFactorNum
    * @return
    */
-  private static MaxMarginalSet cliqueTreeToMaxMarginalSet(CliqueTree cliqueTree,
-      FactorGraph originalFactorGraph) {
+  private MaxMarginalSet cliqueTreeToMaxMarginalSet(CliqueTree cliqueTree,
+      FactorGraph originalFactorGraph, InferenceProfile profile) {
     for (int i = 0; i < cliqueTree.numFactors(); i++) {
-      computeMarginal(cliqueTree, i, false);
+      computeMarginal(cliqueTree, i, false, profile);
     }
     return new FactorMaxMarginalSet(cliqueTree, originalFactorGraph.getConditionedValues());
   }
   
+  /**
+   * Heuristics for choosing which variable to eliminate when a factor graph
+   * cannot be converted into a clique tree without creating new cliques.
+   */
+  public static enum EliminationHeuristic {
+    /**
+     * Eliminate the variable contained in the fewest factors.
+     */
+    MIN_FACTORS,
+    /**
+     * Eliminate the variable whose elimination adds the fewest edges between
+     * variables that do not currently share a factor.
+     */
+    MIN_FILL,
+    /**
+     * Eliminate the variable whose elimination creates the clique with the
+     * fewest entries.
+     */
+    MIN_WEIGHT,
+    /**
+     * Like {@code MIN_FILL}, but each added edge is weighted by the product of
+     * the number of values of its variables.
+     */
+    WEIGHTED_MIN_FILL
+  }
+
+  /**
+   * Thrown when variable elimination would create a clique larger than the
+   * permitted maximum clique size.
+   */
+  public static class CliqueTreeTooLargeException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final double cliqueSize;
+
+    public CliqueTreeTooLargeException(VariableNumMap cliqueVars, double cliqueSize,
+        double maxCliqueSize) {
+      super("Clique over " + cliqueVars.getVariableNames() + " has " + cliqueSize
+          + " entries, exceeding the maximum of " + maxCliqueSize);
+      this.cliqueSize = cliqueSize;
+    }
+
+    public double getCliqueSize() {
+      return cliqueSize;
+    }
+  }
+
   /**
    * Clique tree data structure used to implement the junction tree
    * algorithm. Represents factors over cliques of variables in the graphical
@@ -325,7 +760,11 @@ public class JunctionTree implements MarginalCalculator {
    */
   public static class CliqueTree {
 
+    // Cliques created by variable elimination which are large enough to
+    // store on disk are represented by empty placeholder factors, whose
+    // numbers are stored in unityCliques.
     private List<Factor> cliqueFactors;
+    private Set<Integer> unityCliques;
 
     // These data structures represent the actual junction tree.
     private HashMultimap<Integer, Integer> factorEdges;
@@ -338,12 +777,20 @@ public class JunctionTree implements MarginalCalculator {
     // tracks the factors whose messages have been combined into marginals.
     private List<Factor> marginals;
     private List<Set<Integer>> factorsInMarginals;
+    // Marginals which are stored on disk. The corresponding entries
+    // of marginals are null.
+    private Map<Integer, MappedFactor> storedMarginals;
+    // Marginals which are still equal to the unity clique factor, which
+    // has not been allocated. The corresponding entries of marginals are
+    // null.
+    private Set<Integer> unityMarginals;
 
     private List<Integer> cliqueEliminationOrder;
 
-    private CliqueTree(List<Factor> cliqueFactors, HashMultimap<Integer, Integer> factorEdges,
-        List<Integer> cliqueEliminationOrder) {
+    private CliqueTree(List<Factor> cliqueFactors, Set<Integer> unityCliques,
+        HashMultimap<Integer, Integer> factorEdges, List<Integer> cliqueEliminationOrder) {
       this.cliqueFactors = Preconditions.checkNotNull(cliqueFactors);
+      this.unityCliques = Preconditions.checkNotNull(unityCliques);
       this.factorEdges = Preconditions.checkNotNull(factorEdges);
 
       this.cliqueEliminationOrder = Preconditions.checkNotNull(cliqueEliminationOrder);
@@ -367,12 +814,47 @@ public class JunctionTree implements MarginalCalculator {
       for (int i = 0; i < marginals.size(); i++) {
         factorsInMarginals.add(Sets.<Integer> newHashSet());
       }
+      storedMarginals = Maps.newHashMap();
+      unityMarginals = Sets.newHashSet(unityCliques);
+      for (int unityClique : unityCliques) {
+        marginals.set(unityClique, null);
+      }
     }
 
     public static CliqueTree fromHeuristicVariableElimination(FactorGraph factorGraph) {
+      return fromHeuristicVariableElimination(factorGraph, EliminationHeuristic.MIN_FACTORS,
+          Double.POSITIVE_INFINITY);
+    }
+
+    public static CliqueTree fromHeuristicVariableElimination(FactorGraph factorGraph,
+        EliminationHeuristic heuristic, double maxCliqueSize) {
+      return fromHeuristicVariableElimination(factorGraph, heuristic, maxCliqueSize, null);
+    }
+
+    /**
+     * Builds a clique tree for {@code factorGraph} by variable elimination.
+     * Variables contained in a single factor are eliminated first, as this
+     * never creates new cliques. When no such variable can be eliminated,
+     * {@code heuristic} selects the next variable to eliminate. Throws a
+     * {@code CliqueTreeTooLargeException} before creating any clique with more
+     * than {@code maxCliqueSize} entries. If {@code factorStore} is non-null,
+     * cliques created by variable elimination which should be stored in it
+     * are not allocated in memory; their marginals are instead computed block
+     * by block during message passing.
+     * 
+     * @param factorGraph
+     * @param heuristic
+     * @param maxCliqueSize
+     * @param factorStore
+     * @return
+     */
+    public static CliqueTree fromHeuristicVariableElimination(FactorGraph factorGraph,
+        EliminationHeuristic heuristic, double maxCliqueSize, MappedFactorStore factorStore) {
+      VariableNumMap factorGraphVars = factorGraph.getVariables();
       // Initialize cliqueFactors with minimal cliques from the factor graph.
       List<Factor> cliqueFactors = new ArrayList<Factor>(factorGraph.getMinimalFactors());
       HashMultimap<Integer, Integer> factorEdges = HashMultimap.create();
+      Set<Factor> unityCliqueFactors = Sets.newHashSet();
 
       // Store factors which contain each variable so that we can
       // perform variable elimination.
@@ -404,7 +886,7 @@ public class JunctionTree implements MarginalCalculator {
         for (Integer varNum : countsOfVars.get(1)) {
           Preconditions.checkState(varFactorMap.get(varNum).size() == 1);
           justEliminated = tryEliminateFactor(Iterables.getOnlyElement(varFactorMap.get(varNum)),
-              varFactorMap, factorIndexMap, countsOfVars, factorEdges);
+              varFactorMap, factorIndexMap, countsOfVars, factorEdges, unityCliqueFactors);
 
           if (justEliminated != null) {
             remainingFactors.remove(justEliminated);
@@ -419,8 +901,9 @@ public class JunctionTree implements MarginalCalculator {
           // has failed. Pick a variable (that only occurs in a few factors)
           // eliminate it, potentially creating large factors in the
           // clique tree.
-          Integer minCount = countsOfVars.keySet().first();
-          int varToEliminate = Iterables.getFirst(countsOfVars.get(minCount), null);
+          int varToEliminate = chooseVariableToEliminate(heuristic, countsOfVars,
+              varFactorMap, factorGraphVars);
+          int minCount = varFactorMap.get(varToEliminate).size();
 
           List<Factor> factorsContainingVar = Lists.newArrayList(varFactorMap.get(varToEliminate));
           VariableNumMap allVars = VariableNumMap.EMPTY;
@@ -438,9 +921,20 @@ public class JunctionTree implements MarginalCalculator {
           }
 
           if (factorToMergeWith == null) {
+            // Check the size of the new clique before allocating it.
+            double cliqueSize = getCliqueSize(allVars, factorGraphVars);
+            if (cliqueSize > maxCliqueSize) {
+              throw new CliqueTreeTooLargeException(allVars, cliqueSize, maxCliqueSize);
+            }
+
             // Create a new factor containing all neighboring variables
             // and add it to the variable elimination data structures.
-            factorToMergeWith = TableFactor.unity(allVars);
+            if (factorStore != null && factorStore.shouldStore(allVars)) {
+              factorToMergeWith = TableFactor.zero(allVars);
+              unityCliqueFactors.add(factorToMergeWith);
+            } else {
+              factorToMergeWith = TableFactor.unity(allVars);
+            }
             int newFactorIndex = cliqueFactors.size();
             cliqueFactors.add(factorToMergeWith);
             remainingFactors.add(factorToMergeWith);
@@ -493,7 +987,87 @@ public class JunctionTree implements MarginalCalculator {
         // cliqueFactors.get(bestEliminationOrder.get(position)).getVars());
       }
       
-      return new CliqueTree(cliqueFactors, factorEdges, cliqueEliminationOrder);
+      Set<Integer> unityCliques = Sets.newHashSet();
+      for (Factor unityCliqueFactor : unityCliqueFactors) {
+        unityCliques.add(factorIndexMap.get(unityCliqueFactor));
+      }
+      
+      return new CliqueTree(cliqueFactors, unityCliques, factorEdges, cliqueEliminationOrder);
+    }
+
+    /**
+     * Selects the variable to eliminate according to {@code heuristic}. Ties
+     * are broken in favor of the variable in the fewest factors.
+     */
+    private static int chooseVariableToEliminate(EliminationHeuristic heuristic,
+        TreeMultimap<Integer, Integer> countsOfVars, Multimap<Integer, Factor> varFactorMap,
+        VariableNumMap factorGraphVars) {
+      if (heuristic == EliminationHeuristic.MIN_FACTORS) {
+        Integer minCount = countsOfVars.keySet().first();
+        return Iterables.getFirst(countsOfVars.get(minCount), null);
+      }
+
+      int bestVar = -1;
+      double bestScore = Double.POSITIVE_INFINITY;
+      for (int varNum : countsOfVars.values()) {
+        VariableNumMap cliqueVars = VariableNumMap.EMPTY;
+        for (Factor factor : varFactorMap.get(varNum)) {
+          cliqueVars = cliqueVars.union(factor.getVars());
+        }
+
+        double score = 0.0;
+        if (heuristic == EliminationHeuristic.MIN_WEIGHT) {
+          score = getCliqueSize(cliqueVars, factorGraphVars);
+        } else {
+          // Count the edges between neighbors of varNum that are added by
+          // eliminating varNum.
+          int[] neighbors = cliqueVars.removeAll(varNum).getVariableNumsArray();
+          for (int i = 0; i < neighbors.length; i++) {
+            for (int j = i + 1; j < neighbors.length; j++) {
+              if (Collections.disjoint(varFactorMap.get(neighbors[i]),
+                  varFactorMap.get(neighbors[j]))) {
+                if (heuristic == EliminationHeuristic.WEIGHTED_MIN_FILL) {
+                  score += getVariableSize(neighbors[i], factorGraphVars)
+                      * getVariableSize(neighbors[j], factorGraphVars);
+                } else {
+                  score += 1.0;
+                }
+              }
+            }
+          }
+        }
+
+        if (score < bestScore) {
+          bestScore = score;
+          bestVar = varNum;
+        }
+      }
+      return bestVar;
+    }
+
+    /**
+     * Gets the number of entries in a table over {@code cliqueVars}.
+     */
+    private static double getCliqueSize(VariableNumMap cliqueVars, VariableNumMap factorGraphVars) {
+      double size = 1.0;
+      for (int varNum : cliqueVars.getVariableNumsArray()) {
+        size *= getVariableSize(varNum, factorGraphVars);
+      }
+      return size;
+    }
+
+    /**
+     * Gets the number of values of variable {@code varNum}. Variables which are
+     * not discrete are treated as having a single value.
+     */
+    private static double getVariableSize(int varNum, VariableNumMap factorGraphVars) {
+      if (factorGraphVars.contains(varNum)) {
+        Variable variable = factorGraphVars.getVariable(varNum);
+        if (variable instanceof DiscreteVariable) {
+          return ((DiscreteVariable) variable).numValues();
+        }
+      }
+      return 1.0;
     }
 
     /*
@@ -501,7 +1075,7 @@ public class JunctionTree implements MarginalCalculator {
      */
     private static Factor tryEliminateFactor(Factor f, Multimap<Integer, Factor> varFactorMap,
         Map<Factor, Integer> factorIndexMap, TreeMultimap<Integer, Integer> countsOfVars,
-        HashMultimap<Integer, Integer> factorEdges) {
+        HashMultimap<Integer, Integer> factorEdges, Set<Factor> unityCliqueFactors) {
       Set<Integer> variablesToEliminate = Sets.newHashSet();
       Collection<Integer> factorVariables = f.getVars().getVariableNums();
       Set<Factor> mergeableFactors = new HashSet<Factor>();
@@ -539,7 +1113,8 @@ public class JunctionTree implements MarginalCalculator {
         superset = mergeableIterator.next();
         while (mergeableIterator.hasNext()) {
           Factor next = mergeableIterator.next();
-          if (next.size() < superset.size()) {
+          if (getFactorSize(next, unityCliqueFactors)
+              < getFactorSize(superset, unityCliqueFactors)) {
             superset = next;
           }
         }
@@ -567,14 +1142,63 @@ public class JunctionTree implements MarginalCalculator {
       return f;
     }
 
+    /**
+     * Gets the number of entries in {@code factor}. Unity cliques are
+     * represented by empty placeholders, but contain an entry for every
+     * assignment.
+     */
+    private static double getFactorSize(Factor factor, Set<Factor> unityCliqueFactors) {
+      if (unityCliqueFactors.contains(factor)) {
+        return getCliqueSize(factor.getVars(), factor.getVars());
+      }
+      return factor.size();
+    }
+
     public int numFactors() {
       return cliqueFactors.size();
     }
 
+    /**
+     * Gets the initial factor of the {@code factorNum}'th clique. Cliques
+     * which are too large to allocate are created in memory by this method;
+     * use {@link #getFactorVars} to retrieve only their variables.
+     * 
+     * @param factorNum
+     * @return
+     */
     public Factor getFactor(int factorNum) {
+      if (unityCliques.contains(factorNum)) {
+        return TableFactor.unity(getFactorVars(factorNum));
+      }
       return cliqueFactors.get(factorNum);
     }
 
+    public VariableNumMap getFactorVars(int factorNum) {
+      return cliqueFactors.get(factorNum).getVars();
+    }
+
+    public Set<SeparatorSet> getComputableOutboundMessages(int factorNum,
+        Map<SeparatorSet, Factor> inboundMessages) {
+      // Placeholders for unity cliques are discrete factors, so they
+      // compute the same messages as the unity clique.
+      return cliqueFactors.get(factorNum).getComputableOutboundMessages(inboundMessages);
+    }
+
+    /**
+     * Gets the number of entries in a table over the variables of the largest
+     * clique in this tree. This size is an upper bound on the size of the
+     * clique marginals computed during message passing.
+     * 
+     * @return
+     */
+    public double getMaxCliqueSize() {
+      double maxSize = 0.0;
+      for (Factor factor : cliqueFactors) {
+        maxSize = Math.max(maxSize, getCliqueSize(factor.getVars(), factor.getVars()));
+      }
+      return maxSize;
+    }
+
     public List<Integer> getFactorEliminationOrder() {
       return cliqueEliminationOrder;
     }
@@ -608,18 +1232,165 @@ public class JunctionTree implements MarginalCalculator {
       messages.get(startFactor).put(endFactor, message);
     }
 
+    /**
+     * Gets the current marginal of the {@code factorNum}'th factor. If the
+     * marginal is stored on disk, it is read into memory; the methods below
+     * which compute max-marginals and assignments avoid doing so.
+     * 
+     * @param factorNum
+     * @return
+     */
     public Factor getMarginal(int factorNum) {
+      if (storedMarginals.containsKey(factorNum)) {
+        return storedMarginals.get(factorNum).load();
+      } else if (unityMarginals.contains(factorNum)) {
+        return TableFactor.unity(getFactorVars(factorNum));
+      }
       return marginals.get(factorNum);
     }
     
+    /**
+     * Conditions the marginal of the {@code factorNum}'th factor on
+     * {@code given}, then maximizes {@code varsToEliminate} out of the
+     * result. Stored marginals are read one block at a time.
+     * 
+     * @param factorNum
+     * @param given
+     * @param varsToEliminate
+     * @return
+     */
+    public Factor maxMarginalize(int factorNum, Assignment given,
+        VariableNumMap varsToEliminate) {
+      if (storedMarginals.containsKey(factorNum)) {
+        return storedMarginals.get(factorNum).maxMarginalize(given, varsToEliminate);
+      }
+      Factor conditional = getMarginal(factorNum).conditional(given);
+      return conditional.maxMarginalize(conditional.getVars().intersection(varsToEliminate));
+    }
+
+    /**
+     * Gets the highest-weight assignment to the variables of the
+     * {@code factorNum}'th factor which are not in {@code given}, conditioned
+     * on {@code given}. Returns {@code null} if every such assignment has
+     * zero probability. Stored marginals are read one block at a time.
+     * 
+     * @param factorNum
+     * @param given
+     * @return
+     */
+    public Assignment getMostLikelyAssignment(int factorNum, Assignment given) {
+      if (storedMarginals.containsKey(factorNum)) {
+        return storedMarginals.get(factorNum).getMostLikelyAssignment(given);
+      }
+
+      Factor conditional = getMarginal(factorNum).conditional(given);
+      List<Assignment> bestAssignments = conditional.getMostLikelyAssignments(1);
+      if (bestAssignments.size() == 0 || conditional.getUnnormalizedLogProbability(
+          bestAssignments.get(0)) == Double.NEGATIVE_INFINITY) {
+        return null;
+      }
+      return bestAssignments.get(0);
+    }
+
+    /**
+     * Gets the log weight of {@code assignment} in the marginal of the
+     * {@code factorNum}'th factor, without reading stored marginals into
+     * memory.
+     * 
+     * @param factorNum
+     * @param assignment
+     * @return
+     */
+    public double getUnnormalizedLogProbability(int factorNum, Assignment assignment) {
+      if (storedMarginals.containsKey(factorNum)) {
+        return Math.log(storedMarginals.get(factorNum).getUnnormalizedProbability(assignment));
+      }
+      return getMarginal(factorNum).getUnnormalizedLogProbability(assignment);
+    }
+
     public List<Factor> getMarginals() {
-      return marginals;
+      if (storedMarginals.size() == 0 && unityMarginals.size() == 0) {
+        return marginals;
+      }
+
+      return new AbstractList<Factor>() {
+        @Override
+        public Factor get(int index) {
+          return getMarginal(index);
+        }
+
+        @Override
+        public int size() {
+          return marginals.size();
+        }
+      };
     }
 
     public void setMarginal(int factorNum, Factor marginal) {
+      storedMarginals.remove(factorNum);
+      unityMarginals.remove(factorNum);
       marginals.set(factorNum, marginal);
     }
 
+    /**
+     * Returns {@code true} if the marginal of the {@code factorNum}'th factor
+     * is not held in memory, i.e., it is either stored on disk or is the
+     * unallocated unity factor of a large clique.
+     * 
+     * @param factorNum
+     * @return
+     */
+    public boolean isMarginalStored(int factorNum) {
+      return storedMarginals.containsKey(factorNum) || unityMarginals.contains(factorNum);
+    }
+
+    /**
+     * Returns {@code true} if the marginal of the {@code factorNum}'th factor
+     * is the unallocated unity factor of a large clique, i.e., no messages
+     * have been multiplied into it.
+     * 
+     * @param factorNum
+     * @return
+     */
+    public boolean isMarginalUnity(int factorNum) {
+      return unityMarginals.contains(factorNum);
+    }
+
+    /**
+     * Gets the marginal of the {@code factorNum}'th factor if it is stored on
+     * disk, and {@code null} otherwise.
+     * 
+     * @param factorNum
+     * @return
+     */
+    public MappedFactor getStoredMarginal(int factorNum) {
+      return storedMarginals.get(factorNum);
+    }
+
+    /**
+     * Replaces the marginal of the {@code factorNum}'th factor with
+     * {@code marginal}, which is stored on disk.
+     * 
+     * @param factorNum
+     * @param marginal
+     */
+    public void setStoredMarginal(int factorNum, MappedFactor marginal) {
+      marginals.set(factorNum, null);
+      unityMarginals.remove(factorNum);
+      storedMarginals.put(factorNum, marginal);
+    }
+
+    /**
+     * Deletes the scratch files of all marginals which are stored on disk.
+     * The marginals of these factors cannot be retrieved after calling this
+     * method.
+     */
+    public void deleteStoredMarginals() {
+      for (MappedFactor marginal : storedMarginals.values()) {
+        marginal.delete();
+      }
+    }
+
     public Set<Integer> getFactorsInMarginal(int factorNum) {
       return Collections.unmodifiableSet(factorsInMarginals.get(factorNum));
     }
@@ -0,0 +1,763 @@
+package com.jayantkrish.jklol.inference;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import com.jayantkrish.jklol.models.DiscreteFactor;
+import com.jayantkrish.jklol.models.DiscreteVariable;
+import com.jayantkrish.jklol.models.Factor;
+import com.jayantkrish.jklol.models.FactorGraph;
+import com.jayantkrish.jklol.models.TableFactor;
+import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.parallel.LazyThreadPool;
+import com.jayantkrish.jklol.tensor.DenseTensor;
+import com.jayantkrish.jklol.tensor.Tensor;
+import com.jayantkrish.jklol.training.LogFunction;
+import com.jayantkrish.jklol.training.LogFunctions;
+import com.jayantkrish.jklol.util.Assignment;
+
+/**
+ * Loopy belief propagation for computing approximate marginals and
+ * max-marginals of discrete factor graphs. Unlike {@link JunctionTree}, this
+ * algorithm never constructs factors larger than the factors of the original
+ * graph, so its memory usage is linear in the size of the factor graph
+ * regardless of the graph's tree-width. On tree-structured graphs, the
+ * computed marginals are exact.
+ * <p>
+ * Messages can be scheduled in two ways (see {@link Schedule}). Residual
+ * scheduling greedily recomputes the message whose value would change the
+ * most, which typically converges in far fewer message updates than
+ * synchronous scheduling. Synchronous scheduling recomputes every message in
+ * each iteration from the previous iteration's messages, which allows the
+ * message computations to be performed in parallel. In both cases, messages
+ * may be damped to improve convergence on graphs with tight loops.
+ * <p>
+ * Note that loopy belief propagation is not guaranteed to converge. If the
+ * messages have not converged within the iteration budget, the marginals
+ * computed from the current messages are returned;
+ * {@link #runBeliefPropagation} can be used to check whether convergence
+ * occurred.
+ *
+ * @author jayantk
+ */
+public class LoopyBeliefPropagation implements MarginalCalculator {
+  private static final long serialVersionUID = 1L;
+
+  private final int maxIterations;
+  private final double convergenceTolerance;
+  private final double damping;
+  private final Schedule schedule;
+  private final int numThreads;
+
+  // Threads used to compute messages in parallel, created on first use
+  // and shared by every inference call on this object.
+  private final LazyThreadPool pool;
+
+  /**
+   * Message scheduling strategies for belief propagation.
+   */
+  public static enum Schedule {
+    /**
+     * Residual belief propagation, which always passes the message with the
+     * largest difference between its current and updated values.
+     */
+    RESIDUAL,
+    /**
+     * Synchronous (flooding) belief propagation, where every message is
+     * updated simultaneously in each iteration. Messages are computed in
+     * parallel if more than one thread is used.
+     */
+    SYNCHRONOUS
+  }
+
+  /**
+   * Creates loopy belief propagation with residual scheduling, no damping, at
+   * most 100 iterations and a convergence tolerance of {@code 1e-6}.
+   */
+  public LoopyBeliefPropagation() {
+    this(100, 1e-6, 0.0, Schedule.RESIDUAL, 1);
+  }
+
+  /**
+   * Creates loopy belief propagation.
+   *
+   * @param maxIterations maximum number of iterations of message passing. An
+   * iteration of residual scheduling is defined as a number of message updates
+   * equal to the number of messages in the graph.
+   * @param convergenceTolerance message passing terminates when no message
+   * changes by more than this amount (in the max norm).
+   * @param damping weight of the old message value in each message update.
+   * Must be in {@code [0, 1)}; {@code 0} means no damping.
+   * @param schedule message scheduling strategy.
+   * @param numThreads number of threads used to compute messages. Only used
+   * by {@code Schedule.SYNCHRONOUS}.
+   */
+  public LoopyBeliefPropagation(int maxIterations, double convergenceTolerance, double damping,
+      Schedule schedule, int numThreads) {
+    Preconditions.checkArgument(maxIterations >= 1);
+    Preconditions.checkArgument(convergenceTolerance >= 0.0);
+    Preconditions.checkArgument(damping >= 0.0 && damping < 1.0);
+    Preconditions.checkArgument(numThreads >= 1);
+    this.maxIterations = maxIterations;
+    this.convergenceTolerance = convergenceTolerance;
+    this.damping = damping;
+    this.schedule = Preconditions.checkNotNull(schedule);
+    this.numThreads = numThreads;
+    this.pool = new LazyThreadPool(numThreads);
+  }
+
+  @Override
+  public FactorMarginalSet computeMarginals(FactorGraph factorGraph) {
+    BeliefPropagationResult result = runBeliefPropagation(factorGraph, true);
+
+    List<Factor> marginals = Lists.newArrayList();
+    // Variable beliefs are added first so that they are used to answer
+    // single-variable marginal queries.
+    marginals.addAll(result.getVariableBeliefs());
+    marginals.addAll(result.getFactorBeliefs());
+    return new FactorMarginalSet(marginals, result.getLogPartitionFunction(),
+        factorGraph.getConditionedVariables(), factorGraph.getConditionedValues());
+  }
+
+  @Override
+  public MaxMarginalSet computeMaxMarginals(FactorGraph factorGraph) {
+    BeliefPropagationResult result = runBeliefPropagation(factorGraph, false);
+
+    // Decode the max-marginals one variable at a time. Each variable's value
+    // is chosen to maximize the beliefs which contain it, conditioned on the
+    // values of previously decoded variables. Conditioning (instead of
+    // maximizing each belief independently) ensures that ties are broken
+    // consistently.
+    List<Factor> factorBeliefs = result.getFactorBeliefs();
+    List<Factor> variableBeliefs = result.getVariableBeliefs();
+    Assignment decoded = Assignment.EMPTY;
+    for (Factor variableBelief : variableBeliefs) {
+      int varNum = variableBelief.getVars().getOnlyVariableNum();
+      Factor score = variableBelief;
+      for (Factor factorBelief : factorBeliefs) {
+        if (factorBelief.getVars().contains(varNum)) {
+          Factor conditional = factorBelief.conditional(decoded);
+          score = score.product(conditional.maxMarginalize(
+              conditional.getVars().removeAll(varNum)));
+        }
+      }
+
+      List<Assignment> best = score.getMostLikelyAssignments(1);
+      if (best.size() == 0 || score.getUnnormalizedProbability(best.get(0)) == 0.0) {
+        throw new ZeroProbabilityError();
+      }
+      decoded = decoded.union(best.get(0));
+    }
+
+    Assignment bestAssignment = decoded.union(factorGraph.getConditionedValues());
+    if (factorGraph.getUnnormalizedProbability(bestAssignment) == 0.0) {
+      throw new ZeroProbabilityError();
+    }
+    return new AssignmentMaxMarginalSet(bestAssignment);
+  }
+
+  /**
+   * Runs belief propagation on {@code factorGraph}, returning the resulting
+   * beliefs along with statistics about the convergence of the algorithm. If
+   * {@code useSumProduct} is {@code true}, then uses sum-product; otherwise
+   * uses max-product.
+   *
+   * @param factorGraph
+   * @param useSumProduct
+   * @return
+   */
+  public BeliefPropagationResult runBeliefPropagation(FactorGraph factorGraph,
+      boolean useSumProduct) {
+    VariableNumMap variables = factorGraph.getVariables();
+    Preconditions.checkArgument(variables.getDiscreteVariables().size() == variables.size());
+
+    LogFunction log = LogFunctions.getLogFunction();
+    log.startTimer("inference/bp_initialize");
+    MessageGraph graph = new MessageGraph(factorGraph, useSumProduct);
+    log.stopTimer("inference/bp_initialize");
+
+    log.startTimer("inference/bp_message_passing");
+    if (schedule == Schedule.RESIDUAL) {
+      runResidualSchedule(graph);
+    } else {
+      runSynchronousSchedule(graph);
+    }
+    log.stopTimer("inference/bp_message_passing");
+
+    log.startTimer("inference/bp_beliefs");
+    BeliefPropagationResult result = graph.computeBeliefs(useSumProduct);
+    log.stopTimer("inference/bp_beliefs");
+    return result;
+  }
+
+  /**
+   * Residual belief propagation (Elidan et al., 2006). Maintains the
+   * recomputed value of every message along with its residual, and repeatedly
+   * commits the message with the largest residual. Committing a message to
+   * variable {@code i} only changes the pending values of messages from
+   * factors adjacent to {@code i}, so only those messages are recomputed.
+   *
+   * @param graph
+   */
+  private void runResidualSchedule(MessageGraph graph) {
+    int numEdges = graph.numEdges();
+    double[][] pending = new double[numEdges][];
+    double[] residuals = new double[numEdges];
+    PriorityQueue<ScheduledMessage> queue = new PriorityQueue<ScheduledMessage>(
+        Math.max(numEdges, 1));
+    for (int i = 0; i < numEdges; i++) {
+      pending[i] = graph.computeFactorMessage(i);
+      residuals[i] = maxDifference(pending[i], graph.getMessage(i));
+      queue.offer(new ScheduledMessage(i, residuals[i]));
+    }
+
+    long maxUpdates = ((long) maxIterations) * numEdges;
+    long numUpdates = 0;
+    double maxResidual = 0.0;
+    boolean converged = (numEdges == 0);
+    while (!queue.isEmpty()) {
+      ScheduledMessage next = queue.poll();
+      if (next.residual != residuals[next.edge]) {
+        // Stale queue entry whose residual has since been updated.
+        continue;
+      }
+
+      maxResidual = next.residual;
+      if (maxResidual <= convergenceTolerance) {
+        converged = true;
+        break;
+      } else if (numUpdates >= maxUpdates) {
+        break;
+      }
+
+      // Commit the message, then recompute every message which depends on it.
+      int edge = next.edge;
+      double[] committed = damp(pending[edge], graph.getMessage(edge));
+      graph.setMessage(edge, committed);
+      numUpdates++;
+
+      residuals[edge] = maxDifference(pending[edge], committed);
+      queue.offer(new ScheduledMessage(edge, residuals[edge]));
+      for (int dependent : graph.getDependentEdges(edge)) {
+        pending[dependent] = graph.computeFactorMessage(dependent);
+        residuals[dependent] = maxDifference(pending[dependent], graph.getMessage(dependent));
+        queue.offer(new ScheduledMessage(dependent, residuals[dependent]));
+      }
+    }
+
+    graph.setStatistics(numEdges == 0 ? 0 : (int) (numUpdates / numEdges), numUpdates,
+        maxResidual, converged);
+  }
+
+  /**
+   * Synchronous belief propagation, where each iteration recomputes every
+   * message using the messages from the previous iteration.
+   *
+   * @param graph
+   */
+  private void runSynchronousSchedule(MessageGraph graph) {
+    int numEdges = graph.numEdges();
+    ExecutorService executor = null;
+    if (numThreads > 1 && numEdges > 1) {
+      executor = pool.get();
+    }
+
+    int numIterations = 0;
+    double maxResidual = 0.0;
+    boolean converged = (numEdges == 0);
+    while (!converged && numIterations < maxIterations) {
+      double[][] updated = null;
+      if (executor == null) {
+        updated = new double[numEdges][];
+        for (int i = 0; i < numEdges; i++) {
+          updated[i] = graph.computeFactorMessage(i);
+        }
+      } else {
+        updated = computeMessagesParallel(graph, executor);
+      }
+
+      maxResidual = 0.0;
+      for (int i = 0; i < numEdges; i++) {
+        double[] committed = damp(updated[i], graph.getMessage(i));
+        maxResidual = Math.max(maxResidual, maxDifference(committed, graph.getMessage(i)));
+        graph.setMessage(i, committed);
+      }
+      numIterations++;
+      converged = maxResidual <= convergenceTolerance;
+    }
+
+    graph.setStatistics(numIterations, ((long) numIterations) * numEdges, maxResidual, converged);
+  }
+
+  private double[][] computeMessagesParallel(MessageGraph graph, ExecutorService executor) {
+    int numEdges = graph.numEdges();
+    int batchSize = (int) Math.ceil(((double) numEdges) / numThreads);
+    List<Future<Void>> results = Lists.newArrayList();
+    double[][] updated = new double[numEdges][];
+    for (int start = 0; start < numEdges; start += batchSize) {
+      results.add(executor.submit(new ComputeMessagesCallable(graph, updated, start,
+          Math.min(start + batchSize, numEdges))));
+    }
+
+    try {
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+    return updated;
+  }
+
+  /**
+   * Terminates the threads used to compute messages in parallel.
+   * This object remains usable after this call.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Returns {@code (1 - damping) * newMessage + damping * oldMessage}.
+   */
+  private double[] damp(double[] newMessage, double[] oldMessage) {
+    if (damping == 0.0) {
+      return newMessage;
+    }
+    double[] damped = new double[newMessage.length];
+    for (int i = 0; i < newMessage.length; i++) {
+      damped[i] = ((1.0 - damping) * newMessage[i]) + (damping * oldMessage[i]);
+    }
+    return damped;
+  }
+
+  private static double maxDifference(double[] first, double[] second) {
+    double max = 0.0;
+    for (int i = 0; i < first.length; i++) {
+      max = Math.max(max, Math.abs(first[i] - second[i]));
+    }
+    return max;
+  }
+
+  /**
+   * The result of running belief propagation: a set of beliefs (approximate
+   * marginals or max-marginals) along with convergence statistics.
+   *
+   * @author jayantk
+   */
+  public static class BeliefPropagationResult {
+    private final List<Factor> variableBeliefs;
+    private final List<Factor> factorBeliefs;
+    private final double logPartitionFunction;
+
+    private final int numIterations;
+    private final long numMessageUpdates;
+    private final double maxResidual;
+    private final boolean converged;
+
+    public BeliefPropagationResult(List<Factor> variableBeliefs, List<Factor> factorBeliefs,
+        double logPartitionFunction, int numIterations, long numMessageUpdates,
+        double maxResidual, boolean converged) {
+      this.variableBeliefs = Preconditions.checkNotNull(variableBeliefs);
+      this.factorBeliefs = Preconditions.checkNotNull(factorBeliefs);
+      this.logPartitionFunction = logPartitionFunction;
+      this.numIterations = numIterations;
+      this.numMessageUpdates = numMessageUpdates;
+      this.maxResidual = maxResidual;
+      this.converged = converged;
+    }
+
+    /**
+     * Gets the normalized belief over each variable in the factor graph.
+     *
+     * @return
+     */
+    public List<Factor> getVariableBeliefs() {
+      return variableBeliefs;
+    }
+
+    /**
+     * Gets the normalized belief over the variables of each factor in the
+     * factor graph. Factors with no variables are omitted.
+     *
+     * @return
+     */
+    public List<Factor> getFactorBeliefs() {
+      return factorBeliefs;
+    }
+
+    /**
+     * Gets the Bethe approximation to the log partition function. Only
+     * meaningful if the beliefs were computed using sum-product.
+     *
+     * @return
+     */
+    public double getLogPartitionFunction() {
+      return logPartitionFunction;
+    }
+
+    /**
+     * Gets the number of iterations of message passing performed.
+     *
+     * @return
+     */
+    public int getNumIterations() {
+      return numIterations;
+    }
+
+    /**
+     * Gets the total number of factor-to-variable messages computed.
+     *
+     * @return
+     */
+    public long getNumMessageUpdates() {
+      return numMessageUpdates;
+    }
+
+    /**
+     * Gets the largest change to any message in the final round of message
+     * passing.
+     *
+     * @return
+     */
+    public double getMaxResidual() {
+      return maxResidual;
+    }
+
+    /**
+     * Returns {@code true} if message passing converged before exhausting its
+     * iteration budget.
+     *
+     * @return
+     */
+    public boolean isConverged() {
+      return converged;
+    }
+  }
+
+  /**
+   * Mutable message passing state. Messages are indexed by edges of the
+   * factor graph, where each edge is a (factor, variable) pair. Only
+   * factor-to-variable messages are stored; variable-to-factor messages are
+   * computed from these as needed.
+   */
+  private static class MessageGraph {
+    private final boolean useSumProduct;
+
+    private final VariableNumMap variables;
+    private final int[] variableNums;
+    private final int[] variableSizes;
+
+    // Factors with at least one variable, along with their weights.
+    private final List<DiscreteFactor> factors;
+    private final Tensor[] factorWeights;
+    // The log weight of factors with no variables.
+    private final double constantLogWeight;
+
+    // Edge i connects edgeFactors[i] to the variable with index
+    // edgeVariables[i] (an index into variableNums).
+    private final int[] edgeFactors;
+    private final int[] edgeVariables;
+    private final int[][] factorEdges;
+    private final int[][] variableEdges;
+    private final double[][] messages;
+
+    private int numIterations;
+    private long numMessageUpdates;
+    private double maxResidual;
+    private boolean converged;
+
+    public MessageGraph(FactorGraph factorGraph, boolean useSumProduct) {
+      this.useSumProduct = useSumProduct;
+      this.variables = factorGraph.getVariables();
+      this.variableNums = variables.getVariableNumsArray();
+      this.variableSizes = new int[variableNums.length];
+      List<DiscreteVariable> variableTypes = variables.getDiscreteVariables();
+      for (int i = 0; i < variableNums.length; i++) {
+        variableSizes[i] = variableTypes.get(i).numValues();
+      }
+
+      factors = Lists.newArrayList();
+      double constant = 0.0;
+      for (Factor factor : factorGraph.getFactors()) {
+        if (factor.getVars().size() == 0) {
+          constant += factor.getTotalUnnormalizedLogProbability();
+        } else {
+          factors.add(factor.coerceToDiscrete());
+        }
+      }
+      constantLogWeight = constant;
+
+      factorWeights = new Tensor[factors.size()];
+      factorEdges = new int[factors.size()][];
+      List<Integer> edgeFactorList = Lists.newArrayList();
+      List<Integer> edgeVariableList = Lists.newArrayList();
+      List<List<Integer>> variableEdgeLists = Lists.newArrayList();
+      for (int i = 0; i < variableNums.length; i++) {
+        variableEdgeLists.add(Lists.<Integer> newArrayList());
+      }
+      for (int i = 0; i < factors.size(); i++) {
+        factorWeights[i] = factors.get(i).getWeights();
+        int[] factorVariableNums = factors.get(i).getVars().getVariableNumsArray();
+        factorEdges[i] = new int[factorVariableNums.length];
+        for (int j = 0; j < factorVariableNums.length; j++) {
+          int variableIndex = Arrays.binarySearch(variableNums, factorVariableNums[j]);
+          int edge = edgeFactorList.size();
+          factorEdges[i][j] = edge;
+          variableEdgeLists.get(variableIndex).add(edge);
+          edgeFactorList.add(i);
+          edgeVariableList.add(variableIndex);
+        }
+      }
+
+      edgeFactors = Ints.toArray(edgeFactorList);
+      edgeVariables = Ints.toArray(edgeVariableList);
+      variableEdges = new int[variableNums.length][];
+      for (int i = 0; i < variableNums.length; i++) {
+        variableEdges[i] = Ints.toArray(variableEdgeLists.get(i));
+      }
+
+      // Initialize all messages to the uniform distribution.
+      messages = new double[edgeFactors.length][];
+      for (int i = 0; i < edgeFactors.length; i++) {
+        int size = variableSizes[edgeVariables[i]];
+        messages[i] = new double[size];
+        Arrays.fill(messages[i], 1.0 / size);
+      }
+    }
+
+    public int numEdges() {
+      return edgeFactors.length;
+    }
+
+    public double[] getMessage(int edge) {
+      return messages[edge];
+    }
+
+    public void setMessage(int edge, double[] message) {
+      messages[edge] = message;
+    }
+
+    public void setStatistics(int numIterations, long numMessageUpdates, double maxResidual,
+        boolean converged) {
+      this.numIterations = numIterations;
+      this.numMessageUpdates = numMessageUpdates;
+      this.maxResidual = maxResidual;
+      this.converged = converged;
+    }
+
+    /**
+     * Gets the edges whose factor-to-variable messages depend on the message
+     * along {@code edge}. These are the edges from every other factor
+     * containing {@code edge}'s variable to that factor's other variables.
+     *
+     * @param edge
+     * @return
+     */
+    public List<Integer> getDependentEdges(int edge) {
+      List<Integer> dependents = Lists.newArrayList();
+      int factor = edgeFactors[edge];
+      for (int variableEdge : variableEdges[edgeVariables[edge]]) {
+        int otherFactor = edgeFactors[variableEdge];
+        if (otherFactor != factor) {
+          for (int otherEdge : factorEdges[otherFactor]) {
+            if (otherEdge != variableEdge) {
+              dependents.add(otherEdge);
+            }
+          }
+        }
+      }
+      return dependents;
+    }
+
+    /**
+     * Computes the message from the variable of {@code edge} to its factor,
+     * which is the product of all other inbound messages to the variable.
+     *
+     * @param edge
+     * @return
+     */
+    private Tensor computeVariableMessage(int edge) {
+      int variableIndex = edgeVariables[edge];
+      double[] values = new double[variableSizes[variableIndex]];
+      Arrays.fill(values, 1.0);
+      for (int inbound : variableEdges[variableIndex]) {
+        if (inbound != edge) {
+          double[] message = messages[inbound];
+          for (int i = 0; i < values.length; i++) {
+            values[i] *= message[i];
+          }
+        }
+      }
+      normalize(values);
+      return new DenseTensor(new int[] { variableNums[variableIndex] },
+          new int[] { variableSizes[variableIndex] }, values);
+    }
+
+    /**
+     * Computes the (normalized) message from the factor of {@code edge} to its
+     * variable using the current values of all other messages.
+     *
+     * @param edge
+     * @return
+     */
+    public double[] computeFactorMessage(int edge) {
+      int factor = edgeFactors[edge];
+      Tensor product = factorWeights[factor];
+      List<Integer> dimensionsToEliminate = Lists.newArrayList();
+      for (int otherEdge : factorEdges[factor]) {
+        if (otherEdge != edge) {
+          product = product.elementwiseProduct(computeVariableMessage(otherEdge));
+          dimensionsToEliminate.add(variableNums[edgeVariables[otherEdge]]);
+        }
+      }
+
+      Tensor message = useSumProduct ? product.sumOutDimensions(dimensionsToEliminate)
+          : product.maxOutDimensions(dimensionsToEliminate);
+      double[] values = new double[variableSizes[edgeVariables[edge]]];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = message.getByDimKey(i);
+      }
+      if (!normalize(values)) {
+        // Every assignment to the factor has zero weight given the other
+        // messages.
+        throw new ZeroProbabilityError();
+      }
+      return values;
+    }
+
+    public BeliefPropagationResult computeBeliefs(boolean useSumProduct) {
+      List<Factor> variableBeliefs = Lists.newArrayList();
+      double logPartitionFunction = constantLogWeight;
+      for (int i = 0; i < variableNums.length; i++) {
+        double[] values = new double[variableSizes[i]];
+        Arrays.fill(values, 1.0);
+        for (int inbound : variableEdges[i]) {
+          for (int j = 0; j < values.length; j++) {
+            values[j] *= messages[inbound][j];
+          }
+        }
+        if (!normalize(values)) {
+          throw new ZeroProbabilityError();
+        }
+        variableBeliefs.add(new TableFactor(variables.intersection(variableNums[i]),
+            new DenseTensor(new int[] { variableNums[i] }, new int[] { values.length }, values)));
+
+        // Bethe free energy contribution of this variable.
+        double negativeEntropy = 0.0;
+        for (int j = 0; j < values.length; j++) {
+          if (values[j] > 0.0) {
+            negativeEntropy += values[j] * Math.log(values[j]);
+          }
+        }
+        logPartitionFunction += (variableEdges[i].length - 1) * negativeEntropy;
+      }
+
+      List<Factor> factorBeliefs = Lists.newArrayList();
+      for (int i = 0; i < factors.size(); i++) {
+        Tensor belief = factorWeights[i];
+        for (int edge : factorEdges[i]) {
+          belief = belief.elementwiseProduct(computeVariableMessage(edge));
+        }
+        double total = belief.getTrace();
+        if (total <= 0.0) {
+          throw new ZeroProbabilityError();
+        }
+        belief = belief.elementwiseProduct(1.0 / total);
+        factorBeliefs.add(new TableFactor(factors.get(i).getVars(), belief));
+
+        // Bethe free energy contribution of this factor.
+        Tensor weights = factorWeights[i];
+        double[] beliefValues = belief.getValues();
+        for (int j = 0; j < beliefValues.length; j++) {
+          if (beliefValues[j] > 0.0) {
+            double weight = weights.get(belief.indexToKeyNum(j));
+            logPartitionFunction += beliefValues[j] * (Math.log(weight) - Math.log(beliefValues[j]));
+          }
+        }
+      }
+
+      if (!useSumProduct) {
+        logPartitionFunction = Double.NaN;
+      }
+
+      return new BeliefPropagationResult(variableBeliefs, factorBeliefs, logPartitionFunction,
+          numIterations, numMessageUpdates, maxResidual, converged);
+    }
+
+    /**
+     * Normalizes {@code values} to sum to one. Returns {@code false} if the
+     * values cannot be normalized because they sum to zero.
+     */
+    private static boolean normalize(double[] values) {
+      double total = 0.0;
+      for (int i = 0; i < values.length; i++) {
+        total += values[i];
+      }
+      if (total <= 0.0) {
+        return false;
+      }
+      for (int i = 0; i < values.length; i++) {
+        values[i] /= total;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * A message which is scheduled to be passed during residual belief
+   * propagation. The queue orders messages by decreasing residual.
+   */
+  private static class ScheduledMessage implements Comparable<ScheduledMessage> {
+    private final int edge;
+    private final double residual;
+
+    public ScheduledMessage(int edge, double residual) {
+      this.edge = edge;
+      this.residual = residual;
+    }
+
+    @Override
+    public int compareTo(ScheduledMessage other) {
+      return Double.compare(other.residual, residual);
+    }
+  }
+
+  /**
+   * Computes a batch of factor-to-variable messages for synchronous belief
+   * propagation.
+   */
+  private static class ComputeMessagesCallable implements Callable<Void> {
+    private final MessageGraph graph;
+    private final double[][] updated;
+    private final int start;
+    private final int end;
+
+    public ComputeMessagesCallable(MessageGraph graph, double[][] updated, int start, int end) {
+      this.graph = graph;
+      this.updated = updated;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public Void call() {
+      for (int i = start; i < end; i++) {
+        updated[i] = graph.computeFactorMessage(i);
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,824 @@
+package com.jayantkrish.jklol.inference;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.jayantkrish.jklol.models.DiscreteFactor;
+import com.jayantkrish.jklol.models.Factor;
+import com.jayantkrish.jklol.models.TableFactor;
+import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.tensor.SparseTensor;
+import com.jayantkrish.jklol.tensor.Tensor;
+import com.jayantkrish.jklol.tensor.TensorBase.KeyValue;
+import com.jayantkrish.jklol.util.Assignment;
+
+/**
+ * Stores large {@link DiscreteFactor}s in memory-mapped scratch files,
+ * allowing {@link JunctionTree} to perform exact inference when the
+ * clique tables do not simultaneously fit in memory. Each stored
+ * factor is represented by a {@link MappedFactor}, which can be read
+ * in blocks containing the entries for a single assignment to the
+ * factor's first few variables. Enough leading variables are used to
+ * keep each block under {@code maxBlockBytes}.
+ *
+ * <p>
+ * Factors are stored sparsely, as a sorted sequence of (key number,
+ * value) pairs. Only factors whose table size is at least
+ * {@code spillThreshold} are stored; smaller factors remain in memory.
+ *
+ * <p>
+ * Scratch files are deleted by {@link MappedFactor#delete()}. Files
+ * which are not explicitly deleted are deleted after every
+ * {@code MappedFactor} reading them has been garbage collected, or when
+ * the JVM exits.
+ *
+ * @author jayantk
+ */
+public class MappedFactorStore implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  // Each entry is a long key followed by a double value.
+  private static final int ENTRY_SIZE = 16;
+  // Files are mapped in segments of this many bytes, which must be a
+  // multiple of ENTRY_SIZE.
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  public static final long DEFAULT_MAX_BLOCK_BYTES = 1L << 26;
+
+  // Scratch files which have not been deleted. Files are deleted
+  // when their ScratchFile is garbage collected, which enqueues its
+  // reference in unreachableFiles.
+  private static final Set<ScratchFileReference> liveFiles =
+      Collections.synchronizedSet(Sets.<ScratchFileReference>newHashSet());
+  private static final ReferenceQueue<ScratchFile> unreachableFiles =
+      new ReferenceQueue<ScratchFile>();
+
+  static {
+    // A single hook deletes any files remaining at exit, unlike
+    // File.deleteOnExit, which retains every file ever registered.
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        List<ScratchFileReference> remainingFiles = null;
+        synchronized (liveFiles) {
+          remainingFiles = Lists.newArrayList(liveFiles);
+        }
+        for (ScratchFileReference reference : remainingFiles) {
+          reference.delete();
+        }
+      }
+    });
+  }
+
+  private final File directory;
+  private final double spillThreshold;
+  private final long maxBlockBytes;
+
+  /**
+   * Creates a store which writes scratch files to {@code directory}.
+   * Factors whose table contains at least {@code spillThreshold}
+   * entries are stored on disk. Blocks are limited to
+   * {@link #DEFAULT_MAX_BLOCK_BYTES}.
+   *
+   * @param directory
+   * @param spillThreshold
+   */
+  public MappedFactorStore(File directory, double spillThreshold) {
+    this(directory, spillThreshold, DEFAULT_MAX_BLOCK_BYTES);
+  }
+
+  /**
+   * Creates a store which writes scratch files to {@code directory}.
+   * Factors whose table contains at least {@code spillThreshold}
+   * entries are stored on disk, and are read in blocks of at most
+   * {@code maxBlockBytes} (unless a block contains a single entry).
+   *
+   * @param directory
+   * @param spillThreshold
+   * @param maxBlockBytes
+   */
+  public MappedFactorStore(File directory, double spillThreshold, long maxBlockBytes) {
+    this.directory = Preconditions.checkNotNull(directory);
+    Preconditions.checkArgument(spillThreshold > 0);
+    Preconditions.checkArgument(maxBlockBytes > 0);
+    this.spillThreshold = spillThreshold;
+    this.maxBlockBytes = maxBlockBytes;
+  }
+
+  /**
+   * Creates a store which writes scratch files to the system's
+   * temporary directory.
+   *
+   * @param spillThreshold
+   * @return
+   */
+  public static MappedFactorStore inTemporaryDirectory(double spillThreshold) {
+    return new MappedFactorStore(new File(System.getProperty("java.io.tmpdir")), spillThreshold);
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public double getSpillThreshold() {
+    return spillThreshold;
+  }
+
+  public long getMaxBlockBytes() {
+    return maxBlockBytes;
+  }
+
+  /**
+   * Gets the number of leading variables of {@code vars} which
+   * identify each block of a stored factor over {@code vars}. This is
+   * the smallest number of variables for which a block of the table
+   * over the remaining variables fits in {@code maxBlockBytes}.
+   *
+   * @param vars
+   * @return
+   */
+  public int getNumBlockVariables(VariableNumMap vars) {
+    int[] sizes = vars.getVariableSizes();
+    double blockBytes = ENTRY_SIZE;
+    for (int size : sizes) {
+      blockBytes *= size;
+    }
+
+    int numBlockVars = 0;
+    while (numBlockVars < sizes.length && blockBytes > maxBlockBytes) {
+      blockBytes /= sizes[numBlockVars];
+      numBlockVars++;
+    }
+    return numBlockVars;
+  }
+
+  /**
+   * Returns {@code true} if a table over {@code vars} is large enough
+   * to be stored on disk. {@code vars} must contain only discrete
+   * variables.
+   *
+   * @param vars
+   * @return
+   */
+  public boolean shouldStore(VariableNumMap vars) {
+    if (vars.size() == 0 || vars.getDiscreteVariables().size() != vars.size()) {
+      return false;
+    }
+
+    double tableSize = 1.0;
+    for (int size : vars.getVariableSizes()) {
+      tableSize *= size;
+    }
+    return tableSize >= spillThreshold;
+  }
+
+  /**
+   * Returns {@code true} if {@code factor} can be stored by this and
+   * is large enough to be stored on disk.
+   *
+   * @param factor
+   * @return
+   */
+  public boolean shouldStore(Factor factor) {
+    return factor instanceof DiscreteFactor && shouldStore(factor.getVars());
+  }
+
+  /**
+   * Writes {@code factor} to a new scratch file.
+   *
+   * @param factor
+   * @return
+   */
+  public MappedFactor store(DiscreteFactor factor) {
+    MappedFactorWriter writer = getWriter(factor.getVars());
+    writer.append(factor);
+    return writer.close();
+  }
+
+  /**
+   * Gets a writer for incrementally storing a factor over
+   * {@code vars}. Blocks must be appended in increasing order; see
+   * {@link MappedFactorWriter#getBlock(DiscreteFactor, long)}.
+   *
+   * @param vars
+   * @return
+   */
+  public MappedFactorWriter getWriter(VariableNumMap vars) {
+    deleteUnreachableFiles();
+    ScratchFile file = null;
+    try {
+      file = new ScratchFile(File.createTempFile("jklol-factor", ".bin", directory));
+      return new MappedFactorWriter(new BlockLayout(vars, getNumBlockVariables(vars)), file);
+    } catch (IOException e) {
+      if (file != null) {
+        file.delete();
+      }
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Deletes the scratch files of all {@code MappedFactor}s which have
+   * been garbage collected. This method is called automatically
+   * whenever a new factor is stored.
+   */
+  public static void deleteUnreachableFiles() {
+    Reference<? extends ScratchFile> reference = null;
+    while ((reference = unreachableFiles.poll()) != null) {
+      ((ScratchFileReference) reference).delete();
+    }
+  }
+
+  /**
+   * Incrementally writes the entries of a factor to a scratch file.
+   */
+  public static class MappedFactorWriter {
+    private final BlockLayout layout;
+    private final VariableNumMap vars;
+    private final ScratchFile file;
+    private final DataOutputStream out;
+
+    private long numEntries;
+    private long lastKeyNum;
+
+    private MappedFactorWriter(BlockLayout layout, ScratchFile file) throws IOException {
+      this.layout = layout;
+      this.vars = layout.getVars();
+      this.file = file;
+      this.out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file.getFile())));
+      this.numEntries = 0;
+      this.lastKeyNum = -1;
+    }
+
+    /**
+     * Gets the number of blocks in the stored factor.
+     *
+     * @return
+     */
+    public long getNumBlocks() {
+      return layout.getNumBlocks();
+    }
+
+    /**
+     * Gets a factor containing the entries of {@code factor} in the
+     * {@code blockNum}th block, i.e., whose leading variables take the
+     * {@code blockNum}th assignment in key order. {@code factor} must
+     * be defined over the same variables as the stored factor. Blocks
+     * may be appended in increasing order of {@code blockNum}.
+     *
+     * @param factor
+     * @param blockNum
+     * @return
+     */
+    public DiscreteFactor getBlock(DiscreteFactor factor, long blockNum) {
+      Preconditions.checkArgument(factor.getVars().equals(vars));
+      Tensor conditionalWeights = factor.conditional(layout.getBlockAssignment(blockNum))
+          .getWeights();
+
+      long blockOffset = blockNum * layout.getBlockSize();
+      int numEntries = conditionalWeights.size();
+      long[] keyNums = new long[numEntries];
+      double[] values = new double[numEntries];
+      int numFilled = 0;
+      for (int i = 0; i < numEntries; i++) {
+        double value = conditionalWeights.getByIndex(i);
+        if (value != 0.0) {
+          keyNums[numFilled] = blockOffset + conditionalWeights.indexToKeyNum(i);
+          values[numFilled] = value;
+          numFilled++;
+        }
+      }
+
+      SparseTensor blockWeights = new SparseTensor(vars.getVariableNumsArray(),
+          vars.getVariableSizes(), Arrays.copyOf(keyNums, numFilled),
+          Arrays.copyOf(values, numFilled));
+      return new TableFactor(vars, blockWeights);
+    }
+
+    /**
+     * Same as {@link #getBlock(DiscreteFactor, long)} for a factor
+     * with weight 1 for all assignments, without constructing that
+     * factor.
+     *
+     * @param blockNum
+     * @return
+     */
+    public DiscreteFactor getUnityBlock(long blockNum) {
+      VariableNumMap blockVars = layout.getBlockVars();
+      return TableFactor.pointDistribution(blockVars, layout.getBlockAssignment(blockNum))
+          .outerProduct(TableFactor.unity(vars.removeAll(blockVars)));
+    }
+
+    /**
+     * Appends the nonzero entries of {@code factor} to the stored
+     * factor. {@code factor} must be defined over the same variables as
+     * the stored factor, and all of its keys must be larger than the
+     * keys of previously appended factors.
+     *
+     * @param factor
+     */
+    public void append(DiscreteFactor factor) {
+      Preconditions.checkArgument(factor.getVars().equals(vars));
+      Iterator<KeyValue> iter = factor.getWeights().keyValueIterator();
+      try {
+        while (iter.hasNext()) {
+          KeyValue keyValue = iter.next();
+          if (keyValue.getValue() != 0.0) {
+            long keyNum = factor.getWeights().dimKeyToKeyNum(keyValue.getKey());
+            Preconditions.checkArgument(keyNum > lastKeyNum,
+                "Entries must be appended in increasing key order.");
+            out.writeLong(keyNum);
+            out.writeDouble(keyValue.getValue());
+            lastKeyNum = keyNum;
+            numEntries++;
+          }
+        }
+      } catch (IOException e) {
+        abort();
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * Finishes writing the factor and returns it.
+     *
+     * @return
+     */
+    public MappedFactor close() {
+      try {
+        out.close();
+        return new MappedFactor(layout, file, numEntries, 1.0);
+      } catch (IOException e) {
+        file.delete();
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * Stops writing the factor and deletes its scratch file. This
+     * writer cannot be used after calling this method.
+     */
+    public void abort() {
+      try {
+        out.close();
+      } catch (IOException e) {
+        // The file is deleted regardless.
+      }
+      file.delete();
+    }
+  }
+
+  /**
+   * A {@link DiscreteFactor} stored in a memory-mapped file. Portions
+   * of the factor are only paged into memory while they are read.
+   */
+  public static class MappedFactor {
+    private final BlockLayout layout;
+    private final VariableNumMap vars;
+    private final ScratchFile file;
+    private final long numEntries;
+    // All values in the file are multiplied by this constant.
+    private final double multiplier;
+
+    private final int[] dimensionNums;
+    private final int[] dimensionSizes;
+
+    private MappedByteBuffer[] segments;
+
+    private MappedFactor(BlockLayout layout, ScratchFile file, long numEntries,
+        double multiplier) {
+      this.layout = Preconditions.checkNotNull(layout);
+      this.vars = layout.getVars();
+      this.file = Preconditions.checkNotNull(file);
+      this.numEntries = numEntries;
+      this.multiplier = multiplier;
+
+      this.dimensionNums = vars.getVariableNumsArray();
+      this.dimensionSizes = vars.getVariableSizes();
+      this.segments = null;
+    }
+
+    public VariableNumMap getVars() {
+      return vars;
+    }
+
+    /**
+     * Gets the number of nonzero entries in this factor.
+     *
+     * @return
+     */
+    public long size() {
+      return numEntries;
+    }
+
+    /**
+     * Gets the number of blocks in this factor, which is the number of
+     * assignments to its leading block variables.
+     *
+     * @return
+     */
+    public long getNumBlocks() {
+      return layout.getNumBlocks();
+    }
+
+    /**
+     * Gets a factor containing the entries of this factor whose
+     * leading variables take their {@code blockNum}th assignment. The
+     * returned factor is defined over the same variables as this and
+     * has weight 0 for all other assignments to the leading variables.
+     *
+     * @param blockNum
+     * @return
+     */
+    public DiscreteFactor getBlock(long blockNum) {
+      Preconditions.checkArgument(blockNum >= 0 && blockNum < getNumBlocks());
+      MappedByteBuffer[] segments = getSegments();
+      long blockSize = layout.getBlockSize();
+      long start = findFirstEntry(segments, blockNum * blockSize);
+      long end = findFirstEntry(segments, (blockNum + 1) * blockSize);
+      return readEntries(segments, start, end);
+    }
+
+    /**
+     * Sums {@code varsToEliminate} out of this factor, reading one
+     * block into memory at a time.
+     *
+     * @param varsToEliminate
+     * @return
+     */
+    public DiscreteFactor marginalize(VariableNumMap varsToEliminate) {
+      return combineBlocks(Assignment.EMPTY, varsToEliminate, true);
+    }
+
+    /**
+     * Maximizes {@code varsToEliminate} out of this factor, reading
+     * one block into memory at a time.
+     *
+     * @param varsToEliminate
+     * @return
+     */
+    public DiscreteFactor maxMarginalize(VariableNumMap varsToEliminate) {
+      return maxMarginalize(Assignment.EMPTY, varsToEliminate);
+    }
+
+    /**
+     * Conditions this factor on {@code given}, then maximizes
+     * {@code varsToEliminate} out of the result. Only blocks which
+     * are consistent with {@code given} are read.
+     *
+     * @param given
+     * @param varsToEliminate
+     * @return
+     */
+    public DiscreteFactor maxMarginalize(Assignment given, VariableNumMap varsToEliminate) {
+      return combineBlocks(given, varsToEliminate, false);
+    }
+
+    /**
+     * Gets the highest-weight assignment to the variables of this
+     * factor which are not in {@code given}, conditioned on
+     * {@code given}. Returns {@code null} if every such assignment
+     * has weight 0. Only blocks which are consistent with
+     * {@code given} are read.
+     *
+     * @param given
+     * @return
+     */
+    public Assignment getMostLikelyAssignment(Assignment given) {
+      Assignment best = null;
+      double bestWeight = 0.0;
+      MappedByteBuffer[] segments = getSegments();
+      long blockSize = layout.getBlockSize();
+      for (long i = 0; i < getNumBlocks(); i++) {
+        if (!layout.isBlockConsistent(i, given)) {
+          continue;
+        }
+        long start = findFirstEntry(segments, i * blockSize);
+        long end = findFirstEntry(segments, (i + 1) * blockSize);
+        if (start == end) {
+          continue;
+        }
+
+        DiscreteFactor conditional = readEntries(segments, start, end).conditional(given);
+        List<Assignment> assignments = conditional.getMostLikelyAssignments(1);
+        if (assignments.size() > 0) {
+          double weight = conditional.getUnnormalizedProbability(assignments.get(0));
+          if (weight > bestWeight) {
+            best = assignments.get(0);
+            bestWeight = weight;
+          }
+        }
+      }
+      return best;
+    }
+
+    /**
+     * Gets the weight of the entry of this factor for {@code assignment},
+     * which must contain every variable of this factor.
+     *
+     * @param assignment
+     * @return
+     */
+    public double getUnnormalizedProbability(Assignment assignment) {
+      int[] key = vars.assignmentToIntArray(assignment.intersection(vars));
+      long keyNum = 0;
+      for (int i = 0; i < key.length; i++) {
+        keyNum = keyNum * dimensionSizes[i] + key[i];
+      }
+
+      MappedByteBuffer[] segments = getSegments();
+      long entry = findFirstEntry(segments, keyNum);
+      if (entry < numEntries && getKeyNum(segments, entry) == keyNum) {
+        return getValue(segments, entry);
+      }
+      return 0.0;
+    }
+
+    /**
+     * Reads this entire factor into memory. Prefer the blockwise
+     * operations of this class, which do not require the whole factor
+     * to fit in memory.
+     *
+     * @return
+     */
+    public DiscreteFactor load() {
+      return readEntries(getSegments(), 0, numEntries);
+    }
+
+    /**
+     * Gets this factor multiplied by {@code constant}. The returned
+     * factor shares its scratch file with this one.
+     *
+     * @param constant
+     * @return
+     */
+    public MappedFactor product(double constant) {
+      return new MappedFactor(layout, file, numEntries, multiplier * constant);
+    }
+
+    /**
+     * Gets the sum of the weights of all entries in this factor.
+     *
+     * @return
+     */
+    public double getTotalUnnormalizedProbability() {
+      MappedByteBuffer[] segments = getSegments();
+      double total = 0.0;
+      for (long i = 0; i < numEntries; i++) {
+        total += getValue(segments, i);
+      }
+      return total;
+    }
+
+    /**
+     * Deletes the scratch file backing this factor. This factor and
+     * any factor derived from it cannot be used after calling this
+     * method.
+     */
+    public void delete() {
+      segments = null;
+      file.delete();
+    }
+
+    /**
+     * Conditions each block consistent with {@code given} on
+     * {@code given}, eliminates {@code varsToEliminate} from it, and
+     * combines the results by summing or maximizing.
+     */
+    private DiscreteFactor combineBlocks(Assignment given, VariableNumMap varsToEliminate,
+        boolean useSum) {
+      MappedByteBuffer[] segments = getSegments();
+      long blockSize = layout.getBlockSize();
+      VariableNumMap toEliminate = vars.removeAll(given.getVariableNumsArray())
+          .intersection(varsToEliminate);
+      DiscreteFactor result = null;
+      for (long i = 0; i < getNumBlocks(); i++) {
+        if (!layout.isBlockConsistent(i, given)) {
+          continue;
+        }
+        long start = findFirstEntry(segments, i * blockSize);
+        long end = findFirstEntry(segments, (i + 1) * blockSize);
+        if (start == end && result != null) {
+          // Empty blocks do not change the result.
+          continue;
+        }
+
+        DiscreteFactor blockResult = readEntries(segments, start, end).conditional(given);
+        if (useSum) {
+          blockResult = blockResult.marginalize(toEliminate);
+          result = result == null ? blockResult : result.add(blockResult);
+        } else {
+          blockResult = blockResult.maxMarginalize(toEliminate.getVariableNums());
+          result = result == null ? blockResult : result.maximum(blockResult);
+        }
+      }
+      return result;
+    }
+
+    private DiscreteFactor readEntries(MappedByteBuffer[] segments, long start, long end) {
+      Preconditions.checkArgument(end - start <= Integer.MAX_VALUE,
+          "Too many entries to read into memory: %s", end - start);
+      int numRead = (int) (end - start);
+      long[] keyNums = new long[numRead];
+      double[] values = new double[numRead];
+      for (int i = 0; i < numRead; i++) {
+        keyNums[i] = getKeyNum(segments, start + i);
+        values[i] = getValue(segments, start + i);
+      }
+      Tensor weights = new SparseTensor(Arrays.copyOf(dimensionNums, dimensionNums.length),
+          Arrays.copyOf(dimensionSizes, dimensionSizes.length), keyNums, values);
+      return new TableFactor(vars, weights);
+    }
+
+    /**
+     * Gets the index of the first entry whose key is at least
+     * {@code keyNum}.
+     */
+    private long findFirstEntry(MappedByteBuffer[] segments, long keyNum) {
+      long low = 0;
+      long high = numEntries;
+      while (low < high) {
+        long mid = (low + high) >>> 1;
+        if (getKeyNum(segments, mid) < keyNum) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    private static long getKeyNum(MappedByteBuffer[] segments, long entry) {
+      long offset = entry * ENTRY_SIZE;
+      return segments[(int) (offset / SEGMENT_SIZE)].getLong((int) (offset % SEGMENT_SIZE));
+    }
+
+    private double getValue(MappedByteBuffer[] segments, long entry) {
+      long offset = entry * ENTRY_SIZE + 8;
+      return segments[(int) (offset / SEGMENT_SIZE)].getDouble((int) (offset % SEGMENT_SIZE))
+          * multiplier;
+    }
+
+    private synchronized MappedByteBuffer[] getSegments() {
+      if (segments == null) {
+        try {
+          RandomAccessFile randomAccessFile = new RandomAccessFile(file.getFile(), "r");
+          try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long fileSize = channel.size();
+            int numSegments = (int) ((fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            MappedByteBuffer[] newSegments = new MappedByteBuffer[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+              long segmentStart = i * SEGMENT_SIZE;
+              newSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart,
+                  Math.min(SEGMENT_SIZE, fileSize - segmentStart));
+            }
+            segments = newSegments;
+          } finally {
+            randomAccessFile.close();
+          }
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return segments;
+    }
+  }
+
+  /**
+   * The division of a stored factor into blocks. Each block contains
+   * the entries for one assignment to the factor's first
+   * {@code numBlockVars} variables, which is a contiguous range of key
+   * numbers.
+   */
+  private static class BlockLayout {
+    private final VariableNumMap vars;
+    private final VariableNumMap blockVars;
+    private final int[] blockVarNums;
+    private final int[] blockVarSizes;
+
+    private final long numBlocks;
+    private final long blockSize;
+
+    public BlockLayout(VariableNumMap vars, int numBlockVars) {
+      this.vars = vars;
+      this.blockVars = vars.getFirstVariables(numBlockVars);
+      this.blockVarNums = blockVars.getVariableNumsArray();
+      this.blockVarSizes = blockVars.getVariableSizes();
+
+      long blocks = 1;
+      for (int size : blockVarSizes) {
+        blocks *= size;
+      }
+      long size = 1;
+      for (int varSize : vars.removeAll(blockVars).getVariableSizes()) {
+        size *= varSize;
+      }
+      this.numBlocks = blocks;
+      this.blockSize = size;
+    }
+
+    public VariableNumMap getVars() {
+      return vars;
+    }
+
+    public VariableNumMap getBlockVars() {
+      return blockVars;
+    }
+
+    public long getNumBlocks() {
+      return numBlocks;
+    }
+
+    public long getBlockSize() {
+      return blockSize;
+    }
+
+    public Assignment getBlockAssignment(long blockNum) {
+      return blockVars.intArrayToAssignment(getBlockKey(blockNum));
+    }
+
+    /**
+     * Returns {@code false} if {@code assignment} assigns any block
+     * variable a different value than the {@code blockNum}th block.
+     */
+    public boolean isBlockConsistent(long blockNum, Assignment assignment) {
+      if (!assignment.containsAny(blockVarNums)) {
+        return true;
+      }
+      Assignment blockAssignment = getBlockAssignment(blockNum);
+      Assignment assigned = assignment.intersection(blockVarNums);
+      return blockAssignment.intersection(assigned.getVariableNumsArray()).equals(assigned);
+    }
+
+    private int[] getBlockKey(long blockNum) {
+      int[] key = new int[blockVarSizes.length];
+      long remainder = blockNum;
+      for (int i = blockVarSizes.length - 1; i >= 0; i--) {
+        key[i] = (int) (remainder % blockVarSizes[i]);
+        remainder /= blockVarSizes[i];
+      }
+      return key;
+    }
+  }
+
+  /**
+   * A scratch file shared by a {@code MappedFactor} and any factors
+   * derived from it. The file is deleted when this object is garbage
+   * collected, if it has not already been deleted.
+   */
+  private static class ScratchFile {
+    private final File file;
+    private final ScratchFileReference reference;
+
+    public ScratchFile(File file) {
+      this.file = Preconditions.checkNotNull(file);
+      this.reference = new ScratchFileReference(this, unreachableFiles);
+      liveFiles.add(reference);
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    public void delete() {
+      reference.delete();
+    }
+  }
+
+  private static class ScratchFileReference extends PhantomReference<ScratchFile> {
+    // The file must be stored here, as the referent of a phantom
+    // reference cannot be retrieved.
+    private final File file;
+
+    public ScratchFileReference(ScratchFile referent, ReferenceQueue<ScratchFile> queue) {
+      super(referent, queue);
+      this.file = referent.getFile();
+    }
+
+    public void delete() {
+      liveFiles.remove(this);
+      clear();
+      file.delete();
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package com.jayantkrish.jklol.inference;
 
+import java.util.List;
+
 import com.jayantkrish.jklol.models.Factor;
 import com.jayantkrish.jklol.models.VariableNumMap;
 import com.jayantkrish.jklol.util.Assignment;
@@ -38,6 +40,18 @@ public interface MaxMarginalSet {
    */
   Assignment getNthBestAssignment(int n);
 
+  /**
+   * Gets the {@code k} most probable assignments, in order of decreasing
+   * probability. The returned list contains only assignments with positive
+   * probability, and therefore may contain fewer than {@code k} assignments.
+   * This method is more efficient than repeatedly calling
+   * {@link #getNthBestAssignment(int)}.
+   * 
+   * @param k
+   * @return
+   */
+  List<Assignment> getBestAssignments(int k);
+
   /**
    * Gets the {@code n}th most probable assignment which contains
    * {@code portion} as a subset. Assignments are zero indexed, and therefore
@@ -1,19 +1,27 @@
 package com.jayantkrish.jklol.inference;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 import com.jayantkrish.jklol.models.DiscreteVariable;
 import com.jayantkrish.jklol.models.Factor;
 import com.jayantkrish.jklol.models.FactorGraph;
 import com.jayantkrish.jklol.models.TableFactor;
 import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.parallel.LazyThreadPool;
 import com.jayantkrish.jklol.tensor.DenseTensor;
 import com.jayantkrish.jklol.tensor.DenseTensorBuilder;
-import com.jayantkrish.jklol.tensor.SparseTensor;
 import com.jayantkrish.jklol.tensor.Tensor;
+import com.jayantkrish.jklol.training.LogFunction;
+import com.jayantkrish.jklol.training.LogFunctions;
 import com.jayantkrish.jklol.util.IndexedList;
 
 /**
@@ -21,99 +29,204 @@ import com.jayantkrish.jklol.util.IndexedList;
  * inference algorithm suitable for computing (approximate) marginal
  * distributions for discrete-valued factor graphs.
  * <p>
+ * Variables can be updated either sequentially (Gauss-Seidel), where each
+ * update uses the most recent marginals of all other variables, or in
+ * parallel (Jacobi), where every variable is updated simultaneously using the
+ * marginals from the previous iteration. Parallel updates may oscillate, and
+ * should generally be combined with damping. In both modes, the message from
+ * each factor to each variable is cached and only recomputed when the
+ * marginal of another variable in the factor changes.
+ * <p>
  * Note that factors with 0 unnormalized probability assignments are not
  * supported by this algorithm.
- * 
+ *
  * @author jayantk
  */
 public class MeanFieldVariational implements MarginalCalculator {
-  private static final long serialVersionUID = 1L;
+  private static final long serialVersionUID = 2L;
+
+  private static final double DEFAULT_CONVERGENCE_DELTA = 0.00000001;
+
+  private final double convergenceDelta;
+  private final int maxIterations;
+
+  private final boolean parallelUpdates;
+  private final double damping;
+  private final int numThreads;
+
+  // Threads used for parallel updates, created on first use and shared
+  // by every inference call on this object.
+  private final LazyThreadPool pool;
+
+  /**
+   * Creates mean field inference with sequential updates which runs until
+   * convergence.
+   */
+  public MeanFieldVariational() {
+    this(DEFAULT_CONVERGENCE_DELTA, Integer.MAX_VALUE, false, 0.0, 1);
+  }
 
-  private static final double CONVERGENCE_DELTA = 0.00000001; 
-  // private static final double CONVERGENCE_DELTA = 0.01;
+  /**
+   * Creates mean field inference with sequential updates.
+   *
+   * @param convergenceDelta inference terminates when the total L2 change in
+   * the variable marginals during an iteration is at most this value.
+   * @param maxIterations maximum number of iterations of updates to perform.
+   */
+  public MeanFieldVariational(double convergenceDelta, int maxIterations) {
+    this(convergenceDelta, maxIterations, false, 0.0, 1);
+  }
+
+  /**
+   * Creates mean field inference.
+   *
+   * @param convergenceDelta inference terminates when the total L2 change in
+   * the variable marginals during an iteration is at most this value.
+   * @param maxIterations maximum number of iterations of updates to perform.
+   * @param parallelUpdates if {@code true}, all variables are updated
+   * simultaneously (Jacobi updates). Otherwise, variables are updated
+   * sequentially.
+   * @param damping weight of the old marginal in each update. Must be in
+   * {@code [0, 1)}; {@code 0} means no damping.
+   * @param numThreads number of threads used to compute parallel updates.
+   */
+  public MeanFieldVariational(double convergenceDelta, int maxIterations,
+      boolean parallelUpdates, double damping, int numThreads) {
+    Preconditions.checkArgument(convergenceDelta >= 0.0);
+    Preconditions.checkArgument(maxIterations >= 1);
+    Preconditions.checkArgument(damping >= 0.0 && damping < 1.0);
+    Preconditions.checkArgument(numThreads >= 1);
+    this.convergenceDelta = convergenceDelta;
+    this.maxIterations = maxIterations;
+    this.parallelUpdates = parallelUpdates;
+    this.damping = damping;
+    this.numThreads = numThreads;
+    this.pool = new LazyThreadPool(numThreads);
+  }
 
   @Override
   public MarginalSet computeMarginals(FactorGraph factorGraph) {
     VariableNumMap variables = factorGraph.getVariables();
     Preconditions.checkArgument(variables.getDiscreteVariables().size() == variables.size());
 
-    // Initialize the mean field distribution to the uniform distribution over
-    // all variables.
-    long curTime = System.currentTimeMillis();
-    System.out.println("init: " + (System.currentTimeMillis() - curTime)); 
-    int numVars = variables.size();
-    IndexedList<Integer> variableNums = new IndexedList<Integer>(variables.getVariableNums());
-    List<DiscreteVariable> variableTypes = variables.getDiscreteVariables();
-    List<Tensor> variableMarginals = Lists.newArrayListWithCapacity(numVars);
-    for (int i = 0; i < numVars; i++) {
-      int[] dimensions = new int[] { variableNums.get(i) };
-      int[] sizes = new int[] { variableTypes.get(i).numValues() };
-      variableMarginals.add(DenseTensor.constant(dimensions, sizes, 1.0 / sizes[0]));
-    }
-    System.out.println("logweights: "  + (System.currentTimeMillis() - curTime));
-    // Get the log weights for each factor in the original factor graph.
-    List<Tensor> logWeights = Lists.newArrayList();
-    for (Factor factor : factorGraph.getFactors()) {
-      logWeights.add(factor.coerceToDiscrete().getWeights().elementwiseLog());
+    LogFunction log = LogFunctions.getLogFunction();
+    log.startTimer("inference/mean_field_initialize");
+    MeanFieldState state = new MeanFieldState(factorGraph);
+    log.stopTimer("inference/mean_field_initialize");
+
+    log.startTimer("inference/mean_field_updates");
+    ExecutorService executor = null;
+    if (parallelUpdates && numThreads > 1 && state.numVariables() > 1) {
+      executor = pool.get();
     }
-    System.out.println("done: " +  + (System.currentTimeMillis() - curTime)); 
 
     double updateL2 = Double.POSITIVE_INFINITY;
     int numIterations = 0;
-    while (updateL2 > CONVERGENCE_DELTA) {
-      updateL2 = 0.0;
-      for (int i = 0; i < numVars; i++) {
-        int curVarNum = variableNums.get(i);
-        // Accumulate the messages from each factor containing this variable.
-        DenseTensorBuilder messageAccumulator = new DenseTensorBuilder(
-            variableMarginals.get(i).getDimensionNumbers(), variableMarginals.get(i).getDimensionSizes());
-        Set<Integer> factorIndexes = factorGraph.getFactorsWithVariable(curVarNum);
-        // System.out.println(i + " " + curVarNum + ": " + factorIndexes);
-        for (int factorIndex : factorIndexes) {
-          Tensor factorMessage = getFactorMessage(curVarNum, logWeights.get(factorIndex),
-              variableMarginals, variableNums);
-          // System.out.println("factorMessage: " +
-          // Arrays.toString(factorMessage.getDimensionNumbers()));
-          // System.out.println("messageAccumulator: " +
-          // Arrays.toString(messageAccumulator.getDimensionNumbers()));
-          messageAccumulator.increment(factorMessage);
-        }
-
-        // Update the marginal based on the inbound messages, setting
-        // marginal equal to the logistic function of the accumulated messages.
-        messageAccumulator.exp();
-        double normalizingConstant = messageAccumulator.getTrace();
-        messageAccumulator.multiply(1.0 / normalizingConstant);
-        Tensor newMarginal = messageAccumulator.buildNoCopy();
-
-        // Compute the convergence criteria
-        Tensor delta = newMarginal.elementwiseAddition(
-            variableMarginals.get(i).elementwiseProduct(SparseTensor.getScalarConstant(-1.0)));
-        updateL2 += delta.getL2Norm();
-
-        variableMarginals.set(i, newMarginal);
+    while (updateL2 > convergenceDelta && numIterations < maxIterations) {
+      if (parallelUpdates) {
+        updateL2 = doParallelUpdate(state, executor);
+      } else {
+        updateL2 = doSequentialUpdate(state);
       }
       numIterations++;
-      System.out.println("update L2: " + updateL2);
     }
-    
-    System.out.println("iterations:" + numIterations);
+    log.stopTimer("inference/mean_field_updates");
+
     // Format output as factors.
     List<Factor> marginals = Lists.newArrayList();
-    for (int i = 0; i < numVars; i++) {
-      marginals.add(new TableFactor(variables.intersection(variableNums.get(i)),
-          variableMarginals.get(i)));
+    for (int i = 0; i < state.numVariables(); i++) {
+      marginals.add(new TableFactor(variables.intersection(state.getVariableNum(i)),
+          state.getMarginal(i)));
     }
 
-    System.out.println("really done: " +  + (System.currentTimeMillis() - curTime));
     return new FactorMarginalSet(marginals, 1.0, factorGraph.getConditionedVariables(),
         factorGraph.getConditionedValues());
   }
 
+  /**
+   * Updates each variable's marginal in sequence. Returns the total L2 norm of
+   * the change in the marginals.
+   *
+   * @param state
+   * @return
+   */
+  private double doSequentialUpdate(MeanFieldState state) {
+    double updateL2 = 0.0;
+    for (int i = 0; i < state.numVariables(); i++) {
+      updateL2 += state.setMarginal(i, damp(state.computeUpdatedMarginal(i), state.getMarginal(i)));
+    }
+    return updateL2;
+  }
+
+  /**
+   * Simultaneously updates every variable's marginal using the marginals from
+   * the previous iteration. Returns the total L2 norm of the change in the
+   * marginals.
+   *
+   * @param state
+   * @param executor
+   * @return
+   */
+  private double doParallelUpdate(MeanFieldState state, ExecutorService executor) {
+    int numVars = state.numVariables();
+    Tensor[] updatedMarginals = new Tensor[numVars];
+    if (executor == null) {
+      for (int i = 0; i < numVars; i++) {
+        updatedMarginals[i] = state.computeUpdatedMarginal(i);
+      }
+    } else {
+      // Each variable's update only writes to the message cache entries for
+      // that variable, so batches of variables can be safely updated
+      // concurrently.
+      int batchSize = (int) Math.ceil(((double) numVars) / numThreads);
+      List<Future<Void>> results = Lists.newArrayList();
+      for (int start = 0; start < numVars; start += batchSize) {
+        results.add(executor.submit(new UpdateMarginalsCallable(state, updatedMarginals,
+            start, Math.min(start + batchSize, numVars))));
+      }
+
+      try {
+        for (Future<Void> result : results) {
+          result.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+
+    double updateL2 = 0.0;
+    for (int i = 0; i < numVars; i++) {
+      updateL2 += state.setMarginal(i, damp(updatedMarginals[i], state.getMarginal(i)));
+    }
+    return updateL2;
+  }
+
+  /**
+   * Terminates the threads used to compute parallel updates.
+   * This object remains usable after this call.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Returns {@code (1 - damping) * newMarginal + damping * oldMarginal}.
+   */
+  private Tensor damp(Tensor newMarginal, Tensor oldMarginal) {
+    if (damping == 0.0) {
+      return newMarginal;
+    }
+    return newMarginal.elementwiseProduct(1.0 - damping)
+        .elementwiseAddition(oldMarginal.elementwiseProduct(damping));
+  }
+
   /**
    * Computes the message from {@code logFactorWeights} to {@code curVarNum}
    * using the current values of {@code variableMarginals}.
-   * 
+   *
    * @param curVarNum
    * @param logFactorWeights
    * @param variableMarginals
@@ -121,7 +234,7 @@ public class MeanFieldVariational implements MarginalCalculator {
    * @return
    */
   private static final Tensor getFactorMessage(int curVarNum, Tensor logFactorWeights,
-      List<Tensor> variableMarginals, IndexedList<Integer> variableNums) {
+      Tensor[] variableMarginals, IndexedList<Integer> variableNums) {
     Tensor factorMessage = logFactorWeights;
     // Each message is the outer product of all variable marginals, except
     // variable i, elementwise multiplied by the log factor weights.
@@ -132,7 +245,7 @@ public class MeanFieldVariational implements MarginalCalculator {
         continue;
       }
 
-      Tensor variableMarginal = variableMarginals.get(variableNums.getIndex(weightVariableNums[j]));
+      Tensor variableMarginal = variableMarginals[variableNums.getIndex(weightVariableNums[j])];
       factorMessage = factorMessage.elementwiseProduct(variableMarginal);
       variablesToMarginalize.add(weightVariableNums[j]);
     }
@@ -143,4 +256,185 @@ public class MeanFieldVariational implements MarginalCalculator {
   public MaxMarginalSet computeMaxMarginals(FactorGraph factorGraph) {
     throw new UnsupportedOperationException("Not supported by variational inference");
   }
+
+  /**
+   * The variable marginals of the mean field distribution, along with a cache
+   * of the messages from each factor to each of its variables.
+   */
+  private static class MeanFieldState {
+    private final IndexedList<Integer> variableNums;
+    private final Tensor[] variableMarginals;
+
+    // Log weights of each factor in the original factor graph.
+    private final Tensor[] logWeights;
+
+    // The factors containing each variable, and the index of the variable in
+    // each factor's dimensions.
+    private final int[][] variableFactors;
+    private final int[][] variableFactorPositions;
+
+    // messageCache[i][j] is the message from factor i to its jth variable,
+    // which must be recomputed if messageStale[i][j] is true.
+    private final Tensor[][] messageCache;
+    private final boolean[][] messageStale;
+
+    public MeanFieldState(FactorGraph factorGraph) {
+      VariableNumMap variables = factorGraph.getVariables();
+
+      // Initialize the mean field distribution to the uniform distribution over
+      // all variables.
+      int numVars = variables.size();
+      variableNums = new IndexedList<Integer>(variables.getVariableNums());
+      List<DiscreteVariable> variableTypes = variables.getDiscreteVariables();
+      variableMarginals = new Tensor[numVars];
+      for (int i = 0; i < numVars; i++) {
+        int[] dimensions = new int[] { variableNums.get(i) };
+        int[] sizes = new int[] { variableTypes.get(i).numValues() };
+        variableMarginals[i] = DenseTensor.constant(dimensions, sizes, 1.0 / sizes[0]);
+      }
+
+      // Get the log weights for each factor in the original factor graph.
+      List<Factor> factors = factorGraph.getFactors();
+      logWeights = new Tensor[factors.size()];
+      messageCache = new Tensor[factors.size()][];
+      messageStale = new boolean[factors.size()][];
+      for (int i = 0; i < factors.size(); i++) {
+        logWeights[i] = factors.get(i).coerceToDiscrete().getWeights().elementwiseLog();
+        int numFactorVars = logWeights[i].getDimensionNumbers().length;
+        messageCache[i] = new Tensor[numFactorVars];
+        messageStale[i] = new boolean[numFactorVars];
+        Arrays.fill(messageStale[i], true);
+      }
+
+      variableFactors = new int[numVars][];
+      variableFactorPositions = new int[numVars][];
+      for (int i = 0; i < numVars; i++) {
+        int varNum = variableNums.get(i);
+        variableFactors[i] = Ints.toArray(factorGraph.getFactorsWithVariable(varNum));
+        variableFactorPositions[i] = new int[variableFactors[i].length];
+        for (int j = 0; j < variableFactors[i].length; j++) {
+          variableFactorPositions[i][j] = Arrays.binarySearch(
+              logWeights[variableFactors[i][j]].getDimensionNumbers(), varNum);
+        }
+      }
+    }
+
+    public int numVariables() {
+      return variableMarginals.length;
+    }
+
+    public int getVariableNum(int index) {
+      return variableNums.get(index);
+    }
+
+    public Tensor getMarginal(int index) {
+      return variableMarginals[index];
+    }
+
+    /**
+     * Computes a new marginal for the {@code index}th variable given the
+     * current marginals of all other variables. Only recomputes factor
+     * messages which are stale.
+     *
+     * @param index
+     * @return
+     */
+    public Tensor computeUpdatedMarginal(int index) {
+      Tensor currentMarginal = variableMarginals[index];
+      int curVarNum = variableNums.get(index);
+
+      // Accumulate the messages from each factor containing this variable.
+      DenseTensorBuilder messageAccumulator = new DenseTensorBuilder(
+          currentMarginal.getDimensionNumbers(), currentMarginal.getDimensionSizes());
+      int[] factors = variableFactors[index];
+      int[] positions = variableFactorPositions[index];
+      for (int i = 0; i < factors.length; i++) {
+        int factor = factors[i];
+        if (messageStale[factor][positions[i]]) {
+          messageCache[factor][positions[i]] = getFactorMessage(curVarNum, logWeights[factor],
+              variableMarginals, variableNums);
+          messageStale[factor][positions[i]] = false;
+        }
+        messageAccumulator.increment(messageCache[factor][positions[i]]);
+      }
+
+      // Update the marginal based on the inbound messages, setting
+      // marginal equal to the logistic function of the accumulated messages.
+      // The maximum message value is subtracted before exponentiating to
+      // avoid overflow.
+      double[] values = messageAccumulator.buildNoCopy().getValues();
+      double max = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < values.length; i++) {
+        max = Math.max(max, values[i]);
+      }
+      double normalizingConstant = 0.0;
+      for (int i = 0; i < values.length; i++) {
+        values[i] = Math.exp(values[i] - max);
+        normalizingConstant += values[i];
+      }
+      for (int i = 0; i < values.length; i++) {
+        values[i] /= normalizingConstant;
+      }
+      return new DenseTensor(currentMarginal.getDimensionNumbers(),
+          currentMarginal.getDimensionSizes(), values);
+    }
+
+    /**
+     * Sets the marginal of the {@code index}th variable to {@code newMarginal}
+     * and invalidates any cached messages that depend on its value. Returns
+     * the L2 norm of the change in the marginal.
+     *
+     * @param index
+     * @param newMarginal
+     * @return
+     */
+    public double setMarginal(int index, Tensor newMarginal) {
+      Tensor delta = newMarginal.elementwiseAddition(
+          variableMarginals[index].elementwiseProduct(-1.0));
+      double deltaL2 = delta.getL2Norm();
+      variableMarginals[index] = newMarginal;
+
+      if (deltaL2 > 0.0) {
+        // Messages from factors containing this variable to any other
+        // variable must be recomputed.
+        int[] factors = variableFactors[index];
+        int[] positions = variableFactorPositions[index];
+        for (int i = 0; i < factors.length; i++) {
+          boolean[] factorStale = messageStale[factors[i]];
+          for (int j = 0; j < factorStale.length; j++) {
+            if (j != positions[i]) {
+              factorStale[j] = true;
+            }
+          }
+        }
+      }
+      return deltaL2;
+    }
+  }
+
+  /**
+   * Computes updated marginals for a contiguous batch of variables.
+   */
+  private static class UpdateMarginalsCallable implements Callable<Void> {
+    private final MeanFieldState state;
+    private final Tensor[] updatedMarginals;
+    private final int start;
+    private final int end;
+
+    public UpdateMarginalsCallable(MeanFieldState state, Tensor[] updatedMarginals,
+        int start, int end) {
+      this.state = state;
+      this.updatedMarginals = updatedMarginals;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public Void call() {
+      for (int i = start; i < end; i++) {
+        updatedMarginals[i] = state.computeUpdatedMarginal(i);
+      }
+      return null;
+    }
+  }
 }
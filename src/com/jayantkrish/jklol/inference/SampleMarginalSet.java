@@ -1,13 +1,13 @@
 package com.jayantkrish.jklol.inference;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
-import com.google.common.primitives.Ints;
+import com.jayantkrish.jklol.models.DiscreteVariable;
 import com.jayantkrish.jklol.models.Factor;
-import com.jayantkrish.jklol.models.TableFactorBuilder;
+import com.jayantkrish.jklol.models.TableFactor;
 import com.jayantkrish.jklol.models.VariableNumMap;
 import com.jayantkrish.jklol.tensor.SparseTensorBuilder;
 import com.jayantkrish.jklol.util.Assignment;
@@ -16,39 +16,87 @@ import com.jayantkrish.jklol.util.Assignment;
  * A {@link MarginalSet} that computes approximate marginals from a set of
  * samples. These samples are typically drawn from an approximation of a true
  * marginal distribution (for example, from a {@link GibbsSampler}).
- * 
+ * <p>
+ * Samples are stored as arrays of value indices for the (discrete) variables
+ * of the factor graph, in the order of {@code VariableNumMap#getVariableNumsArray()}.
+ *
  * @author jayant
- * 
+ *
  */
 public class SampleMarginalSet extends AbstractMarginalSet {
 
   private final VariableNumMap factorGraphVariables;
-  private final ImmutableList<Assignment> samples;
+  private final int[][] samples;
 
   public SampleMarginalSet(VariableNumMap factorGraphVariables, List<Assignment> samples,
       VariableNumMap conditionedVariables, Assignment conditionedValues) {
+    this(factorGraphVariables, toIntArrays(factorGraphVariables, samples),
+        conditionedVariables, conditionedValues);
+  }
+
+  /**
+   * Creates a marginal set from samples represented as value index arrays
+   * (see {@link VariableNumMap#assignmentToIntArray(Assignment)}). This
+   * constructor does not copy {@code samples}.
+   *
+   * @param factorGraphVariables
+   * @param samples
+   * @param conditionedVariables
+   * @param conditionedValues
+   */
+  public SampleMarginalSet(VariableNumMap factorGraphVariables, int[][] samples,
+      VariableNumMap conditionedVariables, Assignment conditionedValues) {
     super(factorGraphVariables, conditionedVariables, conditionedValues);
     this.factorGraphVariables = factorGraphVariables;
-    this.samples = ImmutableList.copyOf(samples);
+    this.samples = Preconditions.checkNotNull(samples);
+  }
+
+  private static int[][] toIntArrays(VariableNumMap variables, List<Assignment> samples) {
+    int[][] sampleArrays = new int[samples.size()][];
+    for (int i = 0; i < samples.size(); i++) {
+      sampleArrays[i] = variables.assignmentToIntArray(samples.get(i));
+    }
+    return sampleArrays;
+  }
+
+  /**
+   * Gets the number of samples used to estimate the marginals.
+   *
+   * @return
+   */
+  public int getNumSamples() {
+    return samples.length;
   }
 
   @Override
   public Factor getMarginal(Collection<Integer> varNums) {
     Preconditions.checkNotNull(varNums);
     VariableNumMap varsToRetain = factorGraphVariables.intersection(varNums);
-    TableFactorBuilder builder = new TableFactorBuilder(varsToRetain, SparseTensorBuilder.getFactory());
-    double increment = 1.0 / samples.size();
-    for (Assignment sample : samples) {
-      Assignment factorSample = sample.intersection(Ints.toArray(varNums));
-      builder.setWeight(factorSample, 
-          builder.getWeight(factorSample) + increment);
+    int[] retainedVarNums = varsToRetain.getVariableNumsArray();
+    int[] sampleIndexes = new int[retainedVarNums.length];
+    int[] sizes = new int[retainedVarNums.length];
+    int[] allVarNums = factorGraphVariables.getVariableNumsArray();
+    List<DiscreteVariable> retainedVarTypes = varsToRetain.getDiscreteVariables();
+    for (int i = 0; i < retainedVarNums.length; i++) {
+      sampleIndexes[i] = Arrays.binarySearch(allVarNums, retainedVarNums[i]);
+      sizes[i] = retainedVarTypes.get(i).numValues();
+    }
+
+    SparseTensorBuilder builder = new SparseTensorBuilder(retainedVarNums, sizes);
+    double increment = 1.0 / samples.length;
+    int[] key = new int[retainedVarNums.length];
+    for (int[] sample : samples) {
+      for (int i = 0; i < sampleIndexes.length; i++) {
+        key[i] = sample[sampleIndexes[i]];
+      }
+      builder.incrementEntry(increment, key);
     }
-    return builder.build();
+    return new TableFactor(varsToRetain, builder.build());
   }
 
   @Override
   public double getLogPartitionFunction() {
     // This is definitely not right.
-    return Math.log(samples.size());
+    return Math.log(samples.length);
   }
 }
@@ -30,6 +30,7 @@ import com.jayantkrish.jklol.util.Assignment;
  * @author jayantk
  */
 public class AmbLispLoglikelihoodOracle implements GradientOracle<AmbFunctionValue, Example<List<Object>, Object>> {
+  private static final long serialVersionUID = 1L;
 
   private final AmbFunctionValue family;
   private final Environment environment;
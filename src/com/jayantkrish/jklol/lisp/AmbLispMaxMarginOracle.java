@@ -20,6 +20,7 @@ import com.jayantkrish.jklol.util.Assignment;
 
 public class AmbLispMaxMarginOracle implements GradientOracle<AmbFunctionValue,
 Example<List<Object>, Example<AmbFunctionValue,AmbFunctionValue>>> {
+  private static final long serialVersionUID = 1L;
 
   private final AmbFunctionValue family;
   private final Environment environment;
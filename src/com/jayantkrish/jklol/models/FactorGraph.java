@@ -1,6 +1,7 @@
 package com.jayantkrish.jklol.models;
 
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -44,6 +45,15 @@ import com.jayantkrish.jklol.util.IntMultimap;
  * methods return new instances of this class with certain fields
  * modified.
  * 
+ * <p>
+ * Conditioning is performed lazily: {@link #conditional(Assignment)}
+ * only computes the variable structure of the conditional graph, and
+ * each factor is conditioned the first time it is retrieved, e.g., by
+ * an inference algorithm. Factors which do not contain any
+ * conditioned variable are shared with the original graph. When the
+ * evidence changes, {@link #updateConditional(Assignment)} reuses
+ * every conditioned factor whose evidence is unchanged.
+ * 
  * @author jayantk
  */
 public class FactorGraph implements Serializable {
@@ -64,6 +74,16 @@ public class FactorGraph implements Serializable {
 
   private InferenceHint inferenceHint;
 
+  // If non-null, factors which have not yet been conditioned on
+  // conditionedValues. A null entry in factors is computed on demand
+  // by conditioning the corresponding entry of this array.
+  private Factor[] unconditionedFactors;
+  // The factor graph which was conditioned to produce this graph.
+  // Used to incrementally update the conditioned values. Transient so
+  // that serializing a conditioned graph does not also serialize the
+  // (typically much larger) original graph.
+  private transient FactorGraph conditionedFrom;
+
   /**
    * Create an empty factor graph, without any variables or factors.
    * The factor graph can be incrementally constructed from this point
@@ -78,6 +98,8 @@ public class FactorGraph implements Serializable {
     conditionedVariables = VariableNumMap.EMPTY;
     conditionedValues = Assignment.EMPTY;
     inferenceHint = null;
+    unconditionedFactors = null;
+    conditionedFrom = null;
   }
 
   public FactorGraph(VariableNumMap variables, Factor[] factors, String[] factorNames,
@@ -118,11 +140,14 @@ public class FactorGraph implements Serializable {
     this.conditionedVariables = conditionedVariables;
     this.conditionedValues = conditionedAssignment;
     this.inferenceHint = null;
+    this.unconditionedFactors = null;
+    this.conditionedFrom = null;
   }
 
   private FactorGraph(VariableNumMap variables, Factor[] factors, String[] factorNames,
       IntMultimap variableFactorMap, IntMultimap factorVariableMap, VariableNumMap conditionedVariables,
-      Assignment conditionedValues, InferenceHint inferenceHint) {
+      Assignment conditionedValues, InferenceHint inferenceHint, Factor[] unconditionedFactors,
+      FactorGraph conditionedFrom) {
     this.variables = Preconditions.checkNotNull(variables);
     this.factors = Preconditions.checkNotNull(factors);
     this.factorNames = Preconditions.checkNotNull(factorNames);
@@ -133,6 +158,8 @@ public class FactorGraph implements Serializable {
     this.conditionedVariables = Preconditions.checkNotNull(conditionedVariables);
     this.conditionedValues = Preconditions.checkNotNull(conditionedValues);
     this.inferenceHint = inferenceHint;
+    this.unconditionedFactors = unconditionedFactors;
+    this.conditionedFrom = conditionedFrom;
   }
 
   /**
@@ -167,7 +194,7 @@ public class FactorGraph implements Serializable {
    * Get a factor using its index number.
    */
   public Factor getFactor(int factorNum) {
-    return factors[factorNum];
+    return getFactorInternal(factorNum);
   }
 
   /**
@@ -189,7 +216,57 @@ public class FactorGraph implements Serializable {
    * Get all factors.
    */
   public List<Factor> getFactors() {
-    return Arrays.asList(factors);
+    if (unconditionedFactors == null) {
+      return Arrays.asList(factors);
+    }
+
+    // Return a view which conditions each factor when it is
+    // retrieved.
+    return new AbstractList<Factor>() {
+      @Override
+      public Factor get(int index) {
+        return getFactorInternal(index);
+      }
+
+      @Override
+      public int size() {
+        return factors.length;
+      }
+    };
+  }
+
+  /**
+   * Gets the {@code index}th factor of this graph, conditioning it on
+   * {@code conditionedValues} if this has not already been done.
+   */
+  private Factor getFactorInternal(int index) {
+    if (unconditionedFactors == null) {
+      return factors[index];
+    }
+
+    synchronized (factors) {
+      if (factors[index] == null) {
+        Factor unconditioned = unconditionedFactors[index];
+        factors[index] = unconditioned.conditional(
+            conditionedValues.intersection(unconditioned.getVars()));
+      }
+      return factors[index];
+    }
+  }
+
+  /**
+   * Gets the {@code index}th factor of this graph if it has been
+   * conditioned, and otherwise the factor which will be conditioned to
+   * produce it.
+   */
+  private Factor getFactorOrUnconditionedFactor(int index) {
+    if (unconditionedFactors == null) {
+      return factors[index];
+    }
+
+    synchronized (factors) {
+      return factors[index] != null ? factors[index] : unconditionedFactors[index];
+    }
   }
 
   private final int getFactorIndexByName(String name) {
@@ -213,7 +290,7 @@ public class FactorGraph implements Serializable {
     if (index == -1) {
       return null;
     }
-    return factors[index];
+    return getFactorInternal(index);
   }
 
   /**
@@ -228,7 +305,7 @@ public class FactorGraph implements Serializable {
    */
   public List<Factor> getMinimalFactors() {
     // Sort factors in descending order of size.
-    List<Factor> sortedFactors = Lists.newArrayList(factors);
+    List<Factor> sortedFactors = Lists.newArrayList(getFactors());
     Collections.sort(sortedFactors, new Comparator<Factor>() {
       public int compare(Factor f1, Factor f2) {
         return f2.getVars().size() - f1.getVars().size();
@@ -403,7 +480,7 @@ public class FactorGraph implements Serializable {
     Preconditions.checkArgument(assignment.containsAll(variables.getVariableNumsArray()),
         "Invalid assignment %s to factor graph on variables %s", assignment, variables);
     double probability = 1.0;
-    for (Factor factor : factors) {
+    for (Factor factor : getFactors()) {
       double factorProb = factor.getUnnormalizedProbability(assignment);
       probability *= factorProb;
     }
@@ -424,7 +501,7 @@ public class FactorGraph implements Serializable {
     Preconditions.checkArgument(assignment.containsAll(variables.getVariableNumsArray()),
         "Invalid assignment %s to factor graph on variables %s", assignment, variables);
     double logProbability = 0.0;
-    for (Factor factor : factors) {
+    for (Factor factor : getFactors()) {
       logProbability += factor.getUnnormalizedLogProbability(assignment);
     }
     return logProbability;
@@ -432,7 +509,7 @@ public class FactorGraph implements Serializable {
 
   public String getParameterDescription() {
     StringBuilder sb = new StringBuilder();
-    for (Factor factor : factors) {
+    for (Factor factor : getFactors()) {
       sb.append(factor.getParameterDescription());
     }
     return sb.toString();
@@ -463,7 +540,8 @@ public class FactorGraph implements Serializable {
   private FactorGraph addVariableWithIndex(String variableName, Variable variable, int varNum) {
     VariableNumMap newVariables = variables.addMapping(varNum, variableName, variable);
     return new FactorGraph(newVariables, factors, factorNames, variableFactorMap,
-        factorVariableMap, conditionedVariables, conditionedValues, inferenceHint);
+        factorVariableMap, conditionedVariables, conditionedValues, inferenceHint,
+        unconditionedFactors, null);
   }
 
   /**
@@ -474,7 +552,7 @@ public class FactorGraph implements Serializable {
   public FactorGraph addFactor(String factorName, Factor factor) {
     Preconditions.checkArgument(getVariables().containsAll(factor.getVars()));
 
-    Factor[] newFactors = Arrays.copyOf(factors, factors.length + 1);
+    Factor[] newFactors = getFactors().toArray(new Factor[factors.length + 1]);
     String[] newFactorNames = Arrays.copyOf(factorNames, factorNames.length + 1);
     ;
     newFactors[factors.length] = factor;
@@ -577,15 +655,125 @@ public class FactorGraph implements Serializable {
 
     VariableNumMap newVariables = variables.removeAll(assignment.getVariableNumsArray());
     log.stopTimer("conditional_assignment_stuff");
-    // Condition each factor on assignment.
-    int numFactors = factors.length;
+
+    FactorGraph newConditionedFrom = conditionedFrom != null ? conditionedFrom : this;
+    return conditionFactors(this, this, newVariables, newConditionedVariables,
+        newConditionedValues, newConditionedFrom);
+  }
+
+  /**
+   * Gets the factor graph produced by conditioning the factor graph
+   * which was originally conditioned to produce {@code this} on
+   * {@code assignment}. That is, if {@code this} was produced by
+   * calling {@code f.conditional(a)}, then this method returns a
+   * graph equivalent to {@code f.conditional(assignment)}. If
+   * {@code this} was not produced by conditioning, or was
+   * deserialized (which discards the original graph), this method is
+   * equivalent to {@link #conditional(Assignment)}.
+   * <p>
+   * This method reuses the conditioned factors of {@code this} whose
+   * variables have the same values in {@code assignment} as in
+   * {@code a}. Hence, when the evidence changes by only a few
+   * variables, only the factors containing those variables are
+   * conditioned again.
+   * 
+   * @param assignment
+   * @return
+   */
+  public FactorGraph updateConditional(Assignment assignment) {
+    if (conditionedFrom == null) {
+      return conditional(assignment);
+    }
+
+    VariableNumMap fromVariables = conditionedFrom.variables;
+    Preconditions.checkArgument(fromVariables.containsAll(assignment.getVariableNumsArray()));
+
+    Assignment newConditionedValues = conditionedFrom.conditionedValues.union(assignment);
+    VariableNumMap newConditionedVariables = conditionedFrom.conditionedVariables.union(
+        fromVariables.intersection(assignment.getVariableNumsArray()));
+    VariableNumMap newVariables = fromVariables.removeAll(assignment.getVariableNumsArray());
+
+    return conditionFactors(conditionedFrom, this, newVariables, newConditionedVariables,
+        newConditionedValues, conditionedFrom);
+  }
+
+  /**
+   * Conditions each factor of {@code original} on
+   * {@code newConditionedValues}. {@code previous} is a graph with
+   * the same factors as {@code original}, conditioned on some other
+   * values; factors of {@code previous} whose variables have the same
+   * values in both assignments are reused. The remaining factors are
+   * conditioned lazily by the returned graph.
+   */
+  private static FactorGraph conditionFactors(FactorGraph original, FactorGraph previous,
+      VariableNumMap newVariables, VariableNumMap newConditionedVariables,
+      Assignment newConditionedValues, FactorGraph newConditionedFrom) {
+    Assignment previousConditionedValues = previous.conditionedValues;
+    int numFactors = original.factors.length;
     Factor[] newFactors = new Factor[numFactors];
+    Factor[] newUnconditionedFactors = new Factor[numFactors];
+    boolean hasUnconditionedFactors = false;
+
+    int[][] newFactorVarNums = new int[numFactors][];
+    int numMapEntries = 0;
     for (int i = 0; i < numFactors; i++) {
-      newFactors[i] = factors[i].conditional(assignment);
+      int[] factorVarNums = original.factorVariableMap.getArray(i);
+      int[] remainingVarNums = new int[factorVarNums.length];
+      int numRemaining = 0;
+      boolean evidenceChanged = false;
+      for (int j = 0; j < factorVarNums.length; j++) {
+        int varNum = factorVarNums[j];
+        if (newConditionedValues.contains(varNum)) {
+          evidenceChanged = evidenceChanged || !previousConditionedValues.contains(varNum)
+              || !previousConditionedValues.getValue(varNum).equals(newConditionedValues.getValue(varNum));
+        } else {
+          evidenceChanged = evidenceChanged || previousConditionedValues.contains(varNum);
+          remainingVarNums[numRemaining] = varNum;
+          numRemaining++;
+        }
+      }
+      newFactorVarNums[i] = Arrays.copyOf(remainingVarNums, numRemaining);
+      numMapEntries += numRemaining;
+
+      if (!evidenceChanged) {
+        if (previous.unconditionedFactors == null) {
+          newFactors[i] = previous.factors[i];
+        } else {
+          synchronized (previous.factors) {
+            newFactors[i] = previous.factors[i];
+            newUnconditionedFactors[i] = previous.unconditionedFactors[i];
+          }
+        }
+      } else {
+        newUnconditionedFactors[i] = original.getFactorOrUnconditionedFactor(i);
+      }
+      hasUnconditionedFactors = hasUnconditionedFactors || newFactors[i] == null;
     }
 
-    return new FactorGraph(newVariables, newFactors, factorNames, newConditionedVariables,
-        newConditionedValues, inferenceHint);
+    // Initialize variable -> factor mapping
+    int[] variableFactorMapKeys = new int[numMapEntries];
+    int[] variableFactorMapValues = new int[numMapEntries];
+    int[] factorVariableMapKeys = new int[numMapEntries];
+    int[] factorVariableMapValues = new int[numMapEntries];
+    int numFilled = 0;
+    for (int i = 0; i < numFactors; i++) {
+      for (int j : newFactorVarNums[i]) {
+        variableFactorMapKeys[numFilled] = j;
+        variableFactorMapValues[numFilled] = i;
+        factorVariableMapKeys[numFilled] = i;
+        factorVariableMapValues[numFilled] = j;
+        numFilled++;
+      }
+    }
+
+    IntMultimap newVariableFactorMap = IntMultimap.createFromUnsortedArrays(
+        variableFactorMapKeys, variableFactorMapValues, 0);
+    IntMultimap newFactorVariableMap = IntMultimap.createFromUnsortedArrays(
+        factorVariableMapKeys, factorVariableMapValues, 0);
+
+    return new FactorGraph(newVariables, newFactors, original.factorNames, newVariableFactorMap,
+        newFactorVariableMap, newConditionedVariables, newConditionedValues, original.inferenceHint,
+        hasUnconditionedFactors ? newUnconditionedFactors : null, newConditionedFrom);
   }
 
   /**
@@ -600,7 +788,7 @@ public class FactorGraph implements Serializable {
    */
   public FactorGraph getConnectedComponent(VariableNumMap vars) {
     return FactorGraph.getConnectedComponent(vars, variableFactorMap, factorVariableMap, variables,
-        Arrays.asList(factors), Arrays.asList(factorNames), conditionedVariables,
+        getFactors(), Arrays.asList(factorNames), conditionedVariables,
         conditionedValues, inferenceHint);
   }
 
@@ -661,6 +849,6 @@ public class FactorGraph implements Serializable {
    */
   public FactorGraph addInferenceHint(InferenceHint newInferenceHint) {
     return new FactorGraph(variables, factors, factorNames, variableFactorMap, factorVariableMap,
-        conditionedVariables, conditionedValues, newInferenceHint);
+        conditionedVariables, conditionedValues, newInferenceHint, unconditionedFactors, null);
   }
 }
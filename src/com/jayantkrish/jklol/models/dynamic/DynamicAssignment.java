@@ -1,5 +1,6 @@
 package com.jayantkrish.jklol.models.dynamic;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -24,7 +25,9 @@ import com.jayantkrish.jklol.util.Assignment;
  *
  * @author jayantk
  */
-public class DynamicAssignment {
+public class DynamicAssignment implements Serializable {
+
+  private static final long serialVersionUID = 1L;
 
   public static final DynamicAssignment EMPTY = new DynamicAssignment(Assignment.EMPTY, 
       Collections.<String>emptyList(), Collections.<List<DynamicAssignment>>emptyList());
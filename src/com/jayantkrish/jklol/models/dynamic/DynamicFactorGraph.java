@@ -8,6 +8,7 @@ import com.google.common.collect.Lists;
 import com.jayantkrish.jklol.models.Factor;
 import com.jayantkrish.jklol.models.FactorGraph;
 import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.models.dynamic.DynamicVariableSet.VariableInstantiation;
 import com.jayantkrish.jklol.training.LogFunction;
 import com.jayantkrish.jklol.training.LogFunctions;
 import com.jayantkrish.jklol.util.Assignment;
@@ -20,6 +21,13 @@ import com.jayantkrish.jklol.util.Assignment;
  * 
  * The input to a {@code DynamicFactorGraph}s is a {@code DynamicAssignment},
  * which is a generalization of {@code Assignment}.
+ * <p>
+ * The structure of an instantiated {@code FactorGraph} depends only on the
+ * number of replications of each plate. The instantiated variables and the
+ * variables matched by each plate factor are cached by the
+ * {@code DynamicVariableSet}, which is shared by every model with the same
+ * variables; instantiation then only relabels each factor onto its matched
+ * variables.
  * 
  * @author jayantk
  */
@@ -73,7 +81,8 @@ public class DynamicFactorGraph implements Serializable {
     LogFunction log = LogFunctions.getLogFunction();
     
     log.startTimer("instantiate_variables");
-    VariableNumMap factorGraphVariables = variables.instantiateVariables(assignment);
+    VariableInstantiation instantiation = variables.getInstantiation(assignment);
+    VariableNumMap factorGraphVariables = instantiation.getVariables();
     log.stopTimer("instantiate_variables");
 
     log.startTimer("instantiate_factors");
@@ -82,7 +91,7 @@ public class DynamicFactorGraph implements Serializable {
     List<String> instantiatedNames = Lists.newArrayList();
     for (int i = 0; i < plateFactors.size(); i++) {
       PlateFactor plateFactor = plateFactors.get(i);
-      List<Factor> replications = plateFactor.instantiateFactors(factorGraphVariables);
+      List<Factor> replications = plateFactor.instantiateFactors(instantiation);
       factors.addAll(replications);
       
       for (int j = 0; j < replications.size(); j++) {
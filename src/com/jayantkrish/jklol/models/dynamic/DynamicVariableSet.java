@@ -5,9 +5,13 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Ints;
 import com.jayantkrish.jklol.models.Variable;
@@ -37,6 +41,13 @@ public class DynamicVariableSet implements Serializable {
   private final List<DynamicVariableSet> plates;
   private final int[] maximumReplications;
 
+  private static final int INSTANTIATION_CACHE_SIZE = 100;
+  // Instantiated variables and pattern matches, keyed by plate sizes.
+  // These do not depend on any factor values, so every model which
+  // shares this variable set (e.g., every model produced by
+  // ParametricFactorGraph.getModelFromParameters) shares this cache.
+  private transient Cache<List<Integer>, VariableInstantiation> instantiationCache;
+
   private static final String NAMESPACE_SEPARATOR = "/";
 
   public static final DynamicVariableSet EMPTY = new DynamicVariableSet(VariableNumMap.EMPTY,
@@ -220,6 +231,66 @@ public class DynamicVariableSet implements Serializable {
     }
   }
 
+  /**
+   * Gets the number of replications of each plate in {@code assignment},
+   * including the replications of nested plates. Assignments with equal plate
+   * sizes instantiate the same variables in
+   * {@link #instantiateVariables(DynamicAssignment)}.
+   * 
+   * @param assignment
+   * @return
+   */
+  public List<Integer> getPlateSizes(DynamicAssignment assignment) {
+    List<Integer> plateSizes = Lists.newArrayList();
+    getPlateSizesHelper(assignment, plateSizes);
+    return plateSizes;
+  }
+
+  private void getPlateSizesHelper(DynamicAssignment assignment, List<Integer> plateSizes) {
+    for (int i = 0; i < plateNames.size(); i++) {
+      Preconditions.checkArgument(assignment.containsPlateValue(plateNames.get(i)),
+          "Cannot assign %s to %s", assignment, this);
+      List<DynamicAssignment> plateValues = assignment.getPlateValue(plateNames.get(i));
+      plateSizes.add(plateValues.size());
+      for (DynamicAssignment plateValue : plateValues) {
+        plates.get(i).getPlateSizesHelper(plateValue, plateSizes);
+      }
+    }
+  }
+
+  /**
+   * Gets the variables instantiated by
+   * {@link #instantiateVariables(DynamicAssignment)}, along with a
+   * cache of the variables matched by each {@code VariablePattern}.
+   * Instantiations are cached by plate size, so assignments with the
+   * same plate sizes return the same instantiation.
+   * 
+   * @param assignment
+   * @return
+   */
+  public VariableInstantiation getInstantiation(DynamicAssignment assignment) {
+    List<Integer> plateSizes = getPlateSizes(assignment);
+    Cache<List<Integer>, VariableInstantiation> cache = getInstantiationCache();
+    VariableInstantiation instantiation = cache.getIfPresent(plateSizes);
+    if (instantiation == null) {
+      instantiation = new VariableInstantiation(instantiateVariables(assignment));
+      cache.put(plateSizes, instantiation);
+    }
+    return instantiation;
+  }
+
+  /**
+   * Gets the cache of instantiations, creating it if necessary (e.g.,
+   * after deserialization).
+   */
+  private synchronized Cache<List<Integer>, VariableInstantiation> getInstantiationCache() {
+    if (instantiationCache == null) {
+      instantiationCache = CacheBuilder.newBuilder()
+          .maximumSize(INSTANTIATION_CACHE_SIZE).build();
+    }
+    return instantiationCache;
+  }
+
   /**
    * Gets the first variable index which can contain a replicated
    * variable for the {@code plateNum}th plate. The returned index is
@@ -431,4 +502,45 @@ public class DynamicVariableSet implements Serializable {
   public String toString() {
     return "(" + fixedVariables.toString() + " plates: " + plateNames.toString() + " " + plates.toString() + ")";
   }
+
+  /**
+   * The variables instantiated from a {@code DynamicVariableSet} for
+   * a particular set of plate sizes. Also caches the matches of each
+   * {@code VariablePattern} against these variables, since matching
+   * depends only on the pattern and the instantiated variables.
+   * 
+   * @author jayantk
+   */
+  public static class VariableInstantiation {
+    private final VariableNumMap variables;
+    // Patterns are compared by identity, and weakly referenced so that
+    // the patterns of discarded models can be garbage collected.
+    private final ConcurrentMap<VariablePattern, List<VariableMatch>> matches;
+
+    public VariableInstantiation(VariableNumMap variables) {
+      this.variables = Preconditions.checkNotNull(variables);
+      this.matches = new MapMaker().weakKeys().makeMap();
+    }
+
+    public VariableNumMap getVariables() {
+      return variables;
+    }
+
+    /**
+     * Gets the result of {@code pattern.matchVariables(getVariables())},
+     * computing it if {@code pattern} has not been matched against
+     * these variables before.
+     * 
+     * @param pattern
+     * @return
+     */
+    public List<VariableMatch> getMatches(VariablePattern pattern) {
+      List<VariableMatch> patternMatches = matches.get(pattern);
+      if (patternMatches == null) {
+        patternMatches = Collections.unmodifiableList(pattern.matchVariables(variables));
+        matches.putIfAbsent(pattern, patternMatches);
+      }
+      return patternMatches;
+    }
+  }
 }
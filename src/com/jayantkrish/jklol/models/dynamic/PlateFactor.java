@@ -5,6 +5,7 @@ import java.util.List;
 
 import com.jayantkrish.jklol.models.Factor;
 import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.models.dynamic.DynamicVariableSet.VariableInstantiation;
 
 /**
  * {@code PlateFactor} is a generalization of a {@code Factor} that represents a
@@ -30,6 +31,16 @@ public interface PlateFactor extends Serializable {
    */
   public List<Factor> instantiateFactors(VariableNumMap factorGraphVariables);
 
+  /**
+   * Same as {@link #instantiateFactors(VariableNumMap)}, using the
+   * variables in {@code instantiation}. Implementations should reuse
+   * the variable matches cached in {@code instantiation}.
+   * 
+   * @param instantiation
+   * @return
+   */
+  public List<Factor> instantiateFactors(VariableInstantiation instantiation);
+
   /**
    * Gets the factor replicated by {@code this}.
    * 
@@ -6,6 +6,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.jayantkrish.jklol.models.Factor;
 import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.models.dynamic.DynamicVariableSet.VariableInstantiation;
 import com.jayantkrish.jklol.models.dynamic.VariablePattern.VariableMatch;
 
 /**
@@ -41,8 +42,17 @@ public class ReplicatedFactor implements PlateFactor {
 
   @Override
   public List<Factor> instantiateFactors(VariableNumMap factorGraphVariables) {
+    return instantiateFactors(variablePattern.matchVariables(factorGraphVariables));
+  }
+
+  @Override
+  public List<Factor> instantiateFactors(VariableInstantiation instantiation) {
+    return instantiateFactors(instantiation.getMatches(variablePattern));
+  }
+
+  private List<Factor> instantiateFactors(List<VariableMatch> matches) {
     List<Factor> instantiatedFactors = Lists.newArrayList();
-    for (VariableMatch match : variablePattern.matchVariables(factorGraphVariables)) {
+    for (VariableMatch match : matches) {
       instantiatedFactors.add(factorToReplicate.relabelVariables(match.getMappingToTemplate().inverse()));
     }
     return instantiatedFactors;
@@ -56,7 +56,9 @@ public interface VariablePattern extends Serializable {
    * 
    * @author jayant
    */
-  public static class VariableMatch {
+  public static class VariableMatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     // Variables which match replications of template variables.
     private final VariableNumMap matchedVariables;
     private final VariableNumMap templateVariables;
@@ -256,6 +256,47 @@ public class ListSufficientStatistics implements SufficientStatistics {
     }
   }
 
+  @Override
+  public void incrementLazy(SufficientStatistics gradient, double multiplier,
+      SufficientStatistics lastDecay, SufficientStatistics lastCumulativeDecay,
+      SufficientStatistics averageSum, double decay, double cumulativeDecay) {
+    Preconditions.checkArgument(gradient instanceof ListSufficientStatistics);
+    List<SufficientStatistics> gradientList = ((ListSufficientStatistics) gradient).statistics;
+    List<SufficientStatistics> lastDecayList = getLazyStateList(lastDecay);
+    List<SufficientStatistics> lastCumulativeList = getLazyStateList(lastCumulativeDecay);
+    List<SufficientStatistics> averageList = getLazyStateList(averageSum);
+    Preconditions.checkArgument(gradientList.size() == statistics.size());
+
+    for (int i = 0; i < statistics.size(); i++) {
+      statistics.get(i).incrementLazy(gradientList.get(i), multiplier, lastDecayList.get(i),
+          lastCumulativeList.get(i), averageList != null ? averageList.get(i) : null,
+          decay, cumulativeDecay);
+    }
+  }
+
+  @Override
+  public void flushLazy(SufficientStatistics lastDecay, SufficientStatistics lastCumulativeDecay,
+      SufficientStatistics averageSum, double decay, double cumulativeDecay) {
+    List<SufficientStatistics> lastDecayList = getLazyStateList(lastDecay);
+    List<SufficientStatistics> lastCumulativeList = getLazyStateList(lastCumulativeDecay);
+    List<SufficientStatistics> averageList = getLazyStateList(averageSum);
+
+    for (int i = 0; i < statistics.size(); i++) {
+      statistics.get(i).flushLazy(lastDecayList.get(i), lastCumulativeList.get(i),
+          averageList != null ? averageList.get(i) : null, decay, cumulativeDecay);
+    }
+  }
+
+  private List<SufficientStatistics> getLazyStateList(SufficientStatistics state) {
+    if (state == null) {
+      return null;
+    }
+    Preconditions.checkArgument(state instanceof ListSufficientStatistics);
+    List<SufficientStatistics> stateList = ((ListSufficientStatistics) state).statistics;
+    Preconditions.checkArgument(stateList.size() == statistics.size());
+    return stateList;
+  }
+
   @Override
   public String getDescription() {
     StringBuilder sb = new StringBuilder();
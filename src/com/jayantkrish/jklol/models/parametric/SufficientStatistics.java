@@ -186,6 +186,59 @@ public interface SufficientStatistics extends Serializable {
   public void incrementAdagrad(SufficientStatistics gradient, SufficientStatistics sumSquares,
       double multiplier);
 
+  /**
+   * Lazily applies an L2-regularized stochastic gradient update to
+   * this, such that each iteration only modifies the elements where
+   * {@code gradient} is nonzero. Regularization multiplies the
+   * parameters by a decay factor on each iteration; {@code decay} is
+   * the product of these factors over all iterations so far, and
+   * {@code cumulativeDecay} is the sum of {@code decay} over all
+   * previous iterations.
+   * <p>
+   * Each element updated by this method is first multiplied by the
+   * decay since its last update (i.e., {@code decay} divided by its
+   * value in {@code lastDecay}), then incremented by
+   * {@code multiplier * gradient}. If {@code averageSum} is non-null,
+   * the sum of the element's values over the iterations since its last
+   * update is added to {@code averageSum}. Finally, {@code lastDecay}
+   * and {@code lastCumulativeDecay} are set to {@code decay} and
+   * {@code cumulativeDecay}. Elements which are not updated lag behind
+   * their regularized values until {@link #flushLazy} is invoked.
+   * <p>
+   * {@code decay} must be nonzero, since each element's value is later
+   * divided by it. If the parameters should be multiplied by zero (or a
+   * factor small enough to lose precision), call {@link #flushLazy},
+   * multiply the parameters directly, then restart {@code decay} at 1.
+   * 
+   * @param gradient
+   * @param multiplier
+   * @param lastDecay
+   * @param lastCumulativeDecay
+   * @param averageSum
+   * @param decay
+   * @param cumulativeDecay
+   */
+  public void incrementLazy(SufficientStatistics gradient, double multiplier,
+      SufficientStatistics lastDecay, SufficientStatistics lastCumulativeDecay,
+      SufficientStatistics averageSum, double decay, double cumulativeDecay);
+
+  /**
+   * Applies the pending decay and averaging updates from
+   * {@link #incrementLazy} to every element of this.
+   * {@code cumulativeDecay} should include the current iteration.
+   * Afterward, every element of {@code lastDecay} is 1 and every element
+   * of {@code lastCumulativeDecay} is 0, so that subsequent updates can
+   * restart {@code decay} at 1 and {@code cumulativeDecay} at 0.
+   * 
+   * @param lastDecay
+   * @param lastCumulativeDecay
+   * @param averageSum
+   * @param decay
+   * @param cumulativeDecay
+   */
+  public void flushLazy(SufficientStatistics lastDecay, SufficientStatistics lastCumulativeDecay,
+      SufficientStatistics averageSum, double decay, double cumulativeDecay);
+
   /**
    * Gets a human-readable description of the parameter values in this
    * object.
@@ -309,6 +309,18 @@ public class TensorSufficientStatistics implements SufficientStatistics {
     }
   }
 
+  /**
+   * Returns {@code true} if these statistics are stored in a
+   * {@link DenseTensorBuilder}. Dense statistics have a fixed set of
+   * entries and are updated in place, so concurrent updates never
+   * replace the underlying storage.
+   *
+   * @return
+   */
+  public boolean isDense() {
+    return isDense && statistics instanceof DenseTensorBuilder;
+  }
+
   @Override
   public ListSufficientStatistics coerceToList() {
     throw new CoercionError("Cannot coerce TensorSufficientStatistics instance into ListSufficientStatistics.");
@@ -393,6 +405,45 @@ public class TensorSufficientStatistics implements SufficientStatistics {
     }
   }
 
+  @Override
+  public void incrementLazy(SufficientStatistics gradient, double multiplier,
+      SufficientStatistics lastDecay, SufficientStatistics lastCumulativeDecay,
+      SufficientStatistics averageSum, double decay, double cumulativeDecay) {
+    Preconditions.checkArgument(gradient instanceof TensorSufficientStatistics);
+    Tensor gradientTensor = ((TensorSufficientStatistics) gradient).get();
+
+    if (isDense) {
+      statistics.incrementLazy(gradientTensor, multiplier, getLazyStateBuilder(lastDecay),
+          getLazyStateBuilder(lastCumulativeDecay), getLazyStateBuilder(averageSum),
+          decay, cumulativeDecay);
+    } else {
+      throw new UnsupportedOperationException("Lazy updates require dense statistics.");
+    }
+  }
+
+  @Override
+  public void flushLazy(SufficientStatistics lastDecay, SufficientStatistics lastCumulativeDecay,
+      SufficientStatistics averageSum, double decay, double cumulativeDecay) {
+    if (isDense) {
+      statistics.flushLazy(getLazyStateBuilder(lastDecay), getLazyStateBuilder(lastCumulativeDecay),
+          getLazyStateBuilder(averageSum), decay, cumulativeDecay);
+    } else {
+      throw new UnsupportedOperationException("Lazy updates require dense statistics.");
+    }
+  }
+
+  private static TensorBuilder getLazyStateBuilder(SufficientStatistics state) {
+    if (state == null) {
+      return null;
+    }
+    Preconditions.checkArgument(state instanceof TensorSufficientStatistics);
+    TensorSufficientStatistics tensorState = (TensorSufficientStatistics) state;
+    if (!tensorState.isDense) {
+      throw new UnsupportedOperationException("Lazy updates require dense statistics.");
+    }
+    return tensorState.statistics;
+  }
+
   @Override
   public String getDescription() {
     return getFactor().getParameterDescription();
@@ -0,0 +1,70 @@
+package com.jayantkrish.jklol.parallel;
+
+import java.io.Serializable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A work-stealing thread pool which is created on first use and reused
+ * across calls. The pool's threads are daemon threads, so the pool does
+ * not prevent the program from terminating; {@link #shutdown()} releases
+ * them immediately. The pool remains usable after {@code shutdown()},
+ * and creates new threads if it is requested again.
+ * <p>
+ * A thread waiting on the result of a task submitted to this pool
+ * executes other queued tasks, so nested parallel computations cannot
+ * exhaust the pool. The threads themselves are not serialized; a
+ * deserialized pool creates new threads on first use.
+ *
+ * @author jayantk
+ */
+public class LazyThreadPool implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final int numThreads;
+
+  // Lazily initialized, and reinitialized if used after shutdown().
+  private transient ForkJoinPool pool;
+
+  /**
+   * Creates a pool which runs tasks using {@code numThreads}
+   * threads. No threads are created until {@link #get()} is invoked.
+   *
+   * @param numThreads
+   */
+  public LazyThreadPool(int numThreads) {
+    Preconditions.checkArgument(numThreads > 0);
+    this.numThreads = numThreads;
+    this.pool = null;
+  }
+
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  /**
+   * Gets the executor for this pool, creating its threads if
+   * necessary.
+   *
+   * @return
+   */
+  public synchronized ExecutorService get() {
+    if (pool == null) {
+      pool = new ForkJoinPool(numThreads);
+    }
+    return pool;
+  }
+
+  /**
+   * Terminates the threads of this pool. Tasks which are currently
+   * executing are allowed to complete.
+   */
+  public synchronized void shutdown() {
+    if (pool != null) {
+      pool.shutdown();
+      pool = null;
+    }
+  }
+}
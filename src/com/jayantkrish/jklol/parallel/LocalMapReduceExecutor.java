@@ -1,16 +1,22 @@
 package com.jayantkrish.jklol.parallel;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.jayantkrish.jklol.parallel.Reducers.FilterReducer;
@@ -18,6 +24,15 @@ import com.jayantkrish.jklol.parallel.Reducers.FilterReducer;
 /**
  * A parallelized, single-machine implementation of map-reduce pipelines. This
  * executor batches the input items and executes them on multiple local CPUs.
+ * <p>
+ * Batches are run on a {@link LazyThreadPool}, which is created on first use
+ * and reused across calls, so repeated calls with small inputs (e.g., one per
+ * minibatch of stochastic gradient) do not pay the cost of starting threads.
+ * Items are divided into batches of roughly equal estimated cost (see
+ * {@link Mapper#estimateCost}), with the most expensive items scheduled
+ * first. The pool's threads are daemon threads; {@link #shutdown()} releases them
+ * immediately. Calls to this executor may be nested, i.e., mappers may
+ * themselves invoke this executor.
  * 
  * @author jayantk
  */
@@ -26,6 +41,8 @@ public class LocalMapReduceExecutor implements MapReduceExecutor {
   private final int batchesPerThread;
   private final int numThreads;
 
+  private final LazyThreadPool pool;
+
   /**
    * Constructs an executor that processes batches of items using a fixed number
    * of local threads. {@code numThreads} threads are created, and items are
@@ -36,8 +53,14 @@ public class LocalMapReduceExecutor implements MapReduceExecutor {
    * @param batchesPerThread
    */
   public LocalMapReduceExecutor(int numThreads, int batchesPerThread) {
+    Preconditions.checkArgument(numThreads > 0);
     this.numThreads = numThreads;
     this.batchesPerThread = batchesPerThread;
+    this.pool = new LazyThreadPool(numThreads);
+  }
+
+  public int getNumThreads() {
+    return numThreads;
   }
   
   @Override
@@ -62,17 +85,12 @@ public class LocalMapReduceExecutor implements MapReduceExecutor {
       return accumulator;
     }
 
-    ExecutorService executor = getExecutor();
+    ExecutorService executor = pool.get();
     // Set up the item batches for the executor service. 
     ImmutableList<A> itemsAsList = ImmutableList.copyOf(items);
-    int batchSize = (int) Math.ceil(((double) items.size()) / (numThreads * batchesPerThread));
-    
-    // If batchSize is 1, then there are potentially more batches than items.
+    List<ImmutableList<A>> batches = getBatches(itemsAsList, mapper);
     List<Future<C>> results = Lists.newArrayList();
-    int numBatches = (int) Math.ceil(((double) items.size()) / batchSize); 
-    for (int i = 0; i < numBatches; i++) {
-      ImmutableList<A> batchItems = itemsAsList.subList(
-          Math.min(i * batchSize, items.size()), Math.min((i + 1) * batchSize, items.size()));
+    for (ImmutableList<A> batchItems : batches) {
       results.add(executor.submit(new MapReduceBatch<A, B, C>(batchItems, mapper, reducer)));
     }
 
@@ -84,14 +102,13 @@ public class LocalMapReduceExecutor implements MapReduceExecutor {
       }
     } catch (InterruptedException e) {
       e.printStackTrace();
-      e.getCause().printStackTrace();
       throw new RuntimeException(e);
     } catch (ExecutionException e) {
       e.printStackTrace();
       e.getCause().printStackTrace();
       throw new RuntimeException(e);
     } finally {
-      executor.shutdown();
+      cancelAll(results);
     }
     return accumulator;
   }
@@ -99,9 +116,9 @@ public class LocalMapReduceExecutor implements MapReduceExecutor {
   @Override
   public <A, B, C extends Mapper<A, B>> List<B> map(Collection<? extends A> items, C mapper) {
     List<B> results = Lists.newArrayList();
-    ExecutorService executor = getExecutor();
+    ExecutorService executor = pool.get();
+    List<Future<B>> futureResults = Lists.newArrayList();
     try {
-      List<Future<B>> futureResults = Lists.newArrayList();
       for (A item : items) {
         futureResults.add(executor.submit(new MapBatch<A, B>(item, mapper)));
       }
@@ -111,31 +128,119 @@ public class LocalMapReduceExecutor implements MapReduceExecutor {
       }
     } catch (InterruptedException e) {
       e.printStackTrace();
-      e.getCause().printStackTrace();
       throw new RuntimeException(e);
     } catch (ExecutionException e) {
       e.printStackTrace();
       e.getCause().printStackTrace();
       throw new RuntimeException(e);
     } finally {
-      executor.shutdownNow();
+      cancelAll(futureResults);
     }
     return results;
   }
 
+  @Override
+  public <A, B, C extends Mapper<A, B>> Iterator<B> mapStream(Iterator<? extends A> items,
+      C mapper, int maxInFlight, boolean preserveOrder) {
+    Preconditions.checkArgument(maxInFlight > 0);
+    return new MapStreamIterator<A, B>(items, mapper, pool.get(), maxInFlight, preserveOrder);
+  }
+
   @Override
   public <A> List<A> filter(List<A> items, Predicate<A> predicate) {
     return mapReduce(items, Mappers.<A>identity(), new FilterReducer<A>(predicate));
   }
 
-  private ExecutorService getExecutor() {
-    // This thread pool executor is equivalent to using 
-    // Executors.newFixedThreadPool(numThreads), except that
-    // unused threads are eventually terminated, allowing the
-    // program to terminate without the user invoking shutdown().
-    ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 10, TimeUnit.SECONDS,
-        new LinkedBlockingQueue<Runnable>());
-    return executor;
+  /**
+   * Splits {@code items} into batches. If {@code mapper} assigns every
+   * item the same cost, the batches are contiguous and (nearly) equally
+   * sized. Otherwise, items are ordered by decreasing cost and grouped
+   * into batches of roughly equal total cost. Expensive items therefore
+   * form small batches which are started first, and the many cheaper
+   * batches submitted afterward are stolen by idle threads, so that a
+   * few expensive items do not delay the whole computation.
+   */
+  private <A> List<ImmutableList<A>> getBatches(ImmutableList<A> items,
+      Mapper<A, ?> mapper) {
+    int maxBatches = numThreads * batchesPerThread;
+    double[] costs = new double[items.size()];
+    double totalCost = 0.0;
+    boolean uniformCosts = true;
+    for (int i = 0; i < costs.length; i++) {
+      costs[i] = mapper.estimateCost(items.get(i));
+      Preconditions.checkState(costs[i] >= 0, "Negative cost estimate: %s", costs[i]);
+      totalCost += costs[i];
+      uniformCosts = uniformCosts && costs[i] == costs[0];
+    }
+
+    List<ImmutableList<A>> batches = Lists.newArrayList();
+    if (uniformCosts) {
+      // If batchSize is 1, then there are potentially more batches than items.
+      int batchSize = (int) Math.ceil(((double) items.size()) / maxBatches);
+      int numBatches = (int) Math.ceil(((double) items.size()) / batchSize); 
+      for (int i = 0; i < numBatches; i++) {
+        batches.add(items.subList(Math.min(i * batchSize, items.size()),
+            Math.min((i + 1) * batchSize, items.size())));
+      }
+      return batches;
+    }
+
+    // Sort indices by decreasing cost.
+    Integer[] order = new Integer[costs.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    final double[] finalCosts = costs;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i, Integer j) {
+        return Double.compare(finalCosts[j], finalCosts[i]);
+      }
+    });
+
+    double targetCost = totalCost / maxBatches;
+    ImmutableList.Builder<A> batch = ImmutableList.builder();
+    double batchCost = 0.0;
+    int batchItems = 0;
+    for (int i = 0; i < order.length; i++) {
+      batch.add(items.get(order[i]));
+      batchCost += costs[order[i]];
+      batchItems++;
+      if (batchCost >= targetCost) {
+        batches.add(batch.build());
+        batch = ImmutableList.builder();
+        batchCost = 0.0;
+        batchItems = 0;
+      }
+    }
+    if (batchItems > 0) {
+      batches.add(batch.build());
+    }
+    return batches;
+  }
+
+  /**
+   * Terminates the threads used by this executor. Tasks which are
+   * currently executing are allowed to complete. This executor
+   * remains usable after this call, and creates new threads if it is
+   * invoked again.
+   */
+  @Override
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Cancels any tasks in {@code futures} which have not yet completed,
+   * e.g., because another task threw an exception. The cancelled tasks
+   * would otherwise continue to occupy the shared pool.
+   */
+  private static void cancelAll(List<? extends Future<?>> futures) {
+    for (Future<?> future : futures) {
+      if (!future.isDone()) {
+        future.cancel(true);
+      }
+    }
   }
 
   /**
@@ -168,6 +273,69 @@ public class LocalMapReduceExecutor implements MapReduceExecutor {
     }
   }
   
+  /**
+   * Iterator over the results of mapping a stream of items. Items are
+   * submitted to the executor as results are consumed, keeping at most
+   * {@code maxInFlight} items pending.
+   * 
+   * @param <A>
+   * @param <B>
+   */
+  private static class MapStreamIterator<A, B> extends AbstractIterator<B> {
+    private final Iterator<? extends A> items;
+    private final Mapper<A, B> mapper;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+
+    // If preserving order, results are taken from the front of pending.
+    // Otherwise, they are taken from completionService.
+    private final Deque<Future<B>> pending;
+    private final CompletionService<B> completionService;
+    private int numInFlight;
+
+    public MapStreamIterator(Iterator<? extends A> items, Mapper<A, B> mapper,
+        ExecutorService executor, int maxInFlight, boolean preserveOrder) {
+      this.items = Preconditions.checkNotNull(items);
+      this.mapper = Preconditions.checkNotNull(mapper);
+      this.maxInFlight = maxInFlight;
+
+      this.pending = preserveOrder ? new ArrayDeque<Future<B>>() : null;
+      this.completionService = preserveOrder ? null : new ExecutorCompletionService<B>(executor);
+      this.executor = executor;
+      this.numInFlight = 0;
+    }
+
+    @Override
+    protected B computeNext() {
+      while (numInFlight < maxInFlight && items.hasNext()) {
+        MapBatch<A, B> task = new MapBatch<A, B>(items.next(), mapper);
+        if (pending != null) {
+          pending.add(executor.submit(task));
+        } else {
+          completionService.submit(task);
+        }
+        numInFlight++;
+      }
+
+      if (numInFlight == 0) {
+        return endOfData();
+      }
+
+      try {
+        Future<B> next = (pending != null) ? pending.removeFirst() : completionService.take();
+        numInFlight--;
+        return next.get();
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        e.printStackTrace();
+        e.getCause().printStackTrace();
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
   public static class MapBatch<A, B> implements Callable<B> {
     private final A item;
     private final Mapper<A, B> mapper;
@@ -4,20 +4,29 @@ package com.jayantkrish.jklol.parallel;
  * Stores global map-reduce configuration information for the executing program.
  * Used to retrieve a configured {@code MapReduceExecutor} for running portions
  * of a program.
+ * <p>
+ * The global executor is reused across calls, and is shut down when it is
+ * replaced, when {@link #shutdown()} is invoked, or when the JVM exits.
  * 
  * @author jayantk
  */
 public class MapReduceConfiguration {
 
   private static MapReduceExecutor executor = null;
+  private static boolean shutdownHookRegistered = false;
 
   /**
-   * Sets the global map-reduce executor to the {@code newExecutor}.
+   * Sets the global map-reduce executor to the {@code newExecutor}. The
+   * previous global executor, if any, is shut down.
    * 
    * @param newExecutor
    */
-  public static void setMapReduceExecutor(MapReduceExecutor newExecutor) {
+  public static synchronized void setMapReduceExecutor(MapReduceExecutor newExecutor) {
+    if (executor != null && executor != newExecutor) {
+      executor.shutdown();
+    }
     executor = newExecutor;
+    registerShutdownHook();
   }
 
   /**
@@ -25,15 +34,38 @@ public class MapReduceConfiguration {
    * 
    * @return
    */
-  public static MapReduceExecutor getMapReduceExecutor() {
+  public static synchronized MapReduceExecutor getMapReduceExecutor() {
     if (executor == null) {
       // Default to using a local executor with one thread per CPU.
       executor = new LocalMapReduceExecutor(
           Runtime.getRuntime().availableProcessors(), 20);
+      registerShutdownHook();
     }
     return executor;
   }
 
+  /**
+   * Shuts down the global map-reduce executor, releasing its threads.
+   * The executor may still be retrieved and used after this call.
+   */
+  public static synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  private static void registerShutdownHook() {
+    if (!shutdownHookRegistered) {
+      Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          shutdown();
+        }
+      }, "MapReduceConfiguration-shutdown"));
+      shutdownHookRegistered = true;
+    }
+  }
+
   private MapReduceConfiguration() {
     // Prevent instantiation.
   }
@@ -1,6 +1,7 @@
 package com.jayantkrish.jklol.parallel;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 import com.google.common.base.Predicate;
@@ -43,6 +44,27 @@ public interface MapReduceExecutor {
    */
   public <A, B, C extends Mapper<A, B>> List<B> map(Collection<? extends A> items, C mapper);
 
+  /**
+   * Lazily runs {@code mapper} on each of the given {@code items},
+   * returning an iterator over the results. At most
+   * {@code maxInFlight} items are read from {@code items} ahead of the
+   * consumer of the returned iterator, so a stream of items can be
+   * processed in constant memory. If {@code preserveOrder} is
+   * {@code true}, results are returned in the order of {@code items};
+   * otherwise, results are returned as they are computed.
+   * <p>
+   * {@code items} is only accessed by the thread consuming the
+   * returned iterator.
+   * 
+   * @param items
+   * @param mapper
+   * @param maxInFlight
+   * @param preserveOrder
+   * @return
+   */
+  public <A, B, C extends Mapper<A, B>> Iterator<B> mapStream(Iterator<? extends A> items,
+      C mapper, int maxInFlight, boolean preserveOrder);
+
   /**
    * Filters {@code items} using predicate. The returned list
    * contains only items for which {@code predicate} returns true.
@@ -52,4 +74,11 @@ public interface MapReduceExecutor {
    * @return
    */
   public <A> List<A> filter(List<A> items, Predicate<A> predicate);
+
+  /**
+   * Releases any resources (e.g., threads) held by this executor.
+   * Implementations may either recreate these resources if the
+   * executor is used again, or reject further calls.
+   */
+  public void shutdown();
 }
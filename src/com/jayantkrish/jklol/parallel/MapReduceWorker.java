@@ -0,0 +1,306 @@
+package com.jayantkrish.jklol.parallel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+
+/**
+ * Server which executes portions of map-reduce pipelines on behalf of a
+ * {@link SocketMapReduceExecutor} running in another JVM. Each worker
+ * accepts connections on a port, and runs the work it receives using a
+ * {@link LocalMapReduceExecutor}.
+ * <p>
+ * The protocol is a sequence of serialized messages. The driver first
+ * sends a {@code Task} containing the mapper and reducer (which
+ * typically include the current model parameters), then any number of
+ * {@code Shard}s of items to process with that task. The worker
+ * responds to each message with a {@code Response}. All items,
+ * mappers, reducers and results must therefore be
+ * {@code Serializable}.
+ * <p>
+ * Since messages are deserialized, anyone who can connect to a worker
+ * can run code in the worker's JVM. Workers therefore only listen on
+ * the loopback address unless another address is explicitly given.
+ * <p>
+ * Workers can be started from the command line with
+ * {@code MapReduceWorker [--bindAddress <address>] <port> <numThreads>},
+ * where a port of 0 chooses any free port.
+ *
+ * @author jayantk
+ */
+public class MapReduceWorker {
+
+  private final ServerSocket serverSocket;
+  private final LocalMapReduceExecutor executor;
+  // If true, the JVM exits when any client disconnects.
+  private final boolean exitOnDisconnect;
+
+  /**
+   * Creates a worker listening on {@code port} of the loopback address
+   * which processes work using {@code numThreads} threads. If
+   * {@code port} is 0, any free port is used (see {@link #getPort()}).
+   *
+   * @param port
+   * @param numThreads
+   * @param exitOnDisconnect
+   * @throws IOException
+   */
+  public MapReduceWorker(int port, int numThreads, boolean exitOnDisconnect) throws IOException {
+    this(InetAddress.getLoopbackAddress(), port, numThreads, exitOnDisconnect);
+  }
+
+  /**
+   * Creates a worker listening on {@code port} of {@code bindAddress}.
+   * Only use an address reachable from other machines on a trusted
+   * network, as any client can run code in this worker.
+   *
+   * @param bindAddress
+   * @param port
+   * @param numThreads
+   * @param exitOnDisconnect
+   * @throws IOException
+   */
+  public MapReduceWorker(InetAddress bindAddress, int port, int numThreads,
+      boolean exitOnDisconnect) throws IOException {
+    this.serverSocket = new ServerSocket(port, 0, Preconditions.checkNotNull(bindAddress));
+    this.executor = new LocalMapReduceExecutor(numThreads, 20);
+    this.exitOnDisconnect = exitOnDisconnect;
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Accepts and processes connections until {@link #close()} is
+   * invoked. Each connection is processed in its own thread.
+   */
+  public void run() {
+    while (!serverSocket.isClosed()) {
+      try {
+        final Socket socket = serverSocket.accept();
+        Thread connectionThread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            handleConnection(socket);
+          }
+        }, "MapReduceWorker-connection");
+        connectionThread.setDaemon(true);
+        connectionThread.start();
+      } catch (SocketException e) {
+        // Thrown when the server socket is closed.
+        Preconditions.checkState(serverSocket.isClosed(), e);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Runs this worker in a background (daemon) thread.
+   */
+  public void start() {
+    Thread serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        MapReduceWorker.this.run();
+      }
+    }, "MapReduceWorker-" + getPort());
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  /**
+   * Stops accepting connections and releases this worker's threads.
+   */
+  public void close() {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    executor.shutdown();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void handleConnection(Socket socket) {
+    try {
+      socket.setTcpNoDelay(true);
+      ObjectOutputStream out = new ObjectOutputStream(
+          new BufferedOutputStream(socket.getOutputStream()));
+      out.flush();
+      ObjectInputStream in = new ObjectInputStream(
+          new BufferedInputStream(socket.getInputStream()));
+
+      Task task = null;
+      while (true) {
+        Object message = null;
+        try {
+          message = in.readObject();
+        } catch (EOFException e) {
+          // The client closed the connection.
+          break;
+        }
+
+        Response response = null;
+        try {
+          if (message instanceof Task) {
+            task = (Task) message;
+            response = new Response(null, null);
+          } else {
+            Shard shard = (Shard) message;
+            Preconditions.checkState(task != null, "Received shard without a task.");
+            Mapper<Object, Object> mapper = (Mapper<Object, Object>) task.getMapper();
+            Serializable result = null;
+            if (task.getReducer() == null) {
+              result = (Serializable) executor.map(shard.getItems(), mapper);
+            } else {
+              result = (Serializable) executor.mapReduce(shard.getItems(), mapper,
+                  (Reducer<Object, Object>) task.getReducer());
+            }
+            response = new Response(result, null);
+          }
+        } catch (Throwable e) {
+          // Errors (e.g., OutOfMemoryError) are also returned, so that
+          // the driver does not wait for a response forever.
+          response = new Response(null, e);
+        }
+
+        out.writeObject(response);
+        // Prevent the stream from caching references to old objects.
+        out.reset();
+        out.flush();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } catch (ClassNotFoundException e) {
+      e.printStackTrace();
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nothing to do if closing fails.
+      }
+      if (exitOnDisconnect) {
+        System.exit(0);
+      }
+    }
+  }
+
+  /**
+   * Starts a worker. Expects the arguments {@code <port> <numThreads>},
+   * optionally followed by a file name. If a file is given, the
+   * worker's port is written to the file once it is listening, and the
+   * worker exits when its client disconnects. This form is used by
+   * {@link SocketMapReduceExecutor#startLocalWorkers}. The worker
+   * listens on the loopback address, unless the arguments are preceded
+   * by {@code --bindAddress <address>}.
+   *
+   * @param args
+   */
+  public static void main(String[] args) throws IOException {
+    InetAddress bindAddress = InetAddress.getLoopbackAddress();
+    if (args.length > 0 && args[0].equals("--bindAddress")) {
+      Preconditions.checkArgument(args.length >= 2, "--bindAddress requires an address");
+      bindAddress = InetAddress.getByName(args[1]);
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
+    Preconditions.checkArgument(args.length == 2 || args.length == 3,
+        "Usage: MapReduceWorker [--bindAddress <address>] <port> <numThreads> [<portFile>]");
+    int port = Integer.parseInt(args[0]);
+    int numThreads = Integer.parseInt(args[1]);
+
+    MapReduceWorker worker = new MapReduceWorker(bindAddress, port, numThreads, args.length == 3);
+    if (args.length == 3) {
+      // Write then rename, so readers never observe a partial file.
+      File portFile = new File(args[2]);
+      File tempFile = new File(args[2] + ".tmp");
+      Files.write(Integer.toString(worker.getPort()), tempFile, Charsets.UTF_8);
+      Preconditions.checkState(tempFile.renameTo(portFile));
+    } else {
+      System.out.println("Listening on port " + worker.getPort());
+    }
+    worker.run();
+  }
+
+  /**
+   * Message containing the mapper and reducer for subsequent
+   * {@code Shard}s. If the reducer is {@code null}, shards are mapped
+   * but not reduced.
+   */
+  static class Task implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Object mapper;
+    private final Object reducer;
+
+    public Task(Object mapper, Object reducer) {
+      this.mapper = Preconditions.checkNotNull(mapper);
+      this.reducer = reducer;
+    }
+
+    public Object getMapper() {
+      return mapper;
+    }
+
+    public Object getReducer() {
+      return reducer;
+    }
+  }
+
+  /**
+   * Message containing items to process.
+   */
+  static class Shard implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<?> items;
+
+    public Shard(List<?> items) {
+      this.items = Preconditions.checkNotNull(items);
+    }
+
+    public List<?> getItems() {
+      return items;
+    }
+  }
+
+  /**
+   * A worker's response to a message, containing either a result or the
+   * exception thrown while computing it.
+   */
+  static class Response implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Serializable value;
+    private final Throwable error;
+
+    public Response(Serializable value, Throwable error) {
+      this.value = value;
+      this.error = error;
+    }
+
+    public Serializable getValue() {
+      return value;
+    }
+
+    public Throwable getError() {
+      return error;
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package com.jayantkrish.jklol.parallel;
 
+import java.io.Serializable;
+
 import com.google.common.base.Function;
 
 /**
@@ -7,13 +9,16 @@ import com.google.common.base.Function;
  * processing on a collection (see {@link MapReduceExecutor}). Implementors of
  * this class should be thread-safe, as multiple threads may simultaneously
  * execute methods on a single instance. {@code Mapper}s should also be
- * stateless.
+ * stateless. {@code Mapper}s are serialized to run on other machines (see
+ * {@link SocketMapReduceExecutor}), so their fields should be
+ * {@code Serializable}.
  * 
  * @author jayantk
  * @param <A>
  * @param <B>
  */
-public abstract class Mapper<A, B> implements Function<A, B> {
+public abstract class Mapper<A, B> implements Function<A, B>, Serializable {
+  private static final long serialVersionUID = 1L;
 
   @Override
   public B apply(A item) {
@@ -29,4 +34,19 @@ public abstract class Mapper<A, B> implements Function<A, B> {
    * @return
    */
   public abstract B map(A item);
+
+  /**
+   * Estimates the relative amount of computation required to
+   * {@code map} {@code item}, for example, the cube of a sentence's
+   * length for a parser. Executors use these estimates to balance
+   * work across threads, and may process items in a different order
+   * if their costs differ. The default implementation assigns every
+   * item the same cost.
+   * 
+   * @param item
+   * @return
+   */
+  public double estimateCost(A item) {
+    return 1.0;
+  }
 }
@@ -1,6 +1,7 @@
 package com.jayantkrish.jklol.parallel;
 
 import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
 
 /**
  * Utility methods for {@code Mapper}s.
@@ -11,17 +12,13 @@ public class Mappers {
 
   /**
    * Gets a mapper which applies {@code function} to each element.
+   * The mapper is only serializable if {@code function} is.
    * 
    * @param function
    * @return
    */
-  public static <A, B> Mapper<A, B> fromFunction(final Function<A, B> function) {
-    return new Mapper<A, B>() {
-      @Override
-      public B map(A item) {
-        return function.apply(item);
-      }
-    };
+  public static <A, B> Mapper<A, B> fromFunction(Function<A, B> function) {
+    return new FunctionMapper<A, B>(function);
   }
 
   /**
@@ -30,11 +27,66 @@ public class Mappers {
    * @return
    */
   public static <A> Mapper<A, A> identity() {
-    return new Mapper<A, A>() {
-      @Override
-      public A map(A item) {
-        return item;
-      }
-    };
+    return new IdentityMapper<A>();
+  }
+
+  /**
+   * Gets a mapper which applies {@code mapper} to each element and
+   * estimates the cost of each element using {@code costEstimator}.
+   * The mapper is only serializable if {@code costEstimator} is.
+   * 
+   * @param mapper
+   * @param costEstimator
+   * @return
+   */
+  public static <A, B> Mapper<A, B> withCostEstimator(Mapper<A, B> mapper,
+      Function<? super A, Double> costEstimator) {
+    return new CostEstimatingMapper<A, B>(mapper, costEstimator);
+  }
+
+  private static class FunctionMapper<A, B> extends Mapper<A, B> {
+    private static final long serialVersionUID = 1L;
+
+    private final Function<A, B> function;
+
+    public FunctionMapper(Function<A, B> function) {
+      this.function = Preconditions.checkNotNull(function);
+    }
+
+    @Override
+    public B map(A item) {
+      return function.apply(item);
+    }
+  }
+
+  private static class IdentityMapper<A> extends Mapper<A, A> {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public A map(A item) {
+      return item;
+    }
+  }
+
+  private static class CostEstimatingMapper<A, B> extends Mapper<A, B> {
+    private static final long serialVersionUID = 1L;
+
+    private final Mapper<A, B> mapper;
+    private final Function<? super A, Double> costEstimator;
+
+    public CostEstimatingMapper(Mapper<A, B> mapper, Function<? super A, Double> costEstimator) {
+      this.mapper = Preconditions.checkNotNull(mapper);
+      this.costEstimator = Preconditions.checkNotNull(costEstimator);
+    }
+
+    @Override
+    public B map(A item) {
+      return mapper.map(item);
+    }
+
+    @Override
+    public double estimateCost(A item) {
+      return costEstimator.apply(item);
+    }
   }
 }
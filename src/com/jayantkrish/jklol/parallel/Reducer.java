@@ -1,15 +1,18 @@
 package com.jayantkrish.jklol.parallel;
 
+import java.io.Serializable;
+
 /**
  * Second half of a map-reduce pipeline that compiles the output of the {@code
- * Mapper}s into a return value.
+ * Mapper}s into a return value. Like {@link Mapper}s, {@code Reducer}s are
+ * serialized to run on other machines.
  * 
  * @author jayantk
  * @param <B> input type, which is the output type of the {@code Mapper} in the
  * first half of the pipeline
  * @param <C> output type of the reducer.
  */
-public interface Reducer<B, C> {
+public interface Reducer<B, C> extends Serializable {
 
   /**
    * Gets a value used as the initial value for the accumulator. The returned
@@ -52,6 +55,7 @@ public interface Reducer<B, C> {
    * @param <B>
    */
   public abstract class SimpleReducer<B> implements Reducer<B, B> {
+    private static final long serialVersionUID = 1L;
 
     @Override
     public B combine(B other, B accumulated) {
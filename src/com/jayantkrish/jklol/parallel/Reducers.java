@@ -1,5 +1,6 @@
 package com.jayantkrish.jklol.parallel;
 
+import java.io.Serializable;
 import java.util.Collection;
 import java.util.List;
 
@@ -29,12 +30,16 @@ public class Reducers {
   }
   
   public static <T> Reducer<T, List<T>> getAggregatingListReducer() {
-    return getAggregatingReducer(new Supplier<List<T>>() {
-      @Override
-      public List<T> get() {
-        return Lists.newArrayList();
-      }
-    });
+    return getAggregatingReducer(new ListSupplier<T>());
+  }
+
+  private static class ListSupplier<T> implements Supplier<List<T>>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public List<T> get() {
+      return Lists.newArrayList();
+    }
   }
 
   /**
@@ -45,6 +50,8 @@ public class Reducers {
    * @param <C> collection type storing item
    */
   private static class AggregatingReducer<T, C extends Collection<T>> implements Reducer<T, C> {
+    private static final long serialVersionUID = 1L;
+
     private final Supplier<C> constructor;
 
     public AggregatingReducer(Supplier<C> constructor) {
@@ -70,6 +77,8 @@ public class Reducers {
   }
   
   public static class FilterReducer<T> implements Reducer<T, List<T>> {
+    private static final long serialVersionUID = 1L;
+
     private final Predicate<T> predicate;
     
     public FilterReducer(Predicate<T> predicate) {
@@ -0,0 +1,452 @@
+package com.jayantkrish.jklol.parallel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jayantkrish.jklol.parallel.MapReduceWorker.Response;
+import com.jayantkrish.jklol.parallel.MapReduceWorker.Shard;
+import com.jayantkrish.jklol.parallel.MapReduceWorker.Task;
+
+/**
+ * A map-reduce executor which distributes work to {@link MapReduceWorker}s
+ * running in other JVMs, communicating over sockets. Using multiple JVMs
+ * avoids the garbage collection and heap size limits of running many
+ * threads in a single JVM.
+ * <p>
+ * The mapper and reducer of each call are sent once to each worker.
+ * Items are then divided into shards, which workers request as they
+ * finish previous shards. Each worker reduces the items of a shard
+ * locally, and the driver combines these partial results. Items,
+ * mappers, reducers and results must be {@code Serializable}.
+ * {@link #filter} is performed locally.
+ *
+ * @author jayantk
+ */
+public class SocketMapReduceExecutor implements MapReduceExecutor {
+
+  private static final long WORKER_STARTUP_TIMEOUT_MILLIS = 60000;
+  private static final int DEFAULT_READ_TIMEOUT_MILLIS = 30 * 60 * 1000;
+
+  private final List<InetSocketAddress> workerAddresses;
+  private final int shardsPerWorker;
+  // Maximum time to wait for a worker's response before failing.
+  private final int readTimeoutMillis;
+  // Local worker processes started by this executor, which are
+  // terminated by shutdown().
+  private final List<Process> workerProcesses;
+
+  // Lazily initialized.
+  private WorkerConnection[] connections;
+  private ExecutorService dispatcher;
+
+  /**
+   * Creates an executor which sends work to the workers listening at
+   * {@code workerAddresses}. Items are divided so that each worker
+   * processes roughly {@code shardsPerWorker} shards, which allows
+   * faster workers to process more shards. A call fails if any worker
+   * does not respond within 30 minutes.
+   *
+   * @param workerAddresses
+   * @param shardsPerWorker
+   */
+  public SocketMapReduceExecutor(List<InetSocketAddress> workerAddresses, int shardsPerWorker) {
+    this(workerAddresses, shardsPerWorker, DEFAULT_READ_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Same as {@link #SocketMapReduceExecutor(List, int)}, except that a
+   * call fails if any worker does not respond to a message within
+   * {@code readTimeoutMillis}. Each shard must be processed within
+   * this time. A timeout of 0 waits forever.
+   *
+   * @param workerAddresses
+   * @param shardsPerWorker
+   * @param readTimeoutMillis
+   */
+  public SocketMapReduceExecutor(List<InetSocketAddress> workerAddresses, int shardsPerWorker,
+      int readTimeoutMillis) {
+    this(workerAddresses, shardsPerWorker, readTimeoutMillis, Collections.<Process>emptyList());
+  }
+
+  private SocketMapReduceExecutor(List<InetSocketAddress> workerAddresses, int shardsPerWorker,
+      int readTimeoutMillis, List<Process> workerProcesses) {
+    Preconditions.checkArgument(workerAddresses.size() > 0);
+    Preconditions.checkArgument(shardsPerWorker > 0);
+    Preconditions.checkArgument(readTimeoutMillis >= 0);
+    this.workerAddresses = ImmutableList.copyOf(workerAddresses);
+    this.shardsPerWorker = shardsPerWorker;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.workerProcesses = ImmutableList.copyOf(workerProcesses);
+
+    this.connections = null;
+    this.dispatcher = null;
+  }
+
+  /**
+   * Parses a comma-separated list of {@code host:port} pairs, e.g.,
+   * {@code "localhost:5000,localhost:5001"}.
+   *
+   * @param addresses
+   * @return
+   */
+  public static List<InetSocketAddress> parseWorkerAddresses(String addresses) {
+    List<InetSocketAddress> parsed = Lists.newArrayList();
+    for (String address : addresses.split(",")) {
+      String[] parts = address.trim().split(":");
+      Preconditions.checkArgument(parts.length == 2, "Invalid worker address: %s", address);
+      parsed.add(new InetSocketAddress(parts[0], Integer.parseInt(parts[1])));
+    }
+    return parsed;
+  }
+
+  /**
+   * Starts {@code numWorkers} worker JVMs on this machine, each using
+   * {@code threadsPerWorker} threads, and returns an executor which
+   * distributes work to them. The workers use the same classpath as
+   * this JVM, and are terminated when the returned executor is shut
+   * down or this JVM exits.
+   *
+   * @param numWorkers
+   * @param threadsPerWorker
+   * @param shardsPerWorker
+   * @param jvmArgs additional arguments for the worker JVMs, e.g.,
+   * {@code "-Xmx4g"}.
+   * @return
+   */
+  public static SocketMapReduceExecutor startLocalWorkers(int numWorkers, int threadsPerWorker,
+      int shardsPerWorker, String... jvmArgs) {
+    String javaBinary = System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java";
+    String classpath = System.getProperty("java.class.path");
+
+    List<Process> processes = Lists.newArrayList();
+    List<File> portFiles = Lists.newArrayList();
+    try {
+      for (int i = 0; i < numWorkers; i++) {
+        File portFile = File.createTempFile("jklol-worker", ".port");
+        portFile.delete();
+        portFile.deleteOnExit();
+        portFiles.add(portFile);
+
+        List<String> command = Lists.newArrayList(javaBinary);
+        command.addAll(Arrays.asList(jvmArgs));
+        command.addAll(Arrays.asList("-cp", classpath, MapReduceWorker.class.getName(),
+            "0", Integer.toString(threadsPerWorker), portFile.getPath()));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        processes.add(builder.start());
+      }
+
+      // Wait for each worker to report the port it is listening on.
+      List<InetSocketAddress> addresses = Lists.newArrayList();
+      long deadline = System.currentTimeMillis() + WORKER_STARTUP_TIMEOUT_MILLIS;
+      for (int i = 0; i < numWorkers; i++) {
+        File portFile = portFiles.get(i);
+        while (!portFile.exists()) {
+          Preconditions.checkState(System.currentTimeMillis() < deadline,
+              "Timed out waiting for worker %s to start", i);
+          try {
+            processes.get(i).exitValue();
+            throw new IllegalStateException("Worker " + i + " exited before starting.");
+          } catch (IllegalThreadStateException e) {
+            // The process is still running.
+          }
+          Thread.sleep(10);
+        }
+        int port = Integer.parseInt(Files.toString(portFile, Charsets.UTF_8).trim());
+        addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        portFile.delete();
+      }
+
+      final List<Process> finalProcesses = processes;
+      Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          destroyAll(finalProcesses);
+        }
+      }, "SocketMapReduceExecutor-shutdown"));
+      return new SocketMapReduceExecutor(addresses, shardsPerWorker, DEFAULT_READ_TIMEOUT_MILLIS,
+          processes);
+    } catch (IOException e) {
+      destroyAll(processes);
+      throw new RuntimeException(e);
+    } catch (InterruptedException e) {
+      destroyAll(processes);
+      throw new RuntimeException(e);
+    } catch (RuntimeException e) {
+      destroyAll(processes);
+      throw e;
+    }
+  }
+
+  public int getNumWorkers() {
+    return workerAddresses.size();
+  }
+
+  @Override
+  public <A, B, C, D extends Mapper<A, B>, E extends Reducer<B, C>> C mapReduce(
+      Collection<? extends A> items, D mapper, E reducer) {
+    return mapReduce(items, mapper, reducer, null);
+  }
+
+  @Override
+  public <A, B, C, D extends Mapper<A, B>, E extends Reducer<B, C>> C mapReduce(
+      Collection<? extends A> items, D mapper, E reducer, C accumulator) {
+    if (accumulator == null) {
+      accumulator = reducer.getInitialValue();
+    }
+
+    List<Serializable> results = runShards(items, new Task(mapper, reducer));
+    for (Serializable result : results) {
+      @SuppressWarnings("unchecked")
+      C shardResult = (C) result;
+      accumulator = reducer.combine(shardResult, accumulator);
+    }
+    return accumulator;
+  }
+
+  @Override
+  public <A, B, C extends Mapper<A, B>> List<B> map(Collection<? extends A> items, C mapper) {
+    List<Serializable> results = runShards(items, new Task(mapper, null));
+    List<B> mappedItems = Lists.newArrayList();
+    for (Serializable result : results) {
+      @SuppressWarnings("unchecked")
+      List<B> shardResult = (List<B>) result;
+      mappedItems.addAll(shardResult);
+    }
+    return mappedItems;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * This implementation maps consecutive groups of {@code maxInFlight}
+   * items, so results are always returned in order.
+   */
+  @Override
+  public <A, B, C extends Mapper<A, B>> Iterator<B> mapStream(Iterator<? extends A> items,
+      final C mapper, int maxInFlight, boolean preserveOrder) {
+    Preconditions.checkArgument(maxInFlight > 0);
+    Iterator<? extends List<? extends A>> chunks = Iterators.partition(items, maxInFlight);
+    return Iterators.concat(Iterators.transform(chunks, new Function<List<? extends A>, Iterator<B>>() {
+      @Override
+      public Iterator<B> apply(List<? extends A> chunk) {
+        return map(chunk, mapper).iterator();
+      }
+    }));
+  }
+
+  @Override
+  public <A> List<A> filter(List<A> items, Predicate<A> predicate) {
+    return Lists.newArrayList(Iterables.filter(items, predicate));
+  }
+
+  /**
+   * Closes the connections to all workers, and terminates any worker
+   * processes started by this executor. Connections are reopened if
+   * this executor is used again, however, terminated processes are not
+   * restarted.
+   */
+  @Override
+  public synchronized void shutdown() {
+    if (connections != null) {
+      for (WorkerConnection connection : connections) {
+        if (connection != null) {
+          connection.close();
+        }
+      }
+      connections = null;
+    }
+    if (dispatcher != null) {
+      dispatcher.shutdown();
+      dispatcher = null;
+    }
+    destroyAll(workerProcesses);
+  }
+
+  /**
+   * Sends {@code task} to every worker, then distributes shards of
+   * {@code items} among the workers. Returns the result for each shard,
+   * in the same order as {@code items}.
+   */
+  private synchronized List<Serializable> runShards(Collection<?> items, final Task task) {
+    if (items.size() == 0) {
+      return Collections.emptyList();
+    }
+
+    final List<List<Object>> shards = getShards(items);
+    final Serializable[] results = new Serializable[shards.size()];
+    final AtomicInteger nextShard = new AtomicInteger(0);
+
+    ExecutorService executor = getDispatcher();
+    List<Future<?>> futures = Lists.newArrayList();
+    for (int i = 0; i < workerAddresses.size(); i++) {
+      final WorkerConnection connection = getConnection(i);
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          connection.call(task);
+          int shardNum;
+          while ((shardNum = nextShard.getAndIncrement()) < shards.size()) {
+            results[shardNum] = connection.call(new Shard(shards.get(shardNum)));
+          }
+          return null;
+        }
+      }));
+    }
+
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      e.printStackTrace();
+      e.getCause().printStackTrace();
+      throw new RuntimeException(e);
+    }
+    return Arrays.asList(results);
+  }
+
+  private List<List<Object>> getShards(Collection<?> items) {
+    List<Object> itemList = Lists.<Object>newArrayList(items);
+    int numShards = workerAddresses.size() * shardsPerWorker;
+    int shardSize = (int) Math.ceil(((double) itemList.size()) / numShards);
+
+    List<List<Object>> shards = Lists.newArrayList();
+    for (int i = 0; i < itemList.size(); i += shardSize) {
+      // Copy each shard, as subList views are not serializable.
+      shards.add(Lists.newArrayList(itemList.subList(i, Math.min(i + shardSize, itemList.size()))));
+    }
+    return shards;
+  }
+
+  private synchronized WorkerConnection getConnection(int workerNum) {
+    if (connections == null) {
+      connections = new WorkerConnection[workerAddresses.size()];
+    }
+    if (connections[workerNum] == null || connections[workerNum].isClosed()) {
+      connections[workerNum] = new WorkerConnection(workerAddresses.get(workerNum),
+          readTimeoutMillis);
+    }
+    return connections[workerNum];
+  }
+
+  private synchronized ExecutorService getDispatcher() {
+    if (dispatcher == null) {
+      dispatcher = Executors.newFixedThreadPool(workerAddresses.size(),
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SocketMapReduceExecutor-%d")
+          .build());
+    }
+    return dispatcher;
+  }
+
+  private static void destroyAll(List<Process> processes) {
+    for (Process process : processes) {
+      process.destroy();
+    }
+  }
+
+  /**
+   * A connection to a single worker.
+   */
+  private static class WorkerConnection {
+    private final InetSocketAddress address;
+    private final Socket socket;
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+
+    public WorkerConnection(InetSocketAddress address, int readTimeoutMillis) {
+      this.address = address;
+      try {
+        this.socket = new Socket(address.getHostName(), address.getPort());
+        socket.setTcpNoDelay(true);
+        // Fail, rather than blocking forever, if the worker dies
+        // without responding.
+        socket.setSoTimeout(readTimeoutMillis);
+        this.out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.flush();
+        this.in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+      } catch (IOException e) {
+        throw new RuntimeException("Could not connect to worker at " + address, e);
+      }
+    }
+
+    /**
+     * Sends {@code message} to the worker and returns its response.
+     */
+    public Serializable call(Serializable message) {
+      Response response = null;
+      boolean received = false;
+      try {
+        out.writeObject(message);
+        // Prevent the stream from caching references to old objects,
+        // which would also prevent modified objects (e.g., updated
+        // parameters) from being resent.
+        out.reset();
+        out.flush();
+        response = (Response) in.readObject();
+        received = true;
+      } catch (IOException e) {
+        throw new RuntimeException("Communication with worker at " + address + " failed", e);
+      } catch (ClassNotFoundException e) {
+        throw new RuntimeException(e);
+      } finally {
+        // The streams are in an unknown state if the exchange failed
+        // for any reason, so the connection cannot be reused.
+        if (!received) {
+          close();
+        }
+      }
+
+      if (response.getError() != null) {
+        throw new RuntimeException("Worker at " + address + " failed", response.getError());
+      }
+      return response.getValue();
+    }
+
+    public boolean isClosed() {
+      return socket.isClosed();
+    }
+
+    public void close() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nothing to do if closing fails.
+      }
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package com.jayantkrish.jklol.pos;
 
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -7,8 +9,14 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.jayantkrish.jklol.cli.AbstractCli;
+import com.jayantkrish.jklol.data.ExampleCache;
+import com.jayantkrish.jklol.data.ExampleCache.CachedExamples;
+import com.jayantkrish.jklol.evaluation.Example;
+import com.jayantkrish.jklol.models.dynamic.DynamicAssignment;
 import com.jayantkrish.jklol.models.parametric.ParametricFactorGraph;
 import com.jayantkrish.jklol.preprocessing.FeatureVectorGenerator;
 import com.jayantkrish.jklol.sequence.FactorGraphSequenceTagger;
@@ -29,6 +37,7 @@ public class TrainPosCrf extends AbstractCli {
   private OptionSpec<String> trainingFilename;
   // private OptionSpec<String> allowedTransitions;
   private OptionSpec<String> modelOutput;
+  private OptionSpec<String> exampleCache;
   
   // Model construction options.
   private OptionSpec<Void> noTransitions;
@@ -51,6 +60,8 @@ public class TrainPosCrf extends AbstractCli {
         */
     
     modelOutput = parser.accepts("output").withRequiredArg().ofType(String.class).required();
+    exampleCache = parser.accepts("exampleCache", "Directory for caching preprocessed training examples.")
+        .withRequiredArg().ofType(String.class);
     
     noTransitions = parser.accepts("noTransitions");
     noUnknownWordFeatures = parser.accepts("noUnknownWordFeatures");
@@ -61,29 +72,59 @@ public class TrainPosCrf extends AbstractCli {
 
   @Override
   public void run(OptionSet options) {
-    // Read in the training data as sentences, to use for
-    // feature generation.
-    List<PosTaggedSentence> trainingData = PosTaggerUtils.readTrainingData(
-        options.valueOf(trainingFilename));
-    FeatureVectorGenerator<LocalContext<String>> featureGen = PosTaggerUtils
-        .buildFeatureVectorGenerator(trainingData, options.valueOf(commonWordCountThreshold),
-            options.has(noUnknownWordFeatures));
-
-    Set<String> posTags = Sets.newHashSet();
-    for (PosTaggedSentence datum : trainingData) {
-      posTags.addAll(datum.getPos());
-    }
+    final String trainingFile = options.valueOf(trainingFilename);
+    final int wordCountThreshold = options.valueOf(commonWordCountThreshold);
+    final boolean noUnknownWords = options.has(noUnknownWordFeatures);
+    final boolean useTransitions = !options.has(noTransitions);
+
+    // Read the training data and generate its feature vectors, or read
+    // both the examples and the model built from the training data
+    // from the cache.
+    Supplier<CachedExamples<PosTrainingData, Example<DynamicAssignment, DynamicAssignment>>> preprocessor =
+        new Supplier<CachedExamples<PosTrainingData, Example<DynamicAssignment, DynamicAssignment>>>() {
+      @Override
+      public CachedExamples<PosTrainingData, Example<DynamicAssignment, DynamicAssignment>> get() {
+        // Read in the training data as sentences, to use for
+        // feature generation.
+        List<PosTaggedSentence> trainingData = PosTaggerUtils.readTrainingData(trainingFile);
+        FeatureVectorGenerator<LocalContext<String>> featureGen = PosTaggerUtils
+            .buildFeatureVectorGenerator(trainingData, wordCountThreshold, noUnknownWords);
+
+        Set<String> posTags = Sets.newHashSet();
+        for (PosTaggedSentence datum : trainingData) {
+          posTags.addAll(datum.getPos());
+        }
+        System.out.println(posTags.size() + " POS tags");
+
+        // Build the factor graph.
+        ParametricFactorGraph sequenceModelFamily = TaggerUtils.buildFeaturizedSequenceModel(posTags,
+            featureGen.getFeatureDictionary(), !useTransitions, false);
 
-    System.out.println(posTags.size() + " POS tags");
+        List<Example<DynamicAssignment, DynamicAssignment>> examples = TaggerUtils.reformatTrainingData(
+            trainingData, featureGen, sequenceModelFamily.getVariables(), null, null);
+        return new CachedExamples<PosTrainingData, Example<DynamicAssignment, DynamicAssignment>>(
+            new PosTrainingData(featureGen, sequenceModelFamily), examples);
+      }
+    };
+    CachedExamples<PosTrainingData, Example<DynamicAssignment, DynamicAssignment>> preprocessed = null;
+    if (options.has(exampleCache)) {
+      preprocessed = ExampleCache.getOrCreateWithMetadata(options.valueOf(exampleCache),
+          Arrays.asList(trainingFile), preprocessor, wordCountThreshold, noUnknownWords,
+          useTransitions);
+    } else {
+      preprocessed = preprocessor.get();
+    }
+    FeatureVectorGenerator<LocalContext<String>> featureGen = preprocessed.getMetadata()
+        .getFeatureGenerator();
+    ParametricFactorGraph sequenceModelFamily = preprocessed.getMetadata().getModelFamily();
+    List<Example<DynamicAssignment, DynamicAssignment>> examples = Lists.newArrayList(
+        preprocessed.getExamples());
     System.out.println(featureGen.getNumberOfFeatures() + " word/POS features");
-    
-    // Build the factor graph.
-    ParametricFactorGraph sequenceModelFamily = TaggerUtils.buildFeaturizedSequenceModel(posTags,
-        featureGen.getFeatureDictionary(), options.has(noTransitions), false);
-    GradientOptimizer trainer = createGradientOptimizer(trainingData.size());
+
+    GradientOptimizer trainer = createGradientOptimizer(examples.size());
     FactorGraphSequenceTagger<String, String> tagger = TaggerUtils.trainSequenceModel(
-        sequenceModelFamily, trainingData, String.class, featureGen, null, null, trainer,
-        options.has(maxMargin));
+        sequenceModelFamily, examples, String.class, featureGen,
+        TaggerUtils.getDefaultInputGenerator(), null, null, trainer, options.has(maxMargin));
 
     // Save model to disk.
     System.out.println("Serializing trained model...");
@@ -96,4 +137,29 @@ public class TrainPosCrf extends AbstractCli {
   public static void main(String[] args) {
     new TrainPosCrf().run(args);
   }
+
+  /**
+   * The feature generator and model built from the training data,
+   * which are cached along with the training examples.
+   */
+  private static class PosTrainingData implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final FeatureVectorGenerator<LocalContext<String>> featureGen;
+    private final ParametricFactorGraph modelFamily;
+
+    public PosTrainingData(FeatureVectorGenerator<LocalContext<String>> featureGen,
+        ParametricFactorGraph modelFamily) {
+      this.featureGen = featureGen;
+      this.modelFamily = modelFamily;
+    }
+
+    public FeatureVectorGenerator<LocalContext<String>> getFeatureGenerator() {
+      return featureGen;
+    }
+
+    public ParametricFactorGraph getModelFamily() {
+      return modelFamily;
+    }
+  }
 }
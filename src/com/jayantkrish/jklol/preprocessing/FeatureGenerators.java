@@ -185,6 +185,8 @@ public class FeatureGenerators {
   }
   
   private static class FeatureCountMapper<A, B> extends Mapper<A, Map<B, Double>> {
+    private static final long serialVersionUID = 1L;
+
     private final FeatureGenerator<A, B> featureGenerator;
     
     public FeatureCountMapper(FeatureGenerator<A, B> featureGenerator) {
@@ -199,6 +201,7 @@ public class FeatureGenerators {
   }
   
   private static class FeatureCountReducer<B> implements Reducer<Map<B, Double>, CountAccumulator<B>> {
+    private static final long serialVersionUID = 1L;
 
     @Override
     public CountAccumulator<B> getInitialValue() {
@@ -1,6 +1,9 @@
 package com.jayantkrish.jklol.sequence;
 
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
@@ -100,6 +103,43 @@ public class FactorGraphSequenceTagger<I, O> extends TrainedModelSet implements
     DynamicAssignment input = TaggerUtils.reformatTrainingData(sequence, getFeatureGenerator(),
         inputGen, getModelFamily().getVariables(), startInput, startLabel).getInput();
 
+    List<O> predictedLabels = decodeLabels(input);
+    int startIndex = (startInput == null) ? 0 : 1;
+    List<O> labels = Lists.newArrayList(predictedLabels.subList(startIndex, predictedLabels.size()));
+
+    return new ListTaggedSequence<I, O>(items, labels);
+  }
+
+  /**
+   * Tags a (possibly unbounded) stream of items using fixed-lag decoding.
+   * The label for each item is chosen once the next {@code lag} items are
+   * available (or the stream ends), by decoding a window containing those
+   * items and the {@code lag} items preceding it. The labels of the preceding
+   * items are fixed to the labels already returned. Hence, memory usage and
+   * the time required per item depend only on {@code lag}, not the length of
+   * the stream.
+   * <p>
+   * Larger values of {@code lag} produce labels closer to those of
+   * {@link #tag(List)}, which decodes the entire sequence at once. The
+   * returned iterator consumes {@code items} lazily.
+   * 
+   * @param items
+   * @param lag
+   * @return
+   */
+  public Iterator<O> tagStream(Iterator<I> items, int lag) {
+    Preconditions.checkArgument(lag >= 0);
+    return new FixedLagTaggingIterator(items, lag, Math.max(lag, 1));
+  }
+
+  /**
+   * Finds the highest-scoring label for each element of the sequence in
+   * {@code input}.
+   * 
+   * @param input
+   * @return
+   */
+  private List<O> decodeLabels(DynamicAssignment input) {
     DynamicFactorGraph dfg = getInstantiatedModel();
     FactorGraph fg = dfg.conditional(input);
 
@@ -108,17 +148,13 @@ public class FactorGraphSequenceTagger<I, O> extends TrainedModelSet implements
     DynamicAssignment prediction = dfg.getVariables()
         .toDynamicAssignment(output, fg.getAllVariables());
     List<O> labels = Lists.newArrayList();
-    List<Assignment> predictedAssignments = prediction.getPlateFixedAssignments(TaggerUtils.PLATE_NAME);
-    int startIndex = (startInput == null) ? 0 : 1;
-    for (int i = startIndex; i < predictedAssignments.size(); i++) {
-      Assignment plateAssignment = predictedAssignments.get(i);
+    for (Assignment plateAssignment : prediction.getPlateFixedAssignments(TaggerUtils.PLATE_NAME)) {
       List<Object> values = plateAssignment.getValues();
       labels.add(outputClass.cast(values.get(2)));
     }
-
-    return new ListTaggedSequence<I, O>(items, labels);
+    return labels;
   }
-  
+
   @Override
   public MultitaggedSequence<I, O> multitag(List<I> items, double tagThreshold) {
     Preconditions.checkArgument(tagThreshold >= 0 && tagThreshold <= 1.0, "tagThreshold must be between 0 and 1");
@@ -171,4 +207,68 @@ public class FactorGraphSequenceTagger<I, O> extends TrainedModelSet implements
 
     return new ListMultitaggedSequence<I, O>(items, labels, labelProbs);
   }
+
+  /**
+   * Iterator over the labels of a stream of items, as produced by
+   * {@link FactorGraphSequenceTagger#tagStream}.
+   */
+  private class FixedLagTaggingIterator implements Iterator<O> {
+    private final Iterator<I> items;
+    private final int lag;
+    private final int historySize;
+
+    // Items whose labels have been returned, along with their labels.
+    private final LinkedList<I> history;
+    private final LinkedList<O> historyLabels;
+    // Items read from items that have not yet been labeled.
+    private final LinkedList<I> pending;
+
+    public FixedLagTaggingIterator(Iterator<I> items, int lag, int historySize) {
+      this.items = Preconditions.checkNotNull(items);
+      this.lag = lag;
+      this.historySize = historySize;
+
+      history = Lists.newLinkedList();
+      historyLabels = Lists.newLinkedList();
+      pending = Lists.newLinkedList();
+      if (startInput != null) {
+        history.add(startInput);
+        historyLabels.add(startLabel);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (pending.size() <= lag && items.hasNext()) {
+        pending.add(items.next());
+      }
+      return pending.size() > 0;
+    }
+
+    @Override
+    public O next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      List<I> window = Lists.newArrayList(history);
+      window.addAll(pending);
+      DynamicAssignment input = TaggerUtils.reformatPartiallyLabeledInput(window, historyLabels,
+          featureGenerator, inputGen, getModelFamily().getVariables());
+      O label = decodeLabels(input).get(history.size());
+
+      history.add(pending.removeFirst());
+      historyLabels.add(label);
+      while (history.size() > historySize) {
+        history.removeFirst();
+        historyLabels.removeFirst();
+      }
+      return label;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
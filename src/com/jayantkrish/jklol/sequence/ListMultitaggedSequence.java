@@ -1,5 +1,6 @@
 package com.jayantkrish.jklol.sequence;
 
+import java.io.Serializable;
 import java.util.List;
 
 import com.google.common.base.Preconditions;
@@ -10,7 +11,8 @@ import com.google.common.collect.Lists;
  * 
  * @author jayant
  */
-public class ListMultitaggedSequence<I, O> implements MultitaggedSequence<I, O> {
+public class ListMultitaggedSequence<I, O> implements MultitaggedSequence<I, O>, Serializable {
+  private static final long serialVersionUID = 1L;
   
   private final List<I> items;
   private final List<List<O>> labels;
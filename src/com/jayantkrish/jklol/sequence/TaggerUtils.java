@@ -174,6 +174,43 @@ public class TaggerUtils {
     return examples;
   }
   
+  /**
+   * Converts {@code items} into an input assignment for a sequence model
+   * where the first {@code fixedLabels.size()} items have known labels. The
+   * labels of the remaining items are left unassigned. Used to tag a portion
+   * of a longer sequence, given the labels that precede it.
+   * 
+   * @param items
+   * @param fixedLabels
+   * @param featureGen
+   * @param inputGen
+   * @param modelVariables
+   * @return
+   */
+  public static <I, O> DynamicAssignment reformatPartiallyLabeledInput(List<I> items,
+      List<O> fixedLabels, FeatureVectorGenerator<LocalContext<I>> featureGen,
+      Function<? super LocalContext<I>, ? extends Object> inputGen, DynamicVariableSet modelVariables) {
+    Preconditions.checkArgument(fixedLabels.size() <= items.size());
+
+    DynamicVariableSet plate = modelVariables.getPlate(PLATE_NAME);
+    VariableNumMap x = plate.getFixedVariables().getVariablesByName(INPUT_FEATURES_NAME);
+    VariableNumMap xInput = plate.getFixedVariables().getVariablesByName(INPUT_NAME);
+    VariableNumMap y = plate.getFixedVariables().getVariablesByName(OUTPUT_NAME);
+
+    List<Assignment> inputs = Lists.newArrayList();
+    for (int i = 0; i < items.size(); i++) {
+      LocalContext<I> context = new ListLocalContext<I>(items, i);
+      Assignment inputFeatureVector = x.outcomeArrayToAssignment(featureGen.apply(context));
+      Assignment inputElement = xInput.outcomeArrayToAssignment(inputGen.apply(context));
+      Assignment input = inputFeatureVector.union(inputElement);
+      if (i < fixedLabels.size()) {
+        input = input.union(y.outcomeArrayToAssignment(fixedLabels.get(i)));
+      }
+      inputs.add(input);
+    }
+    return DynamicAssignment.createPlateAssignment(PLATE_NAME, inputs);
+  }
+
   /**
    * Creates training examples from sequential data where each example
    * involves predicting a single label given the current input and
@@ -467,6 +504,8 @@ public class TaggerUtils {
   }
 
   private static class SequenceTaggerEvaluationMapper<I, O> extends Mapper<TaggedSequence<I, O>, SequenceTaggerError> {
+    private static final long serialVersionUID = 1L;
+
     private final SequenceTagger<I, O> tagger;
     private final double multitagThreshold;
 
@@ -520,6 +559,8 @@ public class TaggerUtils {
   }
 
   private static class SequenceTaggerEvaluationReducer extends SimpleReducer<SequenceTaggerError> {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public SequenceTaggerError getInitialValue() {
       return SequenceTaggerError.zero();
@@ -533,6 +574,8 @@ public class TaggerUtils {
   }
 
   private static class ReformatPerItemMapper<I, O> extends Mapper<TaggedSequence<I, O>, List<Example<DynamicAssignment, DynamicAssignment>>> {
+    private static final long serialVersionUID = 1L;
+
     private final FeatureVectorGenerator<LocalContext<I>> featureGen;
     private final Function<? super LocalContext<I>, ? extends Object> inputGen;
     
@@ -132,6 +132,19 @@ public class AppendOnlySparseTensorBuilder extends AbstractTensorBase implements
   public void incrementSquareAdagrad(TensorBase gradient, TensorBase parameters, double multiplier) {
     throw new UnsupportedOperationException();
   }
+
+  @Override
+  public void incrementLazy(TensorBase gradient, double multiplier, TensorBuilder lastDecay,
+      TensorBuilder lastCumulativeDecay, TensorBuilder averageSum, double decay,
+      double cumulativeDecay) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void flushLazy(TensorBuilder lastDecay, TensorBuilder lastCumulativeDecay,
+      TensorBuilder averageSum, double decay, double cumulativeDecay) {
+    throw new UnsupportedOperationException();
+  }
   
   @Override
   public void incrementOuterProductWithMultiplier(Tensor leftTensor, Tensor rightTensor,
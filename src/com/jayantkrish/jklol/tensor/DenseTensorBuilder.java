@@ -100,6 +100,11 @@ public class DenseTensorBuilder extends DenseTensorBase implements TensorBuilder
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * If {@code other} is sparse, only its nonzero elements are accessed.
+   */
   @Override
   public void incrementSquare(TensorBase other, double multiplier) {
     if (other instanceof DenseTensorBase) {
@@ -119,13 +124,29 @@ public class DenseTensorBuilder extends DenseTensorBase implements TensorBuilder
       double otherVal = 0;
       for (int i = 0; i < length; i++) {
         otherVal = otherTensorValues[i];
-        values[i] += otherVal * otherVal * square;
+        if (otherVal != 0.0) {
+          values[i] += otherVal * otherVal * square;
+        }
       }
     } else {
-      throw new UnsupportedOperationException();
+      Preconditions.checkArgument(Arrays.equals(other.getDimensionNumbers(), getDimensionNumbers()));
+      double square = multiplier * multiplier;
+      int otherSize = other.size();
+      for (int i = 0; i < otherSize; i++) {
+        double otherVal = other.getByIndex(i);
+        if (otherVal != 0.0) {
+          values[keyNumToIndex(other.indexToKeyNum(i))] += otherVal * otherVal * square;
+        }
+      }
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * 
+   * {@code squareTensor} must be dense. If {@code other} is sparse, only its
+   * nonzero elements are accessed.
+   */
   @Override
   public void incrementAdagrad(TensorBase other, TensorBase squareTensor, double multiplier) {
     if (other instanceof DenseTensorBase && squareTensor instanceof DenseTensorBase) {
@@ -139,10 +160,23 @@ public class DenseTensorBuilder extends DenseTensorBase implements TensorBuilder
       for (int i = 0; i < length; i++) {
         otherVal = otherTensorValues[i];
         squareVal = squareTensorValues[i];
-        if (squareVal != 0.0) {
+        if (otherVal != 0.0 && squareVal != 0.0) {
           values[i] += otherVal * multiplier / Math.sqrt(squareVal);
         }
       }
+    } else if (squareTensor instanceof DenseTensorBase) {
+      Preconditions.checkArgument(Arrays.equals(other.getDimensionNumbers(), getDimensionNumbers()));
+      double[] squareTensorValues = ((DenseTensorBase) squareTensor).values;
+      Preconditions.checkArgument(squareTensorValues.length == values.length);
+      int otherSize = other.size();
+      for (int i = 0; i < otherSize; i++) {
+        double otherVal = other.getByIndex(i);
+        int index = keyNumToIndex(other.indexToKeyNum(i));
+        double squareVal = squareTensorValues[index];
+        if (otherVal != 0.0 && squareVal != 0.0) {
+          values[index] += otherVal * multiplier / Math.sqrt(squareVal);
+        }
+      }
     } else {
       throw new UnsupportedOperationException();
     }
@@ -167,6 +201,11 @@ public class DenseTensorBuilder extends DenseTensorBase implements TensorBuilder
     }
   }
   
+  /**
+   * {@inheritDoc}
+   * 
+   * {@code parameters} must be dense, but {@code gradient} may be sparse.
+   */
   @Override
   public void incrementSquareAdagrad(TensorBase gradient, TensorBase parameters, double multiplier) {
     if (gradient instanceof DenseTensorBase && parameters instanceof DenseTensorBase) {
@@ -182,6 +221,111 @@ public class DenseTensorBuilder extends DenseTensorBase implements TensorBuilder
         val = gradientTensorValues[i] + (multiplier * parameterTensorValues[i]);
         values[i] += val * val;
       }
+    } else if (parameters instanceof DenseTensorBase) {
+      Preconditions.checkArgument(Arrays.equals(gradient.getDimensionNumbers(), getDimensionNumbers()));
+      double[] parameterTensorValues = ((DenseTensorBase) parameters).values;
+      Preconditions.checkArgument(parameterTensorValues.length == values.length);
+
+      // Square the regularization term for every parameter, then add the
+      // cross and square terms of the nonzero gradient entries:
+      // (g + mp)^2 = (mp)^2 + g * (g + 2mp).
+      int length = values.length;
+      double val = 0;
+      for (int i = 0; i < length; i++) {
+        val = multiplier * parameterTensorValues[i];
+        values[i] += val * val;
+      }
+      int gradientSize = gradient.size();
+      for (int i = 0; i < gradientSize; i++) {
+        double gradientVal = gradient.getByIndex(i);
+        int index = keyNumToIndex(gradient.indexToKeyNum(i));
+        values[index] += gradientVal * (gradientVal + 2 * multiplier * parameterTensorValues[index]);
+      }
+    } else {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * This implementation only reads every element of {@code gradient} if it
+   * is dense; if {@code gradient} is sparse, only its nonzero elements are
+   * accessed.
+   */
+  @Override
+  public void incrementLazy(TensorBase gradient, double multiplier, TensorBuilder lastDecay,
+      TensorBuilder lastCumulativeDecay, TensorBuilder averageSum, double decay,
+      double cumulativeDecay) {
+    Preconditions.checkArgument(Arrays.equals(gradient.getDimensionNumbers(), getDimensionNumbers()));
+    Preconditions.checkArgument(decay != 0.0, "Lazy updates require a nonzero decay.");
+    double[] lastDecayValues = getLazyStateValues(lastDecay);
+    double[] lastCumulativeValues = getLazyStateValues(lastCumulativeDecay);
+    double[] averageValues = averageSum != null ? getLazyStateValues(averageSum) : null;
+
+    if (gradient instanceof DenseTensorBase) {
+      double[] gradientValues = ((DenseTensorBase) gradient).values;
+      Preconditions.checkArgument(gradientValues.length == values.length);
+      int length = gradientValues.length;
+      for (int i = 0; i < length; i++) {
+        if (gradientValues[i] != 0.0) {
+          lazyUpdate(i, gradientValues[i] * multiplier, lastDecayValues, lastCumulativeValues,
+              averageValues, decay, cumulativeDecay);
+        }
+      }
+    } else {
+      int numEntries = gradient.size();
+      for (int i = 0; i < numEntries; i++) {
+        double value = gradient.getByIndex(i);
+        if (value != 0.0) {
+          lazyUpdate((int) gradient.indexToKeyNum(i), value * multiplier, lastDecayValues,
+              lastCumulativeValues, averageValues, decay, cumulativeDecay);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void flushLazy(TensorBuilder lastDecay, TensorBuilder lastCumulativeDecay,
+      TensorBuilder averageSum, double decay, double cumulativeDecay) {
+    Preconditions.checkArgument(decay != 0.0, "Lazy updates require a nonzero decay.");
+    double[] lastDecayValues = getLazyStateValues(lastDecay);
+    double[] lastCumulativeValues = getLazyStateValues(lastCumulativeDecay);
+    double[] averageValues = averageSum != null ? getLazyStateValues(averageSum) : null;
+
+    int length = values.length;
+    for (int i = 0; i < length; i++) {
+      lazyUpdate(i, 0.0, lastDecayValues, lastCumulativeValues, averageValues,
+          decay, cumulativeDecay);
+      lastDecayValues[i] = 1.0;
+      lastCumulativeValues[i] = 0.0;
+    }
+  }
+
+  /**
+   * Brings the {@code index}th element up to date with the decay and
+   * averaging since its last update, then increments it by
+   * {@code increment}.
+   */
+  private final void lazyUpdate(int index, double increment, double[] lastDecayValues,
+      double[] lastCumulativeValues, double[] averageValues, double decay,
+      double cumulativeDecay) {
+    // The element's value, divided by the total decay at the time of
+    // its last update.
+    double undecayedValue = values[index] / lastDecayValues[index];
+    if (averageValues != null) {
+      averageValues[index] += undecayedValue * (cumulativeDecay - lastCumulativeValues[index]);
+    }
+    values[index] = (undecayedValue * decay) + increment;
+    lastDecayValues[index] = decay;
+    lastCumulativeValues[index] = cumulativeDecay;
+  }
+
+  private double[] getLazyStateValues(TensorBuilder state) {
+    if (state instanceof DenseTensorBase) {
+      double[] stateValues = ((DenseTensorBase) state).values;
+      Preconditions.checkArgument(stateValues.length == values.length);
+      return stateValues;
     } else {
       throw new UnsupportedOperationException();
     }
@@ -200,8 +344,15 @@ public class DenseTensorBuilder extends DenseTensorBase implements TensorBuilder
       double[] otherTensorValues = ((DenseTensorBase) other).values;
       Preconditions.checkArgument(otherTensorValues.length == values.length);
       int length = values.length;
+      double otherVal = 0;
       for (int i = 0; i < length; i++) {
-        values[i] += otherTensorValues[i] * multiplier;
+        otherVal = otherTensorValues[i];
+        // Skipping zeros avoids writing to elements that are not
+        // updated, which matters when other threads may be
+        // concurrently updating this tensor.
+        if (otherVal != 0.0) {
+          values[i] += otherVal * multiplier;
+        }
       }
     } else {
       int otherSize = other.size();
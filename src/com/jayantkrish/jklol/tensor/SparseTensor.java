@@ -1274,17 +1274,31 @@ public class SparseTensor extends AbstractTensor implements Serializable {
     if (tensor instanceof SparseTensor) {
       return (SparseTensor) tensor;
     } else {
-      SparseTensorBuilder builder = new SparseTensorBuilder(tensor.getDimensionNumbers(),
-          tensor.getDimensionSizes());
       double[] otherValues = tensor.getValues();
-      // TODO: this could be made a lot faster using
-      // fromUnorderedKeyValues
+      int numNonzero = 0;
       for (int i = 0; i < otherValues.length; i++) {
         if (otherValues[i] != 0.0) {
-          builder.putByKeyNum(tensor.indexToKeyNum(i), otherValues[i]);
+          numNonzero++;
         }
       }
-      return builder.buildNoCopy();
+
+      // The key numbers of tensor's entries are increasing in their
+      // index, so the arrays can be filled in directly.
+      long[] keyNums = new long[numNonzero];
+      double[] values = new double[numNonzero];
+      int numFilled = 0;
+      for (int i = 0; i < otherValues.length; i++) {
+        if (otherValues[i] != 0.0) {
+          keyNums[numFilled] = tensor.indexToKeyNum(i);
+          values[numFilled] = otherValues[i];
+          numFilled++;
+        }
+      }
+
+      int[] dimensionNums = tensor.getDimensionNumbers();
+      int[] dimensionSizes = tensor.getDimensionSizes();
+      return new SparseTensor(ArrayUtils.copyOf(dimensionNums, dimensionNums.length),
+          ArrayUtils.copyOf(dimensionSizes, dimensionSizes.length), keyNums, values);
     }
   }
 
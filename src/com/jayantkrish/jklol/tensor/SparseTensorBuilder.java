@@ -251,6 +251,19 @@ public class SparseTensorBuilder extends AbstractTensorBase implements TensorBui
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void incrementLazy(TensorBase gradient, double multiplier, TensorBuilder lastDecay,
+      TensorBuilder lastCumulativeDecay, TensorBuilder averageSum, double decay,
+      double cumulativeDecay) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void flushLazy(TensorBuilder lastDecay, TensorBuilder lastCumulativeDecay,
+      TensorBuilder averageSum, double decay, double cumulativeDecay) {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void incrementOuterProductWithMultiplier(Tensor leftTensor, Tensor rightTensor,
       double multiplier) {
@@ -281,6 +294,8 @@ public class SparseTensorBuilder extends AbstractTensorBase implements TensorBui
   public void multiply(double amount) {
     if (amount == 0.0) {
       outcomes.clear();
+      outcomeIndexes.clear();
+      nextIndex = 0;
       return;
     }
 
@@ -44,6 +44,23 @@ public interface TensorBuilder extends TensorBase, Serializable {
   
   void incrementSquareAdagrad(TensorBase gradient, TensorBase parameters, double multiplier);
 
+  /**
+   * Lazy L2-regularized gradient update. See
+   * {@link com.jayantkrish.jklol.models.parametric.SufficientStatistics#incrementLazy}.
+   * {@code averageSum} may be {@code null}.
+   */
+  void incrementLazy(TensorBase gradient, double multiplier, TensorBuilder lastDecay,
+      TensorBuilder lastCumulativeDecay, TensorBuilder averageSum, double decay,
+      double cumulativeDecay);
+
+  /**
+   * Applies all pending lazy updates. See
+   * {@link com.jayantkrish.jklol.models.parametric.SufficientStatistics#flushLazy}.
+   * {@code averageSum} may be {@code null}.
+   */
+  void flushLazy(TensorBuilder lastDecay, TensorBuilder lastCumulativeDecay,
+      TensorBuilder averageSum, double decay, double cumulativeDecay);
+
   void incrementEntry(double amount, int... key);
   
   void incrementEntryByKeyNum(double amount, long keyNum);
@@ -6,6 +6,7 @@ import java.util.Set;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.jayantkrish.jklol.inference.InferenceProfile;
 
 /**
  * Implementation of the timer methods from {@link LogFunction}.
@@ -43,16 +44,31 @@ public abstract class AbstractLogFunction implements LogFunction {
     long end = System.nanoTime();
     long start = activeTimers.get(threadId).remove(timerName);
     
-    if (!timerSumTimes.containsKey(timerName)) {
-      timerSumTimes.put(timerName, 0L);
+    addTimerInvocation(timerName, end - start);
+    return (end - start) / TIME_DENOMINATOR;
+  }
+
+  /**
+   * Records the time of each profiled operation in a timer named
+   * {@code "inference_profile/"} followed by the operation's type, so
+   * that timings aggregate across factor graphs.
+   */
+  @Override
+  public void logInferenceProfile(InferenceProfile profile) {
+    for (InferenceProfile.Entry entry : profile.getEntries()) {
+      addTimerInvocation("inference_profile/" + entry.getOperation().getName(), entry.getElapsedNanos());
     }
-    if (!timerInvocations.containsKey(timerName)) {
-      timerInvocations.put(timerName, 0L);
+  }
+
+  private void addTimerInvocation(String timerName, long elapsedNanos) {
+    synchronized (timerSumTimes) {
+      if (!timerSumTimes.containsKey(timerName)) {
+        timerSumTimes.put(timerName, 0L);
+        timerInvocations.put(timerName, 0L);
+      }
+      timerSumTimes.put(timerName, timerSumTimes.get(timerName) + elapsedNanos);
+      timerInvocations.put(timerName, timerInvocations.get(timerName) + 1L);
     }
-    timerSumTimes.put(timerName, timerSumTimes.get(timerName) + (end - start));
-    timerInvocations.put(timerName, timerInvocations.get(timerName) + 1L);
-    
-    return (end - start) / TIME_DENOMINATOR;
   }
 
   protected Set<String> getAllTimers() {
@@ -0,0 +1,25 @@
+package com.jayantkrish.jklol.training;
+
+/**
+ * A {@link GradientOracle} whose examples require different amounts
+ * of computation. Trainers use the oracle's estimates to balance
+ * examples across threads (see {@link OracleCostEstimator}).
+ * Implementing this interface is optional; the examples of other
+ * oracles are assumed to have equal costs.
+ *
+ * @param <M> model type
+ * @param <E> training example type
+ */
+public interface CostEstimatingOracle<M, E> extends GradientOracle<M, E> {
+
+  /**
+   * Estimates the relative amount of computation required to
+   * {@link #accumulateGradient} for {@code example}, for example, the
+   * cube of a sentence's length for a parser (see
+   * {@link com.jayantkrish.jklol.parallel.Mapper#estimateCost}).
+   *
+   * @param example
+   * @return
+   */
+  public double estimateCost(E example);
+}
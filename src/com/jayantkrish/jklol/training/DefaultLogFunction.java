@@ -1,19 +1,28 @@
 package com.jayantkrish.jklol.training;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jayantkrish.jklol.models.FactorGraph;
 import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
 import com.jayantkrish.jklol.util.Assignment;
-import com.jayantkrish.jklol.util.IoUtils;
 
 /**
  * A simple default logging function.
@@ -27,6 +36,26 @@ public class DefaultLogFunction extends AbstractLogFunction {
 
   private final int modelSerializationInterval;
   private final String modelSerializationDir;
+  // Maximum number of parameter checkpoints to keep on disk, or -1 to
+  // keep all checkpoints.
+  private final int maxCheckpoints;
+
+  // Parameter checkpoints are written in the background. At most one
+  // checkpoint is written at a time, which bounds the memory used by
+  // parameter snapshots. Guarded by checkpointLock, which is separate
+  // from this object's lock because the checkpoint thread uses timers.
+  private final Object checkpointLock = new Object();
+  private ExecutorService checkpointExecutor;
+  private Future<?> pendingCheckpoint;
+  // Checkpoint files written so far, oldest first. Only accessed
+  // by the checkpoint thread.
+  private final LinkedList<File> checkpointFiles;
+
+  // Log functions which have written checkpoints, whose pending
+  // checkpoints are finished by a shutdown hook.
+  private static final Set<DefaultLogFunction> checkpointingLogs =
+      Collections.newSetFromMap(new WeakHashMap<DefaultLogFunction, Boolean>());
+  private static boolean shutdownHookAdded = false;
 
   // Print asynchronously for speed.
   private final ExecutorService printExecutor;
@@ -37,10 +66,12 @@ public class DefaultLogFunction extends AbstractLogFunction {
     this.showExamples = true;
     this.printExecutor = Executors.newSingleThreadExecutor();
     
-    this.statistics = Maps.newHashMap();
+    this.statistics = Collections.synchronizedMap(Maps.<String, Double>newHashMap());
     
     this.modelSerializationInterval = -1;
     this.modelSerializationDir = null;
+    this.maxCheckpoints = -1;
+    this.checkpointFiles = Lists.newLinkedList();
   }
 
   public DefaultLogFunction(int logInterval, boolean showExamples) { 
@@ -49,24 +80,49 @@ public class DefaultLogFunction extends AbstractLogFunction {
     this.showExamples = showExamples;
     this.printExecutor = Executors.newSingleThreadExecutor();
     
-    this.statistics = Maps.newHashMap();
+    this.statistics = Collections.synchronizedMap(Maps.<String, Double>newHashMap());
     
     this.modelSerializationInterval = -1;
     this.modelSerializationDir = null;
+    this.maxCheckpoints = -1;
+    this.checkpointFiles = Lists.newLinkedList();
   }
 
   public DefaultLogFunction(int logInterval, boolean showExamples, int modelSerializationInterval,
       String modelSerializationDir) {
+    this(logInterval, showExamples, modelSerializationInterval, modelSerializationDir, -1);
+  }
+
+  /**
+   * Creates a log function which checkpoints the parameters to
+   * {@code modelSerializationDir} every
+   * {@code modelSerializationInterval} iterations. Checkpoints are
+   * written by a background thread from a copy of the parameters, and
+   * each file only appears once it is completely written. If
+   * {@code maxCheckpoints} is positive, only the most recent
+   * {@code maxCheckpoints} checkpoints are kept on disk.
+   *
+   * @param logInterval
+   * @param showExamples
+   * @param modelSerializationInterval
+   * @param modelSerializationDir
+   * @param maxCheckpoints
+   */
+  public DefaultLogFunction(int logInterval, boolean showExamples, int modelSerializationInterval,
+      String modelSerializationDir, int maxCheckpoints) {
     super();
     this.logInterval = logInterval;
     this.showExamples = showExamples;
     this.printExecutor = Executors.newSingleThreadExecutor();
 
-    this.statistics = Maps.newHashMap();
+    this.statistics = Collections.synchronizedMap(Maps.<String, Double>newHashMap());
 
     Preconditions.checkArgument(modelSerializationInterval <= 0 || modelSerializationDir != null);
     this.modelSerializationInterval = modelSerializationInterval;
     this.modelSerializationDir = modelSerializationDir;
+    Preconditions.checkArgument(maxCheckpoints == -1 || maxCheckpoints > 0);
+    this.maxCheckpoints = maxCheckpoints;
+    this.checkpointFiles = Lists.newLinkedList();
   }
 
   protected void print(String toPrint) {
@@ -102,12 +158,84 @@ public class DefaultLogFunction extends AbstractLogFunction {
 	@Override
 	public void logParameters(long iteration, SufficientStatistics parameters) {
 	  if (modelSerializationInterval > 0 && iteration % modelSerializationInterval == 0) {
-	    String parametersFilename = modelSerializationDir + File.separator + "parameters_"
-	        + iteration + ".ser";
-	    IoUtils.serializeObjectToFile(parameters, parametersFilename);
+	    File parametersFile = new File(modelSerializationDir, "parameters_" + iteration + ".ser");
+	    // Wait for the previous checkpoint, then snapshot the parameters
+	    // so that training can continue while they are written.
+	    synchronized (checkpointLock) {
+	      waitForCheckpoints();
+	      startTimer("checkpoint_snapshot");
+	      SufficientStatistics snapshot = parameters.duplicate();
+	      stopTimer("checkpoint_snapshot");
+	      pendingCheckpoint = getCheckpointExecutor().submit(
+	          new CheckpointTask(snapshot, parametersFile));
+	    }
 	  }
 	}
 
+  /**
+   * Blocks until all parameter checkpoints have been written to
+   * disk. Throws an exception if writing a checkpoint failed.
+   */
+  public void waitForCheckpoints() {
+    synchronized (checkpointLock) {
+      if (pendingCheckpoint != null) {
+        try {
+          pendingCheckpoint.get();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          throw new RuntimeException("Failed to write parameter checkpoint", e.getCause());
+        } finally {
+          pendingCheckpoint = null;
+        }
+      }
+    }
+  }
+
+  private ExecutorService getCheckpointExecutor() {
+    // Only called while holding checkpointLock.
+    if (checkpointExecutor == null) {
+      checkpointExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("checkpoint-%d").build());
+      // The checkpoint thread does not keep the JVM alive, so finish
+      // any pending checkpoint on exit.
+      registerForShutdown(this);
+    }
+    return checkpointExecutor;
+  }
+
+  /**
+   * Ensures that {@code log}'s pending checkpoint is written before
+   * the JVM exits. A single shutdown hook is shared by every log
+   * function, and log functions are only weakly referenced by it.
+   */
+  private static void registerForShutdown(DefaultLogFunction log) {
+    synchronized (checkpointingLogs) {
+      if (!shutdownHookAdded) {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+          @Override
+          public void run() {
+            List<DefaultLogFunction> logs = null;
+            synchronized (checkpointingLogs) {
+              logs = Lists.newArrayList(checkpointingLogs);
+            }
+            for (DefaultLogFunction log : logs) {
+              // A failed checkpoint should not prevent the others
+              // from being written.
+              try {
+                log.waitForCheckpoints();
+              } catch (RuntimeException e) {
+                e.printStackTrace();
+              }
+            }
+          }
+        });
+        shutdownHookAdded = true;
+      }
+      checkpointingLogs.add(log);
+    }
+  }
+
 	@Override
 	public void notifyIterationStart(long iteration) {
 	  if (iteration % logInterval == 0) {
@@ -150,6 +278,51 @@ public class DefaultLogFunction extends AbstractLogFunction {
     }
   }
   
+  /**
+   * Writes a parameter checkpoint to a temporary file, renames it to
+   * its final name, then deletes old checkpoints.
+   */
+  private class CheckpointTask implements Runnable {
+    private final SufficientStatistics parameters;
+    private final File file;
+
+    public CheckpointTask(SufficientStatistics parameters, File file) {
+      this.parameters = parameters;
+      this.file = file;
+    }
+
+    @Override
+    public void run() {
+      File tempFile = new File(file.getPath() + ".tmp");
+      startTimer("checkpoint_write");
+      try {
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+            new FileOutputStream(tempFile)));
+        try {
+          out.writeObject(parameters);
+        } finally {
+          out.close();
+        }
+
+        // Readers never observe a partially-written checkpoint.
+        if (!tempFile.renameTo(file)) {
+          throw new RuntimeException("Could not rename " + tempFile + " to " + file);
+        }
+      } catch (IOException e) {
+        tempFile.delete();
+        throw new RuntimeException(e);
+      } finally {
+        stopTimer("checkpoint_write");
+      }
+
+      checkpointFiles.remove(file);
+      checkpointFiles.addLast(file);
+      while (maxCheckpoints > 0 && checkpointFiles.size() > maxCheckpoints) {
+        checkpointFiles.removeFirst().delete();
+      }
+    }
+  }
+
   private static class PrintTask implements Runnable {
 
     private final String toPrint;
@@ -56,6 +56,7 @@ public class ExpectationMaximization {
    * @param <O> expectation (output) type
    */
   private static class ExpectationMapper<M, E, O> extends Mapper<E, O> {
+    private static final long serialVersionUID = 1L;
 
     private final M model;
     private final SufficientStatistics modelParameters;
@@ -1,5 +1,7 @@
 package com.jayantkrish.jklol.training;
 
+import java.io.Serializable;
+
 import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
 
 /**
@@ -16,11 +18,16 @@ import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
  *
  * {@code GradientOracle}s always represent maximization problems. Optimization steps are taken in
  * the direction of computed gradients.
+ * <p>
+ *
+ * Oracles are serialized to compute gradients on other machines (see
+ * {@link com.jayantkrish.jklol.parallel.SocketMapReduceExecutor}), along
+ * with their instantiated models and training examples.
  *
  * @param <M> model type
  * @param <E> training example type
  */
-public interface GradientOracle<M, E> {
+public interface GradientOracle<M, E> extends Serializable {
 
   /**
    * Returns the all-zero gradient vector.
@@ -7,29 +7,65 @@ import com.jayantkrish.jklol.parallel.Reducer;
 
 /**
  * Reducer for accumulating gradients from multiple examples.
+ * <p>
+ * If constructed with a {@link ThreadGradientAccumulator}, the
+ * gradients of each batch are accumulated into per-thread buffers
+ * instead of separately allocated gradients. In this case, the
+ * gradient of the result of map-reduce is incomplete: the caller must
+ * add the buffers to it using {@link ThreadGradientAccumulator#collect}.
+ * The objective value and number of search errors are always complete.
+ * <p>
+ * When this reducer is serialized to run on another machine, the
+ * model, parameters and oracle are sent along with it. The per-thread
+ * buffers and log are not, as they belong to this JVM: the deserialized
+ * reducer allocates a gradient for each batch and discards timing
+ * information.
  * 
  * @author jayantk
  */
 public class GradientReducer<M, E> implements Reducer<E, GradientEvaluation> {
+  private static final long serialVersionUID = 1L;
 
   private final M instantiatedModel;
   private final SufficientStatistics instantiatedModelParameters;
   private final GradientOracle<M, ? super E> oracle;
+  // May be null, in which case each batch allocates its own gradient.
+  private final transient ThreadGradientAccumulator threadGradients;
 
-  private final LogFunction log;
+  private final transient LogFunction log;
 
   public GradientReducer(M instantiatedModel, SufficientStatistics instantiatedModelParameters,
       GradientOracle<M, ? super E> oracle, LogFunction log) {
+    this(instantiatedModel, instantiatedModelParameters, oracle, null, log);
+  }
+
+  public GradientReducer(M instantiatedModel, SufficientStatistics instantiatedModelParameters,
+      GradientOracle<M, ? super E> oracle, ThreadGradientAccumulator threadGradients,
+      LogFunction log) {
     this.instantiatedModel = Preconditions.checkNotNull(instantiatedModel);
     this.instantiatedModelParameters = Preconditions.checkNotNull(instantiatedModelParameters);
     this.oracle = Preconditions.checkNotNull(oracle);
+    this.threadGradients = threadGradients;
     this.log = log;
   }
 
+  /**
+   * Replaces the transient fields of a deserialized reducer.
+   */
+  private Object readResolve() {
+    return new GradientReducer<M, E>(instantiatedModel, instantiatedModelParameters, oracle,
+        null, new NullLogFunction());
+  }
+
   @Override
   public GradientEvaluation getInitialValue() {
     log.startTimer("mr_gradient_initialize");
-    SufficientStatistics gradient = oracle.initializeGradient();
+    SufficientStatistics gradient = null;
+    if (threadGradients != null) {
+      gradient = threadGradients.getThreadGradient();
+    } else {
+      gradient = oracle.initializeGradient();
+    }
     log.stopTimer("mr_gradient_initialize");
     return new GradientEvaluation(gradient, 0.0, 0);
   }
@@ -54,7 +90,13 @@ public class GradientReducer<M, E> implements Reducer<E, GradientEvaluation> {
 
   @Override
   public GradientEvaluation combine(GradientEvaluation other, GradientEvaluation accumulated) {
-    accumulated.increment(other);
+    if (threadGradients != null && threadGradients.isThreadGradient(other.getGradient())) {
+      // The gradient is added to accumulated by ThreadGradientAccumulator.collect.
+      accumulated.incrementObjectiveValue(other.getObjectiveValue());
+      accumulated.incrementSearchErrors(other.getSearchErrors());
+    } else {
+      accumulated.increment(other);
+    }
     return accumulated;
   }
 }
\ No newline at end of file
@@ -0,0 +1,255 @@
+package com.jayantkrish.jklol.training;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jayantkrish.jklol.inference.MarginalCalculator.ZeroProbabilityError;
+import com.jayantkrish.jklol.models.parametric.ListSufficientStatistics;
+import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
+import com.jayantkrish.jklol.models.parametric.TensorSufficientStatistics;
+import com.jayantkrish.jklol.training.StochasticGradientTrainer.AdagradL2Regularizer;
+import com.jayantkrish.jklol.training.StochasticGradientTrainer.Regularizer;
+import com.jayantkrish.jklol.training.StochasticGradientTrainer.StochasticL2Regularizer;
+
+/**
+ * Asynchronous, lock-free stochastic gradient descent. Each worker
+ * thread repeatedly takes a minibatch of examples, computes its
+ * gradient at the current parameters, and applies the update directly
+ * to the shared parameter vector. Unlike {@link StochasticGradientTrainer},
+ * threads never wait for each other, so updates from different threads
+ * may overlap or be lost. This tradeoff works well when gradients are
+ * sparse, because concurrent updates rarely touch the same parameters.
+ * See:
+ * <p>
+ * Hogwild!: A Lock-Free Approach to Parallelizing Stochastic Gradient
+ * Descent. <br/>
+ * Feng Niu, Benjamin Recht, Christopher Re and Stephen J. Wright.
+ * <p>
+ * Updates are applied using any {@link Regularizer}, optionally with
+ * the adagrad per-parameter step sizes. Note that regularizers which
+ * touch every parameter (e.g., {@link StochasticL2Regularizer}
+ * with a regularization frequency of 1) create contention between
+ * threads; a low regularization frequency is preferable.
+ * <p>
+ * Lock-free updates are only safe for parameters whose storage never
+ * changes during training. Hence, the parameters are converted to
+ * dense tensors before training, and parameters that cannot be
+ * (e.g., {@code CvsmSufficientStatistics}, which instantiates its
+ * statistics on demand) are rejected. This optimizer does not
+ * support parameter averaging.
+ *
+ * @author jayantk
+ */
+public class HogwildSgdOptimizer implements GradientOptimizer {
+
+  private final long numIterations;
+  private final int batchSize;
+  private final int numThreads;
+
+  private final double stepSize;
+  private final boolean decayStepSize;
+  private final boolean adaGrad;
+  private final Regularizer regularizer;
+
+  private final LogFunction log;
+
+  /**
+   * Creates an optimizer which performs a total of
+   * {@code numIterations} gradient updates using {@code numThreads}
+   * threads. Each update is computed from {@code batchSize} examples.
+   * If {@code adaGrad} is {@code true}, {@code regularizer} should be
+   * an {@link AdagradL2Regularizer}.
+   *
+   * @param numIterations
+   * @param batchSize
+   * @param numThreads
+   * @param stepSize
+   * @param decayStepSize
+   * @param adaGrad
+   * @param regularizer
+   * @param log
+   */
+  public HogwildSgdOptimizer(long numIterations, int batchSize, int numThreads,
+      double stepSize, boolean decayStepSize, boolean adaGrad, Regularizer regularizer,
+      LogFunction log) {
+    Preconditions.checkArgument(numIterations >= 0);
+    Preconditions.checkArgument(batchSize > 0);
+    Preconditions.checkArgument(numThreads > 0);
+    this.numIterations = numIterations;
+    this.batchSize = batchSize;
+    this.numThreads = numThreads;
+
+    this.stepSize = stepSize;
+    this.decayStepSize = decayStepSize;
+    this.adaGrad = adaGrad;
+    this.regularizer = Preconditions.checkNotNull(regularizer);
+
+    this.log = (log != null) ? log : new NullLogFunction();
+  }
+
+  public static HogwildSgdOptimizer createWithStochasticL2Regularization(long numIterations,
+      int batchSize, int numThreads, double stepSize, boolean decayStepSize, double l2Penalty,
+      double regularizationFrequency, LogFunction log) {
+    return new HogwildSgdOptimizer(numIterations, batchSize, numThreads, stepSize, decayStepSize,
+        false, new StochasticL2Regularizer(l2Penalty, regularizationFrequency), log);
+  }
+
+  public static HogwildSgdOptimizer createAdagrad(long numIterations, int batchSize,
+      int numThreads, double stepSize, boolean decayStepSize, double l2Penalty,
+      double regularizationFrequency, LogFunction log) {
+    return new HogwildSgdOptimizer(numIterations, batchSize, numThreads, stepSize, decayStepSize,
+        true, new AdagradL2Regularizer(l2Penalty, regularizationFrequency), log);
+  }
+
+  @Override
+  public <M, E, T extends E> SufficientStatistics train(GradientOracle<M, E> oracle,
+      SufficientStatistics initialParameters, Iterable<T> trainingData) {
+    List<T> trainingDataList = Lists.newArrayList(trainingData);
+    Preconditions.checkArgument(trainingDataList.size() > 0, "No training data.");
+
+    initialParameters.makeDense();
+    checkDense(initialParameters);
+    SufficientStatistics gradientSumSquares = null;
+    if (adaGrad) {
+      gradientSumSquares = oracle.initializeGradient();
+      gradientSumSquares.makeDense();
+      checkDense(gradientSumSquares);
+    }
+
+    // Shared counters for the number of updates started and the next
+    // example to process. Examples are processed in order, cycling
+    // through the training data.
+    AtomicLong nextIteration = new AtomicLong(0);
+    AtomicLong nextExample = new AtomicLong(0);
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("hogwild-%d").build());
+    List<Future<Void>> futures = Lists.newArrayList();
+    try {
+      for (int i = 0; i < numThreads; i++) {
+        futures.add(executor.submit(new HogwildWorker<M, E, T>(oracle, initialParameters,
+            gradientSumSquares, trainingDataList, nextIteration, nextExample)));
+      }
+
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return initialParameters;
+  }
+
+  /**
+   * Throws an exception unless {@code statistics} consists entirely
+   * of dense tensors, which can be safely updated by multiple threads
+   * without locking.
+   *
+   * @param statistics
+   */
+  private static void checkDense(SufficientStatistics statistics) {
+    if (statistics instanceof ListSufficientStatistics) {
+      for (SufficientStatistics statistic : statistics.coerceToList().getStatistics()) {
+        checkDense(statistic);
+      }
+    } else {
+      Preconditions.checkArgument(statistics instanceof TensorSufficientStatistics
+          && ((TensorSufficientStatistics) statistics).isDense(),
+          "HogwildSgdOptimizer requires dense tensor parameters, which cannot be changed to "
+          + "a different representation by concurrent updates. Got: %s",
+          statistics.getClass().getSimpleName());
+    }
+  }
+
+  /**
+   * Repeatedly computes minibatch gradients and applies them to the
+   * shared parameters, until the total number of iterations has been
+   * performed.
+   */
+  private class HogwildWorker<M, E, T extends E> implements Callable<Void> {
+    private final GradientOracle<M, E> oracle;
+    private final SufficientStatistics parameters;
+    private final SufficientStatistics gradientSumSquares;
+    private final List<T> trainingData;
+
+    private final AtomicLong nextIteration;
+    private final AtomicLong nextExample;
+
+    public HogwildWorker(GradientOracle<M, E> oracle, SufficientStatistics parameters,
+        SufficientStatistics gradientSumSquares, List<T> trainingData, AtomicLong nextIteration,
+        AtomicLong nextExample) {
+      this.oracle = oracle;
+      this.parameters = parameters;
+      this.gradientSumSquares = gradientSumSquares;
+      this.trainingData = trainingData;
+      this.nextIteration = nextIteration;
+      this.nextExample = nextExample;
+    }
+
+    @Override
+    public Void call() {
+      // Each thread accumulates its gradient in a private sparse
+      // buffer, which is reused across iterations. Scaling, applying
+      // and zeroing out the buffer only touch its nonzero entries.
+      SufficientStatistics gradient = ThreadGradientAccumulator.initializeSparseGradient(oracle);
+      int numExamples = trainingData.size();
+
+      long i;
+      while ((i = nextIteration.getAndIncrement()) < numIterations) {
+        // Other threads continue to update the parameters while they
+        // are logged, so logged parameters may mix several iterations.
+        log.startTimer("hogwild/serialize_parameters");
+        log.logParameters(i, parameters);
+        log.stopTimer("hogwild/serialize_parameters");
+
+        log.startTimer("hogwild/instantiate_model");
+        M currentModel = oracle.instantiateModel(parameters);
+        log.stopTimer("hogwild/instantiate_model");
+
+        log.startTimer("hogwild/compute_gradient");
+        double objectiveValue = 0.0;
+        int searchErrors = 0;
+        for (int j = 0; j < batchSize; j++) {
+          T example = trainingData.get((int) (nextExample.getAndIncrement() % numExamples));
+          try {
+            objectiveValue += oracle.accumulateGradient(gradient, parameters, currentModel,
+                example, log);
+          } catch (ZeroProbabilityError e) {
+            searchErrors++;
+          }
+        }
+        if (batchSize > 1) {
+          gradient.multiply(1.0 / batchSize);
+        }
+        log.stopTimer("hogwild/compute_gradient");
+
+        log.startTimer("hogwild/parameter_update");
+        double currentStepSize = decayStepSize ? (stepSize / Math.sqrt(i + 2)) : stepSize;
+        regularizer.apply(gradient, parameters, gradientSumSquares, currentStepSize);
+        log.stopTimer("hogwild/parameter_update");
+
+        log.logStatistic(i, "search errors", searchErrors);
+        log.logStatistic(i, "objective value", objectiveValue / batchSize);
+
+        gradient.zeroOut();
+      }
+      return null;
+    }
+  }
+}
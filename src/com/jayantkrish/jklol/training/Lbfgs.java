@@ -1,12 +1,22 @@
 package com.jayantkrish.jklol.training;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
 import com.jayantkrish.jklol.parallel.MapReduceConfiguration;
 import com.jayantkrish.jklol.parallel.MapReduceExecutor;
+import com.jayantkrish.jklol.parallel.Mapper;
 import com.jayantkrish.jklol.parallel.Mappers;
 
 /**
@@ -27,6 +37,8 @@ public class Lbfgs implements GradientOptimizer {
   private final int maxIterations;
   private final int numVectorsInApproximation;
   private final double l2Regularization;
+  // Number of step sizes to evaluate concurrently during line search.
+  private final int lineSearchParallelism;
 
   private final LogFunction log;
 
@@ -38,11 +50,38 @@ public class Lbfgs implements GradientOptimizer {
 
   private static final double GRADIENT_CONVERGENCE_THRESHOLD = 1e-6;
 
+  // Training data that is not a collection is read in chunks of
+  // this many examples.
+  private static final int STREAMING_CHUNK_SIZE = 10000;
+
   public Lbfgs(int maxIterations, int numVectorsInApproximation,
       double l2Regularization, LogFunction log) {
+    this(maxIterations, numVectorsInApproximation, l2Regularization, 1, log);
+  }
+
+  /**
+   * Creates an L-BFGS optimizer whose line search evaluates
+   * {@code lineSearchParallelism} step sizes at once. Evaluating
+   * several step sizes concurrently reduces the latency of each
+   * iteration, at the cost of memory for the additional gradients and
+   * extra computation on step sizes that turn out to be unnecessary.
+   * The chosen step sizes are the same for any value of
+   * {@code lineSearchParallelism}.
+   *
+   * @param maxIterations
+   * @param numVectorsInApproximation
+   * @param l2Regularization
+   * @param lineSearchParallelism
+   * @param log
+   */
+  public Lbfgs(int maxIterations, int numVectorsInApproximation,
+      double l2Regularization, int lineSearchParallelism, LogFunction log) {
+    Preconditions.checkArgument(numVectorsInApproximation >= 0);
+    Preconditions.checkArgument(lineSearchParallelism > 0);
     this.maxIterations = maxIterations;
     this.numVectorsInApproximation = numVectorsInApproximation;
     this.l2Regularization = l2Regularization;
+    this.lineSearchParallelism = lineSearchParallelism;
 
     this.log = Preconditions.checkNotNull(log);
   }
@@ -59,6 +98,10 @@ public class Lbfgs implements GradientOptimizer {
     return l2Regularization;
   }
 
+  public int getLineSearchParallelism() {
+    return lineSearchParallelism;
+  }
+
   public LogFunction getLog() {
     return log;
   }
@@ -68,6 +111,11 @@ public class Lbfgs implements GradientOptimizer {
    * <p>
    * Throws {@link LbfgsConvergenceError} if a suitable step size 
    * cannot be found by backtracking line search.
+   * <p>
+   * {@code trainingData} is iterated over once per gradient
+   * evaluation. If it is not a {@code Collection}, it is streamed in
+   * fixed-size chunks rather than loaded into memory, so it may be
+   * larger than the available memory.
    * 
    * @param oracle
    * @param initialParameters
@@ -80,154 +128,247 @@ public class Lbfgs implements GradientOptimizer {
     SufficientStatistics currentParameters = initialParameters;
     SufficientStatistics previousParameters = null;
     SufficientStatistics previousGradient = null;
-    List<SufficientStatistics> pointDeltas = Lists.newArrayList();
-    List<SufficientStatistics> gradientDeltas = Lists.newArrayList();
-    List<Double> scalings = Lists.newArrayList();
+    SufficientStatistics direction = null;
+    // The inverse Hessian approximation is stored in ring buffers,
+    // where the i'th update is stored at index i % numVectorsInApproximation.
+    // Buffers are reused once they are no longer part of the
+    // approximation, avoiding allocating new vectors every iteration.
+    SufficientStatistics[] pointDeltas = new SufficientStatistics[numVectorsInApproximation];
+    SufficientStatistics[] gradientDeltas = new SufficientStatistics[numVectorsInApproximation];
+    double[] scalings = new double[numVectorsInApproximation];
 
     MapReduceExecutor executor = MapReduceConfiguration.getMapReduceExecutor();
-    List<T> dataList = Lists.newArrayList(trainingData);
+    // Concurrently-evaluated step sizes each need their own
+    // gradient buffers.
+    List<ThreadGradientAccumulator> threadGradients = Lists.newArrayList();
+    for (int i = 0; i < lineSearchParallelism; i++) {
+      threadGradients.add(new ThreadGradientAccumulator(oracle));
+    }
+    ExecutorService lineSearchExecutor = null;
+    if (lineSearchParallelism > 1) {
+      lineSearchExecutor = Executors.newFixedThreadPool(lineSearchParallelism,
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("lbfgs-line-search-%d").build());
+    }
+
+    // The gradient at currentParameters. The gradient at each accepted
+    // point is computed during the line search, so it is only computed
+    // separately for the initial parameters.
     GradientEvaluation gradientEvaluation = null;
-    for (int i = 0; i < maxIterations || maxIterations < 0; i++) {
-      log.notifyIterationStart(i);
-      log.logParameters(i, initialParameters);
+    try {
+      for (int i = 0; i < maxIterations || maxIterations < 0; i++) {
+        log.notifyIterationStart(i);
+        log.logParameters(i, initialParameters);
+
+        if (gradientEvaluation == null) {
+          gradientEvaluation = evaluateGradient(currentParameters, trainingData,
+              oracle, threadGradients.get(0), executor, log);
+        }
+        SufficientStatistics gradient = gradientEvaluation.getGradient();
 
-      if (gradientEvaluation == null) {
-        gradientEvaluation = evaluateGradient(currentParameters, dataList,
-            oracle, executor, log);
-      }
-      SufficientStatistics gradient = gradientEvaluation.getGradient();
-      
-      double gradientL2Norm = gradient.getL2Norm();
-      if (gradientL2Norm < GRADIENT_CONVERGENCE_THRESHOLD) {
-        return currentParameters;
-      }
+        double gradientL2Norm = gradient.getL2Norm();
+        if (gradientL2Norm < GRADIENT_CONVERGENCE_THRESHOLD) {
+          return currentParameters;
+        }
+
+        // We haven't converged yet. Figure out which direction to move in.
+        log.startTimer("compute_search_direction");
+        // Store the requisite data for approximating the inverse
+        // Hessian.
+        if (previousParameters != null && numVectorsInApproximation > 0) {
+          int index = (i - 1) % numVectorsInApproximation;
+          SufficientStatistics pointDelta = copyInto(pointDeltas[index], currentParameters);
+          pointDelta.increment(previousParameters, -1.0);
+          pointDeltas[index] = pointDelta;
+
+          // Note that gradient and previousGradient are actually the
+          // *negative* gradient (i.e., a descent direction).
+          SufficientStatistics gradientDelta = copyInto(gradientDeltas[index], previousGradient);
+          gradientDelta.increment(gradient, -1.0);
+          gradientDeltas[index] = gradientDelta;
+
+          scalings[index] = 1.0 / (pointDelta.innerProduct(gradientDelta));
+        }
 
-      // We haven't converged yet. Figure out which direction to move in.
-      log.startTimer("compute_search_direction");
-      // Store the requisite data for approximating the inverse
-      // Hessian.
-      if (previousParameters != null) {
-        SufficientStatistics pointDelta = currentParameters.duplicate();
-        pointDelta.increment(previousParameters, -1.0);
-        pointDeltas.add(pointDelta);
-
-        // Note that gradient and previousGradient are actually the
-        // *negative* gradient (i.e., a descent direction).
-        SufficientStatistics gradientDelta = previousGradient.duplicate();
-        gradientDelta.increment(gradient, -1.0);
-        gradientDeltas.add(gradientDelta);
-
-        scalings.add(1.0 / (pointDelta.innerProduct(gradientDelta)));
-        
-        int firstUnusedIndex = i - (numVectorsInApproximation + 1);
-        if (firstUnusedIndex >= 0) {
-          // Free up memory used by portions of the inverse Hessian
-          // approximation which are no longer used.
-          pointDeltas.set(firstUnusedIndex, null);
-          gradientDeltas.set(firstUnusedIndex, null);
+        previousParameters = copyInto(previousParameters, currentParameters);
+        previousGradient = copyInto(previousGradient, gradient);
+
+        // Compute this iteration's search direction.
+        int hessianVectorCount = (int) Math.min(numVectorsInApproximation, i);
+        direction = copyInto(direction, gradient);
+        direction.multiply(-1.0);
+        double[] weights = new double[hessianVectorCount];
+        for (int j = 0; j < hessianVectorCount; j++) {
+          int index = (i - (j + 1)) % numVectorsInApproximation;
+          double weight = scalings[index] * (pointDeltas[index].innerProduct(direction));
+          direction.increment(gradientDeltas[index], -1.0 * weight);
+          weights[hessianVectorCount - (j + 1)] = weight;
         }
+
+        // The assumption here is that the initial Hessian estimate is
+        // the identity. Multiply direction by the Hessian estimate here
+        // to pick another value.
+        for (int j = 0; j < hessianVectorCount; j++) {
+          int index = (i + j - hessianVectorCount) % numVectorsInApproximation;
+          double weight = scalings[index] * (gradientDeltas[index].innerProduct(direction));
+          direction.increment(pointDeltas[index], weights[j] - weight);
+        }
+        log.stopTimer("compute_search_direction");
+
+        log.logStatistic(i, "parameter l2 norm", previousParameters.getL2Norm());
+        log.logStatistic(i, "gradient l2 norm", gradientL2Norm);
+        log.logStatistic(i, "direction l2 norm", direction.getL2Norm());
+        log.logStatistic(i, "search errors", gradientEvaluation.getSearchErrors());
+        log.logStatistic(i, "objective value", gradientEvaluation.getObjectiveValue());
+
+        log.startTimer("compute_step_size");
+        // Perform a backtracking line search to find a step size.
+        // Up to lineSearchParallelism step sizes are evaluated
+        // concurrently, and the largest acceptable step is chosen. This
+        // selects the same step size as evaluating them sequentially.
+        double currentObjectiveValue = gradientEvaluation.getObjectiveValue();
+        double curInnerProd = gradient.innerProduct(direction);
+        double nextStepSize = 1.0;
+        double stepSize = 0.0;
+        SufficientStatistics nextParameters = null;
+        GradientEvaluation nextEvaluation = null;
+        while (nextParameters == null) {
+          List<Double> stepSizes = Lists.newArrayList();
+          List<SufficientStatistics> candidates = Lists.newArrayList();
+          for (int j = 0; j < lineSearchParallelism; j++) {
+            SufficientStatistics candidate = currentParameters.duplicate();
+            candidate.increment(direction, -1.0 * nextStepSize);
+            stepSizes.add(nextStepSize);
+            candidates.add(candidate);
+
+            nextStepSize = nextStepSize * LINE_SEARCH_CONSTANT;
+            if (stepSizes.get(j) <= MIN_STEP_SIZE) {
+              break;
+            }
+          }
+
+          List<GradientEvaluation> evaluations = evaluateGradients(candidates, trainingData, oracle,
+              threadGradients, executor, lineSearchExecutor, log);
+
+          for (int j = 0; j < candidates.size(); j++) {
+            // Check the Wolfe conditions to ensure sufficient descent.
+            stepSize = stepSizes.get(j);
+            double nextObjectiveValue = evaluations.get(j).getObjectiveValue();
+            double cond1Rhs = currentObjectiveValue - (WOLFE_CONDITION_C1 * stepSize * curInnerProd);
+            boolean accepted = !(nextObjectiveValue <= cond1Rhs || Double.isNaN(cond1Rhs)
+                || Double.isNaN(nextObjectiveValue));
+            // || Math.abs(nextInnerProd) > -1.0 * WOLFE_CONDITION_C2 * curInnerProd
+
+            if (accepted || stepSize <= MIN_STEP_SIZE) {
+              nextParameters = candidates.get(j);
+              nextEvaluation = evaluations.get(j);
+              break;
+            }
+          }
+        }
+        log.logStatistic(i, "step size", stepSize);
+        log.stopTimer("compute_step_size");
+
+        if (stepSize <= MIN_STEP_SIZE) {
+          throw new LbfgsConvergenceError("L-BFGS could not find a suitable step size.",
+              currentParameters, direction, stepSize, i);
+        }
+        currentParameters = nextParameters;
+        gradientEvaluation = nextEvaluation;
+
+        log.notifyIterationEnd(i);
       }
+    } finally {
+      if (lineSearchExecutor != null) {
+        lineSearchExecutor.shutdownNow();
+      }
+    }
+    return currentParameters;
+  }
+
+  /**
+   * Sets {@code target} to {@code source}, returning {@code target}.
+   * If {@code target} is {@code null}, returns a copy of
+   * {@code source}.
+   */
+  private static SufficientStatistics copyInto(SufficientStatistics target,
+      SufficientStatistics source) {
+    if (target == null) {
+      return source.duplicate();
+    }
+    target.zeroOut();
+    target.increment(source, 1.0);
+    return target;
+  }
+
+  /**
+   * Splits {@code data} into collections that can be processed by
+   * map-reduce. Collections are processed in a single chunk, while
+   * other iterables (e.g., a
+   * {@link com.jayantkrish.jklol.data.LineDataSource}) are streamed
+   * in chunks of {@code STREAMING_CHUNK_SIZE} examples, so that only
+   * one chunk is in memory at a time.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> Iterable<? extends Collection<T>> getChunks(Iterable<T> data) {
+    if (data instanceof Collection) {
+      return Collections.singletonList((Collection<T>) data);
+    }
+    return Iterables.partition(data, STREAMING_CHUNK_SIZE);
+  }
 
-      previousParameters = currentParameters.duplicate();
-      previousGradient = gradient.duplicate();
-
-      // Compute this iteration's search direction.
-      int hessianVectorCount = (int) Math.min(numVectorsInApproximation, i);
-      SufficientStatistics direction = gradient.duplicate();
-      direction.multiply(-1.0);
-      double[] weights = new double[hessianVectorCount];
-      for (int j = 0; j < hessianVectorCount; j++) {
-        int index = i - (j + 1);
-        double weight = scalings.get(index) * (pointDeltas.get(index).innerProduct(direction));
-        direction.increment(gradientDeltas.get(index), -1.0 * weight);
-        weights[hessianVectorCount - (j + 1)] = weight;
+  /**
+   * Evaluates the gradient at each of {@code candidates}. If
+   * {@code lineSearchExecutor} is non-null, the evaluations run
+   * concurrently.
+   */
+  private <M, E, T extends E> List<GradientEvaluation> evaluateGradients(
+      List<SufficientStatistics> candidates, final Iterable<T> data,
+      final GradientOracle<M, E> oracle, final List<ThreadGradientAccumulator> threadGradients,
+      final MapReduceExecutor executor, ExecutorService lineSearchExecutor, final LogFunction log) {
+    List<GradientEvaluation> evaluations = Lists.newArrayList();
+    if (lineSearchExecutor == null || candidates.size() == 1) {
+      for (SufficientStatistics candidate : candidates) {
+        evaluations.add(evaluateGradient(candidate, data, oracle, threadGradients.get(0),
+            executor, log));
       }
+      return evaluations;
+    }
+
+    List<Future<GradientEvaluation>> futures = Lists.newArrayList();
+    for (int i = 0; i < candidates.size(); i++) {
+      final SufficientStatistics candidate = candidates.get(i);
+      final ThreadGradientAccumulator candidateThreadGradients = threadGradients.get(i);
+      futures.add(lineSearchExecutor.submit(new Callable<GradientEvaluation>() {
+        @Override
+        public GradientEvaluation call() {
+          return evaluateGradient(candidate, data, oracle, candidateThreadGradients,
+              executor, log);
+        }
+      }));
+    }
 
-      // The assumption here is that the initial Hessian estimate is
-      // the identity. Multiply direction by the Hessian estimate here
-      // to pick another value.
-      for (int j = 0; j < hessianVectorCount; j++) {
-        int index = i + j - hessianVectorCount;
-        double weight = scalings.get(index) * (gradientDeltas.get(index).innerProduct(direction));
-        direction.increment(pointDeltas.get(index), weights[j] - weight);
+    try {
+      for (Future<GradientEvaluation> future : futures) {
+        evaluations.add(future.get());
       }
-      log.stopTimer("compute_search_direction");
-
-      log.logStatistic(i, "parameter l2 norm", previousParameters.getL2Norm());
-      log.logStatistic(i, "gradient l2 norm", gradientL2Norm);
-      log.logStatistic(i, "direction l2 norm", direction.getL2Norm());
-      log.logStatistic(i, "search errors", gradientEvaluation.getSearchErrors());
-      log.logStatistic(i, "objective value", gradientEvaluation.getObjectiveValue());
-
-      log.startTimer("compute_step_size");
-      // Perform a backtracking line search to find a step size.
-      double stepSize = 1.0 / LINE_SEARCH_CONSTANT;
-      double currentObjectiveValue = gradientEvaluation.getObjectiveValue();
-      double nextObjectiveValue, curInnerProd, cond1Rhs, nextInnerProd, cond2Rhs;
-      SufficientStatistics nextParameters;
-
-      /*
-       * System.out.println("current:");
-       * System.out.println(currentParameters.getDescription());
-       * 
-       * System.out.println("direction:");
-       * System.out.println(direction.getDescription());
-       * 
-       * System.out.println("gradient:");
-       * System.out.println(gradient.getDescription());
-       */
-
-      do {
-        stepSize = stepSize * LINE_SEARCH_CONSTANT;
-        nextParameters = currentParameters.duplicate();
-        nextParameters.increment(direction, -1.0 * stepSize);
-        gradientEvaluation = evaluateGradient(nextParameters, dataList, oracle, executor, log);
-
-        // Check the Wolfe conditions to ensure sufficient descent.
-        nextObjectiveValue = gradientEvaluation.getObjectiveValue();
-        curInnerProd = gradient.innerProduct(direction);
-        SufficientStatistics nextGradient = gradientEvaluation.getGradient();
-        nextInnerProd = nextGradient.innerProduct(direction);
-
-        cond1Rhs = currentObjectiveValue - (WOLFE_CONDITION_C1 * stepSize * curInnerProd);
-        cond2Rhs = -1.0 * WOLFE_CONDITION_C2 * curInnerProd;
-
-        /*
-        System.out.println("next:");
-        System.out.println(nextParameters.getDescription());
-        System.out.println("next gradient:");
-        System.out.println(nextGradient.getDescription());
-
-        System.out.println("current: " + currentObjectiveValue);
-        System.out.println("next: " + nextObjectiveValue);
-        System.out.println("next parameter l2Norm: " + nextParameters.getL2Norm());
-        System.out.println("next gradient l2Norm: " + nextGradient.getL2Norm());
-        System.out.println("curInnerProd: " + curInnerProd);
-        System.out.println("nextInnerProd: " + nextInnerProd);
-
-        System.out.println("cond1: " + nextObjectiveValue + " > " + cond1Rhs);
-        System.out.println("cond2: abs(" + nextInnerProd + ") < " + cond2Rhs);
-	*/
-      } while ((nextObjectiveValue <= cond1Rhs || Double.isNaN(cond1Rhs) || Double.isNaN(nextObjectiveValue))
-          && stepSize > MIN_STEP_SIZE); // || Math.abs(nextInnerProd)
-                                        // > cond2Rhs
-      log.logStatistic(i, "step size", stepSize);
-      log.stopTimer("compute_step_size");
-
-      if (stepSize <= MIN_STEP_SIZE) {
-        throw new LbfgsConvergenceError("L-BFGS could not find a suitable step size.",
-            currentParameters, direction, stepSize, i);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      for (Future<GradientEvaluation> future : futures) {
+        future.cancel(true);
       }
-      currentParameters = nextParameters;
-
-      log.notifyIterationEnd(i);
     }
-    return currentParameters;
+    return evaluations;
   }
 
   private <M, E, T extends E> GradientEvaluation evaluateGradient(SufficientStatistics parameters,
-      List<T> dataList, GradientOracle<M, E> oracle, MapReduceExecutor executor,
-      LogFunction log) {
+      Iterable<T> data, GradientOracle<M, E> oracle, ThreadGradientAccumulator threadGradients,
+      MapReduceExecutor executor, LogFunction log) {
     // Create the factor graph (or whatever else) from the parameter
     // vector.
     log.startTimer("factor_graph_from_parameters");
@@ -238,13 +379,23 @@ public class Lbfgs implements GradientOptimizer {
     // set. Note that this computation does not include the added
     // regularization term.
     log.startTimer("compute_gradient_(serial)");
-    GradientEvaluation evaluation = executor.mapReduce(dataList,
-        Mappers.<T>identity(), new GradientReducer<M, T>(nextModel, parameters, oracle, log));
+    // Batches accumulate into per-thread gradient buffers, which are
+    // summed into a fresh gradient (which is retained by the caller).
+    GradientEvaluation evaluation = new GradientEvaluation(oracle.initializeGradient(), 0.0, 0);
+    Mapper<T, T> mapper = Mappers.withCostEstimator(Mappers.<T>identity(),
+        new OracleCostEstimator<E>(oracle));
+    int numExamples = 0;
+    for (Collection<T> chunk : getChunks(data)) {
+      evaluation = executor.mapReduce(chunk, mapper,
+          new GradientReducer<M, T>(nextModel, parameters, oracle, threadGradients, log), evaluation);
+      numExamples += chunk.size();
+    }
+    threadGradients.collect(evaluation.getGradient());
     log.stopTimer("compute_gradient_(serial)");
 
     // Normalize the objective term, then apply regularization
-    evaluation.getGradient().multiply(1.0 / dataList.size());
-    evaluation.setObjectiveValue(evaluation.getObjectiveValue() / dataList.size());
+    evaluation.getGradient().multiply(1.0 / numExamples);
+    evaluation.setObjectiveValue(evaluation.getObjectiveValue() / numExamples);
 
     double oldNorm = evaluation.getGradient().getL2Norm();
     if (Double.isNaN(oldNorm)) {
@@ -1,5 +1,6 @@
 package com.jayantkrish.jklol.training;
 
+import com.jayantkrish.jklol.inference.InferenceProfile;
 import com.jayantkrish.jklol.models.FactorGraph;
 import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
 import com.jayantkrish.jklol.util.Assignment;
@@ -20,6 +21,12 @@ public interface LogFunction {
 
   public void logStatistic(long iteration, String statisticName, double value);
 
+  /**
+   * Logs the factor operations performed during a single run of an
+   * inference algorithm.
+   */
+  public void logInferenceProfile(InferenceProfile profile);
+
   public void notifyIterationStart(long iteration);
 
   public void notifyIterationEnd(long iteration);
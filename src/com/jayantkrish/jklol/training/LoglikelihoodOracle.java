@@ -22,8 +22,9 @@ import com.jayantkrish.jklol.util.Assignment;
  *
  * @author jayantk
  */
-public class LoglikelihoodOracle implements GradientOracle<DynamicFactorGraph, 
+public class LoglikelihoodOracle implements CostEstimatingOracle<DynamicFactorGraph, 
 Example<DynamicAssignment, DynamicAssignment>> {
+  private static final long serialVersionUID = 1L;
 
   private final ParametricFactorGraph family;
   private final MarginalCalculator marginalCalculator;
@@ -43,6 +44,14 @@ Example<DynamicAssignment, DynamicAssignment>> {
     return family.getModelFromParameters(parameters);
   }
 
+  @Override
+  public double estimateCost(Example<DynamicAssignment, DynamicAssignment> example) {
+    // Inference time grows with the number of variables in the
+    // instantiated factor graph. The instantiated variables are cached
+    // by the variable set, so this estimate is cheap to compute.
+    return family.getVariables().getInstantiation(example.getInput()).getVariables().size();
+  }
+
   @Override
   public double accumulateGradient(SufficientStatistics gradient,
       SufficientStatistics currentParameters, DynamicFactorGraph dynamicFactorGraph,
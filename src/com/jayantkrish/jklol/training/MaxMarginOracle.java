@@ -1,5 +1,7 @@
 package com.jayantkrish.jklol.training;
 
+import java.io.Serializable;
+
 import com.google.common.base.Preconditions;
 import com.jayantkrish.jklol.evaluation.Example;
 import com.jayantkrish.jklol.inference.FactorMarginalSet;
@@ -16,8 +18,9 @@ import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
 import com.jayantkrish.jklol.tensor.DenseTensorBuilder;
 import com.jayantkrish.jklol.util.Assignment;
 
-public class MaxMarginOracle implements GradientOracle<DynamicFactorGraph,
+public class MaxMarginOracle implements CostEstimatingOracle<DynamicFactorGraph,
     Example<DynamicAssignment, DynamicAssignment>> {
+  private static final long serialVersionUID = 1L;
 
   private final ParametricFactorGraph family;
   private final CostFunction costFunction;
@@ -40,6 +43,14 @@ public class MaxMarginOracle implements GradientOracle<DynamicFactorGraph,
     return family.getModelFromParameters(parameters);
   }
 
+  @Override
+  public double estimateCost(Example<DynamicAssignment, DynamicAssignment> example) {
+    // Inference time grows with the number of variables in the
+    // instantiated factor graph. The instantiated variables are cached
+    // by the variable set, so this estimate is cheap to compute.
+    return family.getVariables().getInstantiation(example.getInput()).getVariables().size();
+  }
+
   @Override
   public double accumulateGradient(SufficientStatistics subgradient,
       SufficientStatistics currentParameters, DynamicFactorGraph currentDynamicModel,
@@ -125,7 +136,7 @@ public class MaxMarginOracle implements GradientOracle<DynamicFactorGraph,
    * 
    * @author jayantk
    */
-  public static interface CostFunction {
+  public static interface CostFunction extends Serializable {
 
     /**
      * Returns {@code factorGraph} with additional cost factors added. Cost
@@ -156,6 +167,8 @@ public class MaxMarginOracle implements GradientOracle<DynamicFactorGraph,
    * @author jayantk
    */
   public static class HammingCost implements CostFunction {
+    private static final long serialVersionUID = 1L;
+
     public FactorGraph augmentWithCosts(FactorGraph factorGraph, VariableNumMap outputVariables, Assignment trueLabel) {
       FactorGraph augmentedGraph = factorGraph;
       for (int varNum : outputVariables.getVariableNumsArray()) {
@@ -180,6 +193,8 @@ public class MaxMarginOracle implements GradientOracle<DynamicFactorGraph,
    * @author jayantk
    */
   public static class ZeroCost implements CostFunction {
+    private static final long serialVersionUID = 1L;
+
     public FactorGraph augmentWithCosts(FactorGraph factorGraph, VariableNumMap outputVariables, Assignment trueLabel) {
       return factorGraph;
     }
@@ -1,5 +1,6 @@
 package com.jayantkrish.jklol.training;
 
+import com.jayantkrish.jklol.inference.InferenceProfile;
 import com.jayantkrish.jklol.models.FactorGraph;
 import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
 import com.jayantkrish.jklol.util.Assignment;
@@ -28,6 +29,9 @@ public class NullLogFunction implements LogFunction {
   @Override
   public void logStatistic(long iteration, String statisticName, double value) {}
 
+  @Override
+  public void logInferenceProfile(InferenceProfile profile) {}
+
   @Override
   public void notifyIterationStart(long iteration) {}
 
@@ -1,5 +1,7 @@
 package com.jayantkrish.jklol.training;
 
+import java.io.Serializable;
+
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.jayantkrish.jklol.evaluation.Example;
@@ -15,7 +17,8 @@ import com.jayantkrish.jklol.util.Assignment;
  * 
  * @author jayantk
  */
-public class OracleAdapter<E> implements GradientOracle<DynamicFactorGraph, E> {
+public class OracleAdapter<E> implements CostEstimatingOracle<DynamicFactorGraph, E> {
+  private static final long serialVersionUID = 1L;
 
   private final GradientOracle<DynamicFactorGraph, Example<DynamicAssignment, DynamicAssignment>> oracle;
   private final Function<E, Example<DynamicAssignment, DynamicAssignment>> converter;
@@ -49,6 +52,11 @@ public class OracleAdapter<E> implements GradientOracle<DynamicFactorGraph, E> {
     return oracle.instantiateModel(parameters);
   }
 
+  @Override
+  public double estimateCost(E example) {
+    return OracleCostEstimator.estimateCost(oracle, converter.apply(example));
+  }
+
   @Override
   public double accumulateGradient(SufficientStatistics gradient, 
       SufficientStatistics currentParameters, DynamicFactorGraph instantiatedModel, 
@@ -65,7 +73,8 @@ public class OracleAdapter<E> implements GradientOracle<DynamicFactorGraph, E> {
    * @author jayantk
    */
   private static class ExampleConverter implements Function<Example<Assignment, Assignment>,
-      Example<DynamicAssignment, DynamicAssignment>> {
+      Example<DynamicAssignment, DynamicAssignment>>, Serializable {
+    private static final long serialVersionUID = 1L;
 
     @Override
     public Example<DynamicAssignment, DynamicAssignment> apply(
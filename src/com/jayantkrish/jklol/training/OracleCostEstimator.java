@@ -0,0 +1,45 @@
+package com.jayantkrish.jklol.training;
+
+import java.io.Serializable;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+
+/**
+ * Estimates the cost of computing the gradient of each example using
+ * {@link CostEstimatingOracle#estimateCost}. Trainers use this function
+ * with {@link com.jayantkrish.jklol.parallel.Mappers#withCostEstimator}
+ * to balance batches of examples across threads.
+ *
+ * @author jayantk
+ */
+public class OracleCostEstimator<E> implements Function<E, Double>, Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final GradientOracle<?, E> oracle;
+
+  public OracleCostEstimator(GradientOracle<?, E> oracle) {
+    this.oracle = Preconditions.checkNotNull(oracle);
+  }
+
+  @Override
+  public Double apply(E example) {
+    return estimateCost(oracle, example);
+  }
+
+  /**
+   * Estimates the cost of computing the gradient of {@code example}
+   * using {@code oracle}. Returns 1.0 if {@code oracle} is not a
+   * {@link CostEstimatingOracle}.
+   *
+   * @param oracle
+   * @param example
+   * @return
+   */
+  public static <E> double estimateCost(GradientOracle<?, E> oracle, E example) {
+    if (oracle instanceof CostEstimatingOracle) {
+      return ((CostEstimatingOracle<?, E>) oracle).estimateCost(example);
+    }
+    return 1.0;
+  }
+}
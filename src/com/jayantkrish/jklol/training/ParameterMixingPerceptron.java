@@ -0,0 +1,338 @@
+package com.jayantkrish.jklol.training;
+
+import java.io.Serializable;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import com.jayantkrish.jklol.inference.MarginalCalculator.ZeroProbabilityError;
+import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
+import com.jayantkrish.jklol.parallel.MapReduceConfiguration;
+import com.jayantkrish.jklol.parallel.MapReduceExecutor;
+import com.jayantkrish.jklol.parallel.Mapper;
+
+/**
+ * Distributed perceptron training using iterative parameter mixing.
+ * The training data is divided into shards, and each epoch of
+ * training runs an independent perceptron (i.e., stochastic gradient
+ * with a fixed step size) over each shard in parallel, starting from
+ * the current parameters. At the end of each epoch, the parameters
+ * from each shard are averaged to produce the starting parameters for
+ * the next epoch. Shards only synchronize once per epoch, which is
+ * much cheaper than synchronizing after every (small, sparse)
+ * perceptron update. See:
+ * <p>
+ * Distributed Training Strategies for the Structured Perceptron. <br/>
+ * Ryan McDonald, Keith Hall and Gideon Mann.
+ * <p>
+ * This optimizer is intended for use with perceptron oracles, such
+ * as {@code CcgPerceptronOracle}, but can be used with any
+ * {@link GradientOracle}. Shards are processed using the current
+ * {@link MapReduceExecutor}.
+ *
+ * @author jayantk
+ */
+public class ParameterMixingPerceptron implements GradientOptimizer {
+
+  /**
+   * Identifies mistakes for oracles whose objective value is
+   * {@code min(0, score(correct) - score(predicted))}, such as
+   * {@code CcgPerceptronOracle} and {@link MaxMarginOracle}. These
+   * oracles return a negative objective value exactly when the
+   * prediction is incorrect. This predicate should not be used with
+   * other oracles; for example, every objective value of
+   * {@link LoglikelihoodOracle} is negative.
+   */
+  public static final Predicate<Double> PERCEPTRON_MISTAKE = new PerceptronMistakePredicate();
+
+  private final int numEpochs;
+  private final int numShards;
+  private final int batchSize;
+  private final double stepSize;
+
+  // Identifies mistakes from the objective value of each example. If
+  // non-null, each shard's parameters are weighted by its number of
+  // mistakes during mixing. Otherwise shards are weighted uniformly.
+  private final Predicate<Double> mistakePredicate;
+  // If true, returns the average of the parameter iterates.
+  private final boolean returnAveragedParameters;
+
+  private final LogFunction log;
+
+  /**
+   * Creates an optimizer which trains for {@code numEpochs} passes
+   * over the training data, which is divided into {@code numShards}
+   * shards. Within each shard, the parameters are updated after
+   * every {@code batchSize} examples.
+   *
+   * @param numEpochs
+   * @param numShards
+   * @param batchSize
+   * @param stepSize
+   * @param mistakePredicate if non-null, each shard is weighted
+   * during mixing in proportion to the number of mistakes made on it
+   * during the epoch. The predicate is applied to the objective value
+   * of each example, and returns {@code true} if the example is a
+   * mistake. Use {@link #PERCEPTRON_MISTAKE} for perceptron and
+   * max-margin oracles. If {@code null}, shards are weighted
+   * uniformly.
+   * @param returnAveragedParameters if {@code true}, returns the
+   * average of the parameters after every update, as in the
+   * averaged perceptron.
+   * @param log
+   */
+  public ParameterMixingPerceptron(int numEpochs, int numShards, int batchSize,
+      double stepSize, Predicate<Double> mistakePredicate, boolean returnAveragedParameters,
+      LogFunction log) {
+    Preconditions.checkArgument(numEpochs >= 0);
+    Preconditions.checkArgument(numShards > 0);
+    Preconditions.checkArgument(batchSize > 0);
+    this.numEpochs = numEpochs;
+    this.numShards = numShards;
+    this.batchSize = batchSize;
+    this.stepSize = stepSize;
+    this.mistakePredicate = mistakePredicate;
+    this.returnAveragedParameters = returnAveragedParameters;
+
+    this.log = (log != null) ? log : new NullLogFunction();
+  }
+
+  @Override
+  public <M, E, T extends E> SufficientStatistics train(GradientOracle<M, E> oracle,
+      SufficientStatistics initialParameters, Iterable<T> trainingData) {
+    List<T> trainingDataList = Lists.newArrayList(trainingData);
+    Preconditions.checkArgument(trainingDataList.size() > 0, "No training data.");
+
+    // Divide the examples among the shards round-robin.
+    List<List<T>> shards = Lists.newArrayList();
+    for (int i = 0; i < numShards; i++) {
+      shards.add(Lists.<T>newArrayList());
+    }
+    for (int i = 0; i < trainingDataList.size(); i++) {
+      shards.get(i % numShards).add(trainingDataList.get(i));
+    }
+
+    MapReduceExecutor executor = MapReduceConfiguration.getMapReduceExecutor();
+    SufficientStatistics parameters = initialParameters.duplicate();
+    SufficientStatistics averagedParameters = null;
+    if (returnAveragedParameters) {
+      averagedParameters = oracle.initializeGradient();
+    }
+
+    for (int i = 0; i < numEpochs; i++) {
+      log.notifyIterationStart(i);
+      log.logParameters(i, parameters);
+
+      log.startTimer("train_shards");
+      List<ShardResult> results = executor.map(shards,
+          new ShardPerceptronMapper<M, E, T>(oracle, parameters, batchSize, stepSize,
+              mistakePredicate, returnAveragedParameters, log));
+      log.stopTimer("train_shards");
+
+      log.startTimer("mix_parameters");
+      double[] weights = getMixingWeights(results);
+      parameters.zeroOut();
+      for (int j = 0; j < results.size(); j++) {
+        parameters.increment(results.get(j).getParameters(), weights[j]);
+        if (returnAveragedParameters) {
+          // Each epoch contributes equally to the final average.
+          averagedParameters.increment(results.get(j).getAveragedParameters(),
+              weights[j] / numEpochs);
+        }
+      }
+      log.stopTimer("mix_parameters");
+
+      int numMistakes = 0;
+      int searchErrors = 0;
+      double objectiveValue = 0.0;
+      for (ShardResult result : results) {
+        numMistakes += result.getNumMistakes();
+        searchErrors += result.getSearchErrors();
+        objectiveValue += result.getObjectiveValue();
+      }
+      if (mistakePredicate != null) {
+        log.logStatistic(i, "mistakes", numMistakes);
+      }
+      log.logStatistic(i, "search errors", searchErrors);
+      log.logStatistic(i, "objective value", objectiveValue / trainingDataList.size());
+      log.notifyIterationEnd(i);
+    }
+
+    initialParameters.zeroOut();
+    if (returnAveragedParameters && numEpochs > 0) {
+      initialParameters.increment(averagedParameters, 1.0);
+    } else {
+      initialParameters.increment(parameters, 1.0);
+    }
+    return initialParameters;
+  }
+
+  private double[] getMixingWeights(List<ShardResult> results) {
+    double[] weights = new double[results.size()];
+    int totalMistakes = 0;
+    for (ShardResult result : results) {
+      totalMistakes += result.getNumMistakes();
+    }
+
+    for (int i = 0; i < results.size(); i++) {
+      if (mistakePredicate != null && totalMistakes > 0) {
+        weights[i] = ((double) results.get(i).getNumMistakes()) / totalMistakes;
+      } else {
+        weights[i] = 1.0 / results.size();
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * Trains a perceptron on a single shard of the training data for
+   * one epoch, starting from a copy of the current parameters.
+   * <p>
+   * The average of the parameter iterates is computed lazily, using
+   * the trick from Hal Daume III's thesis: alongside the parameters
+   * {@code w}, the mapper accumulates {@code u}, the sum of each
+   * update weighted by its iteration number {@code c}. The average
+   * is then {@code w - u / c}, so each update only touches the
+   * parameters with nonzero gradients.
+   */
+  private static class ShardPerceptronMapper<M, E, T extends E> extends Mapper<List<T>, ShardResult> {
+    private static final long serialVersionUID = 1L;
+
+    private final GradientOracle<M, E> oracle;
+    private final SufficientStatistics initialParameters;
+    private final int batchSize;
+    private final double stepSize;
+    private final Predicate<Double> mistakePredicate;
+    private final boolean averaged;
+    // The log is not sent to other machines.
+    private final transient LogFunction log;
+
+    public ShardPerceptronMapper(GradientOracle<M, E> oracle,
+        SufficientStatistics initialParameters, int batchSize, double stepSize,
+        Predicate<Double> mistakePredicate, boolean averaged, LogFunction log) {
+      this.oracle = oracle;
+      this.initialParameters = initialParameters;
+      this.batchSize = batchSize;
+      this.stepSize = stepSize;
+      this.mistakePredicate = mistakePredicate;
+      this.averaged = averaged;
+      this.log = log;
+    }
+
+    private Object readResolve() {
+      return new ShardPerceptronMapper<M, E, T>(oracle, initialParameters, batchSize, stepSize,
+          mistakePredicate, averaged, new NullLogFunction());
+    }
+
+    @Override
+    public ShardResult map(List<T> shard) {
+      SufficientStatistics parameters = initialParameters.duplicate();
+      // Both buffers are sparse, so each update only touches the
+      // features with nonzero gradients.
+      SufficientStatistics weightedUpdates = averaged ?
+          ThreadGradientAccumulator.initializeSparseGradient(oracle) : null;
+      SufficientStatistics gradient = ThreadGradientAccumulator.initializeSparseGradient(oracle);
+      // The number of parameter iterates so far, including the
+      // initial parameters.
+      long numIterates = 1;
+
+      int numMistakes = 0;
+      int searchErrors = 0;
+      double objectiveValue = 0.0;
+      for (int i = 0; i < shard.size(); i += batchSize) {
+        M model = oracle.instantiateModel(parameters);
+
+        gradient.zeroOut();
+        int batchEnd = Math.min(i + batchSize, shard.size());
+        for (int j = i; j < batchEnd; j++) {
+          try {
+            double exampleObjective = oracle.accumulateGradient(gradient, parameters, model,
+                shard.get(j), log);
+            objectiveValue += exampleObjective;
+            if (mistakePredicate != null && mistakePredicate.apply(exampleObjective)) {
+              numMistakes++;
+            }
+          } catch (ZeroProbabilityError e) {
+            searchErrors++;
+          }
+        }
+
+        parameters.increment(gradient, stepSize);
+        if (averaged) {
+          weightedUpdates.increment(gradient, stepSize * numIterates);
+        }
+        numIterates++;
+      }
+
+      SufficientStatistics averagedParameters = null;
+      if (averaged) {
+        averagedParameters = parameters.duplicate();
+        averagedParameters.increment(weightedUpdates, -1.0 / numIterates);
+      }
+      return new ShardResult(parameters, averagedParameters, numMistakes, searchErrors,
+          objectiveValue);
+    }
+
+    @Override
+    public double estimateCost(List<T> shard) {
+      double cost = 0.0;
+      for (T example : shard) {
+        cost += OracleCostEstimator.estimateCost(oracle, example);
+      }
+      return cost;
+    }
+  }
+
+  private static class PerceptronMistakePredicate implements Predicate<Double>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public boolean apply(Double objectiveValue) {
+      return objectiveValue < 0.0;
+    }
+  }
+
+  /**
+   * The parameters and training statistics of one shard after an
+   * epoch of training.
+   */
+  private static class ShardResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final SufficientStatistics parameters;
+    private final SufficientStatistics averagedParameters;
+    private final int numMistakes;
+    private final int searchErrors;
+    private final double objectiveValue;
+
+    public ShardResult(SufficientStatistics parameters, SufficientStatistics averagedParameters,
+        int numMistakes, int searchErrors, double objectiveValue) {
+      this.parameters = parameters;
+      this.averagedParameters = averagedParameters;
+      this.numMistakes = numMistakes;
+      this.searchErrors = searchErrors;
+      this.objectiveValue = objectiveValue;
+    }
+
+    public SufficientStatistics getParameters() {
+      return parameters;
+    }
+
+    public SufficientStatistics getAveragedParameters() {
+      return averagedParameters;
+    }
+
+    public int getNumMistakes() {
+      return numMistakes;
+    }
+
+    public int getSearchErrors() {
+      return searchErrors;
+    }
+
+    public double getObjectiveValue() {
+      return objectiveValue;
+    }
+  }
+}
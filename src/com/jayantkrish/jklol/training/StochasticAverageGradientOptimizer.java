@@ -1,10 +1,15 @@
 package com.jayantkrish.jklol.training;
 
+import java.util.Iterator;
 import java.util.List;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.jayantkrish.jklol.models.parametric.ListSufficientStatistics;
 import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
+import com.jayantkrish.jklol.models.parametric.TensorSufficientStatistics;
+import com.jayantkrish.jklol.tensor.SparseTensor;
+import com.jayantkrish.jklol.tensor.Tensor;
 
 /**
  * Stochastic average gradient is a variant of stochastic
@@ -18,6 +23,12 @@ import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
  * A Stochastic Gradient Method with an Exponential
  * Convergence Rate for Finite Training Sets. <br/>
  * Nicolas Le Roux, Mark Schmidt and Francis Bach.
+ * <p>
+ * This optimizer iterates over the training data repeatedly, and
+ * identifies each example by its position. The training data must
+ * therefore return examples in the same order on every iteration
+ * (e.g., a {@link com.jayantkrish.jklol.data.LineDataSource} that is
+ * not shuffled).
  *
  * @author jayantk
  */
@@ -27,8 +38,6 @@ public class StochasticAverageGradientOptimizer implements GradientOptimizer {
   private final double l2Regularization;
   private final LogFunction log;
 
-  private static final double MIN_GRADIENT_NORM_FOR_LIPSCHITZ = 1e-8;
-
   public StochasticAverageGradientOptimizer(int numIterations, double l2Regularization,
       LogFunction log) {
     Preconditions.checkArgument(numIterations >= 0);
@@ -43,53 +52,100 @@ public class StochasticAverageGradientOptimizer implements GradientOptimizer {
   public <M, E, T extends E> SufficientStatistics train(GradientOracle<M, E> oracle,
       SufficientStatistics initialParameters, Iterable<T> trainingData) {
     
-    List<T> trainingDataList = Lists.newArrayList(trainingData);
-    int trainingDataSize = trainingDataList.size();
-    SufficientStatistics[] trainingDataGradients = new SufficientStatistics[trainingDataSize]; 
-    SufficientStatistics stepDirection = oracle.initializeGradient();
-    double lipschitzEstimate = 1.0;
-    double lipschitzShrinkageFactor = Math.pow(2, -1.0 / trainingDataSize);
+    // The training data is iterated over repeatedly rather than
+    // copied, so that it can be streamed. The number of examples is
+    // unknown until the first pass over the data is complete.
+    Iterator<T> trainingDataIter = trainingData.iterator();
+    Preconditions.checkArgument(trainingDataIter.hasNext(), "No training data.");
+    int trainingDataSize = -1;
+    // The most recent gradient computed for each training example. These
+    // gradients are stored sparsely when doing so saves memory. The
+    // gradients do not include the l2 regularization term, which is
+    // identical for every example.
+    List<SufficientStatistics> trainingDataGradients = Lists.newArrayList();
+    // The sum of trainingDataGradients, which is updated
+    // incrementally as the gradients change.
+    SufficientStatistics gradientSum = oracle.initializeGradient();
+    // Reused buffer for computing each example's gradient.
+    SufficientStatistics currentGradient = oracle.initializeGradient();
     for (int i = 0; i < numIterations; i++) {
-      // Compute current gradient and update step direction.
-      int exampleIndex = i % trainingDataSize;
-      M currentModel = oracle.instantiateModel(initialParameters);
-      SufficientStatistics currentGradient = oracle.initializeGradient();
-      double objectiveValue = oracle.accumulateGradient(currentGradient, initialParameters,
-          currentModel, trainingDataList.get(exampleIndex), log);
-
-      // Apply l2 regularization if necessary.
-      if (l2Regularization > 0.0) {
-        currentGradient.increment(-1 * l2Regularization);
+      // Compute current gradient and update the sum of gradients.
+      if (!trainingDataIter.hasNext()) {
+        trainingDataSize = trainingDataGradients.size();
+        trainingDataIter = trainingData.iterator();
       }
+      T example = trainingDataIter.next();
+      int exampleIndex = (trainingDataSize == -1) ? i : i % trainingDataSize;
+      log.startTimer("instantiate_model");
+      M currentModel = oracle.instantiateModel(initialParameters);
+      log.stopTimer("instantiate_model");
 
-      stepDirection.increment(currentGradient, 1.0);
-      if (trainingDataGradients[exampleIndex] != null) {
-        stepDirection.increment(trainingDataGradients[exampleIndex], -1.0);
-      }
-      trainingDataGradients[exampleIndex] = currentGradient;
+      log.startTimer("compute_gradient");
+      currentGradient.zeroOut();
+      oracle.accumulateGradient(currentGradient, initialParameters, currentModel,
+          example, log);
+      log.stopTimer("compute_gradient");
 
-      // Check Lipschitz condition and do line search update on 
-      // Lipschitz constant if necessary.
-      SufficientStatistics lipschitzPoint = initialParameters.duplicate();
-      lipschitzPoint.increment(currentGradient, -1.0 / lipschitzEstimate);
-      double lipschitzPointObjectiveValue = oracle.accumulateGradient(oracle.initializeGradient(),
-          lipschitzPoint, oracle.instantiateModel(lipschitzPoint),
-          trainingDataList.get(exampleIndex), log);
-      double gradientSquaredNorm = currentGradient.getL2Norm();
-      gradientSquaredNorm = gradientSquaredNorm * gradientSquaredNorm;
-      if (gradientSquaredNorm > MIN_GRADIENT_NORM_FOR_LIPSCHITZ && 
-          lipschitzPointObjectiveValue <= objectiveValue - (0.5 * lipschitzEstimate * gradientSquaredNorm)) {
-        lipschitzEstimate *= 2;
+      log.startTimer("update_gradient_sum");
+      SufficientStatistics storedGradient = compress(currentGradient);
+      gradientSum.increment(storedGradient, 1.0);
+      if (exampleIndex < trainingDataGradients.size()) {
+        gradientSum.increment(trainingDataGradients.get(exampleIndex), -1.0);
+        trainingDataGradients.set(exampleIndex, storedGradient);
       } else {
-        lipschitzEstimate *= lipschitzShrinkageFactor; 
+        trainingDataGradients.add(storedGradient);
       }
+      log.stopTimer("update_gradient_sum");
 
-      // Take the step.
+      // Take the step, which is the average gradient over all
+      // examples with gradients.
+      log.startTimer("parameter_update");
       double stepSize = 1.0;
-      int numPointsWithGradients = Math.min(i + 1, trainingDataSize);
+      int numPointsWithGradients = trainingDataGradients.size();
       double currentStepSize = stepSize / numPointsWithGradients;
-      initialParameters.increment(stepDirection, currentStepSize);
+      initialParameters.increment(gradientSum, currentStepSize);
+      // Apply l2 regularization if necessary.
+      if (l2Regularization > 0.0) {
+        initialParameters.increment(-1 * stepSize * l2Regularization);
+      }
+      log.stopTimer("parameter_update");
     }
     return initialParameters;
   }
+
+  /**
+   * Gets a copy of {@code gradient} that uses as little memory as
+   * possible. Tensors with few nonzero entries are stored sparsely.
+   * 
+   * @param gradient
+   * @return
+   */
+  private static SufficientStatistics compress(SufficientStatistics gradient) {
+    if (gradient instanceof ListSufficientStatistics) {
+      ListSufficientStatistics list = (ListSufficientStatistics) gradient;
+      List<SufficientStatistics> compressed = Lists.newArrayList();
+      for (SufficientStatistics statistics : list.getStatistics()) {
+        compressed.add(compress(statistics));
+      }
+      return new ListSufficientStatistics(list.getStatisticNames(), compressed);
+    } else if (gradient instanceof TensorSufficientStatistics) {
+      TensorSufficientStatistics tensorStatistics = (TensorSufficientStatistics) gradient;
+      Tensor tensor = tensorStatistics.get();
+      double[] values = tensor.getValues();
+      int numNonzero = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != 0.0) {
+          numNonzero++;
+        }
+      }
+
+      // Sparse tensors use twice as much memory per stored entry as
+      // dense tensors.
+      if (numNonzero * 2 < tensor.getMaxKeyNum()) {
+        return TensorSufficientStatistics.createSparse(tensorStatistics.getStatisticNames(),
+            SparseTensor.copyOf(tensor));
+      }
+    }
+    return gradient.duplicate();
+  }
 }
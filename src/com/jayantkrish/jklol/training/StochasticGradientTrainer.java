@@ -2,10 +2,16 @@ package com.jayantkrish.jklol.training;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
 import com.jayantkrish.jklol.parallel.MapReduceConfiguration;
 import com.jayantkrish.jklol.parallel.MapReduceExecutor;
@@ -31,6 +37,17 @@ public class StochasticGradientTrainer implements GradientOptimizer {
 
   private final boolean returnAveragedParameters;
   private final boolean adaGrad;
+  // If true, regularization and averaging are applied lazily, only
+  // touching the parameters with nonzero gradient on each iteration.
+  private final boolean lazyUpdates;
+  // If true, the next batch and model are prepared in a background
+  // thread while the current gradient is computed.
+  private final boolean pipelined;
+
+  // When the cumulative decay of the lazily-regularized parameters would
+  // fall below this value, all pending updates are applied so that the
+  // decay can be reset without losing precision.
+  private static final double MIN_LAZY_DECAY = 1e-30;
 
   // Factor used to discount earlier observations in the moving average
   // estimates of the gradient norm and objective value. Smaller values
@@ -57,6 +74,8 @@ public class StochasticGradientTrainer implements GradientOptimizer {
     this.returnAveragedParameters = returnAveragedParameters;
     this.adaGrad = false;
     this.regularizer = new StochasticL2Regularizer(0.0, 0.0);
+    this.lazyUpdates = false;
+    this.pipelined = false;
   }
 
   /**
@@ -72,6 +91,54 @@ public class StochasticGradientTrainer implements GradientOptimizer {
   public StochasticGradientTrainer(long numIterations, int batchSize,
       double stepSize, boolean decayStepSize, boolean returnAveragedParameters, boolean adaGrad,
       Regularizer regularizer, LogFunction log) {
+    this(numIterations, batchSize, stepSize, decayStepSize, returnAveragedParameters, adaGrad,
+        regularizer, false, false, log);
+  }
+
+  /**
+   * Regularized stochastic gradient descent, using {@code regularizer}.
+   * If {@code lazyUpdates} is {@code true}, each iteration only updates
+   * the parameters whose gradient is nonzero, deferring the
+   * regularization and averaging of the remaining parameters until they
+   * are next updated. This can dramatically reduce the cost of each
+   * iteration when gradients are sparse. With lazy updates, gradients
+   * are also accumulated in sparse tensors, so each iteration takes
+   * time proportional to the number of nonzero gradient entries
+   * rather than the number of parameters. Lazy updates require a
+   * {@link StochasticL2Regularizer}, cannot be combined with
+   * {@code adaGrad}, and require dense parameter vectors.
+   * <p>
+   * Note that, with lazy updates, the model used to compute each
+   * gradient (and the parameters passed to {@code log}) omit the
+   * pending regularization of parameters which were not recently
+   * updated. The returned parameters are exact.
+   * <p>
+   * If {@code pipelined} is {@code true}, the batch and model for
+   * each iteration are prepared in a background thread while the
+   * gradient of the previous iteration is computed. This hides the cost
+   * of {@link GradientOracle#instantiateModel}, but means that each
+   * gradient is computed using a model that is one update out of date,
+   * i.e., the model for iteration {@code t} is instantiated with the
+   * parameters from iteration {@code t - 1}.
+   * 
+   * @param numIterations
+   * @param batchSize
+   * @param stepSize
+   * @param decayStepSize
+   * @param returnAveragedParameters
+   * @param adaGrad
+   * @param regularizer
+   * @param lazyUpdates
+   * @param pipelined
+   * @param log
+   */
+  public StochasticGradientTrainer(long numIterations, int batchSize,
+      double stepSize, boolean decayStepSize, boolean returnAveragedParameters, boolean adaGrad,
+      Regularizer regularizer, boolean lazyUpdates, boolean pipelined, LogFunction log) {
+    Preconditions.checkArgument(!lazyUpdates || regularizer instanceof StochasticL2Regularizer,
+        "Lazy updates require a StochasticL2Regularizer.");
+    Preconditions.checkArgument(!lazyUpdates || !adaGrad,
+        "Lazy updates cannot be used with adagrad.");
     this.numIterations = numIterations;
     this.batchSize = batchSize;
     this.log = (log != null) ? log : new NullLogFunction();
@@ -81,6 +148,8 @@ public class StochasticGradientTrainer implements GradientOptimizer {
     this.returnAveragedParameters = returnAveragedParameters;
     this.adaGrad = adaGrad;
     this.regularizer = regularizer;
+    this.lazyUpdates = lazyUpdates;
+    this.pipelined = pipelined;
   }
 
   public static StochasticGradientTrainer createWithL2Regularization(long numIterations, int batchSize,
@@ -96,6 +165,19 @@ public class StochasticGradientTrainer implements GradientOptimizer {
         returnAveragedParameters, false, new StochasticL2Regularizer(l2Penalty, regularizationFrequency), log);
   }
 
+  /**
+   * Stochastic gradient descent with stochastic L2 regularization,
+   * where regularization and averaging are applied lazily. See
+   * {@link #StochasticGradientTrainer(long, int, double, boolean, boolean, boolean, Regularizer, boolean, LogFunction)}.
+   */
+  public static StochasticGradientTrainer createWithLazyL2Regularization(long numIterations,
+      int batchSize, double stepSize, boolean decayStepSize, boolean returnAveragedParameters,
+      double l2Penalty, double regularizationFrequency, LogFunction log) {
+    return new StochasticGradientTrainer(numIterations, batchSize, stepSize, decayStepSize,
+        returnAveragedParameters, false, new StochasticL2Regularizer(l2Penalty, regularizationFrequency),
+        true, false, log);
+  }
+
   public static StochasticGradientTrainer createAdagrad(long numIterations,
       int batchSize, double stepSize, boolean decayStepSize, boolean returnAveragedParameters,
       double l2Penalty, double regularizationFrequency, LogFunction log) {
@@ -132,78 +214,170 @@ public class StochasticGradientTrainer implements GradientOptimizer {
       gradientSumSquares = oracle.initializeGradient();
     }
 
+    // State for lazy updates. For each parameter, lastDecay and
+    // lastCumulativeDecay store the values of decay and cumulativeDecay
+    // when the parameter was last updated.
+    SufficientStatistics lastDecay = null;
+    SufficientStatistics lastCumulativeDecay = null;
+    double decay = 1.0;
+    double cumulativeDecay = 0.0;
+    if (lazyUpdates) {
+      lastDecay = oracle.initializeGradient();
+      lastDecay.increment(1.0);
+      lastCumulativeDecay = oracle.initializeGradient();
+    }
+
     double gradientL2 = 0.0;
-    GradientEvaluation gradientAccumulator = null;
+    // Each thread accumulates gradients into its own reusable buffer,
+    // and the buffers are summed into gradientAccumulator once per
+    // iteration. Lazy updates only read the nonzero entries of the
+    // gradient, so the gradient is stored sparsely.
+    ThreadGradientAccumulator threadGradients = new ThreadGradientAccumulator(oracle,
+        lazyUpdates);
+    GradientEvaluation gradientAccumulator = new GradientEvaluation(lazyUpdates
+        ? ThreadGradientAccumulator.initializeSparseGradient(oracle) : oracle.initializeGradient(),
+        0.0, 0);
     // This is an attempt at estimating how much the parameters are still
     // changing.
     double exponentiallyWeightedUpdateNorm = stepSize;
     double exponentiallyWeightedObjectiveValue = 0.0;
     double exponentiallyWeightedDenom = 0.0;
-    for (long i = 0; i < numIterations; i++) {
-      log.notifyIterationStart(i);
-      log.startTimer("serialize_parameters");
-      log.logParameters(i, initialParameters);
-      log.stopTimer("serialize_parameters");
-
-      // Get the examples for this batch. Ideally, this would be a random
-      // sample; however, deterministically iterating over the examples is
-      // more efficient and is fairly close if the examples are provided in
-      // random order.
-      log.startTimer("instantiate_model");
-      List<T> batchData = getBatch(cycledTrainingData, batchSize);
-      M currentModel = oracle.instantiateModel(initialParameters);
-      log.stopTimer("instantiate_model");
-
-      log.startTimer("compute_gradient_(serial)");
-      int iterSearchErrors = 0;
-      Mapper<T, T> mapper = Mappers.<T>identity();
-      GradientReducer<M, T> reducer = new GradientReducer<M, T>(currentModel, initialParameters,
-          oracle, log);
-      gradientAccumulator = executor.mapReduce(batchData, mapper, reducer, gradientAccumulator);
-
-      iterSearchErrors = gradientAccumulator.getSearchErrors();
-      SufficientStatistics gradient = gradientAccumulator.getGradient();
-      if (batchSize > 1) {
-        gradient.multiply(1.0 / batchSize);
+    // Batches and models prepared in the background, if pipelined.
+    ExecutorService pipelineExecutor = null;
+    if (pipelined) {
+      pipelineExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("sgd-pipeline-%d").build());
+    }
+    Future<PipelineStage<M, T>> nextStage = null;
+    try {
+      for (long i = 0; i < numIterations; i++) {
+        log.notifyIterationStart(i);
+        log.startTimer("serialize_parameters");
+        log.logParameters(i, initialParameters);
+        log.stopTimer("serialize_parameters");
+
+        // Get the examples for this batch. Ideally, this would be a random
+        // sample; however, deterministically iterating over the examples is
+        // more efficient and is fairly close if the examples are provided in
+        // random order.
+        log.startTimer("instantiate_model");
+        List<T> batchData = null;
+        M currentModel = null;
+        if (nextStage != null) {
+          PipelineStage<M, T> stage = getPipelineStage(nextStage);
+          batchData = stage.getBatch();
+          currentModel = stage.getModel();
+        } else {
+          batchData = getBatch(cycledTrainingData, batchSize);
+          currentModel = oracle.instantiateModel(initialParameters);
+        }
+        log.stopTimer("instantiate_model");
+
+        nextStage = null;
+        if (pipelined && i + 1 < numIterations) {
+          // Prepare the next iteration while this gradient is computed.
+          // The parameters must not change until the model is instantiated.
+          nextStage = pipelineExecutor.submit(new PipelineStageCallable<M, T>(oracle,
+              initialParameters, cycledTrainingData, batchSize, log));
+        }
+
+        log.startTimer("compute_gradient_(serial)");
+        int iterSearchErrors = 0;
+        Mapper<T, T> mapper = Mappers.withCostEstimator(Mappers.<T>identity(),
+            new OracleCostEstimator<E>(oracle));
+        GradientReducer<M, T> reducer = new GradientReducer<M, T>(currentModel, initialParameters,
+            oracle, threadGradients, log);
+        gradientAccumulator = executor.mapReduce(batchData, mapper, reducer, gradientAccumulator);
+        log.startTimer("compute_gradient_(serial)/collect");
+        threadGradients.collect(gradientAccumulator.getGradient());
+        log.stopTimer("compute_gradient_(serial)/collect");
+
+        iterSearchErrors = gradientAccumulator.getSearchErrors();
+        SufficientStatistics gradient = gradientAccumulator.getGradient();
+        if (batchSize > 1 && !lazyUpdates) {
+          gradient.multiply(1.0 / batchSize);
+        }
+
+        log.stopTimer("compute_gradient_(serial)");
+
+        if (nextStage != null) {
+          log.startTimer("wait_for_next_model");
+          getPipelineStage(nextStage);
+          log.stopTimer("wait_for_next_model");
+        }
+
+        log.startTimer("parameter_update");
+        // Apply regularization and take a gradient step.
+        double currentStepSize = decayStepSize ? (stepSize / Math.sqrt(i + 2)) : stepSize;
+        if (lazyUpdates) {
+          // The 1 / batchSize normalization is folded into the step size
+          // to avoid touching every element of the gradient.
+          double sampledDecay = ((StochasticL2Regularizer) regularizer).sampleDecay(currentStepSize);
+          if (Math.abs(decay * sampledDecay) < MIN_LAZY_DECAY) {
+            // Folding this factor into decay would make it zero (or
+            // too small to divide by), so apply all pending updates
+            // and decay the parameters directly instead.
+            initialParameters.flushLazy(lastDecay, lastCumulativeDecay, averagedParameters,
+                decay, cumulativeDecay);
+            initialParameters.multiply(sampledDecay);
+            decay = 1.0;
+            cumulativeDecay = 0.0;
+          } else {
+            decay *= sampledDecay;
+          }
+          initialParameters.incrementLazy(gradient, currentStepSize / batchSize, lastDecay,
+              lastCumulativeDecay, averagedParameters, decay, cumulativeDecay);
+          cumulativeDecay += decay;
+        } else {
+          regularizer.apply(gradient, initialParameters, gradientSumSquares, currentStepSize);
+        }
+
+        // System.out.println(initialParameters);
+        log.stopTimer("parameter_update");
+
+        log.startTimer("compute_statistics");
+        gradientL2 = gradient.getL2Norm();
+        if (lazyUpdates) {
+          gradientL2 /= batchSize;
+        }
+        double objectiveValue = gradientAccumulator.getObjectiveValue() / batchSize;
+        exponentiallyWeightedUpdateNorm = gradientL2 
+            + (MOVING_AVG_DISCOUNT * exponentiallyWeightedUpdateNorm);
+        exponentiallyWeightedObjectiveValue = objectiveValue
+            + (MOVING_AVG_DISCOUNT * exponentiallyWeightedObjectiveValue);
+        exponentiallyWeightedDenom = 1 + (MOVING_AVG_DISCOUNT * exponentiallyWeightedDenom);
+        log.stopTimer("compute_statistics");
+
+        if (returnAveragedParameters && !lazyUpdates) {
+          log.startTimer("average_parameters");
+          averagedParameters.increment(initialParameters, 1.0 / numIterations);
+          log.stopTimer("average_parameters");
+        }
+
+        log.logStatistic(i, "search errors", iterSearchErrors);
+        log.logStatistic(i, "gradient l2 norm", gradientL2);
+        log.logStatistic(i, "step size", currentStepSize);
+        log.logStatistic(i, "objective value", objectiveValue);
+        log.logStatistic(i, "objective value (moving avg.)", exponentiallyWeightedObjectiveValue
+            / exponentiallyWeightedDenom);
+        log.logStatistic(i, "gradient l2 norm (moving avg.)", exponentiallyWeightedUpdateNorm
+            / exponentiallyWeightedDenom);
+
+        gradientAccumulator.zeroOut();
+        log.notifyIterationEnd(i);
       }
+    } finally {
+      if (pipelineExecutor != null) {
+        pipelineExecutor.shutdownNow();
+      }
+    }
 
-      log.stopTimer("compute_gradient_(serial)");
-
-      log.startTimer("parameter_update");
-      // Apply regularization and take a gradient step.
-      double currentStepSize = decayStepSize ? (stepSize / Math.sqrt(i + 2)) : stepSize;
-      regularizer.apply(gradient, initialParameters, gradientSumSquares, currentStepSize);
-
-      // System.out.println(initialParameters);
-      log.stopTimer("parameter_update");
-
-      log.startTimer("compute_statistics");
-      gradientL2 = gradient.getL2Norm();
-      double objectiveValue = gradientAccumulator.getObjectiveValue() / batchSize;
-      exponentiallyWeightedUpdateNorm = gradientL2 
-          + (MOVING_AVG_DISCOUNT * exponentiallyWeightedUpdateNorm);
-      exponentiallyWeightedObjectiveValue = objectiveValue
-          + (MOVING_AVG_DISCOUNT * exponentiallyWeightedObjectiveValue);
-      exponentiallyWeightedDenom = 1 + (MOVING_AVG_DISCOUNT * exponentiallyWeightedDenom);
-      log.stopTimer("compute_statistics");
-
+    if (lazyUpdates) {
+      initialParameters.flushLazy(lastDecay, lastCumulativeDecay, averagedParameters,
+          decay, cumulativeDecay);
       if (returnAveragedParameters) {
-        log.startTimer("average_parameters");
-        averagedParameters.increment(initialParameters, 1.0 / numIterations);
-        log.stopTimer("average_parameters");
+        averagedParameters.multiply(1.0 / numIterations);
       }
-
-      log.logStatistic(i, "search errors", iterSearchErrors);
-      log.logStatistic(i, "gradient l2 norm", gradientL2);
-      log.logStatistic(i, "step size", currentStepSize);
-      log.logStatistic(i, "objective value", objectiveValue);
-      log.logStatistic(i, "objective value (moving avg.)", exponentiallyWeightedObjectiveValue
-          / exponentiallyWeightedDenom);
-      log.logStatistic(i, "gradient l2 norm (moving avg.)", exponentiallyWeightedUpdateNorm
-          / exponentiallyWeightedDenom);
-
-      gradientAccumulator.zeroOut();
-      log.notifyIterationEnd(i);
     }
 
     if (returnAveragedParameters) {
@@ -213,7 +387,7 @@ public class StochasticGradientTrainer implements GradientOptimizer {
     }
   }
 
-  private <S> List<S> getBatch(Iterator<S> trainingData, int batchSize) {
+  private static <S> List<S> getBatch(Iterator<S> trainingData, int batchSize) {
     List<S> batchData = Lists.newArrayListWithCapacity(batchSize);
     for (int i = 0; i < batchSize && trainingData.hasNext(); i++) {
       batchData.add(trainingData.next());
@@ -221,6 +395,73 @@ public class StochasticGradientTrainer implements GradientOptimizer {
     return batchData;
   }
 
+  private static <M, T> PipelineStage<M, T> getPipelineStage(Future<PipelineStage<M, T>> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * The batch of examples and instantiated model for a single
+   * iteration of pipelined training.
+   */
+  private static class PipelineStage<M, T> {
+    private final List<T> batch;
+    private final M model;
+
+    public PipelineStage(List<T> batch, M model) {
+      this.batch = batch;
+      this.model = model;
+    }
+
+    public List<T> getBatch() {
+      return batch;
+    }
+
+    public M getModel() {
+      return model;
+    }
+  }
+
+  /**
+   * Reads the next batch of examples and instantiates a model for
+   * the current parameters.
+   */
+  private static class PipelineStageCallable<M, T> implements Callable<PipelineStage<M, T>> {
+    private final GradientOracle<M, ?> oracle;
+    private final SufficientStatistics parameters;
+    private final Iterator<T> trainingData;
+    private final int batchSize;
+    private final LogFunction log;
+
+    public PipelineStageCallable(GradientOracle<M, ?> oracle, SufficientStatistics parameters,
+        Iterator<T> trainingData, int batchSize, LogFunction log) {
+      this.oracle = oracle;
+      this.parameters = parameters;
+      this.trainingData = trainingData;
+      this.batchSize = batchSize;
+      this.log = log;
+    }
+
+    @Override
+    public PipelineStage<M, T> call() {
+      log.startTimer("pipeline/get_batch");
+      List<T> batch = getBatch(trainingData, batchSize);
+      log.stopTimer("pipeline/get_batch");
+      log.startTimer("pipeline/instantiate_model");
+      M model = oracle.instantiateModel(parameters);
+      log.stopTimer("pipeline/instantiate_model");
+      return new PipelineStage<M, T>(batch, model);
+    }
+  }
+
   /**
    * A regularization penalty applicable to gradients during gradient descent.
    * 
@@ -266,14 +507,30 @@ public class StochasticGradientTrainer implements GradientOptimizer {
     public void apply(SufficientStatistics gradient, SufficientStatistics currentParameters,
         SufficientStatistics gradientSumSquares, double currentStepSize) {
       Preconditions.checkArgument(gradientSumSquares == null);
-      double rand = Pseudorandom.get().nextDouble();
-      if (rand < frequency && l2Penalty != 0.0) {
+      double decay = sampleDecay(currentStepSize);
+      if (decay != 1.0) {
         // Objective value calculation:
         // objectiveValue -= l2Penalty * currentParameters.getL2Norm() / (2.0 * frequency);
-        currentParameters.multiply(1.0 - (currentStepSize * l2Penalty) / frequency);
+        currentParameters.multiply(decay);
       } 
       currentParameters.increment(gradient, currentStepSize);
     }
+
+    /**
+     * Samples the factor that the parameters are multiplied by
+     * during a single iteration of regularization. The returned
+     * value is 1.0 on iterations where regularization is not applied.
+     *
+     * @param currentStepSize
+     * @return
+     */
+    public double sampleDecay(double currentStepSize) {
+      double rand = Pseudorandom.get().nextDouble();
+      if (rand < frequency && l2Penalty != 0.0) {
+        return 1.0 - (currentStepSize * l2Penalty) / frequency;
+      }
+      return 1.0;
+    }
   }
 
   /**
@@ -18,6 +18,7 @@ import com.jayantkrish.jklol.util.Assignment;
  * @author jayantk
  */
 public class SufficientStatisticsMapper extends Mapper<DynamicAssignment, MarginalSet> {
+  private static final long serialVersionUID = 1L;
 
   private final DynamicFactorGraph dynamicFactorGraph;
   private final MarginalCalculator marginalCalculator;
@@ -14,6 +14,7 @@ import com.jayantkrish.jklol.parallel.Reducer;
  * @author jayantk
  */
 public class SufficientStatisticsReducer implements Reducer<MarginalSet, SufficientStatisticsBatch> {
+  private static final long serialVersionUID = 1L;
 
   private final ParametricFactorGraph parametricFactorGraph;
   private final SufficientStatistics currentParameters;
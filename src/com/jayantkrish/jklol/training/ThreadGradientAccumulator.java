@@ -0,0 +1,155 @@
+package com.jayantkrish.jklol.training;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.jayantkrish.jklol.models.parametric.ListSufficientStatistics;
+import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
+import com.jayantkrish.jklol.models.parametric.TensorSufficientStatistics;
+import com.jayantkrish.jklol.tensor.SparseTensorBuilder;
+import com.jayantkrish.jklol.tensor.Tensor;
+
+/**
+ * Gradient buffers shared by all of the map-reduce batches executed
+ * by each thread. Using these buffers in a {@link GradientReducer}
+ * avoids allocating and combining a full-size gradient per batch:
+ * instead, each thread lazily allocates one gradient, which is
+ * reused across batches and across calls to map-reduce. The buffers
+ * are summed by {@link #collect}.
+ * <p>
+ * Buffers may optionally be sparse (see
+ * {@link #initializeSparseGradient}), in which case accumulating,
+ * collecting and zeroing out a sparse gradient takes time
+ * proportional to its number of nonzero entries, rather than the
+ * number of parameters.
+ * <p>
+ * This class is thread-safe, but {@link #collect} must not be called
+ * while gradients are being accumulated.
+ *
+ * @author jayantk
+ */
+public class ThreadGradientAccumulator {
+
+  private final GradientOracle<?, ?> oracle;
+  private final boolean sparse;
+  private final ConcurrentMap<Thread, SufficientStatistics> threadGradients;
+
+  public ThreadGradientAccumulator(GradientOracle<?, ?> oracle) {
+    this(oracle, false);
+  }
+
+  /**
+   * If {@code sparse} is {@code true}, each buffer is created by
+   * {@link #initializeSparseGradient}.
+   *
+   * @param oracle
+   * @param sparse
+   */
+  public ThreadGradientAccumulator(GradientOracle<?, ?> oracle, boolean sparse) {
+    this.oracle = Preconditions.checkNotNull(oracle);
+    this.sparse = sparse;
+    this.threadGradients = Maps.newConcurrentMap();
+  }
+
+  /**
+   * Initializes a gradient for {@code oracle} in which every
+   * {@link TensorSufficientStatistics} is stored in a
+   * {@link SparseTensorBuilder}. Statistics of any other type (besides
+   * lists of tensors) are the same as in
+   * {@link GradientOracle#initializeGradient}.
+   *
+   * @param oracle
+   * @return
+   */
+  public static SufficientStatistics initializeSparseGradient(GradientOracle<?, ?> oracle) {
+    return toSparseBuilders(oracle.initializeGradient());
+  }
+
+  private static SufficientStatistics toSparseBuilders(SufficientStatistics statistics) {
+    if (statistics instanceof TensorSufficientStatistics) {
+      TensorSufficientStatistics tensorStatistics = (TensorSufficientStatistics) statistics;
+      Tensor tensor = tensorStatistics.get();
+      return new TensorSufficientStatistics(tensorStatistics.getStatisticNames(),
+          new SparseTensorBuilder(tensor.getDimensionNumbers(), tensor.getDimensionSizes()));
+    } else if (statistics instanceof ListSufficientStatistics) {
+      ListSufficientStatistics listStatistics = (ListSufficientStatistics) statistics;
+      List<SufficientStatistics> sparseStatistics = Lists.newArrayList();
+      for (SufficientStatistics statistic : listStatistics.getStatistics()) {
+        sparseStatistics.add(toSparseBuilders(statistic));
+      }
+      return new ListSufficientStatistics(listStatistics.getStatisticNames(), sparseStatistics);
+    }
+    return statistics;
+  }
+
+  /**
+   * Gets the gradient buffer for the calling thread, allocating it if
+   * necessary.
+   *
+   * @return
+   */
+  public SufficientStatistics getThreadGradient() {
+    Thread thread = Thread.currentThread();
+    SufficientStatistics gradient = threadGradients.get(thread);
+    if (gradient == null) {
+      // Only the current thread adds entries for itself, so there is
+      // no race here.
+      gradient = sparse ? initializeSparseGradient(oracle) : oracle.initializeGradient();
+      threadGradients.put(thread, gradient);
+    }
+    return gradient;
+  }
+
+  /**
+   * Returns {@code true} if {@code gradient} is one of the
+   * per-thread buffers of this accumulator.
+   *
+   * @param gradient
+   * @return
+   */
+  public boolean isThreadGradient(SufficientStatistics gradient) {
+    // Compare by identity, as SufficientStatistics may define equals.
+    for (SufficientStatistics threadGradient : threadGradients.values()) {
+      if (threadGradient == gradient) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds the sum of all per-thread buffers to {@code target}, then
+   * zeroes out the buffers. Buffers belonging to threads that have
+   * terminated are discarded after they are collected.
+   *
+   * @param target
+   */
+  public void collect(SufficientStatistics target) {
+    Preconditions.checkArgument(!isThreadGradient(target),
+        "Cannot collect into a per-thread gradient buffer.");
+    Iterator<Map.Entry<Thread, SufficientStatistics>> iter = threadGradients.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<Thread, SufficientStatistics> entry = iter.next();
+      target.increment(entry.getValue(), 1.0);
+      if (entry.getKey().isAlive()) {
+        entry.getValue().zeroOut();
+      } else {
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Gets the number of per-thread buffers currently allocated.
+   *
+   * @return
+   */
+  public int getNumThreadGradients() {
+    return threadGradients.size();
+  }
+}
@@ -1,5 +1,6 @@
 package com.jayantkrish.jklol.util;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
@@ -15,7 +16,9 @@ import com.google.common.primitives.Ints;
  * @author jayant
  *
  */
-public class IntBiMap implements BiMap<Integer, Integer> {
+public class IntBiMap implements BiMap<Integer, Integer>, Serializable {
+
+  private static final long serialVersionUID = 1L;
 
   private final int[] keys;
   private final int[] values;
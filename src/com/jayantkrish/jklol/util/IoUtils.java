@@ -2,14 +2,19 @@ package com.jayantkrish.jklol.util;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
@@ -40,6 +45,34 @@ public class IoUtils {
     return lines;
   }
 
+  /**
+   * Lazily reads the lines of a file. Unlike {@link #readLines}, the
+   * file is never loaded into memory: each call to {@code iterator()}
+   * on the returned iterable reopens the file and reads it
+   * incrementally. As with {@link #readLines}, blank lines are
+   * ignored. If {@code memoryMapped} is {@code true}, the file is read
+   * using a {@link MappedFileInputStream}.
+   * <p>
+   * The file is closed when the returned iterator is exhausted.
+   * 
+   * @param filename
+   * @param memoryMapped
+   * @return
+   */
+  public static Iterable<String> readLinesLazily(final String filename,
+      final boolean memoryMapped) {
+    return new Iterable<String>() {
+      @Override
+      public Iterator<String> iterator() {
+        if (memoryMapped) {
+          return new MappedLineIterator(filename);
+        } else {
+          return new ReaderLineIterator(filename);
+        }
+      }
+    };
+  }
+
   /**
    * Counts the number of columns in a file delimited by {@code delimiter}.
    * Assumes that the first line of the file is representative of the file as a
@@ -156,4 +189,136 @@ public class IoUtils {
     }
     return object;
   }
-}
\ No newline at end of file
+
+  /**
+   * Iterator over the nonblank lines of a file, read using a
+   * {@code BufferedReader}.
+   */
+  private static class ReaderLineIterator extends AbstractIterator<String> {
+    private final BufferedReader in;
+
+    public ReaderLineIterator(String filename) {
+      try {
+        this.in = new BufferedReader(new FileReader(filename));
+      } catch (FileNotFoundException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    protected String computeNext() {
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.trim().length() > 0) {
+            return line;
+          }
+        }
+        in.close();
+        return endOfData();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Iterator over the nonblank lines of a file, read using a
+   * {@link MappedFileInputStream}. Bytes are read from the file in
+   * blocks, which are scanned for line breaks, and each line is
+   * decoded directly from the block containing it.
+   */
+  private static class MappedLineIterator extends AbstractIterator<String> {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final MappedFileInputStream in;
+
+    // buffer[start, end) contains the bytes read from the file which
+    // are not yet part of a returned line. buffer[start, scanned) does
+    // not contain a line break.
+    private byte[] buffer;
+    private int start;
+    private int scanned;
+    private int end;
+    private boolean endOfFile;
+
+    public MappedLineIterator(String filename) {
+      try {
+        this.in = new MappedFileInputStream(filename);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      this.buffer = new byte[BUFFER_SIZE];
+      this.start = 0;
+      this.scanned = 0;
+      this.end = 0;
+      this.endOfFile = false;
+    }
+
+    @Override
+    protected String computeNext() {
+      try {
+        while (true) {
+          for (; scanned < end; scanned++) {
+            if (buffer[scanned] == '\n') {
+              String nextLine = decodeLine(start, scanned);
+              start = scanned + 1;
+              if (nextLine != null) {
+                scanned++;
+                return nextLine;
+              }
+            }
+          }
+
+          if (endOfFile) {
+            // The last line of the file may not end in a newline.
+            String lastLine = decodeLine(start, end);
+            start = end;
+            return (lastLine != null) ? lastLine : endOfData();
+          }
+          fillBuffer();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * Reads the next block of the file into {@code buffer}, after
+     * moving the bytes of the current (partial) line to the front.
+     * The buffer grows if a single line does not fit in it.
+     */
+    private void fillBuffer() throws IOException {
+      if (start > 0) {
+        System.arraycopy(buffer, start, buffer, 0, end - start);
+        scanned -= start;
+        end -= start;
+        start = 0;
+      }
+      if (end == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+
+      int numRead = in.read(buffer, end, buffer.length - end);
+      if (numRead == -1) {
+        endOfFile = true;
+        in.close();
+      } else {
+        end += numRead;
+      }
+    }
+
+    /**
+     * Decodes {@code buffer[lineStart, lineEnd)}, returning
+     * {@code null} if these bytes form a blank line.
+     */
+    private String decodeLine(int lineStart, int lineEnd) {
+      if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+        lineEnd--;
+      }
+      String nextLine = new String(buffer, lineStart, lineEnd - lineStart,
+          Charset.defaultCharset());
+      return (nextLine.trim().length() > 0) ? nextLine : null;
+    }
+  }
+}
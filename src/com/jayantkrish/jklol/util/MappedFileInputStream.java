@@ -0,0 +1,88 @@
+package com.jayantkrish.jklol.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * An input stream that reads a file through memory-mapped buffers,
+ * which lets the operating system page the file in on demand (and
+ * share the pages across processes reading the same file). A single
+ * buffer can map at most 2GB, so large files are mapped one region
+ * at a time.
+ *
+ * @author jayantk
+ */
+public class MappedFileInputStream extends InputStream {
+
+  private static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long fileSize;
+
+  private MappedByteBuffer region;
+  private long regionEnd;
+
+  public MappedFileInputStream(String filename) throws IOException {
+    this.file = new RandomAccessFile(filename, "r");
+    this.channel = file.getChannel();
+    this.fileSize = channel.size();
+
+    this.region = null;
+    this.regionEnd = 0;
+  }
+
+  /**
+   * Ensures that {@code region} has bytes remaining, mapping the next
+   * region of the file if necessary. Returns {@code false} if the
+   * end of the file has been reached.
+   */
+  private boolean fillRegion() throws IOException {
+    if (region != null && region.hasRemaining()) {
+      return true;
+    } else if (regionEnd >= fileSize) {
+      return false;
+    }
+
+    long regionSize = Math.min(MAX_REGION_SIZE, fileSize - regionEnd);
+    region = channel.map(MapMode.READ_ONLY, regionEnd, regionSize);
+    regionEnd += regionSize;
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fillRegion()) {
+      return -1;
+    }
+    return region.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    } else if (!fillRegion()) {
+      return -1;
+    }
+
+    int numRead = Math.min(length, region.remaining());
+    region.get(bytes, offset, numRead);
+    return numRead;
+  }
+
+  @Override
+  public int available() {
+    return (region != null) ? region.remaining() : 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    region = null;
+    file.close();
+  }
+}
@@ -1209,6 +1209,7 @@ public class CcgParserTest extends TestCase {
   }
 
   private static class TestChartFilter implements ChartCost {
+    private static final long serialVersionUID = 1L;
 
     @Override
     public double apply(ChartEntry entry, int spanStart, int spanEnd, DiscreteVariable syntaxVarType) {
@@ -364,7 +364,8 @@ public class CvsmTrainingTest extends TestCase {
 
     List<StochasticGradientTrainer> trainers = Arrays.asList(
         StochasticGradientTrainer.createWithL2Regularization(iterations, 1, 1.0, true, false, 0.0, new NullLogFunction()),
-        StochasticGradientTrainer.createAdagrad(iterations, 1, 1.0, true, false, 0.0, 0.0, new NullLogFunction())
+        StochasticGradientTrainer.createAdagrad(iterations, 1, 1.0, true, false, 0.0, 0.0, new NullLogFunction()),
+        StochasticGradientTrainer.createWithLazyL2Regularization(iterations, 1, 1.0, true, false, 0.0, 1.0, new NullLogFunction())
         );
 
     for (StochasticGradientTrainer trainer : trainers) {
@@ -0,0 +1,130 @@
+package com.jayantkrish.jklol.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.jayantkrish.jklol.data.ExampleCache.CachedExamples;
+import com.jayantkrish.jklol.evaluation.Example;
+import com.jayantkrish.jklol.models.DiscreteVariable;
+import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.models.dynamic.DynamicAssignment;
+import com.jayantkrish.jklol.util.Assignment;
+
+/**
+ * Unit tests for {@link ExampleCache}.
+ *
+ * @author jayantk
+ */
+public class ExampleCacheTest extends TestCase {
+
+  private File cacheDir;
+  private File inputFile;
+
+  private List<Example<DynamicAssignment, DynamicAssignment>> examples;
+  private int numPreprocessed;
+  private Supplier<List<Example<DynamicAssignment, DynamicAssignment>>> preprocessor;
+
+  public void setUp() throws IOException {
+    cacheDir = Files.createTempDir();
+    inputFile = File.createTempFile("exampleCacheTest", ".txt");
+    Files.write("a b\nc d\n", inputFile, Charset.defaultCharset());
+
+    VariableNumMap x = VariableNumMap.singleton(0, "x",
+        new DiscreteVariable("tf", Arrays.asList("T", "F")));
+    Assignment t = x.outcomeArrayToAssignment("T");
+    Assignment f = x.outcomeArrayToAssignment("F");
+    examples = Lists.newArrayList();
+    // Enough examples to require resetting the stream.
+    for (int i = 0; i < 2500; i++) {
+      DynamicAssignment input = DynamicAssignment.createPlateAssignment("plate",
+          Arrays.asList(t, (i % 2 == 0) ? t : f));
+      examples.add(Example.create(input, DynamicAssignment.fromAssignment(f)));
+    }
+
+    numPreprocessed = 0;
+    preprocessor = new Supplier<List<Example<DynamicAssignment, DynamicAssignment>>>() {
+      @Override
+      public List<Example<DynamicAssignment, DynamicAssignment>> get() {
+        numPreprocessed++;
+        return examples;
+      }
+    };
+  }
+
+  public void tearDown() {
+    for (File file : cacheDir.listFiles()) {
+      file.delete();
+    }
+    cacheDir.delete();
+    inputFile.delete();
+  }
+
+  public void testGetOrCreate() {
+    List<Example<DynamicAssignment, DynamicAssignment>> cached = getOrCreate("config");
+    assertEquals(1, numPreprocessed);
+    assertExamplesEqual(examples, cached);
+
+    cached = getOrCreate("config");
+    assertEquals(1, numPreprocessed);
+    assertExamplesEqual(examples, cached);
+    assertEquals(1, cacheDir.list().length);
+  }
+
+  public void testConfigChange() {
+    getOrCreate("config");
+    getOrCreate("config2");
+    assertEquals(2, numPreprocessed);
+  }
+
+  public void testInputChange() throws IOException {
+    getOrCreate("config");
+    Files.write("a b\nc e\n", inputFile, Charset.defaultCharset());
+    getOrCreate("config");
+    assertEquals(2, numPreprocessed);
+  }
+
+  public void testGetOrCreateWithMetadata() {
+    final VariableNumMap metadata = VariableNumMap.singleton(1, "y",
+        new DiscreteVariable("ab", Arrays.asList("A", "B")));
+    Supplier<CachedExamples<VariableNumMap, Example<DynamicAssignment, DynamicAssignment>>> metadataPreprocessor =
+        new Supplier<CachedExamples<VariableNumMap, Example<DynamicAssignment, DynamicAssignment>>>() {
+      @Override
+      public CachedExamples<VariableNumMap, Example<DynamicAssignment, DynamicAssignment>> get() {
+        return new CachedExamples<VariableNumMap, Example<DynamicAssignment, DynamicAssignment>>(
+            metadata, preprocessor.get());
+      }
+    };
+
+    for (int i = 0; i < 2; i++) {
+      CachedExamples<VariableNumMap, Example<DynamicAssignment, DynamicAssignment>> cached =
+          ExampleCache.getOrCreateWithMetadata(cacheDir.getPath(), Arrays.asList(inputFile.getPath()),
+              metadataPreprocessor, "config");
+      assertEquals(1, numPreprocessed);
+      assertEquals(metadata, cached.getMetadata());
+      assertExamplesEqual(examples, Lists.newArrayList(cached.getExamples()));
+    }
+    assertEquals(2, cacheDir.list().length);
+  }
+
+  private List<Example<DynamicAssignment, DynamicAssignment>> getOrCreate(String config) {
+    return Lists.newArrayList(ExampleCache.<Example<DynamicAssignment, DynamicAssignment>>getOrCreate(
+        cacheDir.getPath(), inputFile.getPath(), preprocessor, config));
+  }
+
+  private void assertExamplesEqual(List<Example<DynamicAssignment, DynamicAssignment>> expected,
+      List<Example<DynamicAssignment, DynamicAssignment>> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getInput(), actual.get(i).getInput());
+      assertEquals(expected.get(i).getOutput(), actual.get(i).getOutput());
+    }
+  }
+}
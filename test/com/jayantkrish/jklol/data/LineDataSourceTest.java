@@ -0,0 +1,137 @@
+package com.jayantkrish.jklol.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.jayantkrish.jklol.util.IoUtils;
+
+/**
+ * Unit tests for {@link LineDataSource}.
+ *
+ * @author jayantk
+ */
+public class LineDataSourceTest extends TestCase {
+
+  private static final int NUM_EXAMPLES = 100;
+
+  private File file;
+  private DataFormat<Integer> format;
+  private List<Integer> expected;
+
+  public void setUp() throws IOException {
+    file = File.createTempFile("lineDataSourceTest", ".txt");
+    StringBuilder sb = new StringBuilder();
+    expected = Lists.newArrayList();
+    for (int i = 0; i < NUM_EXAMPLES; i++) {
+      sb.append(i);
+      // Blank lines should be skipped, and Windows line endings
+      // should be removed.
+      sb.append((i % 10 == 0) ? "\r\n\n" : "\n");
+      expected.add(i);
+    }
+    // No newline after the last line.
+    sb.append(NUM_EXAMPLES);
+    expected.add(NUM_EXAMPLES);
+    Files.write(sb.toString(), file, Charset.defaultCharset());
+
+    format = new LineDataFormat<Integer>() {
+      @Override
+      public Integer parseFrom(String item) {
+        return Integer.parseInt(item);
+      }
+    };
+  }
+
+  public void tearDown() {
+    file.delete();
+  }
+
+  public void testFromFile() {
+    LineDataSource<Integer> source = LineDataSource.fromFile(file.getPath(), format, false);
+    assertEquals(expected, Lists.newArrayList(source));
+    // Iterating again rereads the file.
+    assertEquals(expected, Lists.newArrayList(source));
+
+    assertEquals(expected, Lists.newArrayList(format.streamFromFile(file.getPath())));
+  }
+
+  public void testFromFileMemoryMapped() {
+    LineDataSource<Integer> source = LineDataSource.fromFile(file.getPath(), format, true);
+    assertEquals(expected, Lists.newArrayList(source));
+    assertEquals(expected, Lists.newArrayList(source));
+  }
+
+  public void testFromFileMemoryMappedLongLines() throws IOException {
+    // Lines which span, or are longer than, the blocks read from
+    // the mapped file.
+    File longFile = File.createTempFile("lineDataSourceTest", ".txt");
+    StringBuilder sb = new StringBuilder();
+    List<String> expectedLines = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      String line = Strings.repeat("ab", (i * 37) % 500) + i;
+      if (i == 500) {
+        line = Strings.repeat("c", 200000);
+      }
+      sb.append(line);
+      sb.append((i % 7 == 0) ? "\r\n\n" : "\n");
+      expectedLines.add(line);
+    }
+    Files.write(sb.toString(), longFile, Charset.defaultCharset());
+
+    try {
+      assertEquals(expectedLines, Lists.newArrayList(IoUtils.readLinesLazily(longFile.getPath(), true)));
+      assertEquals(expectedLines, Lists.newArrayList(IoUtils.readLinesLazily(longFile.getPath(), false)));
+    } finally {
+      longFile.delete();
+    }
+  }
+
+  public void testShard() {
+    LineDataSource<Integer> source = LineDataSource.fromFile(file.getPath(), format, false);
+    List<Integer> actual = Lists.newArrayList();
+    for (int i = 0; i < 3; i++) {
+      for (int example : source.shard(3, i)) {
+        assertEquals(i, example % 3);
+        actual.add(example);
+      }
+    }
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+  }
+
+  public void testShuffle() {
+    LineDataSource<Integer> source = LineDataSource.fromFile(file.getPath(), format, false)
+        .shuffle(20, 0L);
+    List<Integer> shuffled = Lists.newArrayList(source);
+    assertFalse(expected.equals(shuffled));
+    // The order is deterministic.
+    assertEquals(shuffled, Lists.newArrayList(source));
+
+    List<Integer> sorted = Lists.newArrayList(shuffled);
+    Collections.sort(sorted);
+    assertEquals(expected, sorted);
+  }
+
+  public void testRepeat() {
+    LineDataSource<Integer> source = LineDataSource.fromFile(file.getPath(), format, false)
+        .shuffle(10, 0L).repeat(2);
+    List<Integer> examples = Lists.newArrayList(source);
+    assertEquals(expected.size() * 2, examples.size());
+
+    List<Integer> firstEpoch = examples.subList(0, expected.size());
+    List<Integer> secondEpoch = examples.subList(expected.size(), examples.size());
+    assertFalse(firstEpoch.equals(secondEpoch));
+
+    List<Integer> sorted = Lists.newArrayList(secondEpoch);
+    Collections.sort(sorted);
+    assertEquals(expected, sorted);
+  }
+}
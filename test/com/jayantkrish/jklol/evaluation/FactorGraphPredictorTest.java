@@ -75,6 +75,20 @@ public class FactorGraphPredictorTest extends TestCase {
     assertEquals(0, prediction.getScores().length);
   }
   
+  public void testGetBestPredictions() {
+    Prediction<Assignment, Assignment> prediction = predictor.getBestPredictions(
+        inputVars.outcomeArrayToAssignment("T"), null, 10);
+
+    // Only 4 assignments have nonzero probability given the input.
+    double[] expectedScores = new double[] {9.0, 6.0, 6.0, 4.0};
+    assertEquals(expectedScores.length, prediction.getPredictions().size());
+    for (int i = 0; i < expectedScores.length; i++) {
+      assertEquals(Math.log(expectedScores[i] / 25.0), prediction.getScores()[i], .00001);
+    }
+    assertEquals(outputVars.outcomeArrayToAssignment("F"), prediction.getPredictions().get(0));
+    assertEquals(outputVars.outcomeArrayToAssignment("U"), prediction.getPredictions().get(3));
+  }
+
   public void testGetProbability() {
     assertEquals(Math.log(15.0 / 25.0), predictor.getScore(
         inputVars.outcomeToAssignment(Arrays.asList("T")),
@@ -16,4 +16,17 @@ public class DualDecompositionTest extends TestCase {
 	public void testConditionalMaxMarginals() {
 		InferenceTestCases.testConditionalMaxMarginals().runAssignmentTest(new DualDecomposition(100));
 	}
-} 
+
+  public void testParallelMaxMarginals() {
+    InferenceTestCases.testBasicMaxMarginals().runAssignmentTest(new DualDecomposition(100, 0.1, 3));
+  }
+
+  public void testParallelConditionalMaxMarginals() {
+    InferenceTestCases.testConditionalMaxMarginals().runAssignmentTest(new DualDecomposition(100, 0.1, 3));
+  }
+
+  public void testAdaptiveStepSize() {
+    InferenceTestCases.testBasicMaxMarginals().runAssignmentTest(new DualDecomposition(100, 0.1, true, 1));
+    InferenceTestCases.testConditionalMaxMarginals().runAssignmentTest(new DualDecomposition(100, 0.1, true, 3));
+  }
+}
@@ -25,4 +25,15 @@ public class GibbsSamplerTest extends TestCase {
 	public void testNonTreeStructuredMarginals() {
 		InferenceTestCases.testNonCliqueTreeUnconditional().runTest(new GibbsSampler(1000, 1000, 1), 0.05);
 	}
+
+	public void testMultipleChains() {
+		InferenceTestCases.testNonCliqueTreeUnconditional().runTest(new GibbsSampler(100, 4000, 1, 4, 2), 0.05);
+		InferenceTestCases.testTriangleFactorGraphMarginals().runTest(new GibbsSampler(100, 4000, 1, 4, 2), 0.05);
+	}
+
+	public void testMultipleChainsNumDraws() {
+		SampleMarginalSet marginals = (SampleMarginalSet) new GibbsSampler(10, 1001, 1, 4, 2)
+		    .computeMarginals(InferenceTestCases.nonCliqueTreeFactorGraph());
+		assertEquals(1001, marginals.getNumSamples());
+	}
 }
@@ -1,11 +1,25 @@
 package com.jayantkrish.jklol.inference;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 import junit.framework.TestCase;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 import com.google.common.primitives.Ints;
+import com.jayantkrish.jklol.inference.MarginalCalculator.ZeroProbabilityError;
+import com.jayantkrish.jklol.models.DiscreteFactor;
+import com.jayantkrish.jklol.models.Factor;
 import com.jayantkrish.jklol.models.FactorGraph;
+import com.jayantkrish.jklol.models.TableFactor;
+import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.training.LogFunctions;
+import com.jayantkrish.jklol.training.NullLogFunction;
+import com.jayantkrish.jklol.util.AllAssignmentIterator;
 import com.jayantkrish.jklol.util.Assignment;
 
 /**
@@ -56,5 +70,238 @@ public class JunctionTreeTest extends TestCase {
 	public void testTriangleMaxMarginals() {
 	  InferenceTestCases.testTriangleFactorGraphMaxMarginals().runTest(new JunctionTree(), 0.0);
 	}
-}
 
+  public void testEliminationHeuristics() {
+    for (JunctionTree.EliminationHeuristic heuristic : JunctionTree.EliminationHeuristic.values()) {
+      JunctionTree jt = new JunctionTree(false, null, heuristic, Double.POSITIVE_INFINITY, null);
+      InferenceTestCases.testNonCliqueTreeUnconditional().runTest(jt, TOLERANCE);
+      InferenceTestCases.testTriangleFactorGraphMarginals().runTest(jt, TOLERANCE);
+      InferenceTestCases.testTriangleFactorGraphMaxMarginals().runTest(jt, 0.0);
+    }
+  }
+
+  public void testMappedFactorStore() {
+    for (double threshold : new double[] {1.0, 4.0}) {
+      runMappedFactorStoreTests(MappedFactorStore.inTemporaryDirectory(threshold));
+    }
+  }
+
+  public void testMappedFactorStoreSmallBlocks() {
+    File directory = new File(System.getProperty("java.io.tmpdir"));
+    // Blocks of a single entry, and blocks spanning several leading variables.
+    for (long maxBlockBytes : new long[] {16, 48}) {
+      runMappedFactorStoreTests(new MappedFactorStore(directory, 1.0, maxBlockBytes));
+    }
+  }
+
+  private void runMappedFactorStoreTests(MappedFactorStore store) {
+    for (boolean renormalize : new boolean[] {false, true}) {
+      JunctionTree jt = new JunctionTree(renormalize, null, JunctionTree.EliminationHeuristic.MIN_FILL,
+          Double.POSITIVE_INFINITY, null, store);
+      InferenceTestCases.testBasicUnconditional().runTest(jt, TOLERANCE);
+      InferenceTestCases.testNonCliqueTreeUnconditional().runTest(jt, TOLERANCE);
+      InferenceTestCases.testTriangleFactorGraphMarginals().runTest(jt, TOLERANCE);
+    }
+    JunctionTree jt = new JunctionTree(false, null, JunctionTree.EliminationHeuristic.MIN_FILL,
+        Double.POSITIVE_INFINITY, null, store);
+    InferenceTestCases.testBasicConditional().runTest(jt, TOLERANCE);
+    InferenceTestCases.testBasicMaxMarginals().runTest(jt, 0.0);
+    InferenceTestCases.testConditionalMaxMarginals().runTest(jt, 0.0);
+    InferenceTestCases.testTriangleFactorGraphMaxMarginals().runTest(jt, 0.0);
+  }
+
+  public void testMappedFactorStoreDeletesFiles() throws InterruptedException {
+    File directory = Files.createTempDir();
+    try {
+      MappedFactorStore store = new MappedFactorStore(directory, 1.0);
+      JunctionTree jt = new JunctionTree(false, null, JunctionTree.EliminationHeuristic.MIN_FILL,
+          Double.POSITIVE_INFINITY, null, store);
+      FactorGraph fg = InferenceTestCases.triangleFactorGraph();
+
+      // Stored marginals are read on demand, so their files remain while
+      // the marginals are in use.
+      MarginalSet marginals = jt.computeMarginals(fg);
+      assertTrue(directory.list().length > 0);
+      assertEquals(Math.log(33.0), marginals.getLogPartitionFunction(), TOLERANCE);
+      assertEquals(18.0 / 33.0, marginals.getMarginal(0).getUnnormalizedProbability("T"),
+          TOLERANCE);
+      marginals = null;
+      assertDeletedAfterGc(directory);
+
+      MaxMarginalSet maxMarginals = jt.computeMaxMarginals(fg);
+      assertTrue(directory.list().length > 0);
+      assertEquals(12.0, fg.getUnnormalizedProbability(maxMarginals.getNthBestAssignment(0)),
+          TOLERANCE);
+      maxMarginals = null;
+      assertDeletedAfterGc(directory);
+    } finally {
+      for (File file : directory.listFiles()) {
+        file.delete();
+      }
+      directory.delete();
+    }
+  }
+
+  private static void assertDeletedAfterGc(File directory) throws InterruptedException {
+    for (int i = 0; i < 20 && directory.list().length > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+      MappedFactorStore.deleteUnreachableFiles();
+    }
+    assertEquals(0, directory.list().length);
+  }
+
+  public void testInferenceProfile() {
+    final List<InferenceProfile> profiles = Lists.newArrayList();
+    LogFunctions.setLogFunction(new NullLogFunction() {
+      @Override
+      public void logInferenceProfile(InferenceProfile profile) {
+        profiles.add(profile);
+      }
+    });
+    try {
+      runInferenceProfileTest(profiles);
+    } finally {
+      LogFunctions.setLogFunction(null);
+    }
+  }
+
+  private void runInferenceProfileTest(List<InferenceProfile> profiles) {
+    FactorGraph fg = InferenceTestCases.basicFactorGraph();
+    new JunctionTree().computeMarginals(fg);
+    assertTrue(profiles.isEmpty());
+
+    JunctionTree jt = new JunctionTree(false, null, JunctionTree.EliminationHeuristic.MIN_FACTORS,
+        Double.POSITIVE_INFINITY, null, null, true);
+    jt.computeMarginals(fg);
+    assertEquals(1, profiles.size());
+    InferenceProfile profile = profiles.get(0);
+
+    int numProducts = 0, numMarginalizes = 0;
+    for (InferenceProfile.Entry entry : profile.getEntries()) {
+      assertTrue(entry.getElapsedNanos() >= 0);
+      assertTrue(entry.getNumEntries() <= entry.getTableSize());
+      assertTrue(entry.getDensity() <= 1.0);
+      if (entry.getOperation() == InferenceProfile.Operation.PRODUCT) {
+        numProducts++;
+        assertEquals(-1, entry.getDestCliqueNum());
+      } else if (entry.getOperation() == InferenceProfile.Operation.MARGINALIZE) {
+        numMarginalizes++;
+        assertTrue(entry.getDestCliqueNum() >= 0);
+      }
+    }
+    assertTrue(numProducts > 0);
+    assertTrue(numMarginalizes > 0);
+
+    List<InferenceProfile.Entry> slowest = profile.getSlowestEntries(2);
+    assertEquals(2, slowest.size());
+    assertTrue(slowest.get(0).getElapsedNanos() >= slowest.get(1).getElapsedNanos());
+    assertTrue(slowest.get(0).getElapsedNanos() <= profile.getTotalElapsedNanos());
+
+    // Profiling doesn't change the results of inference.
+    InferenceTestCases.testBasicUnconditional().runTest(jt, TOLERANCE);
+    profiles.clear();
+    jt.computeMaxMarginals(fg);
+    assertEquals(1, profiles.size());
+    assertFalse(profiles.get(0).getEntries().isEmpty());
+  }
+
+  public void testMaxCliqueSize() {
+    JunctionTree jt = new JunctionTree(false, null, JunctionTree.EliminationHeuristic.MIN_FILL, 4.0, null);
+    try {
+      jt.computeMarginals(InferenceTestCases.triangleFactorGraph());
+    } catch (JunctionTree.CliqueTreeTooLargeException e) {
+      assertEquals(8.0, e.getCliqueSize());
+      return;
+    }
+    fail("Expected CliqueTreeTooLargeException");
+  }
+
+  public void testMaxCliqueSizeFallback() {
+    JunctionTree jt = new JunctionTree(false, null, JunctionTree.EliminationHeuristic.MIN_FILL,
+        4.0, new JunctionTree());
+    // The exact fallback provides the joint marginal over each factor.
+    InferenceTestCases.testTriangleFactorGraphMarginals().runTest(jt, TOLERANCE);
+    InferenceTestCases.testTriangleFactorGraphMaxMarginals().runTest(jt, 0.0);
+  }
+
+  public void testMeanFieldFallback() {
+    FactorGraph fg = InferenceTestCases.triangleFactorGraph();
+    MarginalSet meanFieldMarginals = new MeanFieldVariational().computeMarginals(fg);
+
+    JunctionTree jt = new JunctionTree(false, null, JunctionTree.EliminationHeuristic.MIN_FILL,
+        4.0, new MeanFieldVariational());
+    MarginalSet marginals = jt.computeMarginals(fg);
+    for (Factor factor : fg.getFactors()) {
+      // The marginal over each factor is the product of the mean field
+      // marginals of its variables.
+      DiscreteFactor expected = TableFactor.pointDistribution(VariableNumMap.EMPTY, Assignment.EMPTY);
+      for (int varNum : factor.getVars().getVariableNumsArray()) {
+        expected = expected.outerProduct(meanFieldMarginals.getMarginal(varNum));
+      }
+      DiscreteFactor actual = marginals.getMarginal(factor.getVars()).coerceToDiscrete();
+      assertEquals(expected.getVars(), actual.getVars());
+      Iterator<Assignment> iter = new AllAssignmentIterator(factor.getVars());
+      while (iter.hasNext()) {
+        Assignment a = iter.next();
+        assertEquals(expected.getUnnormalizedProbability(a), actual.getUnnormalizedProbability(a),
+            TOLERANCE);
+      }
+    }
+  }
+
+  public void testGetMaxCliqueSize() {
+    JunctionTree.CliqueTree tree = JunctionTree.CliqueTree.fromHeuristicVariableElimination(
+        InferenceTestCases.triangleFactorGraph(), JunctionTree.EliminationHeuristic.MIN_WEIGHT,
+        Double.POSITIVE_INFINITY);
+    assertEquals(8.0, tree.getMaxCliqueSize());
+
+    tree = JunctionTree.CliqueTree.fromHeuristicVariableElimination(
+        InferenceTestCases.nonCliqueTreeFactorGraph());
+    assertEquals(4.0, tree.getMaxCliqueSize());
+  }
+
+  public void testBestAssignments() {
+    runBestAssignmentsTest(InferenceTestCases.basicFactorGraph(),
+        new double[] {9.0, 8.0, 6.0, 6.0, 4.0, 4.0, 4.0, 2.0});
+    runBestAssignmentsTest(InferenceTestCases.triangleFactorGraph(),
+        new double[] {12.0, 8.0, 3.0, 2.0, 2.0, 2.0, 2.0, 2.0});
+  }
+
+  public void testBestAssignmentsConditional() {
+    FactorGraph fg = InferenceTestCases.basicFactorGraph();
+    FactorGraph conditional = fg.conditional(Assignment.fromSortedArrays(
+        new int[] {2}, new Object[] {"F"}));
+    List<Assignment> best = runBestAssignmentsTest(conditional, new double[] {8.0, 4.0, 4.0, 2.0});
+    for (Assignment assignment : best) {
+      assertEquals("F", assignment.getValue(2));
+    }
+  }
+
+  public void testNthBestAssignment() {
+    FactorGraph fg = InferenceTestCases.triangleFactorGraph();
+    MaxMarginalSet maxMarginals = new JunctionTree().computeMaxMarginals(fg);
+    assertEquals(12.0, fg.getUnnormalizedProbability(maxMarginals.getNthBestAssignment(0)), TOLERANCE);
+    assertEquals(8.0, fg.getUnnormalizedProbability(maxMarginals.getNthBestAssignment(1)), TOLERANCE);
+    assertEquals(3.0, fg.getUnnormalizedProbability(maxMarginals.getNthBestAssignment(2)), TOLERANCE);
+
+    try {
+      maxMarginals.getNthBestAssignment(8);
+    } catch (ZeroProbabilityError e) {
+      return;
+    }
+    fail("Expected ZeroProbabilityError");
+  }
+
+  private List<Assignment> runBestAssignmentsTest(FactorGraph fg, double[] expectedWeights) {
+    MaxMarginalSet maxMarginals = new JunctionTree().computeMaxMarginals(fg);
+    List<Assignment> best = maxMarginals.getBestAssignments(expectedWeights.length + 5);
+    assertEquals(expectedWeights.length, best.size());
+    assertEquals(expectedWeights.length, Sets.newHashSet(best).size());
+    for (int i = 0; i < expectedWeights.length; i++) {
+      assertEquals(expectedWeights[i], fg.getUnnormalizedProbability(best.get(i)), TOLERANCE);
+    }
+    assertEquals(best.subList(0, 3), maxMarginals.getBestAssignments(3));
+    return best;
+  }
+}
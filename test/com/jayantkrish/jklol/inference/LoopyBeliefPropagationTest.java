@@ -0,0 +1,87 @@
+package com.jayantkrish.jklol.inference;
+
+import junit.framework.TestCase;
+
+import com.jayantkrish.jklol.inference.LoopyBeliefPropagation.BeliefPropagationResult;
+import com.jayantkrish.jklol.inference.LoopyBeliefPropagation.Schedule;
+
+/**
+ * Unit tests for {@link LoopyBeliefPropagation}.
+ * 
+ * @author jayantk
+ */
+public class LoopyBeliefPropagationTest extends TestCase {
+
+  private static final double TOLERANCE = 1e-6;
+
+  private LoopyBeliefPropagation residual;
+  private LoopyBeliefPropagation synchronous;
+  private LoopyBeliefPropagation damped;
+
+  public void setUp() {
+    residual = new LoopyBeliefPropagation();
+    synchronous = new LoopyBeliefPropagation(100, 1e-10, 0.0, Schedule.SYNCHRONOUS, 3);
+    damped = new LoopyBeliefPropagation(1000, 1e-10, 0.5, Schedule.RESIDUAL, 1);
+  }
+
+  public void testBasicMarginals() {
+    // Inference on tree-structured graphs should be exact.
+    InferenceTestCases.testBasicUnconditional().runTest(residual, TOLERANCE);
+    InferenceTestCases.testBasicUnconditional().runTest(synchronous, TOLERANCE);
+    InferenceTestCases.testBasicUnconditional().runTest(damped, TOLERANCE);
+  }
+
+  public void testConditionals() {
+    InferenceTestCases.testBasicConditional().runTest(residual, TOLERANCE);
+    InferenceTestCases.testBasicConditional().runTest(synchronous, TOLERANCE);
+  }
+
+  public void testNonTreeStructuredMarginals() {
+    InferenceTestCases.testNonCliqueTreeUnconditional().runTest(residual, TOLERANCE);
+    InferenceTestCases.testNonCliqueTreeUnconditional().runTest(synchronous, TOLERANCE);
+  }
+
+  public void testProductFactorGraph() {
+    InferenceTestCases.testProductFactorGraphUnconditional().runTest(residual, TOLERANCE);
+  }
+
+  public void testTriangleMarginals() {
+    // Belief propagation is approximate on graphs with loops.
+    InferenceTestCases.testTriangleFactorGraphMarginals().runTest(residual, 0.05);
+    InferenceTestCases.testTriangleFactorGraphMarginals().runTest(synchronous, 0.05);
+  }
+
+  public void testLogPartitionFunction() {
+    // The Bethe approximation is exact on trees.
+    MarginalSet marginals = residual.computeMarginals(InferenceTestCases.basicFactorGraph());
+    assertEquals(Math.log(43.0), marginals.getLogPartitionFunction(), TOLERANCE);
+  }
+
+  public void testConvergence() {
+    BeliefPropagationResult result = residual.runBeliefPropagation(
+        InferenceTestCases.triangleFactorGraph(), true);
+    assertTrue(result.isConverged());
+    assertTrue(result.getMaxResidual() <= TOLERANCE);
+    assertTrue(result.getNumMessageUpdates() > 0);
+
+    LoopyBeliefPropagation truncated = new LoopyBeliefPropagation(1, 0.0, 0.0,
+        Schedule.SYNCHRONOUS, 1);
+    result = truncated.runBeliefPropagation(InferenceTestCases.triangleFactorGraph(), true);
+    assertFalse(result.isConverged());
+    assertEquals(1, result.getNumIterations());
+  }
+
+  public void testMaxMarginals() {
+    InferenceTestCases.testBasicMaxMarginals().runAssignmentTest(residual);
+    InferenceTestCases.testBasicMaxMarginals().runAssignmentTest(synchronous);
+  }
+
+  public void testConditionalMaxMarginals() {
+    InferenceTestCases.testConditionalMaxMarginals().runAssignmentTest(residual);
+  }
+
+  public void testTriangleMaxMarginals() {
+    InferenceTestCases.testTriangleFactorGraphMaxMarginals().runAssignmentTest(residual);
+    InferenceTestCases.testTriangleFactorGraphMaxMarginals().runAssignmentTest(damped);
+  }
+}
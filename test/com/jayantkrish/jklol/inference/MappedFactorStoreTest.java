@@ -0,0 +1,146 @@
+package com.jayantkrish.jklol.inference;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.jayantkrish.jklol.inference.MappedFactorStore.MappedFactor;
+import com.jayantkrish.jklol.models.DiscreteFactor;
+import com.jayantkrish.jklol.models.DiscreteVariable;
+import com.jayantkrish.jklol.models.TableFactorBuilder;
+import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.tensor.SparseTensorBuilder;
+import com.jayantkrish.jklol.util.Assignment;
+
+/**
+ * Unit tests for {@link MappedFactorStore}.
+ * 
+ * @author jayantk
+ */
+public class MappedFactorStoreTest extends TestCase {
+
+  private MappedFactorStore store;
+  // Stores factors in blocks of 2 entries, i.e., one block per value of v1.
+  private MappedFactorStore blockStore;
+  private VariableNumMap vars;
+  private DiscreteFactor factor;
+
+  public void setUp() {
+    store = MappedFactorStore.inTemporaryDirectory(6.0);
+    blockStore = new MappedFactorStore(store.getDirectory(), 6.0, 32);
+    DiscreteVariable tfu = new DiscreteVariable("tfu", Arrays.asList("T", "F", "U"));
+    DiscreteVariable ab = new DiscreteVariable("ab", Arrays.asList("A", "B"));
+    vars = new VariableNumMap(Arrays.asList(1, 3), Arrays.asList("v1", "v3"),
+        Arrays.asList(tfu, ab));
+
+    TableFactorBuilder builder = new TableFactorBuilder(vars, SparseTensorBuilder.getFactory());
+    builder.setWeight(2.0, "T", "A");
+    builder.setWeight(3.0, "T", "B");
+    builder.setWeight(5.0, "U", "B");
+    factor = builder.build();
+  }
+
+  public void testShouldStore() {
+    assertTrue(store.shouldStore(factor));
+    assertFalse(store.shouldStore(vars.getVariablesByName("v1")));
+  }
+
+  public void testLoad() {
+    MappedFactor mapped = store.store(factor);
+    assertEquals(3, mapped.size());
+    assertEquals(10.0, mapped.getTotalUnnormalizedProbability(), 1e-10);
+
+    DiscreteFactor loaded = mapped.load();
+    assertEquals(factor.getVars(), loaded.getVars());
+    assertEquals(3.0, loaded.getUnnormalizedProbability("T", "B"), 1e-10);
+    assertEquals(5.0, loaded.getUnnormalizedProbability("U", "B"), 1e-10);
+    assertEquals(0.0, loaded.getUnnormalizedProbability("F", "A"), 1e-10);
+
+    assertEquals(2.5, mapped.product(0.5).load().getUnnormalizedProbability("U", "B"), 1e-10);
+    mapped.delete();
+  }
+
+  public void testGetNumBlockVariables() {
+    assertEquals(0, store.getNumBlockVariables(vars));
+    assertEquals(1, blockStore.getNumBlockVariables(vars));
+    assertEquals(2, new MappedFactorStore(store.getDirectory(), 6.0, 16).getNumBlockVariables(vars));
+    assertEquals(2, new MappedFactorStore(store.getDirectory(), 6.0, 1).getNumBlockVariables(vars));
+  }
+
+  public void testGetBlock() {
+    MappedFactor mapped = blockStore.store(factor);
+    assertEquals(3, mapped.getNumBlocks());
+
+    DiscreteFactor block = mapped.getBlock(0);
+    assertEquals(5.0, block.getTotalUnnormalizedProbability(), 1e-10);
+    assertEquals(2.0, block.getUnnormalizedProbability("T", "A"), 1e-10);
+    assertEquals(0.0, mapped.getBlock(1).getTotalUnnormalizedProbability(), 1e-10);
+    assertEquals(5.0, mapped.getBlock(2).getUnnormalizedProbability("U", "B"), 1e-10);
+    mapped.delete();
+  }
+
+  public void testGetBlockMultipleVariables() {
+    MappedFactor mapped = new MappedFactorStore(store.getDirectory(), 6.0, 16).store(factor);
+    assertEquals(6, mapped.getNumBlocks());
+    assertEquals(2.0, mapped.getBlock(0).getTotalUnnormalizedProbability(), 1e-10);
+    assertEquals(3.0, mapped.getBlock(1).getTotalUnnormalizedProbability(), 1e-10);
+    assertEquals(0.0, mapped.getBlock(4).getTotalUnnormalizedProbability(), 1e-10);
+    assertEquals(5.0, mapped.getBlock(5).getUnnormalizedProbability("U", "B"), 1e-10);
+    mapped.delete();
+  }
+
+  public void testMarginalize() {
+    for (MappedFactorStore curStore : Arrays.asList(store, blockStore)) {
+      MappedFactor mapped = curStore.store(factor);
+      DiscreteFactor expected = factor.marginalize(vars.getVariablesByName("v1"));
+      DiscreteFactor actual = mapped.marginalize(vars.getVariablesByName("v1"));
+      assertEquals(expected.getVars(), actual.getVars());
+      assertEquals(2.0, actual.getUnnormalizedProbability("A"), 1e-10);
+      assertEquals(8.0, actual.getUnnormalizedProbability("B"), 1e-10);
+
+      actual = mapped.product(2.0).marginalize(vars.getVariablesByName("v3"));
+      assertEquals(10.0, actual.getUnnormalizedProbability("T"), 1e-10);
+      assertEquals(0.0, actual.getUnnormalizedProbability("F"), 1e-10);
+      assertEquals(10.0, actual.getUnnormalizedProbability("U"), 1e-10);
+      mapped.delete();
+    }
+  }
+
+  public void testMaxMarginalize() {
+    for (MappedFactorStore curStore : Arrays.asList(store, blockStore)) {
+      MappedFactor mapped = curStore.store(factor);
+      DiscreteFactor actual = mapped.maxMarginalize(vars.getVariablesByName("v1"));
+      assertEquals(2.0, actual.getUnnormalizedProbability("A"), 1e-10);
+      assertEquals(5.0, actual.getUnnormalizedProbability("B"), 1e-10);
+
+      Assignment given = vars.getVariablesByName("v1").outcomeArrayToAssignment("T");
+      actual = mapped.maxMarginalize(given, vars.getVariablesByName("v1"));
+      assertEquals(vars.getVariablesByName("v3"), actual.getVars());
+      assertEquals(2.0, actual.getUnnormalizedProbability("A"), 1e-10);
+      assertEquals(3.0, actual.getUnnormalizedProbability("B"), 1e-10);
+      mapped.delete();
+    }
+  }
+
+  public void testGetMostLikelyAssignment() {
+    for (MappedFactorStore curStore : Arrays.asList(store, blockStore)) {
+      MappedFactor mapped = curStore.store(factor);
+      assertEquals(vars.outcomeArrayToAssignment("U", "B"),
+          mapped.getMostLikelyAssignment(Assignment.EMPTY));
+
+      VariableNumMap v3 = vars.getVariablesByName("v3");
+      assertEquals(vars.getVariablesByName("v1").outcomeArrayToAssignment("T"),
+          mapped.getMostLikelyAssignment(v3.outcomeArrayToAssignment("A")));
+      assertNull(mapped.getMostLikelyAssignment(
+          vars.getVariablesByName("v1").outcomeArrayToAssignment("F")));
+      mapped.delete();
+    }
+  }
+
+  public void testGetUnnormalizedProbability() {
+    MappedFactor mapped = blockStore.store(factor).product(0.5);
+    assertEquals(1.5, mapped.getUnnormalizedProbability(vars.outcomeArrayToAssignment("T", "B")), 1e-10);
+    assertEquals(0.0, mapped.getUnnormalizedProbability(vars.outcomeArrayToAssignment("F", "B")), 1e-10);
+    mapped.delete();
+  }
+}
@@ -24,6 +24,19 @@ public class MeanFieldVariationalTest extends TestCase {
     InferenceTestCases.testNonCliqueTreeUnconditional().runTest(mf, .01);
   }
   
+  public void testParallelUpdates() {
+    MeanFieldVariational parallel = new MeanFieldVariational(1e-10, 1000, true, 0.5, 2);
+    InferenceTestCases.testProductFactorGraphUnconditional().runTest(parallel, .000001);
+    InferenceTestCases.testNonCliqueTreeUnconditional().runTest(parallel, .01);
+  }
+
+  public void testMaxIterations() {
+    // After a single sequential iteration, the marginals of a product
+    // factor graph are exact.
+    MeanFieldVariational oneIteration = new MeanFieldVariational(0.0, 1);
+    InferenceTestCases.testProductFactorGraphUnconditional().runTest(oneIteration, .000001);
+  }
+
   public void testSoftConstraintFactorGraph() {
     InferenceTestCases.testSoftConstraintFactorGraph().printMarginals(mf);
     // InferenceTestCases.testSoftConstraintFactorGraph().runTest(mf, .01);
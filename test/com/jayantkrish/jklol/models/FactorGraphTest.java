@@ -118,6 +118,44 @@ public class FactorGraphTest extends TestCase {
 	  assertEquals(1.0, c.getUnnormalizedProbability(Assignment.EMPTY));
 	}
 	
+	public void testConditionalLazy() {
+	  Assignment a = f.outcomeToAssignment(Arrays.asList("Var1"), Arrays.asList("foo"));
+	  FactorGraph c = f.conditional(a);
+
+	  // f1 does not contain Var1, so it is shared with f.
+	  assertSame(f.getFactor(0), c.getFactor(0));
+	  assertEquals(Arrays.asList(2), c.getFactor(1).getVars().getVariableNums());
+	  assertSame(c.getFactor(1), c.getFactors().get(1));
+	  assertEquals(0, c.getFactorsWithVariable(1).size());
+	}
+
+	public void testUpdateConditional() {
+	  Assignment a = f.outcomeToAssignment(Arrays.asList("Var0", "Var1"), 
+	      Arrays.asList("T", "foo"));
+	  Assignment b = f.outcomeToAssignment(Arrays.asList("Var0", "Var1"), 
+	      Arrays.asList("T", "bar"));
+	  FactorGraph c = f.conditional(a);
+	  Factor f1 = c.getFactor(0);
+	  FactorGraph d = c.updateConditional(b);
+
+	  // Only the factor containing Var1 must be conditioned again.
+	  assertSame(f1, d.getFactor(0));
+	  assertEquals(b, d.getConditionedValues());
+	  assertEquals(f.conditional(b).getVariables(), d.getVariables());
+
+	  Assignment a2 = f.outcomeToAssignment(Arrays.asList("Var2", "Var3"), Arrays.asList("T", "T"));
+	  assertEquals(1.0, c.getUnnormalizedProbability(a2));
+	  assertEquals(0.0, d.getUnnormalizedProbability(a2));
+
+	  // Removing a conditioned variable restores its factors.
+	  Assignment e = f.outcomeToAssignment(Arrays.asList("Var0"), Arrays.asList("T"));
+	  FactorGraph g = d.updateConditional(e);
+	  assertEquals(3, g.getVariables().size());
+	  assertSame(f.getFactor(1), g.getFactor(1));
+	  assertEquals(2, g.getFactorsWithVariable(2).size());
+	  assertEquals(e, g.getConditionedValues());
+	}
+
 	public void testConnectedComponent1() {
 	  // The whole factor graph is connected in this case.
 	  FactorGraph connectedComponent = f.getConnectedComponent(f.getVariables()
@@ -0,0 +1,95 @@
+package com.jayantkrish.jklol.models.dynamic;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import com.jayantkrish.jklol.models.DiscreteVariable;
+import com.jayantkrish.jklol.models.FactorGraph;
+import com.jayantkrish.jklol.models.TableFactor;
+import com.jayantkrish.jklol.models.Variable;
+import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.models.dynamic.DynamicVariableSet.VariableInstantiation;
+
+/**
+ * Unit tests for {@link DynamicFactorGraph}.
+ * 
+ * @author jayantk
+ */
+public class DynamicFactorGraphTest extends TestCase {
+
+  DynamicFactorGraph dfg, base;
+  DynamicVariableSet plateVars;
+  VariableNumMap templateVars;
+  VariablePattern pattern;
+  DynamicAssignment twoElements1, twoElements2, threeElements;
+
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    Variable var = new DiscreteVariable("tf", Arrays.asList("T", "F"));
+    plateVars = DynamicVariableSet.fromVariables(VariableNumMap.fromVariableNames(
+        Arrays.asList("x0", "x1"), Arrays.asList(var, var)));
+    DynamicVariableSet variables = DynamicVariableSet.EMPTY.addPlate("plate", plateVars, 10);
+
+    templateVars = VariableNumMap.fromVariableNames(
+        Arrays.asList("plate/?(0)/x0", "plate/?(0)/x1"), Arrays.asList(var, var));
+    pattern = VariableNamePattern.fromTemplateVariables(templateVars, VariableNumMap.EMPTY);
+    base = new DynamicFactorGraph(variables, Collections.<PlateFactor>emptyList(),
+        Collections.<String>emptyList());
+    dfg = base.addPlateFactors(Arrays.<PlateFactor>asList(
+        new ReplicatedFactor(TableFactor.unity(templateVars), pattern)), Arrays.asList("factor"));
+
+    DynamicAssignment tf = plateVars.outcomeToAssignment("T", "F");
+    DynamicAssignment ft = plateVars.outcomeToAssignment("F", "T");
+    twoElements1 = variables.plateOutcomeToAssignment(Arrays.asList(tf, tf));
+    twoElements2 = variables.plateOutcomeToAssignment(Arrays.asList(ft, DynamicAssignment.EMPTY));
+    threeElements = variables.plateOutcomeToAssignment(Arrays.asList(tf, ft, tf));
+  }
+
+  public void testGetFactorGraph() {
+    FactorGraph fg1 = dfg.getFactorGraph(twoElements1);
+    FactorGraph fg3 = dfg.getFactorGraph(threeElements);
+
+    assertEquals(2, fg1.getFactors().size());
+    assertEquals(3, fg3.getFactors().size());
+    assertEquals(4, fg1.getVariables().size());
+    assertEquals(6, fg3.getVariables().size());
+  }
+
+  public void testInstantiationCached() {
+    DynamicVariableSet variables = dfg.getVariables();
+    VariableInstantiation instantiation = variables.getInstantiation(twoElements1);
+    assertSame(instantiation, variables.getInstantiation(twoElements2));
+    assertNotSame(instantiation, variables.getInstantiation(threeElements));
+    assertSame(instantiation.getMatches(pattern), instantiation.getMatches(pattern));
+  }
+
+  public void testStructureSharedAcrossModels() {
+    // Simulates ParametricFactorGraph.getModelFromParameters, which
+    // creates a new model with different factor values on every call.
+    TableFactor weights = TableFactor.pointDistribution(templateVars,
+        templateVars.outcomeArrayToAssignment("T", "F"));
+    DynamicFactorGraph dfg2 = base.addPlateFactors(Arrays.<PlateFactor>asList(
+        new ReplicatedFactor(weights, pattern)), Arrays.asList("factor"));
+
+    FactorGraph fg1 = dfg.getFactorGraph(twoElements1);
+    FactorGraph fg2 = dfg2.getFactorGraph(twoElements2);
+    assertSame(fg1.getVariables(), fg2.getVariables());
+    assertEquals(fg1.getFactors().get(0).getVars(), fg2.getFactors().get(0).getVars());
+    assertEquals(1.0, fg1.getFactors().get(0).getUnnormalizedProbability("F", "T"));
+    assertEquals(0.0, fg2.getFactors().get(0).getUnnormalizedProbability("F", "T"));
+  }
+
+  public void testConditional() {
+    FactorGraph conditional1 = dfg.conditional(twoElements1);
+    FactorGraph conditional2 = dfg.conditional(twoElements2);
+
+    assertEquals(4, conditional1.getConditionedVariables().size());
+    assertEquals(2, conditional2.getConditionedVariables().size());
+    assertEquals(dfg.getVariables().toAssignment(twoElements1),
+        conditional1.getConditionedValues());
+    assertEquals(dfg.getVariables().toAssignment(twoElements2),
+        conditional2.getConditionedValues());
+  }
+}
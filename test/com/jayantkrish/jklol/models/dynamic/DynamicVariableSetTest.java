@@ -51,6 +51,13 @@ public class DynamicVariableSetTest extends TestCase {
     assertEquals(vars1, vars2);
   }
 
+  public void testGetPlateSizes() {
+    assertEquals(Arrays.asList(2, 3), oneLevel.getPlateSizes(oneLevelAssignment1));
+    assertEquals(oneLevel.getPlateSizes(oneLevelAssignment1),
+        oneLevel.getPlateSizes(oneLevelAssignment2));
+    assertEquals(Arrays.<Integer>asList(), twoVar.getPlateSizes(twoVarAssignment));
+  }
+
   public void testToAssignment() {
     VariableNumMap vars1 = oneLevel.instantiateVariables(oneLevelAssignment1);
     Assignment assignment = oneLevel.toAssignment(oneLevelAssignment1);
@@ -1,13 +1,19 @@
 package com.jayantkrish.jklol.parallel;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import junit.framework.TestCase;
 
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
 import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Ints;
 import com.jayantkrish.jklol.parallel.Reducer.SimpleReducer;
+import com.jayantkrish.jklol.parallel.Reducers.FilterReducer;
 
 public class LocalMapReduceExecutorTest extends TestCase {
 
@@ -41,6 +47,49 @@ public class LocalMapReduceExecutorTest extends TestCase {
     assertEquals(Ints.asList(1, 2, 3, 4, 5, 6, 7, 8, 9), result);
   }
 
+  public void testMapStream() {
+    Iterator<Integer> result = executor.mapStream(longItems.iterator(), new RoundMapper(), 3, true);
+    assertEquals(Ints.asList(1, 2, 3, 4, 5, 6, 7, 8, 9), Lists.newArrayList(result));
+
+    result = executor.mapStream(longItems.iterator(), new RoundMapper(), 3, false);
+    List<Integer> unordered = Lists.newArrayList(result);
+    Collections.sort(unordered);
+    assertEquals(Ints.asList(1, 2, 3, 4, 5, 6, 7, 8, 9), unordered);
+
+    assertFalse(executor.mapStream(Collections.<Double>emptyList().iterator(),
+        new RoundMapper(), 3, true).hasNext());
+  }
+
+  public void testMapStreamBounded() {
+    final int[] numRead = new int[1];
+    Iterator<Double> items = new Iterator<Double>() {
+      private final Iterator<Double> wrapped = longItems.iterator();
+      @Override
+      public boolean hasNext() {
+        return wrapped.hasNext();
+      }
+
+      @Override
+      public Double next() {
+        numRead[0]++;
+        return wrapped.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+
+    Iterator<Integer> result = executor.mapStream(items, new RoundMapper(), 2, true);
+    assertEquals(0, numRead[0]);
+    for (int i = 0; i < longItems.size(); i++) {
+      assertEquals(i + 1, (int) result.next());
+      assertTrue(numRead[0] <= i + 2);
+    }
+    assertFalse(result.hasNext());
+  }
+
   public void testFilter() {
     Predicate<Double> predicate = new Predicate<Double>() {
       @Override
@@ -56,7 +105,81 @@ public class LocalMapReduceExecutorTest extends TestCase {
     assertEquals(Doubles.asList(3.3, 3.9, 5.1, 6.1, 7.2, 8.3, 9.4), result);
   }
 
+  public void testMapReduceWithCosts() {
+    Mapper<Double, Double> costMapper = Mappers.withCostEstimator(Mappers.<Double>identity(),
+        new Function<Double, Double>() {
+      @Override
+      public Double apply(Double item) {
+        return item * item;
+      }
+    });
+
+    // Filtering combines batches in the order they were scheduled,
+    // which should be most expensive first.
+    Predicate<Double> predicate = Predicates.alwaysTrue();
+    List<Double> result = executor.mapReduce(longItems, costMapper,
+        new FilterReducer<Double>(predicate));
+    List<Double> expected = Lists.newArrayList(longItems);
+    Collections.reverse(expected);
+    assertEquals(expected, result);
+
+    int value = executor.mapReduce(longItems, Mappers.withCostEstimator(new RoundMapper(),
+        new Function<Double, Double>() {
+      @Override
+      public Double apply(Double item) {
+        return item > 8 ? 100.0 : 0.0;
+      }
+    }), new SumReducer());
+    assertEquals(45, value);
+  }
+
+  public void testShutdown() {
+    assertEquals(10, (int) executor.mapReduce(shortItems, new RoundMapper(), new SumReducer()));
+    executor.shutdown();
+    // The executor should remain usable after shutdown.
+    assertEquals(45, (int) executor.mapReduce(longItems, new RoundMapper(), new SumReducer()));
+    executor.shutdown();
+    executor.shutdown();
+  }
+
+  public void testNestedMapReduce() {
+    // Every worker thread blocks on a nested call to the same executor.
+    List<Integer> result = executor.map(longItems, new Mapper<Double, Integer>() {
+      @Override
+      public Integer map(Double item) {
+        return executor.mapReduce(shortItems, new RoundMapper(), new SumReducer());
+      }
+    });
+    assertEquals(longItems.size(), result.size());
+    for (int value : result) {
+      assertEquals(10, value);
+    }
+  }
+
+  public void testMapperException() {
+    Mapper<Double, Integer> failingMapper = new Mapper<Double, Integer>() {
+      @Override
+      public Integer map(Double item) {
+        if (item > 5) {
+          throw new IllegalArgumentException();
+        }
+        return 0;
+      }
+    };
+
+    try {
+      executor.mapReduce(longItems, failingMapper, new SumReducer());
+      fail("Expected RuntimeException");
+    } catch (RuntimeException e) {
+      // Expected.
+    }
+    // The executor remains usable after a failed call.
+    assertEquals(45, (int) executor.mapReduce(longItems, new RoundMapper(), new SumReducer()));
+  }
+
   private static class RoundMapper extends Mapper<Double, Integer> {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public Integer map(Double item) {
       return (int) Math.round(item);
@@ -64,6 +187,8 @@ public class LocalMapReduceExecutorTest extends TestCase {
   }
  
   private static class SumReducer extends SimpleReducer<Integer> {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public Integer getInitialValue() {
       return 0;
@@ -0,0 +1,165 @@
+package com.jayantkrish.jklol.parallel;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Ints;
+import com.jayantkrish.jklol.parallel.Reducer.SimpleReducer;
+
+/**
+ * Unit tests for {@link SocketMapReduceExecutor}.
+ *
+ * @author jayantk
+ */
+public class SocketMapReduceExecutorTest extends TestCase {
+
+  private List<MapReduceWorker> workers;
+  private SocketMapReduceExecutor executor;
+  private List<Double> longItems;
+
+  @Override
+  public void setUp() throws IOException {
+    workers = Lists.newArrayList();
+    List<InetSocketAddress> addresses = Lists.newArrayList();
+    for (int i = 0; i < 2; i++) {
+      MapReduceWorker worker = new MapReduceWorker(0, 2, false);
+      worker.start();
+      workers.add(worker);
+      addresses.add(new InetSocketAddress("localhost", worker.getPort()));
+    }
+    executor = new SocketMapReduceExecutor(addresses, 2);
+    longItems = Doubles.asList(new double[] { 0.6, 2.2, 3.3, 3.9, 5.1, 6.1, 7.2, 8.3, 9.4 });
+  }
+
+  @Override
+  public void tearDown() {
+    executor.shutdown();
+    for (MapReduceWorker worker : workers) {
+      worker.close();
+    }
+  }
+
+  public void testMapReduce() {
+    assertEquals(45, (int) executor.mapReduce(longItems, new RoundMapper(), new SumReducer()));
+    assertEquals(145, (int) executor.mapReduce(longItems, new RoundMapper(), new SumReducer(), 100));
+    // Connections are reused across calls.
+    assertEquals(45, (int) executor.mapReduce(longItems, new RoundMapper(), new SumReducer()));
+    assertEquals(10, (int) executor.mapReduce(longItems.subList(0, 4), new RoundMapper(),
+        new SumReducer()));
+  }
+
+  public void testMap() {
+    assertEquals(Ints.asList(1, 2, 3, 4, 5, 6, 7, 8, 9), executor.map(longItems, new RoundMapper()));
+
+    Iterator<Integer> result = executor.mapStream(longItems.iterator(), new RoundMapper(), 4, true);
+    assertEquals(Ints.asList(1, 2, 3, 4, 5, 6, 7, 8, 9), Lists.newArrayList(result));
+  }
+
+  public void testMapperException() {
+    try {
+      executor.map(longItems, new FailingMapper());
+      fail("Expected RuntimeException");
+    } catch (RuntimeException e) {
+      // Expected.
+    }
+    assertEquals(45, (int) executor.mapReduce(longItems, new RoundMapper(), new SumReducer()));
+  }
+
+  public void testMapperError() {
+    try {
+      executor.map(longItems, new ErrorMapper());
+      fail("Expected RuntimeException");
+    } catch (RuntimeException e) {
+      // Expected.
+    }
+    assertEquals(45, (int) executor.mapReduce(longItems, new RoundMapper(), new SumReducer()));
+  }
+
+  public void testReadTimeout() {
+    List<InetSocketAddress> addresses = Lists.newArrayList();
+    addresses.add(new InetSocketAddress("localhost", workers.get(0).getPort()));
+    SocketMapReduceExecutor timeoutExecutor = new SocketMapReduceExecutor(addresses, 1, 100);
+    try {
+      timeoutExecutor.map(longItems, new SlowMapper());
+      fail("Expected RuntimeException");
+    } catch (RuntimeException e) {
+      // Expected.
+    } finally {
+      timeoutExecutor.shutdown();
+    }
+  }
+
+  public void testLocalWorkerProcesses() {
+    SocketMapReduceExecutor processExecutor = SocketMapReduceExecutor.startLocalWorkers(2, 1, 2);
+    try {
+      assertEquals(45, (int) processExecutor.mapReduce(longItems, new RoundMapper(),
+          new SumReducer()));
+      assertEquals(Ints.asList(1, 2, 3, 4, 5, 6, 7, 8, 9),
+          processExecutor.map(longItems, new RoundMapper()));
+    } finally {
+      processExecutor.shutdown();
+    }
+  }
+
+  private static class RoundMapper extends Mapper<Double, Integer> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Integer map(Double item) {
+      return (int) Math.round(item);
+    }
+  }
+
+  private static class FailingMapper extends Mapper<Double, Integer> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Integer map(Double item) {
+      throw new IllegalArgumentException();
+    }
+  }
+
+  private static class ErrorMapper extends Mapper<Double, Integer> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Integer map(Double item) {
+      throw new AssertionError();
+    }
+  }
+
+  private static class SlowMapper extends Mapper<Double, Integer> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Integer map(Double item) {
+      try {
+        Thread.sleep(1000);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return (int) Math.round(item);
+    }
+  }
+
+  private static class SumReducer extends SimpleReducer<Integer> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Integer getInitialValue() {
+      return 0;
+    }
+
+    @Override
+    public Integer reduce(Integer item, Integer accumulated) {
+      return item + accumulated;
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.jayantkrish.jklol.sequence;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -127,6 +128,21 @@ public class MemmTest extends TestCase {
     assertTrue(deltas.getL2Norm() <= 0.001);
   }
 
+  public void testTagStream() {
+    FactorGraphSequenceTagger<String, String> tagger = TaggerUtils.trainSequenceModel(classifierFamily,
+        classifierData, String.class, featureGen, TaggerUtils.getDefaultInputGenerator(),
+        TaggerUtils.DEFAULT_INPUT_VALUE, START_POS, optimizer, false);
+
+    List<String> items = Arrays.asList("the", "big", "man", "the", "man", "the", "big", "big", "man");
+    List<String> expected = tagger.tag(items).getLabels();
+    for (int lag = 0; lag < 3; lag++) {
+      List<String> actual = Lists.newArrayList(tagger.tagStream(items.iterator(), lag));
+      assertEquals(expected, actual);
+    }
+
+    assertFalse(tagger.tagStream(Collections.<String>emptyList().iterator(), 2).hasNext());
+  }
+
   private static final List<TaggedSequence<String, String>> parseData(String[][] inputs,
       String[][] labels) {
     Preconditions.checkArgument(inputs.length == labels.length);
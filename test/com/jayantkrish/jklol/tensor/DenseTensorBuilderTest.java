@@ -1,5 +1,7 @@
 package com.jayantkrish.jklol.tensor;
 
+import java.util.Arrays;
+
 /**
  * Unit tests for {@link DenseTensorBuilder}. Actual test cases are in the
  * superclass, {@link TensorBuilderTest}.
@@ -11,4 +13,68 @@ public class DenseTensorBuilderTest extends TensorBuilderTest {
   public DenseTensorBuilderTest() {
     super(DenseTensorBuilder.getFactory());
   }
+
+  public void testIncrementLazy() {
+    int[] dims = new int[] {0, 1};
+    int[] sizes = new int[] {2, 3};
+    double[] decays = new double[] {0.5, 1.0, 0.8, 0.9};
+    double[][] gradients = new double[][] {
+        {1, 0, 0, 2, 0, 0}, {0, 0, 3, 0, 0, 0}, {1, 0, 0, 0, 0, 0}, {0, 0, 0, 0, 4, 0}};
+    double multiplier = 0.5;
+
+    DenseTensorBuilder expected = new DenseTensorBuilder(dims, sizes, 1.0);
+    DenseTensorBuilder expectedAverage = new DenseTensorBuilder(dims, sizes);
+    DenseTensorBuilder actual = new DenseTensorBuilder(dims, sizes, 1.0);
+    DenseTensorBuilder actualAverage = new DenseTensorBuilder(dims, sizes);
+    DenseTensorBuilder lastDecay = new DenseTensorBuilder(dims, sizes, 1.0);
+    DenseTensorBuilder lastCumulativeDecay = new DenseTensorBuilder(dims, sizes);
+
+    double decay = 1.0;
+    double cumulativeDecay = 0.0;
+    for (int i = 0; i < decays.length; i++) {
+      DenseTensor gradient = new DenseTensor(dims, sizes, gradients[i]);
+      expected.multiply(decays[i]);
+      expected.incrementWithMultiplier(gradient, multiplier);
+      expectedAverage.increment(expected);
+
+      decay *= decays[i];
+      actual.incrementLazy(gradient, multiplier, lastDecay, lastCumulativeDecay,
+          actualAverage, decay, cumulativeDecay);
+      cumulativeDecay += decay;
+    }
+    actual.flushLazy(lastDecay, lastCumulativeDecay, actualAverage, decay, cumulativeDecay);
+
+    assertTrue(Arrays.equals(new double[] {1, 1, 1, 1, 1, 1}, lastDecay.values));
+    assertTrue(Arrays.equals(new double[6], lastCumulativeDecay.values));
+    for (int i = 0; i < 6; i++) {
+      assertEquals(expected.values[i], actual.values[i], 1e-10);
+      assertEquals(expectedAverage.values[i], actualAverage.values[i], 1e-10);
+    }
+  }
+
+  public void testAdagradSparseGradient() {
+    int[] dims = new int[] {0, 1};
+    int[] sizes = new int[] {2, 3};
+    double[] gradientValues = new double[] {1, 0, 0, -2, 0, 3};
+    DenseTensor denseGradient = new DenseTensor(dims, sizes, gradientValues);
+    SparseTensor sparseGradient = SparseTensor.copyOf(denseGradient);
+    DenseTensor parameters = new DenseTensor(dims, sizes, new double[] {1, 2, 3, 4, 5, 6});
+
+    DenseTensorBuilder expected = new DenseTensorBuilder(dims, sizes, 1.0);
+    DenseTensorBuilder actual = new DenseTensorBuilder(dims, sizes, 1.0);
+    expected.incrementSquare(denseGradient, 0.5);
+    actual.incrementSquare(sparseGradient, 0.5);
+    expected.incrementSquareAdagrad(denseGradient, parameters, -0.1);
+    actual.incrementSquareAdagrad(sparseGradient, parameters, -0.1);
+
+    DenseTensorBuilder expectedParameters = new DenseTensorBuilder(dims, sizes, 1.0);
+    DenseTensorBuilder actualParameters = new DenseTensorBuilder(dims, sizes, 1.0);
+    expectedParameters.incrementAdagrad(denseGradient, expected, 0.5);
+    actualParameters.incrementAdagrad(sparseGradient, actual, 0.5);
+
+    for (int i = 0; i < 6; i++) {
+      assertEquals(expected.values[i], actual.values[i], 1e-10);
+      assertEquals(expectedParameters.values[i], actualParameters.values[i], 1e-10);
+    }
+  }
 }
@@ -1,5 +1,6 @@
 package com.jayantkrish.jklol.tensor;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -160,4 +161,22 @@ public class SparseTensorTest extends TensorTest {
     Tensor result = tensor.elementwiseAddition(tensor2);
     assertEquals(2, result.size());
   }
+
+  public void testCopyOfDense() {
+    DenseTensorBuilder builder = new DenseTensorBuilder(new int[] {1, 3}, new int[] {3, 4});
+    builder.put(new int[] {0, 2}, 2.0);
+    builder.put(new int[] {2, 1}, -1.0);
+    builder.put(new int[] {2, 3}, 5.0);
+    Tensor dense = builder.build();
+
+    SparseTensor copy = SparseTensor.copyOf(dense);
+    assertEquals(3, copy.size());
+    assertTrue(Arrays.equals(new int[] {1, 3}, copy.getDimensionNumbers()));
+    assertTrue(Arrays.equals(new int[] {3, 4}, copy.getDimensionSizes()));
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 4; j++) {
+        assertEquals(dense.getByDimKey(i, j), copy.getByDimKey(i, j));
+      }
+    }
+  }
 }
@@ -0,0 +1,88 @@
+package com.jayantkrish.jklol.training;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.google.common.io.Files;
+import com.jayantkrish.jklol.models.DiscreteVariable;
+import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
+import com.jayantkrish.jklol.models.parametric.TensorSufficientStatistics;
+import com.jayantkrish.jklol.tensor.DenseTensorBuilder;
+import com.jayantkrish.jklol.util.IoUtils;
+
+/**
+ * Unit tests for {@link DefaultLogFunction}.
+ *
+ * @author jayantk
+ */
+public class DefaultLogFunctionTest extends TestCase {
+
+  private File dir;
+  private SufficientStatistics parameters;
+
+  public void setUp() {
+    dir = Files.createTempDir();
+    VariableNumMap featureVar = VariableNumMap.singleton(0, "features",
+        DiscreteVariable.sequence("features", 3));
+    parameters = TensorSufficientStatistics.createDense(featureVar,
+        new DenseTensorBuilder(new int[] {0}, new int[] {3}));
+  }
+
+  public void tearDown() {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  public void testCheckpointSnapshot() {
+    DefaultLogFunction log = new DefaultLogFunction(1, false, 2, dir.getPath(), -1);
+    for (int i = 0; i < 5; i++) {
+      log.logParameters(i, parameters);
+      // Modifications after logParameters returns should not
+      // affect the checkpoint.
+      parameters.increment(1.0);
+    }
+    log.waitForCheckpoints();
+
+    String[] files = dir.list();
+    Arrays.sort(files);
+    assertEquals(Arrays.asList("parameters_0.ser", "parameters_2.ser", "parameters_4.ser"),
+        Arrays.asList(files));
+
+    SufficientStatistics checkpoint = IoUtils.readSerializedObject(
+        new File(dir, "parameters_2.ser").getPath(), SufficientStatistics.class);
+    assertEquals(2.0, ((TensorSufficientStatistics) checkpoint).get().getByDimKey(1));
+  }
+
+  public void testCheckpointPruning() {
+    DefaultLogFunction log = new DefaultLogFunction(1, false, 1, dir.getPath(), 2);
+    for (int i = 0; i < 5; i++) {
+      log.logParameters(i, parameters);
+    }
+    log.waitForCheckpoints();
+
+    String[] files = dir.list();
+    Arrays.sort(files);
+    assertEquals(Arrays.asList("parameters_3.ser", "parameters_4.ser"), Arrays.asList(files));
+  }
+
+  public void testCheckpointFailure() {
+    File missingDir = new File(dir, "missing");
+    DefaultLogFunction log = new DefaultLogFunction(1, false, 1, missingDir.getPath(), -1);
+    for (int i = 0; i < 2; i++) {
+      log.logParameters(i, parameters);
+      try {
+        log.waitForCheckpoints();
+        fail("Expected RuntimeException");
+      } catch (RuntimeException e) {
+        // Expected.
+      }
+      // The write timer is stopped even though the checkpoint failed.
+      assertEquals(i + 1, log.getTimerInvocations("checkpoint_write"));
+    }
+  }
+}
@@ -7,6 +7,7 @@ import java.util.Set;
 
 import junit.framework.TestCase;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.jayantkrish.jklol.evaluation.Example;
 import com.jayantkrish.jklol.inference.JunctionTree;
@@ -81,7 +82,31 @@ public class LbfgsTest extends TestCase {
 	  runTest(lbfgs);
 	}
 	
+	public void testParallelLineSearch() {
+	  SufficientStatistics serial = runTest(new Lbfgs(20, 10, 0.0001, new DefaultLogFunction(1, false)));
+	  SufficientStatistics parallel = runTest(new Lbfgs(20, 10, 0.0001, 3, new DefaultLogFunction(1, false)));
+
+	  // The parallel line search should choose the same step sizes.
+	  parallel.increment(serial, -1.0);
+	  assertEquals(0.0, parallel.getL2Norm(), 1e-6);
+	}
+
+	public void testStreamingTrainingData() {
+	  SufficientStatistics inMemory = runTest(new Lbfgs(20, 10, 0.0001, new DefaultLogFunction(1, false)));
+	  // Iterables which are not collections are streamed in chunks.
+	  SufficientStatistics streamed = runTest(new Lbfgs(20, 10, 0.0001, new DefaultLogFunction(1, false)),
+	      Iterables.unmodifiableIterable(trainingData));
+
+	  streamed.increment(inMemory, -1.0);
+	  assertEquals(0.0, streamed.getL2Norm(), 1e-6);
+	}
+
 	private SufficientStatistics runTest(Lbfgs trainer) {
+	  return runTest(trainer, trainingData);
+	}
+
+	private SufficientStatistics runTest(Lbfgs trainer,
+	    Iterable<Example<DynamicAssignment, DynamicAssignment>> data) {
 	  // These assignments should have positive weight for clique 1
 	  Set<Assignment> clique1PositiveAssignments = new HashSet<Assignment>();
 	  clique1PositiveAssignments.add(allVariables.getVariablesByName(clique1Names)
@@ -96,7 +121,7 @@ public class LbfgsTest extends TestCase {
 	  LoglikelihoodOracle oracle = new LoglikelihoodOracle(logLinearModel, new JunctionTree());
 	  SufficientStatistics parameters = null;
 	  try {
-	    parameters = trainer.train(oracle, oracle.initializeGradient(), trainingData);
+	    parameters = trainer.train(oracle, oracle.initializeGradient(), data);
 	  } catch (LbfgsConvergenceError error) {
 	    parameters = error.getFinalParameters();
 	  }
@@ -110,21 +110,35 @@ public class SequenceModelTest extends TestCase {
     testZeroTrainingError(new LoglikelihoodOracle(sequenceModel, new JunctionTree()), true);
   }
   
+  public void testTrainParameterMixingPerceptron() {
+    MapReduceConfiguration.setMapReduceExecutor(new LocalMapReduceExecutor(2, 1));
+    testZeroTrainingError(new MaxMarginOracle(sequenceModel, new MaxMarginOracle.ZeroCost(),
+        new JunctionTree()), new ParameterMixingPerceptron(10, 2, 1, 1.0,
+            ParameterMixingPerceptron.PERCEPTRON_MISTAKE, true,
+            new DefaultLogFunction()));
+  }
+
   private void testZeroTrainingError(
       GradientOracle<DynamicFactorGraph, Example<DynamicAssignment, DynamicAssignment>> oracle,
       boolean useLbfgs) {
     
     MapReduceConfiguration.setMapReduceExecutor(new LocalMapReduceExecutor(1, 1));
 
-    SufficientStatistics parameters = null;
+    GradientOptimizer trainer = null;
     if (useLbfgs) {
-      RetryingLbfgs trainer = new RetryingLbfgs(50, 10, 0.1, new DefaultLogFunction(1, false));
-      parameters = trainer.train(oracle, sequenceModel.getNewSufficientStatistics(), trainingData);
+      trainer = new RetryingLbfgs(50, 10, 0.1, new DefaultLogFunction(1, false));
     } else {
-      StochasticGradientTrainer trainer = StochasticGradientTrainer.createWithL2Regularization(
+      trainer = StochasticGradientTrainer.createWithL2Regularization(
           100, 1, 1.0, true, false, 0.1, new DefaultLogFunction());
-      parameters = trainer.train(oracle, sequenceModel.getNewSufficientStatistics(), trainingData);
     }
+    testZeroTrainingError(oracle, trainer);
+  }
+
+  private void testZeroTrainingError(
+      GradientOracle<DynamicFactorGraph, Example<DynamicAssignment, DynamicAssignment>> oracle,
+      GradientOptimizer trainer) {
+    SufficientStatistics parameters = trainer.train(oracle,
+        sequenceModel.getNewSufficientStatistics(), trainingData);
     DynamicFactorGraph trainedModel = sequenceModel.getModelFromParameters(parameters);
     
     // Should be able to get 0 training error.
@@ -1,9 +1,12 @@
 package com.jayantkrish.jklol.training;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
@@ -14,11 +17,19 @@ import com.jayantkrish.jklol.models.DiscreteFactor;
 import com.jayantkrish.jklol.models.DiscreteVariable;
 import com.jayantkrish.jklol.models.VariableNumMap;
 import com.jayantkrish.jklol.models.dynamic.DynamicAssignment;
+import com.jayantkrish.jklol.models.dynamic.DynamicFactorGraph;
 import com.jayantkrish.jklol.models.loglinear.DiscreteLogLinearFactor;
+import com.jayantkrish.jklol.models.parametric.ListSufficientStatistics;
 import com.jayantkrish.jklol.models.parametric.ParametricFactorGraph;
 import com.jayantkrish.jklol.models.parametric.ParametricFactorGraphBuilder;
 import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
 import com.jayantkrish.jklol.models.parametric.TensorSufficientStatistics;
+import com.jayantkrish.jklol.parallel.LocalMapReduceExecutor;
+import com.jayantkrish.jklol.parallel.MapReduceConfiguration;
+import com.jayantkrish.jklol.parallel.MapReduceWorker;
+import com.jayantkrish.jklol.parallel.SocketMapReduceExecutor;
+import com.jayantkrish.jklol.tensor.SparseTensorBuilder;
+import com.jayantkrish.jklol.tensor.Tensor;
 import com.jayantkrish.jklol.tensor.TensorBase;
 import com.jayantkrish.jklol.util.Assignment;
 
@@ -90,10 +101,100 @@ public class StochasticGradientTrainerTest extends TestCase {
 	  runTest(StochasticGradientTrainer.createAdagrad(100, 3, 0.01, true, false, 1, 0.1, new DefaultLogFunction()));
 	}
 
+	public void testTrainPipelined() {
+	  runTest(new StochasticGradientTrainer(100, 3, 0.01, true, false, false,
+	      new StochasticGradientTrainer.StochasticL2Regularizer(1, 0.1), false, true, new DefaultLogFunction()));
+	}
+
+	public void testTrainLazyPipelinedAveraged() {
+	  runTest(new StochasticGradientTrainer(100, 3, 0.01, true, true, false,
+	      new StochasticGradientTrainer.StochasticL2Regularizer(1, 0.1), true, true, new DefaultLogFunction()));
+	}
+
+	public void testTrainHogwild() {
+	  runTest(HogwildSgdOptimizer.createWithStochasticL2Regularization(100, 3, 4, 1, true, 0, 0, new DefaultLogFunction()));
+	}
+
+	public void testTrainHogwildStochasticL2() {
+	  runTest(HogwildSgdOptimizer.createWithStochasticL2Regularization(100, 3, 4, 0.01, true, 1, 0.1, new DefaultLogFunction()));
+	}
+
+	public void testTrainHogwildAdagrad() {
+	  runTest(HogwildSgdOptimizer.createAdagrad(100, 3, 4, 0.01, true, 1, 0.1, new DefaultLogFunction()));
+	}
+
+	public void testHogwildRejectsSparseParameters() {
+	  LoglikelihoodOracle oracle = new LoglikelihoodOracle(logLinearModel, new JunctionTree());
+	  ListSufficientStatistics parameters = oracle.initializeGradient().coerceToList();
+	  List<SufficientStatistics> statistics = Lists.newArrayList();
+	  for (SufficientStatistics statistic : parameters.getStatistics()) {
+	    TensorSufficientStatistics tensorStatistic = (TensorSufficientStatistics) statistic;
+	    Tensor tensor = tensorStatistic.get();
+	    statistics.add(new TensorSufficientStatistics(tensorStatistic.getStatisticNames(),
+	        new SparseTensorBuilder(tensor.getDimensionNumbers(), tensor.getDimensionSizes())));
+	  }
+	  SufficientStatistics sparseParameters = new ListSufficientStatistics(
+	      parameters.getStatisticNames(), statistics);
+
+	  HogwildSgdOptimizer trainer = HogwildSgdOptimizer.createWithStochasticL2Regularization(
+	      100, 3, 4, 1, true, 0, 0, new DefaultLogFunction());
+	  try {
+	    trainer.train(oracle, sparseParameters, trainingData);
+	  } catch (IllegalArgumentException e) {
+	    return;
+	  }
+	  fail("Expected IllegalArgumentException");
+	}
+
 	public void testL2Sag() {
 	  runTest(new StochasticAverageGradientOptimizer(100, 0.01, new DefaultLogFunction()));
 	}
 
+	public void testTrainParameterMixing() {
+	  runTest(new ParameterMixingPerceptron(100, 3, 1, 0.1, null, false, new DefaultLogFunction()));
+	}
+
+	public void testTrainParameterMixingAveraged() {
+	  runTest(new ParameterMixingPerceptron(100, 3, 1, 0.1, null, true, new DefaultLogFunction()));
+	}
+
+	public void testTrainMapReduceWorkers() throws IOException {
+	  // The oracle, model and examples are serialized and sent to the
+	  // workers over sockets.
+	  List<MapReduceWorker> workers = Lists.newArrayList();
+	  List<InetSocketAddress> addresses = Lists.newArrayList();
+	  for (int i = 0; i < 2; i++) {
+	    MapReduceWorker worker = new MapReduceWorker(0, 2, false);
+	    worker.start();
+	    workers.add(worker);
+	    addresses.add(new InetSocketAddress("localhost", worker.getPort()));
+	  }
+
+	  MapReduceConfiguration.setMapReduceExecutor(new SocketMapReduceExecutor(addresses, 2));
+	  try {
+	    runTest(StochasticGradientTrainer.createWithL2Regularization(100, 3, 1, true, false, 1,
+	        new DefaultLogFunction()));
+	    runTest(new ParameterMixingPerceptron(100, 3, 1, 0.1, null, true, new DefaultLogFunction()));
+	  } finally {
+	    MapReduceConfiguration.setMapReduceExecutor(new LocalMapReduceExecutor(
+	        Runtime.getRuntime().availableProcessors(), 20));
+	    for (MapReduceWorker worker : workers) {
+	      worker.close();
+	    }
+	  }
+	}
+
+	public void testEstimateCost() {
+	  LoglikelihoodOracle oracle = new LoglikelihoodOracle(logLinearModel, new JunctionTree());
+	  assertEquals(4.0, oracle.estimateCost(trainingData.get(0)));
+
+	  // Trainers balance batches using the oracle's cost estimates.
+	  CostCountingOracle countingOracle = new CostCountingOracle(oracle);
+	  StochasticGradientTrainer.createWithL2Regularization(10, 3, 1, true, false, 1,
+	      new NullLogFunction()).train(countingOracle, oracle.initializeGradient(), trainingData);
+	  assertEquals(30, countingOracle.getNumEstimates());
+	}
+
 	public void testTrainL1() {
 	  runTest(StochasticGradientTrainer.createWithL1Regularization(100, 3, 0.01, true, false, 0.1, new DefaultLogFunction()));
 	}
@@ -106,6 +207,33 @@ public class StochasticGradientTrainerTest extends TestCase {
 	  runTest(StochasticGradientTrainer.createWithStochasticL2Regularization(100, 3, 0.01, true, true, 1, 0.1, new DefaultLogFunction()));
 	}
 
+	public void testTrainLazyL2() {
+	  runTest(StochasticGradientTrainer.createWithLazyL2Regularization(100, 3, 0.01, true, false, 1, 0.1, new DefaultLogFunction()));
+	}
+
+	public void testTrainLazyL2Averaged() {
+	  runTest(StochasticGradientTrainer.createWithLazyL2Regularization(100, 3, 0.01, true, true, 1, 0.1, new DefaultLogFunction()));
+	}
+
+	public void testTrainLazyL2ZeroDecay() {
+	  // With stepSize * l2Penalty / frequency == 1, each regularization
+	  // step sets the parameters to zero.
+	  for (boolean averaged : new boolean[] {false, true}) {
+	    LoglikelihoodOracle oracle = new LoglikelihoodOracle(logLinearModel, new JunctionTree());
+	    SufficientStatistics expected = StochasticGradientTrainer.createWithStochasticL2Regularization(
+	        10, 9, 1.0, false, averaged, 1, 1, new NullLogFunction())
+	        .train(oracle, oracle.initializeGradient(), trainingData);
+	    SufficientStatistics actual = StochasticGradientTrainer.createWithLazyL2Regularization(
+	        10, 9, 1.0, false, averaged, 1, 1, new NullLogFunction())
+	        .train(oracle, oracle.initializeGradient(), trainingData);
+
+	    assertFalse(Double.isNaN(actual.getL2Norm()));
+	    assertTrue(expected.getL2Norm() > 0.0);
+	    actual.increment(expected, -1.0);
+	    assertEquals(0.0, actual.getL2Norm(), 1e-8);
+	  }
+	}
+
 	public void testTrainL1Averaged() {
 	  runTest(StochasticGradientTrainer.createWithL1Regularization(100, 3, 0.01, true, true, 0.1, new DefaultLogFunction()));
 	}
@@ -149,4 +277,44 @@ public class StochasticGradientTrainerTest extends TestCase {
 		  }
 		}
 	}
+
+	private static class CostCountingOracle implements CostEstimatingOracle<DynamicFactorGraph,
+	    Example<DynamicAssignment, DynamicAssignment>> {
+	  private static final long serialVersionUID = 1L;
+
+	  private final LoglikelihoodOracle oracle;
+	  private final AtomicInteger numEstimates;
+
+	  public CostCountingOracle(LoglikelihoodOracle oracle) {
+	    this.oracle = oracle;
+	    this.numEstimates = new AtomicInteger(0);
+	  }
+
+	  public int getNumEstimates() {
+	    return numEstimates.get();
+	  }
+
+	  @Override
+	  public SufficientStatistics initializeGradient() {
+	    return oracle.initializeGradient();
+	  }
+
+	  @Override
+	  public DynamicFactorGraph instantiateModel(SufficientStatistics parameters) {
+	    return oracle.instantiateModel(parameters);
+	  }
+
+	  @Override
+	  public double estimateCost(Example<DynamicAssignment, DynamicAssignment> example) {
+	    numEstimates.incrementAndGet();
+	    return oracle.estimateCost(example);
+	  }
+
+	  @Override
+	  public double accumulateGradient(SufficientStatistics gradient,
+	      SufficientStatistics currentParameters, DynamicFactorGraph instantiatedModel,
+	      Example<DynamicAssignment, DynamicAssignment> example, LogFunction log) {
+	    return oracle.accumulateGradient(gradient, currentParameters, instantiatedModel, example, log);
+	  }
+	}
 }
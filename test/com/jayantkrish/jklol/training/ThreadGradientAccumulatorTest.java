@@ -0,0 +1,123 @@
+package com.jayantkrish.jklol.training;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.common.collect.Lists;
+import com.jayantkrish.jklol.models.DiscreteVariable;
+import com.jayantkrish.jklol.models.VariableNumMap;
+import com.jayantkrish.jklol.models.parametric.SufficientStatistics;
+import com.jayantkrish.jklol.models.parametric.TensorSufficientStatistics;
+import com.jayantkrish.jklol.parallel.LocalMapReduceExecutor;
+import com.jayantkrish.jklol.parallel.Mappers;
+import com.jayantkrish.jklol.tensor.DenseTensorBuilder;
+import com.jayantkrish.jklol.tensor.SparseTensor;
+import com.jayantkrish.jklol.tensor.Tensor;
+
+/**
+ * Unit tests for {@link ThreadGradientAccumulator}.
+ *
+ * @author jayantk
+ */
+public class ThreadGradientAccumulatorTest extends TestCase {
+
+  private static final int NUM_FEATURES = 10;
+
+  private GradientOracle<SufficientStatistics, Integer> oracle;
+  private List<Integer> examples;
+  private LocalMapReduceExecutor executor;
+
+  public void setUp() {
+    final VariableNumMap featureVar = VariableNumMap.singleton(0, "features",
+        DiscreteVariable.sequence("features", NUM_FEATURES));
+
+    // Each example increments a single feature, and has an objective
+    // value of 1.
+    oracle = new GradientOracle<SufficientStatistics, Integer>() {
+      @Override
+      public SufficientStatistics initializeGradient() {
+        return TensorSufficientStatistics.createDense(featureVar,
+            new DenseTensorBuilder(new int[] {0}, new int[] {NUM_FEATURES}));
+      }
+
+      @Override
+      public SufficientStatistics instantiateModel(SufficientStatistics parameters) {
+        return parameters;
+      }
+
+      @Override
+      public double accumulateGradient(SufficientStatistics gradient,
+          SufficientStatistics currentParameters, SufficientStatistics instantiatedModel,
+          Integer example, LogFunction log) {
+        ((TensorSufficientStatistics) gradient).incrementFeatureByIndex(1.0, example % NUM_FEATURES);
+        return 1.0;
+      }
+    };
+
+    examples = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      examples.add(i);
+    }
+    executor = new LocalMapReduceExecutor(4, 20);
+  }
+
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  public void testCollect() {
+    SufficientStatistics parameters = oracle.initializeGradient();
+    ThreadGradientAccumulator threadGradients = new ThreadGradientAccumulator(oracle);
+
+    // Run several map-reduces to check that buffers are reset after collection.
+    for (int i = 0; i < 3; i++) {
+      GradientEvaluation evaluation = new GradientEvaluation(oracle.initializeGradient(), 0.0, 0);
+      evaluation = executor.mapReduce(examples, Mappers.<Integer>identity(),
+          new GradientReducer<SufficientStatistics, Integer>(parameters, parameters, oracle,
+              threadGradients, new NullLogFunction()), evaluation);
+      threadGradients.collect(evaluation.getGradient());
+
+      assertEquals(1000.0, evaluation.getObjectiveValue());
+      TensorSufficientStatistics gradient = (TensorSufficientStatistics) evaluation.getGradient();
+      for (int j = 0; j < NUM_FEATURES; j++) {
+        assertEquals(100.0, gradient.get().getByDimKey(j));
+      }
+    }
+
+    // Batches should share buffers, i.e., at most one buffer is
+    // allocated per thread.
+    assertTrue(threadGradients.getNumThreadGradients() <= 5);
+  }
+
+  public void testCollectSparse() {
+    SufficientStatistics parameters = oracle.initializeGradient();
+    ThreadGradientAccumulator threadGradients = new ThreadGradientAccumulator(oracle, true);
+
+    for (int i = 0; i < 3; i++) {
+      GradientEvaluation evaluation = new GradientEvaluation(
+          ThreadGradientAccumulator.initializeSparseGradient(oracle), 0.0, 0);
+      // Only the first two features have nonzero gradients.
+      evaluation = executor.mapReduce(examples.subList(0, 2), Mappers.<Integer>identity(),
+          new GradientReducer<SufficientStatistics, Integer>(parameters, parameters, oracle,
+              threadGradients, new NullLogFunction()), evaluation);
+      threadGradients.collect(evaluation.getGradient());
+
+      Tensor gradient = ((TensorSufficientStatistics) evaluation.getGradient()).get();
+      assertTrue(gradient instanceof SparseTensor);
+      assertEquals(2, gradient.size());
+      assertEquals(1.0, gradient.getByDimKey(0));
+      assertEquals(1.0, gradient.getByDimKey(1));
+    }
+  }
+
+  public void testCollectIntoThreadGradient() {
+    ThreadGradientAccumulator threadGradients = new ThreadGradientAccumulator(oracle);
+    try {
+      threadGradients.collect(threadGradients.getThreadGradient());
+    } catch (IllegalArgumentException e) {
+      return;
+    }
+    fail("Expected IllegalArgumentException");
+  }
+}